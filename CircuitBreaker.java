@@ -0,0 +1,204 @@
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CircuitBreaker - Fails fast while the database is unreachable
+ *
+ * After a number of consecutive connection failures the breaker opens and
+ * every request is rejected at once with OpenException instead of waiting
+ * for its own connect timeout. Once the open period has passed, a single
+ * request is let through as a probe (half-open): if it succeeds the breaker
+ * closes, otherwise it opens again for twice as long, up to a maximum.
+ *
+ * Only failures that say the server cannot be reached count; ordinary SQL
+ * errors (bad syntax, constraint violations) leave the breaker alone.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class CircuitBreaker {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(CircuitBreaker.class);
+    
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MILLIS = 1000;
+    private static final long DEFAULT_MAX_OPEN_MILLIS = 30_000;
+    
+    /**
+     * Breaker state
+     */
+    public enum State {
+        /** Requests pass; failures are counted */
+        CLOSED,
+        /** Requests are rejected until the open period ends */
+        OPEN,
+        /** One probe request is in flight; others are rejected */
+        HALF_OPEN
+    }
+    
+    /**
+     * Thrown instead of connecting while the breaker is open
+     */
+    public static class OpenException extends SQLTransientConnectionException {
+        private static final long serialVersionUID = 1L;
+        
+        public OpenException(String message) {
+            super(message, "08001");
+        }
+    }
+    
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openUntil = 0;
+    private volatile long currentOpenMillis;
+    
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long openMillis = DEFAULT_OPEN_MILLIS;
+    private volatile long maxOpenMillis = DEFAULT_MAX_OPEN_MILLIS;
+    
+    // Statistics
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    
+    public CircuitBreaker() {
+        this.currentOpenMillis = DEFAULT_OPEN_MILLIS;
+    }
+    
+    /**
+     * Sets when the breaker opens and how long it stays open
+     *
+     * @param failures Consecutive connection failures that open the breaker
+     * @param openMillis Open period after the first trip
+     * @param maxOpenMillis Longest open period after repeated failed probes
+     * @return this CircuitBreaker for method chaining
+     */
+    public CircuitBreaker configure(int failures, long openMillis, long maxOpenMillis) {
+        if (failures <= 0 || openMillis <= 0 || maxOpenMillis < openMillis) {
+            throw new IllegalArgumentException("Failures and open time must be positive, max >= open time");
+        }
+        this.failureThreshold = failures;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.currentOpenMillis = openMillis;
+        return this;
+    }
+    
+    /**
+     * Asks to make a request; every successful call must be followed by
+     * onSuccess or onFailure
+     *
+     * @throws OpenException if the breaker is open or a probe is already running
+     */
+    public void acquire() throws OpenException {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return;
+        }
+        if (current == State.OPEN && System.currentTimeMillis() >= openUntil
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            LOGGER.info("Circuit breaker half-open, probing the database");
+            return;
+        }
+        rejected.increment();
+        throw new OpenException("Database unavailable (circuit breaker " + current.name().toLowerCase(Locale.ROOT)
+            + "), failing fast");
+    }
+    
+    /**
+     * Reports a successful request
+     */
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.get() != State.CLOSED) {
+            state.set(State.CLOSED);
+            currentOpenMillis = openMillis;
+            LOGGER.info("Circuit breaker closed, database reachable again");
+        }
+    }
+    
+    /**
+     * Reports a failed request; only connection failures count
+     *
+     * @param e The failure
+     */
+    public void onFailure(Exception e) {
+        if (!(e instanceof SQLException) || !isConnectionFailure((SQLException) e)) {
+            // Says nothing about the server (e.g. the pool was busy); let the next request probe
+            if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+                openUntil = 0;
+            }
+            return;
+        }
+        if (state.get() == State.HALF_OPEN) {
+            currentOpenMillis = Math.min(currentOpenMillis * 2, maxOpenMillis);
+            trip("probe failed: " + e.getMessage());
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            trip(consecutiveFailures.get() + " consecutive failures, last: " + e.getMessage());
+        }
+    }
+    
+    private void trip(String reason) {
+        openUntil = System.currentTimeMillis() + currentOpenMillis;
+        state.set(State.OPEN);
+        consecutiveFailures.set(0);
+        opened.increment();
+        LOGGER.warning("Circuit breaker open for {} ms: {}", currentOpenMillis, reason);
+    }
+    
+    /**
+     * Tells whether an exception means the server could not be reached or
+     * the connection was lost (SQLState class 08, server shutdown or
+     * start-up, too many connections)
+     *
+     * @param e Exception to classify
+     * @return true for connection-level failures
+     */
+    public static boolean isConnectionFailure(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            if (cause instanceof SQLTransientConnectionException) {
+                return true;
+            }
+            String sqlState = cause.getSQLState();
+            if (sqlState != null && (sqlState.startsWith("08") || sqlState.equals("57P01")
+                    || sqlState.equals("57P02") || sqlState.equals("57P03") || sqlState.equals("53300"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Tells whether an exception means an established connection was lost,
+     * so an idempotent statement can be retried on a new one
+     *
+     * @param e Exception to classify
+     * @return true if the connection broke while in use
+     */
+    public static boolean isConnectionLost(SQLException e) {
+        String sqlState = e.getSQLState();
+        return sqlState != null && (sqlState.equals("08003") || sqlState.equals("08006")
+            || sqlState.equals("08007") || sqlState.equals("57P01"));
+    }
+    
+    public State getState() {
+        return state.get();
+    }
+    
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("state=%s, consecutiveFailures=%d, opened=%d, rejected=%d",
+            getState(), consecutiveFailures.get(), getOpenedCount(), getRejectedCount());
+    }
+}
@@ -0,0 +1,454 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ColumnarResult - Query result decoded column by column into off-heap vectors
+ *
+ * Integer columns are stored as 64-bit longs, floating point and NUMERIC
+ * columns as doubles, and everything else as dictionary-encoded strings
+ * (one int code per row plus a list of distinct values). Each column has a
+ * null bitmap. Values are read with the primitive getters of ResultSet, so
+ * no boxed object is created per cell, and the vectors live in direct
+ * ByteBuffers outside the Java heap.
+ *
+ * Aggregates (sum, min, max, count) run as plain loops over the vectors and
+ * skip the null check for every block of 64 rows that has no nulls.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class ColumnarResult implements AutoCloseable {
+    
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    /**
+     * Storage kind of a column
+     */
+    public enum ColumnType {
+        LONG,
+        DOUBLE,
+        STRING
+    }
+    
+    private final Column[] columns;
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+    private int rowCount = 0;
+    private boolean closed = false;
+    
+    private ColumnarResult(ResultSetMetaData meta) throws SQLException {
+        columns = new Column[meta.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            String name = meta.getColumnLabel(i + 1);
+            columns[i] = new Column(name, columnType(meta, i + 1));
+            columnIndex.putIfAbsent(name.toLowerCase(), i);
+        }
+    }
+    
+    /**
+     * Reads all remaining rows of a ResultSet (which is not closed)
+     *
+     * @param rs Open ResultSet
+     * @return decoded result
+     * @throws SQLException if reading fails
+     */
+    public static ColumnarResult from(ResultSet rs) throws SQLException {
+        ColumnarResult result = new ColumnarResult(rs.getMetaData());
+        while (rs.next()) {
+            result.appendRow(rs);
+        }
+        return result;
+    }
+    
+    /**
+     * Decodes the current row of a ResultSet and appends it
+     *
+     * @param rs ResultSet positioned on a row
+     * @throws SQLException if reading a value fails
+     */
+    void appendRow(ResultSet rs) throws SQLException {
+        checkOpen();
+        int row = rowCount;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].append(rs, i + 1, row);
+        }
+        rowCount++;
+    }
+    
+    /**
+     * Chooses the storage of a column from its JDBC and PostgreSQL type
+     */
+    private static ColumnType columnType(ResultSetMetaData meta, int column) throws SQLException {
+        switch (meta.getColumnType(column)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return ColumnType.LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return ColumnType.DOUBLE;
+            default:
+                break;
+        }
+        // Fall back to the type name for drivers that report OTHER
+        Field field = new Field(meta.getColumnLabel(column), meta.getColumnTypeName(column));
+        if (field.isNumericType()) {
+            int sqlType = field.getSqlType();
+            return sqlType == Types.SMALLINT || sqlType == Types.INTEGER || sqlType == Types.BIGINT
+                ? ColumnType.LONG : ColumnType.DOUBLE;
+        }
+        return ColumnType.STRING;
+    }
+    
+    // Shape
+    public int getRowCount() {
+        return rowCount;
+    }
+    
+    public int getColumnCount() {
+        return columns.length;
+    }
+    
+    public String getColumnName(int column) {
+        return columns[column].name;
+    }
+    
+    public ColumnType getColumnType(int column) {
+        return columns[column].type;
+    }
+    
+    /**
+     * Finds a column by name (case-insensitive)
+     *
+     * @param name Column label
+     * @return zero-based column index
+     */
+    public int findColumn(String name) {
+        Integer index = columnIndex.get(name.toLowerCase());
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown column '" + name + "'");
+        }
+        return index;
+    }
+    
+    // Typed accessors (row and column are zero-based)
+    public boolean isNull(int row, int column) {
+        checkRow(row);
+        return column(column).isNull(row);
+    }
+    
+    /**
+     * Returns a LONG column value (0 for NULL)
+     */
+    public long getLong(int row, int column) {
+        checkRow(row);
+        Column c = column(column);
+        if (c.type == ColumnType.DOUBLE) {
+            return (long) c.data.getDouble(row * 8);
+        }
+        requireNumeric(c);
+        return c.data.getLong(row * 8);
+    }
+    
+    /**
+     * Returns a LONG or DOUBLE column value (0 for NULL)
+     */
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        Column c = column(column);
+        requireNumeric(c);
+        return c.type == ColumnType.LONG ? c.data.getLong(row * 8) : c.data.getDouble(row * 8);
+    }
+    
+    /**
+     * Returns any column value as text (null for NULL)
+     */
+    public String getString(int row, int column) {
+        checkRow(row);
+        Column c = column(column);
+        if (c.isNull(row)) {
+            return null;
+        }
+        switch (c.type) {
+            case LONG:
+                return Long.toString(c.data.getLong(row * 8));
+            case DOUBLE:
+                return Double.toString(c.data.getDouble(row * 8));
+            default:
+                return c.dictionary.get(c.data.getInt(row * 4));
+        }
+    }
+    
+    /**
+     * Returns the dictionary code of a STRING value (-1 for NULL); equal
+     * strings have equal codes, so they can be grouped without comparing text
+     */
+    public int getStringCode(int row, int column) {
+        checkRow(row);
+        Column c = column(column);
+        if (c.type != ColumnType.STRING) {
+            throw new IllegalStateException("Column " + c.name + " is not a string column");
+        }
+        return c.isNull(row) ? -1 : c.data.getInt(row * 4);
+    }
+    
+    /**
+     * Returns the distinct values of a STRING column, indexed by code
+     */
+    public List<String> getDictionary(int column) {
+        Column c = column(column);
+        if (c.type != ColumnType.STRING) {
+            throw new IllegalStateException("Column " + c.name + " is not a string column");
+        }
+        return Collections.unmodifiableList(c.dictionary);
+    }
+    
+    // Aggregates (NULLs are ignored, like in SQL)
+    
+    /**
+     * Counts the non-null values of a column
+     */
+    public long count(int column) {
+        Column c = column(column);
+        long nulls = 0;
+        int words = (rowCount + 63) >>> 6;
+        for (int w = 0; w < words; w++) {
+            nulls += Long.bitCount(c.nulls.getLong(w * 8));
+        }
+        return rowCount - nulls;
+    }
+    
+    /**
+     * Sums a LONG column exactly
+     */
+    public long sumLong(int column) {
+        Column c = column(column);
+        if (c.type != ColumnType.LONG) {
+            throw new IllegalStateException("Column " + c.name + " is not an integer column");
+        }
+        long sum = 0;
+        for (int start = 0; start < rowCount; start += 64) {
+            int end = Math.min(start + 64, rowCount);
+            long nullWord = c.nulls.getLong((start >>> 6) * 8);
+            if (nullWord == 0) {
+                for (int row = start; row < end; row++) {
+                    sum += c.data.getLong(row * 8);
+                }
+            } else {
+                for (int row = start; row < end; row++) {
+                    if ((nullWord & (1L << (row & 63))) == 0) {
+                        sum += c.data.getLong(row * 8);
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+    
+    /**
+     * Sums a numeric column
+     */
+    public double sum(int column) {
+        Column c = column(column);
+        requireNumeric(c);
+        if (c.type == ColumnType.LONG) {
+            return sumLong(column);
+        }
+        double sum = 0;
+        for (int start = 0; start < rowCount; start += 64) {
+            int end = Math.min(start + 64, rowCount);
+            long nullWord = c.nulls.getLong((start >>> 6) * 8);
+            for (int row = start; row < end; row++) {
+                if (nullWord == 0 || (nullWord & (1L << (row & 63))) == 0) {
+                    sum += c.data.getDouble(row * 8);
+                }
+            }
+        }
+        return sum;
+    }
+    
+    /**
+     * Returns the smallest value of a numeric column (NaN if all NULL)
+     */
+    public double min(int column) {
+        return extreme(column, true);
+    }
+    
+    /**
+     * Returns the largest value of a numeric column (NaN if all NULL)
+     */
+    public double max(int column) {
+        return extreme(column, false);
+    }
+    
+    private double extreme(int column, boolean min) {
+        Column c = column(column);
+        requireNumeric(c);
+        boolean isLong = c.type == ColumnType.LONG;
+        double best = Double.NaN;
+        for (int start = 0; start < rowCount; start += 64) {
+            int end = Math.min(start + 64, rowCount);
+            long nullWord = c.nulls.getLong((start >>> 6) * 8);
+            for (int row = start; row < end; row++) {
+                if (nullWord != 0 && (nullWord & (1L << (row & 63))) != 0) {
+                    continue;
+                }
+                double value = isLong ? c.data.getLong(row * 8) : c.data.getDouble(row * 8);
+                if (Double.isNaN(best) || (min ? value < best : value > best)) {
+                    best = value;
+                }
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Returns the off-heap bytes held by all columns
+     *
+     * @return allocated bytes
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Column c : columns) {
+            if (c.data != null) {
+                bytes += c.data.capacity() + c.nulls.capacity();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Drops the column buffers; the off-heap memory is returned once the
+     * buffers are garbage collected. Reading values afterwards throws
+     * IllegalStateException.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Column c : columns) {
+            c.data = null;
+            c.nulls = null;
+        }
+        rowCount = 0;
+    }
+    
+    @Override
+    public String toString() {
+        return "ColumnarResult{rows=" + rowCount + ", columns=" + columns.length
+            + ", offHeapBytes=" + getOffHeapBytes() + "}";
+    }
+    
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("ColumnarResult is closed");
+        }
+    }
+    
+    private Column column(int column) {
+        checkOpen();
+        return columns[column];
+    }
+    
+    private void checkRow(int row) {
+        checkOpen();
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+    }
+    
+    private static void requireNumeric(Column c) {
+        if (c.type == ColumnType.STRING) {
+            throw new IllegalStateException("Column " + c.name + " is not numeric");
+        }
+    }
+    
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+    
+    private static ByteBuffer grow(ByteBuffer buffer, int minBytes) {
+        ByteBuffer bigger = allocate(Math.max(minBytes, buffer.capacity() * 2));
+        buffer.clear();
+        bigger.put(buffer);
+        bigger.clear();
+        return bigger;
+    }
+    
+    /**
+     * Values, null bitmap and (for strings) dictionary of one column
+     */
+    private static final class Column {
+        
+        private final String name;
+        private final ColumnType type;
+        private final int width;
+        private ByteBuffer data;
+        private ByteBuffer nulls;
+        private final List<String> dictionary;
+        private final Map<String, Integer> codes;
+        
+        private Column(String name, ColumnType type) {
+            this.name = name;
+            this.type = type;
+            this.width = type == ColumnType.STRING ? 4 : 8;
+            this.data = allocate(INITIAL_CAPACITY * width);
+            this.nulls = allocate(INITIAL_CAPACITY / 8);
+            this.dictionary = type == ColumnType.STRING ? new ArrayList<>() : null;
+            this.codes = type == ColumnType.STRING ? new HashMap<>() : null;
+        }
+        
+        private void append(ResultSet rs, int index, int row) throws SQLException {
+            if ((row + 1) * width > data.capacity()) {
+                data = grow(data, (row + 1) * width);
+                nulls = grow(nulls, data.capacity() / width / 8);
+            }
+            
+            boolean isNull;
+            switch (type) {
+                case LONG:
+                    data.putLong(row * 8, rs.getLong(index));
+                    isNull = rs.wasNull();
+                    break;
+                case DOUBLE:
+                    data.putDouble(row * 8, rs.getDouble(index));
+                    isNull = rs.wasNull();
+                    break;
+                default:
+                    String value = rs.getString(index);
+                    isNull = value == null;
+                    data.putInt(row * 4, isNull ? -1 : encode(value));
+                    break;
+            }
+            if (isNull) {
+                int word = (row >>> 6) * 8;
+                nulls.putLong(word, nulls.getLong(word) | (1L << (row & 63)));
+            }
+        }
+        
+        private int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+        
+        private boolean isNull(int row) {
+            return (nulls.getLong((row >>> 6) * 8) & (1L << (row & 63))) != 0;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConnectionPool - Reuses physical PostgreSQL connections between calls
+ *
+ * Connections handed out by {@link #borrow()} are lightweight wrappers:
+ * closing them returns the physical connection to the pool instead of
+ * closing the socket, so existing try-with-resources code keeps working.
+ * The pool keeps between minSize and maxSize connections, evicts idle ones,
+ * validates connections on borrow, reports leaked borrows and tracks
+ * basic usage metrics.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class ConnectionPool implements AutoCloseable {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(ConnectionPool.class);
+    
+    // Connections used within this window are not re-validated on borrow
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final long HOUSEKEEPING_PERIOD_MILLIS = 5000;
+    
+    // Connection parameters
+    private final String url;
+    private final Properties connectionProperties;
+    
+    // Pool settings
+    private final int minSize;
+    private final int maxSize;
+    private volatile long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+    private volatile long maxWaitMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile long leakThresholdMillis = TimeUnit.MINUTES.toMillis(1);
+    private volatile boolean leakStackTraces = false;
+    private volatile int validationTimeoutSeconds = 2;
+    private volatile int statementCacheSize = 64;
+    
+    // Pool state
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+    
+    // Metrics
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder statementEvictions = new LongAdder();
+    
+    /**
+     * Creates a pool for the given JDBC URL
+     *
+     * @param url JDBC URL of the database
+     * @param connectionProperties Driver properties (user, password, ...)
+     * @param minSize Number of connections kept open even when idle
+     * @param maxSize Maximum number of connections borrowed at the same time
+     */
+    public ConnectionPool(String url, Properties connectionProperties, int minSize, int maxSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Pool sizes must satisfy 0 <= minSize <= maxSize and maxSize > 0");
+        }
+        this.url = url;
+        this.connectionProperties = new Properties();
+        this.connectionProperties.putAll(connectionProperties);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "MyDBMagic-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep,
+            0, HOUSEKEEPING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Sets how long a connection may sit idle before it is closed
+     * (connections below minSize are never evicted)
+     *
+     * @param millis Idle timeout in milliseconds
+     * @return this ConnectionPool for method chaining
+     */
+    public ConnectionPool idleTimeout(long millis) {
+        this.idleTimeoutMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Sets how long borrow() waits for a free connection before failing
+     *
+     * @param millis Wait timeout in milliseconds
+     * @return this ConnectionPool for method chaining
+     */
+    public ConnectionPool maxWait(long millis) {
+        this.maxWaitMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Sets how long a connection may stay borrowed before it is reported
+     * as a possible leak (0 disables leak detection)
+     *
+     * @param millis Leak threshold in milliseconds
+     * @return this ConnectionPool for method chaining
+     */
+    public ConnectionPool leakThreshold(long millis) {
+        this.leakThresholdMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Turns on or off recording where each connection was borrowed, so leak
+     * reports include the stack trace of the borrower. Off by default, since
+     * capturing a stack trace on every borrow is expensive; turn it on while
+     * hunting a leak.
+     *
+     * @param enabled true to capture the borrowing stack trace
+     * @return this ConnectionPool for method chaining
+     */
+    public ConnectionPool leakStackTraces(boolean enabled) {
+        this.leakStackTraces = enabled;
+        return this;
+    }
+    
+    /**
+     * Sets the timeout used when validating a connection on borrow
+     *
+     * @param seconds Validation timeout in seconds
+     * @return this ConnectionPool for method chaining
+     */
+    public ConnectionPool validationTimeout(int seconds) {
+        this.validationTimeoutSeconds = seconds;
+        return this;
+    }
+    
+    /**
+     * Sets how many PreparedStatements are cached per physical connection
+     * (applies to connections opened afterwards, 0 disables caching)
+     *
+     * @param size Statement cache size
+     * @return this ConnectionPool for method chaining
+     */
+    public ConnectionPool statementCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Statement cache size cannot be negative");
+        }
+        this.statementCacheSize = size;
+        return this;
+    }
+    
+    /**
+     * Returns a cached PreparedStatement for a connection borrowed from this pool.
+     * The statement belongs to the cache: bind and execute it, but do not close it.
+     *
+     * @param conn Connection obtained from {@link #borrow()}
+     * @param sql SQL with ? placeholders
+     * @return PreparedStatement ready for binding
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        if (!Proxy.isProxyClass(conn.getClass()) || !(Proxy.getInvocationHandler(conn) instanceof Handle)) {
+            throw new SQLException("Connection was not borrowed from this pool");
+        }
+        Handle handle = (Handle) Proxy.getInvocationHandler(conn);
+        if (handle.returned) {
+            throw new SQLException("Connection has already been returned to the pool");
+        }
+        return handle.owner.statements.prepare(sql);
+    }
+    
+    /**
+     * Borrows a connection from the pool, opening a new one if needed
+     *
+     * @return Connection wrapper; closing it returns it to the pool
+     * @throws SQLException if no connection is available in time or connecting fails
+     */
+    public Connection borrow() throws SQLException {
+        return borrow(null);
+    }
+    
+    /**
+     * Borrows a connection and runs a callback once when it is closed, e.g.
+     * to count requests in flight without wrapping the connection again
+     * (the returned connection still works with {@link #prepare})
+     *
+     * @param onReturn Run when the connection is closed (may be null)
+     * @return Connection wrapper; closing it returns it to the pool
+     * @throws SQLException if no connection is available in time or connecting fails
+     */
+    public Connection borrow(Runnable onReturn) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        
+        long start = System.nanoTime();
+        boolean acquired;
+        waiters.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new SQLTimeoutException("Timed out after " + maxWaitMillis
+                + " ms waiting for a database connection (" + this + ")");
+        }
+        
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    break;
+                }
+                pooled.closePhysical();
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(openPhysical());
+            }
+            
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowSite = leakStackTraces && leakThresholdMillis > 0
+                ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            active.add(pooled);
+            
+            long elapsed = System.nanoTime() - start;
+            borrowCount.increment();
+            borrowNanos.add(elapsed);
+            maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+            
+            return pooled.newHandle(onReturn);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Opens a new physical connection
+     */
+    private Connection openPhysical() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, connectionProperties);
+        createdCount.increment();
+        LOGGER.fine("Opened new pooled connection to: {}", url);
+        return conn;
+    }
+    
+    /**
+     * Checks an idle connection before handing it out again
+     */
+    private boolean isUsable(PooledConnection pooled) {
+        if (pooled.broken) {
+            return false;
+        }
+        if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Returns a borrowed connection to the idle list, or closes it if it
+     * cannot be reused
+     */
+    private void release(PooledConnection pooled) {
+        active.remove(pooled);
+        try {
+            if (!closed && !pooled.broken && resetForReuse(pooled)) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } else {
+                pooled.closePhysical();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+    
+    /**
+     * Undoes per-borrow session changes so the next borrower starts clean
+     */
+    private boolean resetForReuse(PooledConnection pooled) {
+        Connection conn = pooled.physical;
+        try {
+            pooled.statements.onReturn();
+            if (conn.isClosed()) {
+                return false;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            conn.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            LOGGER.warning("Discarding pooled connection that could not be reset: {}", e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Periodic maintenance: idle eviction, minimum size and leak detection
+     */
+    private void housekeep() {
+        if (closed) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            
+            // Evict connections idle for too long, oldest first
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() + active.size() > minSize) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.lastUsed > idleTimeoutMillis && idle.remove(pooled)) {
+                    pooled.closePhysical();
+                }
+            }
+            
+            // Keep the minimum number of connections ready; holding a permit
+            // while connecting keeps the total within maxSize
+            while (!closed && idle.size() + active.size() < minSize && permits.tryAcquire()) {
+                try {
+                    PooledConnection pooled = new PooledConnection(openPhysical());
+                    pooled.lastUsed = now;
+                    idle.offerLast(pooled);
+                } finally {
+                    permits.release();
+                }
+            }
+            
+            // Report connections that have been borrowed for too long
+            long threshold = leakThresholdMillis;
+            if (threshold > 0) {
+                for (PooledConnection pooled : active) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > threshold) {
+                        pooled.leakReported = true;
+                        leakCount.increment();
+                        if (pooled.borrowSite != null) {
+                            LOGGER.warning("Possible connection leak: connection borrowed for {} ms",
+                                now - pooled.borrowedAt, pooled.borrowSite);
+                        } else {
+                            LOGGER.warning("Possible connection leak: connection borrowed for {} ms "
+                                + "(enable leakStackTraces to see where)", now - pooled.borrowedAt);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.warning("Pool maintenance failed: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            LOGGER.warning("Unexpected error during pool maintenance", e);
+        }
+    }
+    
+    // Metrics
+    public int getActiveCount() {
+        return active.size();
+    }
+    
+    public int getIdleCount() {
+        return idle.size();
+    }
+    
+    public int getWaiterCount() {
+        return waiters.get();
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+    
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+    
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+    
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+    
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+    
+    public long getStatementCacheHits() {
+        return statementHits.sum();
+    }
+    
+    public long getStatementCacheMisses() {
+        return statementMisses.sum();
+    }
+    
+    public long getStatementCacheEvictions() {
+        return statementEvictions.sum();
+    }
+    
+    /**
+     * Average time spent in borrow(), including waiting for a free connection
+     *
+     * @return average borrow latency in microseconds
+     */
+    public double getAverageBorrowMicros() {
+        long count = borrowCount.sum();
+        return count == 0 ? 0.0 : borrowNanos.sum() / 1000.0 / count;
+    }
+    
+    /**
+     * Slowest borrow() call observed so far
+     *
+     * @return maximum borrow latency in microseconds
+     */
+    public double getMaxBorrowMicros() {
+        return maxBorrowNanos.get() / 1000.0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("active=%d, idle=%d, waiters=%d, max=%d, avgBorrow=%.1fus",
+            getActiveCount(), getIdleCount(), getWaiterCount(), maxSize, getAverageBorrowMicros());
+    }
+    
+    /**
+     * Closes all idle connections; borrowed connections are closed when returned
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closePhysical();
+        }
+        LOGGER.info("Connection pool closed");
+    }
+    
+    /**
+     * A physical connection together with its pool bookkeeping
+     */
+    private final class PooledConnection {
+        
+        private final Connection physical;
+        private final StatementCache statements;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+        private volatile boolean broken;
+        
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new StatementCache(physical, statementCacheSize,
+                statementHits, statementMisses, statementEvictions);
+        }
+        
+        /**
+         * Creates the wrapper handed to a single borrower
+         */
+        private Connection newHandle(Runnable onReturn) {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new Handle(this, onReturn));
+        }
+        
+        private void closePhysical() {
+            statements.close();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                LOGGER.fine("Error closing pooled connection: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Forwards calls to the physical connection until the borrower closes it
+     */
+    private final class Handle implements InvocationHandler {
+        
+        private final PooledConnection owner;
+        private final Runnable onReturn;
+        private volatile boolean returned = false;
+        
+        private Handle(PooledConnection owner, Runnable onReturn) {
+            this.owner = owner;
+            this.onReturn = onReturn;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        try {
+                            release(owner);
+                        } finally {
+                            if (onReturn != null) {
+                                onReturn.run();
+                            }
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || owner.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + owner.physical + "]";
+                default:
+                    break;
+            }
+            
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            
+            try {
+                return method.invoke(owner.physical, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    // SQLSTATE class 08 = connection exception
+                    if (state != null && state.startsWith("08")) {
+                        owner.broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * CredentialVerifier - Checks user credentials with as few database lookups as possible
+ *
+ * Successful verifications are kept in a bounded LRU cache as salted PBKDF2
+ * digests (never the password itself), so repeated logins of the same user
+ * are answered in memory. Unknown usernames are cached negatively for a
+ * shorter time, and users with too many recent failures are locked out
+ * without touching the database. Entries that are close to expiring are
+ * reloaded on a background thread, so frequently used accounts never wait
+ * for the database.
+ *
+ * Stored passwords may either be plaintext (the original userscredentials
+ * layout) or digests created with hash(), which are checked locally.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class CredentialVerifier implements AutoCloseable {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(CredentialVerifier.class);
+    
+    private static final String HASH_PREFIX = "pbkdf2_sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int DEFAULT_HASH_ITERATIONS = 210_000;
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
+    /**
+     * Outcome of a verification
+     */
+    public enum Result {
+        ACCEPTED,
+        REJECTED,
+        UNKNOWN_USER,
+        LOCKED_OUT
+    }
+    
+    /**
+     * Loads the stored password of a user
+     */
+    @FunctionalInterface
+    public interface CredentialLoader {
+        /**
+         * @param username Username to look up
+         * @return stored password or digest, or null if the user does not exist
+         */
+        String load(String username) throws SQLException;
+    }
+    
+    private final CredentialLoader loader;
+    
+    // Settings
+    private volatile int maxEntries = 10_000;
+    private volatile long ttlMillis = TimeUnit.MINUTES.toMillis(10);
+    private volatile long refreshAfterMillis = TimeUnit.MINUTES.toMillis(8);
+    private volatile long negativeTtlMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile int maxFailures = 5;
+    private volatile long lockoutMillis = TimeUnit.MINUTES.toMillis(1);
+    private volatile int cacheIterations = 10_000;
+    
+    // Both maps are access-ordered LRUs guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private final LinkedHashMap<String, Failures> failures = new LinkedHashMap<String, Failures>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Failures> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "CredentialVerifier-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    // Statistics
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lockouts = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    
+    /**
+     * Creates a verifier that reads stored passwords through a loader
+     *
+     * @param loader Looks up the stored password of a user
+     */
+    public CredentialVerifier(CredentialLoader loader) {
+        this.loader = loader;
+    }
+    
+    /**
+     * Sets the maximum number of cached users
+     *
+     * @param max Maximum cache entries
+     * @return this CredentialVerifier for method chaining
+     */
+    public CredentialVerifier maxEntries(int max) {
+        this.maxEntries = max;
+        return this;
+    }
+    
+    /**
+     * Sets how long successful verifications are cached and when they are
+     * refreshed in the background
+     *
+     * @param ttl Time to live of a cached entry in milliseconds (0 disables caching)
+     * @param refreshAfter Age in milliseconds after which a hit triggers a reload
+     * @return this CredentialVerifier for method chaining
+     */
+    public CredentialVerifier ttl(long ttl, long refreshAfter) {
+        this.ttlMillis = ttl;
+        this.refreshAfterMillis = refreshAfter;
+        return this;
+    }
+    
+    /**
+     * Sets how long unknown usernames are remembered
+     *
+     * @param millis Negative cache TTL in milliseconds (0 disables it)
+     * @return this CredentialVerifier for method chaining
+     */
+    public CredentialVerifier negativeTtl(long millis) {
+        this.negativeTtlMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Sets the failure rate limit
+     *
+     * @param failures Failed attempts allowed before a user is locked out
+     * @param lockout Quiet time in milliseconds after which failures are forgotten
+     *                (and a locked out user may try again)
+     * @return this CredentialVerifier for method chaining
+     */
+    public CredentialVerifier failureLimit(int failures, long lockout) {
+        this.maxFailures = failures;
+        this.lockoutMillis = lockout;
+        return this;
+    }
+    
+    /**
+     * Sets the PBKDF2 iterations used for in-memory digests
+     *
+     * @param iterations Iteration count
+     * @return this CredentialVerifier for method chaining
+     */
+    public CredentialVerifier cacheIterations(int iterations) {
+        this.cacheIterations = iterations;
+        return this;
+    }
+    
+    /**
+     * Verifies a username and password
+     *
+     * @param username Username
+     * @param password Password to check
+     * @return the outcome of the check
+     * @throws SQLException if the stored password cannot be loaded
+     */
+    public Result verify(String username, String password) throws SQLException {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        lock.lock();
+        try {
+            Failures failed = failures.get(username);
+            if (failed != null && failed.isLockedOut(now, maxFailures, lockoutMillis)) {
+                lockouts.increment();
+                return Result.LOCKED_OUT;
+            }
+            entry = entries.get(username);
+            if (entry != null && entry.expiresAt <= now) {
+                entries.remove(username);
+                entry = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        if (entry != null) {
+            if (entry.digest == null) {
+                negativeHits.increment();
+                return recordFailure(username, Result.UNKNOWN_USER);
+            }
+            cacheHits.increment();
+            if (now - entry.createdAt >= refreshAfterMillis) {
+                scheduleRefresh(username, entry);
+            }
+            if (MessageDigest.isEqual(entry.digest, digest(password, entry.salt, entry.iterations))) {
+                return recordSuccess(username);
+            }
+            // The password may have changed since it was cached; ask the database
+        }
+        
+        lookups.increment();
+        String stored = loader.load(username);
+        if (stored == null) {
+            if (negativeTtlMillis > 0) {
+                put(username, new Entry(null, null, null, 0, now, negativeTtlMillis));
+            }
+            return recordFailure(username, Result.UNKNOWN_USER);
+        }
+        if (!matches(password, stored)) {
+            return recordFailure(username, Result.REJECTED);
+        }
+        if (ttlMillis > 0) {
+            byte[] salt = newSalt();
+            int iterations = cacheIterations;
+            byte[] passwordDigest = digest(password, salt, iterations);
+            byte[] storedDigest = stored.startsWith(HASH_PREFIX + "$")
+                ? digest(stored, salt, iterations) : passwordDigest;
+            put(username, new Entry(passwordDigest, storedDigest, salt, iterations, now, ttlMillis));
+        }
+        return recordSuccess(username);
+    }
+    
+    /**
+     * Forgets everything cached about a user (call after changing or adding credentials)
+     *
+     * @param username Username
+     */
+    public void invalidate(String username) {
+        lock.lock();
+        try {
+            entries.remove(username);
+            failures.remove(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Forgets every cached user
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+            failures.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Creates a salted digest suitable for storing in userscredentials.passw
+     *
+     * @param password Plaintext password
+     * @return digest in the form pbkdf2_sha256$iterations$salt$hash
+     */
+    public static String hash(String password) {
+        byte[] salt = newSalt();
+        byte[] key = digest(password, salt, DEFAULT_HASH_ITERATIONS);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return HASH_PREFIX + "$" + DEFAULT_HASH_ITERATIONS + "$" + encoder.encodeToString(salt)
+            + "$" + encoder.encodeToString(key);
+    }
+    
+    /**
+     * Checks a password against a stored value (digest or legacy plaintext).
+     * A malformed digest matches no password.
+     *
+     * @param password Password to check
+     * @param stored Stored password or digest
+     * @return true if the password matches
+     */
+    public static boolean matches(String password, String stored) {
+        if (stored.startsWith(HASH_PREFIX + "$")) {
+            String[] parts = stored.split("\\$");
+            if (parts.length != 4) {
+                return false;
+            }
+            try {
+                Base64.Decoder decoder = Base64.getDecoder();
+                byte[] expected = decoder.decode(parts[3]);
+                byte[] actual = digest(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+                return MessageDigest.isEqual(expected, actual);
+            } catch (IllegalArgumentException e) {
+                // Bad Base64, a non-numeric or non-positive iteration count, or an empty salt
+                LOGGER.warning("Malformed password digest: {}", e.getMessage());
+                return false;
+            }
+        }
+        return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+            password.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    // Statistics
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+    
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+    
+    public long getLookups() {
+        return lookups.sum();
+    }
+    
+    public long getLockouts() {
+        return lockouts.sum();
+    }
+    
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+    
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("users=%d, cacheHits=%d, negativeHits=%d, lookups=%d, lockouts=%d, refreshes=%d",
+            size(), getCacheHits(), getNegativeHits(), getLookups(), getLockouts(), getRefreshes());
+    }
+    
+    /**
+     * Stops the background refresh thread
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+    
+    private void put(String username, Entry entry) {
+        lock.lock();
+        try {
+            entries.put(username, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private Result recordSuccess(String username) {
+        lock.lock();
+        try {
+            failures.remove(username);
+        } finally {
+            lock.unlock();
+        }
+        return Result.ACCEPTED;
+    }
+    
+    private Result recordFailure(String username, Result result) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Failures failed = failures.get(username);
+            if (failed == null || now - failed.lastFailure >= lockoutMillis) {
+                failed = new Failures();
+                failures.put(username, failed);
+            }
+            failed.count++;
+            failed.lastFailure = now;
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+    
+    /**
+     * Reloads a user's stored password in the background and keeps the
+     * cached digest only if the stored value still matches it
+     */
+    private void scheduleRefresh(String username, Entry entry) {
+        if (entry.refreshing) {
+            return;
+        }
+        entry.refreshing = true;
+        try {
+            refresher.execute(() -> {
+                try {
+                    String stored = loader.load(username);
+                    refreshes.increment();
+                    lock.lock();
+                    try {
+                        if (entries.get(username) != entry) {
+                            return;
+                        }
+                        Entry renewed = stored == null ? null : entry.renewed(stored, ttlMillis);
+                        if (renewed == null) {
+                            entries.remove(username);
+                        } else {
+                            entries.put(username, renewed);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                } catch (SQLException e) {
+                    LOGGER.warning("Credential refresh failed for {}: {}", username, e.getMessage());
+                    entry.refreshing = false;
+                }
+            });
+        } catch (RuntimeException e) {
+            entry.refreshing = false;
+        }
+    }
+    
+    private static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+    
+    private static byte[] digest(String password, byte[] salt, int iterations) {
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+    
+    /**
+     * A cached verification; a null digest marks an unknown user
+     */
+    private static final class Entry {
+        
+        private final byte[] digest;
+        private final byte[] storedDigest; // digest of the stored value, to detect password changes
+        private final byte[] salt;
+        private final int iterations;
+        private final long createdAt;
+        private final long expiresAt;
+        private volatile boolean refreshing = false;
+        
+        private Entry(byte[] digest, byte[] storedDigest, byte[] salt, int iterations,
+                      long createdAt, long ttlMillis) {
+            this.digest = digest;
+            this.storedDigest = storedDigest;
+            this.salt = salt;
+            this.iterations = iterations;
+            this.createdAt = createdAt;
+            this.expiresAt = createdAt + ttlMillis;
+        }
+        
+        /**
+         * Returns a fresh copy of this entry, or null if the stored password
+         * no longer matches the cached digest
+         */
+        private Entry renewed(String stored, long ttlMillis) {
+            if (!MessageDigest.isEqual(storedDigest, digest(stored, salt, iterations))) {
+                return null;
+            }
+            return new Entry(digest, storedDigest, salt, iterations, System.currentTimeMillis(), ttlMillis);
+        }
+    }
+    
+    /**
+     * Recent failed attempts of one user; the count restarts after a quiet period
+     */
+    private static final class Failures {
+        
+        private int count = 0;
+        private long lastFailure;
+        
+        private boolean isLockedOut(long now, int maxFailures, long lockoutMillis) {
+            return count >= maxFailures && now - lastFailure < lockoutMillis;
+        }
+    }
+}
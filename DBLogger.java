@@ -0,0 +1,507 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DBLogger - Asynchronous, low-overhead logger used by all MyDBMagic classes
+ *
+ * Messages are parameterized ("Executing query: {}", query) and the level
+ * is checked before anything else, so a disabled message costs one
+ * comparison and no string building. Enabled messages are not formatted
+ * on the caller's thread: the pattern and arguments are put into a
+ * preallocated, lock-free ring buffer (many producers, one consumer) and
+ * a background thread formats them and writes them in batches to standard
+ * error or a log file. Arguments are therefore formatted a moment later
+ * and should not be changed after the call.
+ *
+ * When the ring buffer is full, FINE and INFO messages are dropped and
+ * counted (DROP, the default) or the caller waits for free space (BLOCK);
+ * warnings and errors always wait. Pending messages are written when the
+ * JVM exits or flush() is called.
+ *
+ * The level can be set with setLevel() or the system property
+ * mydbmagic.log.level (FINE, INFO, WARNING, SEVERE or OFF).
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public final class DBLogger {
+    
+    /**
+     * Message severity, lowest first
+     */
+    public enum Level {
+        FINE,
+        INFO,
+        WARNING,
+        SEVERE,
+        OFF
+    }
+    
+    /**
+     * What a caller does when the ring buffer is full
+     */
+    public enum OverflowPolicy {
+        /** Discard FINE and INFO messages and count them */
+        DROP,
+        /** Wait until the writer has made room */
+        BLOCK
+    }
+    
+    private static final int CAPACITY = 8192; // power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000;
+    private static final DateTimeFormatter TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    
+    private static final Map<String, DBLogger> LOGGERS = new ConcurrentHashMap<>();
+    
+    // Ring buffer: slot i is free for position p when sequences[i] == p,
+    // and holds the event for p when sequences[i] == p + 1
+    private static final Event[] SLOTS = new Event[CAPACITY];
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static volatile long written = 0;
+    private static final LongAdder DROPPED = new LongAdder();
+    
+    private static volatile Level threshold = parseLevel(System.getProperty("mydbmagic.log.level"), Level.INFO);
+    private static volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    // Only the writer thread touches logFile; setLogFile hands it the new
+    // channel, and the writer swaps it in and closes the old one
+    private static FileChannel logFile = null;
+    private static final AtomicReference<FileSwitch> FILE_SWITCH = new AtomicReference<>();
+    private static final Thread WRITER;
+    
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            SLOTS[i] = new Event();
+            SEQUENCES.set(i, i);
+        }
+        WRITER = new Thread(DBLogger::drainLoop, "dblogger-writer");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(DBLogger::flush, "dblogger-flush"));
+    }
+    
+    /**
+     * One log message, reused for every pass of the ring buffer
+     */
+    private static final class Event {
+        long timeMillis;
+        Level level;
+        String logger;
+        String thread;
+        String pattern;
+        Object arg0;
+        Object arg1;
+        Object[] args;
+        int argCount;
+    }
+    
+    /**
+     * Log file requested by setLogFile (null channel = standard error)
+     */
+    private static final class FileSwitch {
+        final FileChannel channel;
+        
+        FileSwitch(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+    
+    private final String name;
+    
+    private DBLogger(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Returns the logger for a class
+     *
+     * @param type Class that logs
+     * @return shared DBLogger named after the class
+     */
+    public static DBLogger getLogger(Class<?> type) {
+        return LOGGERS.computeIfAbsent(type.getName(), DBLogger::new);
+    }
+    
+    /**
+     * Sets the lowest level that is written, for all loggers
+     *
+     * @param level Minimum level (OFF disables logging)
+     */
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+    
+    public static Level getLevel() {
+        return threshold;
+    }
+    
+    /**
+     * Sets what callers do when the ring buffer is full
+     *
+     * @param policy DROP (default) or BLOCK
+     */
+    public static void setOverflowPolicy(OverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
+    
+    /**
+     * Appends log messages to a file instead of standard error. Messages
+     * logged before the call are written first; the writer thread then
+     * switches to the new file and closes the previous one.
+     *
+     * @param file Log file, or null to go back to standard error
+     * @throws IOException if the file cannot be opened
+     */
+    public static void setLogFile(Path file) throws IOException {
+        flush();
+        FileChannel channel = file == null ? null : FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        FileSwitch replaced = FILE_SWITCH.getAndSet(new FileSwitch(channel));
+        if (replaced != null && replaced.channel != null) {
+            // Requested by an earlier call but never picked up by the writer
+            replaced.channel.close();
+        }
+        LockSupport.unpark(WRITER);
+    }
+    
+    /**
+     * Returns how many messages were dropped because the buffer was full
+     *
+     * @return dropped message count
+     */
+    public static long getDroppedCount() {
+        return DROPPED.sum();
+    }
+    
+    /**
+     * Waits (up to 5 seconds) until every message logged so far is written
+     */
+    public static void flush() {
+        long target = TAIL.get();
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        while (written < target && WRITER.isAlive() && Thread.currentThread() != WRITER
+                && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(IDLE_PARK_NANOS / 10);
+        }
+    }
+    
+    public boolean isLoggable(Level level) {
+        return level.ordinal() >= threshold.ordinal() && level != Level.OFF;
+    }
+    
+    public void fine(String message) {
+        if (isLoggable(Level.FINE)) {
+            publish(Level.FINE, message, null, null, null, 0);
+        }
+    }
+    
+    public void fine(String pattern, Object arg) {
+        if (isLoggable(Level.FINE)) {
+            publish(Level.FINE, pattern, arg, null, null, 1);
+        }
+    }
+    
+    public void fine(String pattern, Object arg0, Object arg1) {
+        if (isLoggable(Level.FINE)) {
+            publish(Level.FINE, pattern, arg0, arg1, null, 2);
+        }
+    }
+    
+    public void fine(String pattern, Object... args) {
+        if (isLoggable(Level.FINE)) {
+            publish(Level.FINE, pattern, null, null, args, args.length);
+        }
+    }
+    
+    public void info(String message) {
+        if (isLoggable(Level.INFO)) {
+            publish(Level.INFO, message, null, null, null, 0);
+        }
+    }
+    
+    public void info(String pattern, Object arg) {
+        if (isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, arg, null, null, 1);
+        }
+    }
+    
+    public void info(String pattern, Object arg0, Object arg1) {
+        if (isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, arg0, arg1, null, 2);
+        }
+    }
+    
+    public void info(String pattern, Object... args) {
+        if (isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, null, null, args, args.length);
+        }
+    }
+    
+    public void warning(String message) {
+        if (isLoggable(Level.WARNING)) {
+            publish(Level.WARNING, message, null, null, null, 0);
+        }
+    }
+    
+    public void warning(String pattern, Object arg) {
+        if (isLoggable(Level.WARNING)) {
+            publish(Level.WARNING, pattern, arg, null, null, 1);
+        }
+    }
+    
+    public void warning(String pattern, Object arg0, Object arg1) {
+        if (isLoggable(Level.WARNING)) {
+            publish(Level.WARNING, pattern, arg0, arg1, null, 2);
+        }
+    }
+    
+    public void warning(String pattern, Object... args) {
+        if (isLoggable(Level.WARNING)) {
+            publish(Level.WARNING, pattern, null, null, args, args.length);
+        }
+    }
+    
+    public void severe(String message) {
+        if (isLoggable(Level.SEVERE)) {
+            publish(Level.SEVERE, message, null, null, null, 0);
+        }
+    }
+    
+    public void severe(String pattern, Object arg) {
+        if (isLoggable(Level.SEVERE)) {
+            publish(Level.SEVERE, pattern, arg, null, null, 1);
+        }
+    }
+    
+    public void severe(String pattern, Object arg0, Object arg1) {
+        if (isLoggable(Level.SEVERE)) {
+            publish(Level.SEVERE, pattern, arg0, arg1, null, 2);
+        }
+    }
+    
+    public void severe(String pattern, Object... args) {
+        if (isLoggable(Level.SEVERE)) {
+            publish(Level.SEVERE, pattern, null, null, args, args.length);
+        }
+    }
+    
+    /**
+     * Claims a slot in the ring buffer and fills it in
+     */
+    private void publish(Level level, String pattern, Object arg0, Object arg1, Object[] args, int argCount) {
+        if (Thread.currentThread() == WRITER) {
+            // Logging from inside the writer (e.g. an argument's toString); never wait on ourselves
+            System.err.print(format(System.currentTimeMillis(), level, name, WRITER.getName(),
+                pattern, arg0, arg1, args, argCount));
+            return;
+        }
+        long position = TAIL.get();
+        for (int spins = 0; ; ) {
+            int index = (int) (position & MASK);
+            long difference = SEQUENCES.get(index) - position;
+            if (difference == 0) {
+                if (TAIL.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = TAIL.get();
+            } else if (difference < 0) {
+                // Full: the slot still holds an event from the previous pass
+                if (!WRITER.isAlive()) {
+                    System.err.print(format(System.currentTimeMillis(), level, name,
+                        Thread.currentThread().getName(), pattern, arg0, arg1, args, argCount));
+                    return;
+                }
+                if (overflowPolicy == OverflowPolicy.DROP && level.ordinal() < Level.WARNING.ordinal()) {
+                    DROPPED.increment();
+                    return;
+                }
+                LockSupport.unpark(WRITER);
+                if (++spins < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS / 10);
+                }
+                position = TAIL.get();
+            } else {
+                position = TAIL.get();
+            }
+        }
+        
+        Event event = SLOTS[(int) (position & MASK)];
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.logger = name;
+        event.thread = Thread.currentThread().getName();
+        event.pattern = pattern;
+        event.arg0 = arg0;
+        event.arg1 = arg1;
+        event.args = args;
+        event.argCount = argCount;
+        SEQUENCES.set((int) (position & MASK), position + 1);
+    }
+    
+    /**
+     * Writer thread: formats ready events in batches and writes each batch
+     * with a single call. It never exits on an error, since callers that
+     * wait for room in a full buffer would otherwise wait forever.
+     */
+    private static void drainLoop() {
+        StringBuilder batch = new StringBuilder(64 * 1024);
+        long head = 0;
+        while (true) {
+            try {
+                switchLogFile();
+                int count = 0;
+                while (count < MAX_BATCH) {
+                    int index = (int) (head & MASK);
+                    if (SEQUENCES.get(index) != head + 1) {
+                        break;
+                    }
+                    Event event = SLOTS[index];
+                    try {
+                        batch.append(format(event.timeMillis, event.level, event.logger, event.thread,
+                            event.pattern, event.arg0, event.arg1, event.args, event.argCount));
+                    } catch (RuntimeException | Error e) {
+                        batch.append("(could not format log message \"").append(event.pattern)
+                            .append("\": ").append(e).append(')').append(System.lineSeparator());
+                    }
+                    event.arg0 = null;
+                    event.arg1 = null;
+                    event.args = null;
+                    SEQUENCES.set(index, head + CAPACITY);
+                    head++;
+                    count++;
+                }
+                if (count == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                write(batch);
+            } catch (Throwable e) {
+                System.err.println("DBLogger: could not write log messages: " + e);
+            }
+            batch.setLength(0);
+            if (batch.capacity() > 1024 * 1024) {
+                batch.trimToSize();
+            }
+            written = head;
+        }
+    }
+    
+    /**
+     * Applies a log file requested by setLogFile (writer thread only)
+     */
+    private static void switchLogFile() {
+        FileSwitch request = FILE_SWITCH.getAndSet(null);
+        if (request == null) {
+            return;
+        }
+        FileChannel previous = logFile;
+        logFile = request.channel;
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                System.err.println("DBLogger: could not close log file: " + e.getMessage());
+            }
+        }
+    }
+    
+    private static void write(StringBuilder batch) {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        FileChannel file = logFile;
+        if (file != null) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    file.write(buffer);
+                }
+                return;
+            } catch (IOException e) {
+                System.err.println("DBLogger: could not write log file, using standard error: " + e.getMessage());
+                logFile = null;
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                    // Already failing; standard error takes over
+                }
+            }
+        }
+        System.err.write(bytes, 0, bytes.length);
+        System.err.flush();
+    }
+    
+    /**
+     * Builds one log line, replacing each {} in the pattern with the next
+     * argument; a Throwable left over as the last argument is printed with
+     * its stack trace
+     */
+    private static String format(long timeMillis, Level level, String logger, String thread, String pattern,
+                                 Object arg0, Object arg1, Object[] args, int argCount) {
+        StringBuilder line = new StringBuilder(96 + pattern.length());
+        TIMESTAMP.formatTo(Instant.ofEpochMilli(timeMillis), line);
+        line.append(' ').append(level.name());
+        for (int i = level.name().length(); i < 7; i++) {
+            line.append(' ');
+        }
+        line.append(" [").append(thread).append("] ")
+            .append(logger, logger.lastIndexOf('.') + 1, logger.length()).append(" - ");
+        
+        int used = 0;
+        int from = 0;
+        int at;
+        while (used < argCount && (at = pattern.indexOf("{}", from)) >= 0) {
+            line.append(pattern, from, at).append(argument(used++, arg0, arg1, args));
+            from = at + 2;
+        }
+        line.append(pattern, from, pattern.length()).append(System.lineSeparator());
+        
+        if (used < argCount && argument(argCount - 1, arg0, arg1, args) instanceof Throwable) {
+            StringWriter trace = new StringWriter();
+            ((Throwable) argument(argCount - 1, arg0, arg1, args)).printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+        return line.toString();
+    }
+    
+    private static Object argument(int i, Object arg0, Object arg1, Object[] args) {
+        if (args != null) {
+            return args[i];
+        }
+        return i == 0 ? arg0 : arg1;
+    }
+    
+    private static Level parseLevel(String value, Level defaultLevel) {
+        if (value == null) {
+            return defaultLevel;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
+        }
+    }
+}
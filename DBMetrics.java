@@ -0,0 +1,407 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.management.*;
+
+/**
+ * DBMetrics - Per-operation counters and latency histograms for MyDBMagic
+ *
+ * Every MyDBMagic operation records its latency, outcome, rows and bytes
+ * here. Recording only updates preallocated LongAdders and a
+ * LatencyHistogram, so it is lock-free and allocation-free. Values can be
+ * read as a Snapshot, pushed to a listener periodically, or browsed through
+ * JMX as a DynamicMBean.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class DBMetrics implements DynamicMBean {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(DBMetrics.class);
+    
+    /**
+     * Operations tracked by MyDBMagic
+     */
+    public enum Operation {
+        CONNECT("connect"),
+        RUN_UPDATE("runUpdate"),
+        RUN_QUERY("runQuery"),
+        SHOW_RECORDS("showRecords"),
+        LOGIN("login"),
+        METADATA("metadata"),
+        BULK_INSERT("insertBatch"),
+        COPY_IN("copyIn"),
+        COPY_OUT("copyOut"),
+        TRANSACTION("transaction");
+        
+        private final String label;
+        
+        Operation(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    private final EnumMap<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final Map<String, Supplier<Object>> gauges = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService scheduler = null;
+    private volatile ObjectName registeredName = null;
+    
+    public DBMetrics() {
+        for (Operation op : Operation.values()) {
+            stats.put(op, new OperationStats());
+        }
+    }
+    
+    /**
+     * Records a finished operation
+     *
+     * @param op Operation type
+     * @param startNanos Value of System.nanoTime() when the operation started
+     * @param rows Rows fetched or affected (0 if not applicable)
+     * @param success Whether the operation completed without error
+     */
+    public void record(Operation op, long startNanos, long rows, boolean success) {
+        OperationStats s = stats.get(op);
+        s.latency.record(System.nanoTime() - startNanos);
+        if (rows > 0) {
+            s.rows.add(rows);
+        }
+        if (!success) {
+            s.errors.increment();
+        }
+    }
+    
+    /**
+     * Adds rows to an operation counted after it was recorded (e.g. rows
+     * read from a ResultSet returned to the caller)
+     */
+    public void addRows(Operation op, long rows) {
+        stats.get(op).rows.add(rows);
+    }
+    
+    /**
+     * Adds bytes read or written by an operation
+     */
+    public void addBytes(Operation op, long bytes) {
+        stats.get(op).bytes.add(bytes);
+    }
+    
+    /**
+     * Registers a value read on demand (e.g. pool size) under a name
+     *
+     * @param name Gauge name, shown in snapshots and as a JMX attribute
+     * @param supplier Returns the current value
+     */
+    public void registerGauge(String name, Supplier<Object> supplier) {
+        gauges.put(name, supplier);
+    }
+    
+    /**
+     * Takes a consistent-enough copy of all counters
+     *
+     * @return Snapshot of the current values
+     */
+    public Snapshot snapshot() {
+        Map<Operation, OperationSnapshot> ops = new EnumMap<>(Operation.class);
+        for (Map.Entry<Operation, OperationStats> e : stats.entrySet()) {
+            ops.put(e.getKey(), e.getValue().snapshot());
+        }
+        Map<String, Object> gaugeValues = new LinkedHashMap<>();
+        for (Map.Entry<String, Supplier<Object>> e : gauges.entrySet()) {
+            gaugeValues.put(e.getKey(), readGauge(e.getValue()));
+        }
+        return new Snapshot(ops, gaugeValues);
+    }
+    
+    /**
+     * Pushes a snapshot to the listener at a fixed rate
+     *
+     * @param period Time between snapshots
+     * @param unit Unit of the period
+     * @param listener Receives each snapshot
+     * @return handle used to stop the reports
+     */
+    public ScheduledFuture<?> scheduleSnapshots(long period, TimeUnit unit, Consumer<Snapshot> listener) {
+        ScheduledExecutorService current = scheduler;
+        if (current == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "MyDBMagic-metrics");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+                current = scheduler;
+            }
+        }
+        return current.scheduleAtFixedRate(() -> {
+            try {
+                listener.accept(snapshot());
+            } catch (RuntimeException e) {
+                LOGGER.warning("Metrics listener failed", e);
+            }
+        }, period, period, unit);
+    }
+    
+    /**
+     * Registers this object with the platform MBean server
+     *
+     * @param name Value of the name key, e.g. the database name
+     */
+    public void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("MyDBMagic:type=Metrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                registeredName = objectName;
+            }
+        } catch (JMException e) {
+            LOGGER.warning("Could not register metrics MBean: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Unregisters the MBean and stops periodic snapshots
+     */
+    public void close() {
+        ObjectName name = registeredName;
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.fine("Could not unregister metrics MBean: {}", e.getMessage());
+            }
+            registeredName = null;
+        }
+        ScheduledExecutorService current = scheduler;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+    
+    private static Object readGauge(Supplier<Object> supplier) {
+        try {
+            return supplier.get();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+    
+    // DynamicMBean: attributes are "<operation>.<statistic>" plus the gauges
+    private static final String[] STATISTICS = {
+        "count", "errors", "rows", "bytes", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"
+    };
+    
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (gauges.containsKey(attribute)) {
+            return readGauge(gauges.get(attribute));
+        }
+        int dot = attribute.indexOf('.');
+        if (dot > 0) {
+            for (Operation op : Operation.values()) {
+                if (op.getLabel().equals(attribute.substring(0, dot))) {
+                    Object value = stats.get(op).snapshot().get(attribute.substring(dot + 1));
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+    
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Skip unknown attributes, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+    
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+    
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+    
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName)) {
+            for (OperationStats s : stats.values()) {
+                s.reset();
+            }
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+    
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Operation op : Operation.values()) {
+            for (String statistic : STATISTICS) {
+                String type = statistic.endsWith("Micros") ? "double" : "long";
+                attributes.add(new MBeanAttributeInfo(op.getLabel() + "." + statistic, type,
+                    statistic + " of " + op.getLabel(), true, false, false));
+            }
+        }
+        for (String gauge : gauges.keySet()) {
+            attributes.add(new MBeanAttributeInfo(gauge, "java.lang.Object", gauge, true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears all operation counters",
+            new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "MyDBMagic operation metrics",
+            attributes.toArray(new MBeanAttributeInfo[0]), null,
+            new MBeanOperationInfo[]{reset}, null);
+    }
+    
+    /**
+     * Live counters of one operation
+     */
+    private static final class OperationStats {
+        
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        
+        private OperationSnapshot snapshot() {
+            return new OperationSnapshot(latency.getCount(), errors.sum(), rows.sum(), bytes.sum(),
+                latency.getMean() / 1000.0,
+                latency.getPercentile(50) / 1000.0,
+                latency.getPercentile(99) / 1000.0,
+                latency.getPercentile(99.9) / 1000.0,
+                latency.getMax() / 1000.0);
+        }
+        
+        private void reset() {
+            latency.reset();
+            errors.reset();
+            rows.reset();
+            bytes.reset();
+        }
+    }
+    
+    /**
+     * Point-in-time values of one operation; latencies are in microseconds
+     */
+    public static final class OperationSnapshot {
+        
+        public final long count;
+        public final long errors;
+        public final long rows;
+        public final long bytes;
+        public final double meanMicros;
+        public final double p50Micros;
+        public final double p99Micros;
+        public final double p999Micros;
+        public final double maxMicros;
+        
+        private OperationSnapshot(long count, long errors, long rows, long bytes, double meanMicros,
+                                  double p50Micros, double p99Micros, double p999Micros, double maxMicros) {
+            this.count = count;
+            this.errors = errors;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+        
+        private Object get(String statistic) {
+            switch (statistic) {
+                case "count": return count;
+                case "errors": return errors;
+                case "rows": return rows;
+                case "bytes": return bytes;
+                case "meanMicros": return meanMicros;
+                case "p50Micros": return p50Micros;
+                case "p99Micros": return p99Micros;
+                case "p999Micros": return p999Micros;
+                case "maxMicros": return maxMicros;
+                default: return null;
+            }
+        }
+    }
+    
+    /**
+     * Point-in-time values of all operations and gauges
+     */
+    public static final class Snapshot {
+        
+        private final long takenAtMillis = System.currentTimeMillis();
+        private final Map<Operation, OperationSnapshot> operations;
+        private final Map<String, Object> gauges;
+        
+        private Snapshot(Map<Operation, OperationSnapshot> operations, Map<String, Object> gauges) {
+            this.operations = Collections.unmodifiableMap(operations);
+            this.gauges = Collections.unmodifiableMap(gauges);
+        }
+        
+        public long getTakenAtMillis() {
+            return takenAtMillis;
+        }
+        
+        public OperationSnapshot get(Operation op) {
+            return operations.get(op);
+        }
+        
+        public Map<Operation, OperationSnapshot> getOperations() {
+            return operations;
+        }
+        
+        public Map<String, Object> getGauges() {
+            return gauges;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-12s %10s %7s %10s %12s %10s %10s %10s %10s%n",
+                "OPERATION", "COUNT", "ERRORS", "ROWS", "BYTES", "MEAN(us)", "P50(us)", "P99(us)", "MAX(us)"));
+            for (Map.Entry<Operation, OperationSnapshot> e : operations.entrySet()) {
+                OperationSnapshot s = e.getValue();
+                if (s.count == 0) {
+                    continue;
+                }
+                sb.append(String.format("%-12s %10d %7d %10d %12d %10.1f %10.1f %10.1f %10.1f%n",
+                    e.getKey().getLabel(), s.count, s.errors, s.rows, s.bytes,
+                    s.meanMicros, s.p50Micros, s.p99Micros, s.maxMicros));
+            }
+            for (Map.Entry<String, Object> e : gauges.entrySet()) {
+                sb.append(e.getKey()).append(" = ").append(e.getValue()).append(System.lineSeparator());
+            }
+            return sb.toString();
+        }
+    }
+}
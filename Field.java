@@ -13,6 +13,8 @@ public class Field {
     private String dataType;
     private boolean isPrimaryKey;
     private boolean isNotNull;
+    private boolean isUnique;
+    private String defaultValue; // SQL expression, e.g. 'N/A' or now()
     private Integer maxLength; // for VARCHAR types
     
     /**
@@ -33,6 +35,7 @@ public class Field {
         this.dataType = dataType.trim().toUpperCase();
         this.isPrimaryKey = false;
         this.isNotNull = false;
+        this.isUnique = false;
     }
     
     /**
@@ -42,8 +45,8 @@ public class Field {
      * @param dataType SQL data type
      * @param isPrimaryKey Whether this field is a primary key
      * @param isNotNull Whether this field allows NULL values
-     * @param isUnique Whether this field must have unique values (unused in current version)
-     * @param defaultValue Default value for the field (unused in current version)
+     * @param isUnique Whether this field must have unique values
+     * @param defaultValue Default value as an SQL expression (null for none)
      * @param maxLength Maximum length for VARCHAR/CHAR types
      */
     public Field(String name, String dataType, boolean isPrimaryKey, 
@@ -51,9 +54,28 @@ public class Field {
         this(name, dataType);
         this.isPrimaryKey = isPrimaryKey;
         this.isNotNull = isNotNull || isPrimaryKey; // Primary keys are automatically NOT NULL
+        this.isUnique = isUnique;
+        if (defaultValue != null && !defaultValue.trim().isEmpty()) {
+            this.defaultValue = defaultValue.trim();
+        }
         this.maxLength = maxLength;
     }
     
+    /**
+     * Copy constructor
+     * 
+     * @param other Field to copy
+     */
+    public Field(Field other) {
+        this.name = other.name;
+        this.dataType = other.dataType;
+        this.isPrimaryKey = other.isPrimaryKey;
+        this.isNotNull = other.isNotNull;
+        this.isUnique = other.isUnique;
+        this.defaultValue = other.defaultValue;
+        this.maxLength = other.maxLength;
+    }
+    
     /**
      * Sets this field as a primary key
      * Primary keys are automatically set to NOT NULL
@@ -76,6 +98,30 @@ public class Field {
         return this;
     }
     
+    /**
+     * Sets this field to UNIQUE
+     * 
+     * @return this Field object for method chaining
+     */
+    public Field unique() {
+        this.isUnique = true;
+        return this;
+    }
+    
+    /**
+     * Sets the default value of this field
+     * 
+     * @param expression SQL expression, e.g. "0", "'N/A'" or "now()"
+     * @return this Field object for method chaining
+     */
+    public Field defaultValue(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Default value cannot be null or empty");
+        }
+        this.defaultValue = expression.trim();
+        return this;
+    }
+    
     /**
      * Sets the maximum length for VARCHAR/CHAR fields
      * 
@@ -96,25 +142,57 @@ public class Field {
      * @return SQL string representation of this field
      */
     public String toSQL() {
+        return toSQL(true);
+    }
+    
+    /**
+     * Generates SQL fragment for this field
+     * 
+     * @param includePrimaryKey false when the primary key is declared at table
+     *                          level (composite keys); the column is then NOT NULL
+     * @return SQL string representation of this field
+     */
+    public String toSQL(boolean includePrimaryKey) {
         StringBuilder sql = new StringBuilder();
-        sql.append(name).append(" ");
-        
-        // Handle data type with length
-        if (maxLength != null && (dataType.equalsIgnoreCase("VARCHAR") || 
-                                  dataType.equalsIgnoreCase("CHAR"))) {
-            sql.append(dataType).append("(").append(maxLength).append(")");
-        } else {
-            sql.append(dataType);
-        }
+        appendSQL(sql, includePrimaryKey);
+        return sql.toString();
+    }
+    
+    /**
+     * Appends the SQL fragment for this field to a builder
+     * 
+     * @param sql Builder receiving the fragment
+     * @param includePrimaryKey Whether to emit a column-level PRIMARY KEY
+     */
+    void appendSQL(StringBuilder sql, boolean includePrimaryKey) {
+        sql.append(name).append(" ").append(getTypeSQL());
         
         // Add constraints
-        if (isPrimaryKey) {
+        if (isPrimaryKey && includePrimaryKey) {
             sql.append(" PRIMARY KEY");
         } else if (isNotNull) {
             sql.append(" NOT NULL");
         }
-        
-        return sql.toString();
+        if (isUnique && !(isPrimaryKey && includePrimaryKey)) {
+            sql.append(" UNIQUE");
+        }
+        if (defaultValue != null) {
+            sql.append(" DEFAULT ").append(defaultValue);
+        }
+    }
+    
+    /**
+     * Returns the data type as written in DDL, including the length of
+     * VARCHAR/CHAR fields
+     * 
+     * @return type SQL, e.g. "VARCHAR(40)"
+     */
+    public String getTypeSQL() {
+        if (maxLength != null && (dataType.equalsIgnoreCase("VARCHAR") || 
+                                  dataType.equalsIgnoreCase("CHAR"))) {
+            return dataType + "(" + maxLength + ")";
+        }
+        return dataType;
     }
     
     /**
@@ -133,6 +211,8 @@ public class Field {
         sb.append("'");
         if (isPrimaryKey) sb.append(", PRIMARY KEY");
         if (isNotNull && !isPrimaryKey) sb.append(", NOT NULL");
+        if (isUnique) sb.append(", UNIQUE");
+        if (defaultValue != null) sb.append(", DEFAULT ").append(defaultValue);
         sb.append("}");
         return sb.toString();
     }
@@ -154,33 +234,99 @@ public class Field {
         return isNotNull; 
     }
     
+    public boolean isUnique() { 
+        return isUnique; 
+    }
+    
+    public String getDefaultValue() { 
+        return defaultValue; 
+    }
+    
     public Integer getMaxLength() { 
         return maxLength; 
     }
     
+    /**
+     * Maps the data type to a java.sql.Types constant for parameter binding.
+     * Accepts both SQL names (INTEGER, VARCHAR) and PostgreSQL catalog names (int4, varchar).
+     * 
+     * @return java.sql.Types constant, or Types.OTHER for unknown types
+     */
+    public int getSqlType() {
+        switch (dataType) {
+            case "SMALLINT":
+            case "INT2":
+                return java.sql.Types.SMALLINT;
+            case "INTEGER":
+            case "INT":
+            case "INT4":
+            case "SERIAL":
+                return java.sql.Types.INTEGER;
+            case "BIGINT":
+            case "INT8":
+            case "BIGSERIAL":
+                return java.sql.Types.BIGINT;
+            case "DECIMAL":
+            case "NUMERIC":
+                return java.sql.Types.NUMERIC;
+            case "REAL":
+            case "FLOAT4":
+                return java.sql.Types.REAL;
+            case "DOUBLE":
+            case "DOUBLE PRECISION":
+            case "FLOAT8":
+                return java.sql.Types.DOUBLE;
+            case "BOOLEAN":
+            case "BOOL":
+                return java.sql.Types.BOOLEAN;
+            case "VARCHAR":
+            case "CHARACTER VARYING":
+            case "TEXT":
+                return java.sql.Types.VARCHAR;
+            case "CHAR":
+            case "BPCHAR":
+                return java.sql.Types.CHAR;
+            case "DATE":
+                return java.sql.Types.DATE;
+            case "TIME":
+                return java.sql.Types.TIME;
+            case "TIMESTAMP":
+                return java.sql.Types.TIMESTAMP;
+            case "TIMESTAMPTZ":
+                return java.sql.Types.TIMESTAMP_WITH_TIMEZONE;
+            case "BYTEA":
+                return java.sql.Types.BINARY;
+            default:
+                return java.sql.Types.OTHER;
+        }
+    }
+    
     /**
      * Checks if this field is compatible with VARCHAR operations
      * 
-     * @return true if field is VARCHAR or CHAR type
+     * @return true if field is VARCHAR, CHAR or TEXT type (including PostgreSQL aliases)
      */
     public boolean isStringType() {
-        return dataType.equalsIgnoreCase("VARCHAR") || 
-               dataType.equalsIgnoreCase("CHAR") || 
-               dataType.equalsIgnoreCase("TEXT");
+        int sqlType = getSqlType();
+        return sqlType == java.sql.Types.VARCHAR || sqlType == java.sql.Types.CHAR;
     }
     
     /**
      * Checks if this field is a numeric type
      * 
-     * @return true if field is numeric type
+     * @return true if field is numeric type (including PostgreSQL aliases such as int4 or float8)
      */
     public boolean isNumericType() {
-        return dataType.equalsIgnoreCase("INTEGER") || 
-               dataType.equalsIgnoreCase("INT") ||
-               dataType.equalsIgnoreCase("BIGINT") ||
-               dataType.equalsIgnoreCase("DECIMAL") ||
-               dataType.equalsIgnoreCase("NUMERIC") ||
-               dataType.equalsIgnoreCase("REAL") ||
-               dataType.equalsIgnoreCase("DOUBLE");
+        switch (getSqlType()) {
+            case java.sql.Types.SMALLINT:
+            case java.sql.Types.INTEGER:
+            case java.sql.Types.BIGINT:
+            case java.sql.Types.NUMERIC:
+            case java.sql.Types.REAL:
+            case java.sql.Types.DOUBLE:
+                return true;
+            default:
+                return false;
+        }
     }
 }
@@ -1,6 +1,7 @@
+import java.io.*;
+import java.sql.Connection;
 import java.util.InputMismatchException;
 import java.util.Scanner;
-import java.util.logging.Logger;
 
 /**
  * MainDB - Main application class for the Database Management System
@@ -13,17 +14,38 @@ import java.util.logging.Logger;
  */
 public class MainDB {
     
-    private static final Logger LOGGER = Logger.getLogger(MainDB.class.getName());
+    private static final DBLogger LOGGER = DBLogger.getLogger(MainDB.class);
     private final Scanner scanner = new Scanner(System.in);
     private MyDBMagic dbManager;
     
     public static void main(String[] args) {
+        if (args.length >= 2 && args[0].equals("--script")) {
+            System.exit(runScript(args[1]) ? 0 : 1);
+        }
+        
         MainDB mainDB = new MainDB();
         try {
             mainDB.run();
         } catch (Exception e) {
             System.err.println("Application error: " + e.getMessage());
-            LOGGER.severe("Application error: " + e.getMessage());
+            LOGGER.severe("Application error: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Runs a command script without the interactive menu
+     * 
+     * @param path Script file, or "-" to read the script from standard input
+     * @return true if every command succeeded
+     */
+    private static boolean runScript(String path) {
+        try (Reader script = path.equals("-")
+                ? new InputStreamReader(System.in) : new FileReader(path)) {
+            return new ScriptRunner(System.out).run(script);
+        } catch (IOException e) {
+            System.err.println("Cannot read script: " + e.getMessage());
+            LOGGER.severe("Cannot read script: {}", e.getMessage());
+            return false;
         }
     }
     
@@ -66,6 +88,9 @@ public class MainDB {
         System.out.println("(5) Show all tables");
         System.out.println("(6) Show table records");
         System.out.println("(7) Test login system");
+        System.out.println("(8) Import/export table file");
+        System.out.println("(10) Choose output format");
+        System.out.println("(11) Show slowest statements");
         System.out.println("(9) Exit");
         System.out.print("Choose option: ");
     }
@@ -82,7 +107,7 @@ public class MainDB {
                 break;
             case 2:
                 if (checkConnection()) {
-                    dbManager.createTable();
+                    dbManager.createTable(scanner);
                 }
                 break;
             case 3:
@@ -110,6 +135,21 @@ public class MainDB {
                     testLogin();
                 }
                 break;
+            case 8:
+                if (checkConnection()) {
+                    transferTableFile();
+                }
+                break;
+            case 10:
+                if (checkConnection()) {
+                    chooseOutputFormat();
+                }
+                break;
+            case 11:
+                if (checkConnection()) {
+                    showSlowestStatements();
+                }
+                break;
             case 9:
                 System.out.println("Thank you for using MyDBMagic! Goodbye!");
                 break;
@@ -126,6 +166,12 @@ public class MainDB {
         System.out.print("Use default connection settings? (y/n): ");
         String choice = scanner.nextLine().trim().toLowerCase();
         
+        // Release the pool of any previous connection
+        if (dbManager != null) {
+            dbManager.close();
+            dbManager = null;
+        }
+        
         try {
             if (choice.equals("n") || choice.equals("no")) {
                 setupCustomConnection();
@@ -133,13 +179,20 @@ public class MainDB {
                 setupDefaultConnection();
             }
             
-            // Test the connection
-            dbManager.connectDB();
+            // Test the connection (closing it returns it to the pool)
+            try (Connection conn = dbManager.connectDB()) {
+                if (LOGGER.isLoggable(DBLogger.Level.FINE)) {
+                    LOGGER.fine("Connection test succeeded: {}", conn.isValid(2));
+                }
+            }
             System.out.println("✓ Database connection established successfully!");
             
         } catch (Exception e) {
             System.err.println("✗ Failed to connect to database: " + e.getMessage());
             System.out.println("Please check your connection settings and try again.");
+            if (dbManager != null) {
+                dbManager.close();
+            }
             dbManager = null;
         }
     }
@@ -235,10 +288,117 @@ public class MainDB {
         System.out.print("Enter table name to view records: ");
         String tableName = scanner.nextLine().trim();
         
-        if (!tableName.isEmpty()) {
-            dbManager.showRecords(tableName);
-        } else {
+        if (tableName.isEmpty()) {
+            System.err.println("Table name cannot be empty!");
+            return;
+        }
+        
+        int pageSize = readNumber("Rows per page (default 20, 0 = no paging): ", 20);
+        long limit = readNumber("Maximum rows (default 0 = all): ", 0);
+        
+        dbManager.showRecords(tableName, pageSize, limit, () -> {
+            System.out.print("-- Enter for next page, q to quit -- ");
+            String answer = scanner.nextLine().trim().toLowerCase();
+            return !answer.equals("q") && !answer.equals("quit");
+        });
+    }
+    
+    /**
+     * Lets the user pick the format used when showing table records
+     */
+    private void chooseOutputFormat() {
+        System.out.println("\n=== Output Format ===");
+        ResultRenderer.Format[] formats = ResultRenderer.Format.values();
+        for (int i = 0; i < formats.length; i++) {
+            String current = formats[i] == dbManager.getOutputFormat() ? " (current)" : "";
+            System.out.println("(" + (i + 1) + ") " + formats[i].name().toLowerCase() + current);
+        }
+        
+        int choice = readNumber("Choose format: ", 0);
+        if (choice < 1 || choice > formats.length) {
+            System.out.println("Output format unchanged.");
+            return;
+        }
+        dbManager.outputFormat(formats[choice - 1]);
+        System.out.println("✓ Records will be shown as " + formats[choice - 1].name().toLowerCase());
+    }
+    
+    /**
+     * Prints the statements that took the most time in total
+     */
+    private void showSlowestStatements() {
+        int count = readNumber("How many statements? [10]: ", 10);
+        System.out.println("\n=== Slowest Statements (by total time) ===");
+        dbManager.getProfiler().printReport(System.out, Math.max(count, 1));
+    }
+    
+    /**
+     * Reads a non-negative number, returning the default for empty or invalid input
+     */
+    private int readNumber(String prompt, int defaultValue) {
+        System.out.print(prompt);
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(input);
+            return value >= 0 ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            System.err.println("Not a valid number, using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Imports a table from a file or exports a table to a file using COPY
+     */
+    private void transferTableFile() {
+        System.out.println("\n=== Import/Export Table File ===");
+        System.out.print("Import or export? (i/e): ");
+        String direction = scanner.nextLine().trim().toLowerCase();
+        boolean importing = direction.equals("i") || direction.equals("import");
+        if (!importing && !direction.equals("e") && !direction.equals("export")) {
+            System.err.println("Please enter 'i' or 'e'!");
+            return;
+        }
+        
+        dbManager.showTables();
+        System.out.print("Enter table name: ");
+        String tableName = scanner.nextLine().trim();
+        if (tableName.isEmpty()) {
             System.err.println("Table name cannot be empty!");
+            return;
+        }
+        
+        System.out.print("File path: ");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) {
+            System.err.println("File path cannot be empty!");
+            return;
+        }
+        
+        System.out.print("Format (csv/binary, default csv): ");
+        String formatInput = scanner.nextLine().trim().toLowerCase();
+        MyDBMagic.CopyFormat format = formatInput.startsWith("b")
+            ? MyDBMagic.CopyFormat.BINARY : MyDBMagic.CopyFormat.CSV;
+        
+        try {
+            long rows;
+            if (importing) {
+                try (InputStream in = new FileInputStream(path)) {
+                    rows = dbManager.copyIn(tableName, in, format);
+                }
+                System.out.println("✓ Imported " + rows + " rows into '" + tableName + "'");
+            } else {
+                try (OutputStream out = new FileOutputStream(path)) {
+                    rows = dbManager.copyOut(tableName, out, format);
+                }
+                System.out.println("✓ Exported " + rows + " rows from '" + tableName + "' to " + path);
+            }
+        } catch (Exception e) {
+            LOGGER.severe("File transfer failed: {}", e.getMessage());
+            System.err.println("✗ Transfer failed: " + e.getMessage());
         }
     }
     
@@ -1,7 +1,27 @@
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.*;
-import java.util.logging.Logger;
-import java.util.logging.Level;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
 /**
  * MyDBMagic - A PostgreSQL Database Management Utility
@@ -10,12 +30,15 @@ import java.util.logging.Level;
  * to connect to PostgreSQL databases and perform common operations like
  * creating tables, inserting records, and querying data.
  * 
+ * A single instance is safe to share between threads: every operation
+ * borrows its own pooled connection and keeps its results in local state.
+ * 
  * @author John Hernandez
  * @version 1.0
  */
 public class MyDBMagic implements AutoCloseable {
     
-    private static final Logger LOGGER = Logger.getLogger(MyDBMagic.class.getName());
+    private static final DBLogger LOGGER = DBLogger.getLogger(MyDBMagic.class);
     
     // Database connection parameters
     private final String port;
@@ -24,8 +47,126 @@ public class MyDBMagic implements AutoCloseable {
     private final String password;
     
     // Connection management
-    private Connection connection = null;
-    private Field[] currentTableFields;
+    private final Object poolLock = new Object();
+    private volatile ConnectionPool pool = null;
+    private int poolMinSize = 1;
+    private int poolMaxSize = 10;
+    
+    // Read replicas as {host, port}; reads are routed to them once the pool starts
+    private final List<String[]> replicaHosts = new ArrayList<>();
+    private volatile ReplicaRouter router = null;
+    
+    // Asynchronous execution
+    private ExecutorService asyncExecutor = null;
+    private boolean ownsAsyncExecutor = false;
+    private Semaphore asyncPermits = null;
+    
+    // Bulk insert defaults
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_BATCHES_PER_COMMIT = 10;
+    private volatile boolean printProgress = true;
+    
+    // Transactions: retries after serialization failures and deadlocks
+    private volatile int txMaxRetries = 3;
+    private static final long TX_RETRY_BASE_MILLIS = 10;
+    
+    // Connection resilience: timeouts in seconds (0 = none), failover hosts,
+    // retries with jittered exponential backoff and a circuit breaker
+    private volatile int connectTimeoutSeconds = 10;
+    private volatile int socketTimeoutSeconds = 0;
+    private volatile int statementTimeoutSeconds = 0;
+    private final List<String> failoverHosts = new ArrayList<>();
+    private volatile int connectMaxRetries = 3;
+    private volatile long retryBaseMillis = 50;
+    private volatile long retryMaxMillis = 2000;
+    private final CircuitBreaker breaker = new CircuitBreaker();
+    
+    // Rows fetched per round trip when streaming results
+    private volatile int fetchSize = 500;
+    
+    // Console output of showRecords; each call takes its own renderer, and
+    // renderers that finished cleanly are kept for reuse of their buffers
+    private static final int IDLE_RENDERERS = 4;
+    private volatile ResultRenderer.Format outputFormat = ResultRenderer.Format.ALIGNED;
+    private final BlockingQueue<ResultRenderer> idleRenderers = new ArrayBlockingQueue<>(IDLE_RENDERERS);
+    
+    // Schema metadata cache
+    private static final String DEFAULT_SCHEMA = "public";
+    private static final long DEFAULT_SCHEMA_TTL_MILLIS = 5 * 60 * 1000;
+    private static final String CATALOG_FINGERPRINT_SQL =
+        "SELECT (SELECT count(*) || ':' || coalesce(sum(c.xmin::text::bigint), 0) FROM pg_class c "
+        + "JOIN pg_namespace n ON n.oid = c.relnamespace "
+        + "WHERE n.nspname NOT IN ('pg_catalog', 'information_schema')) || '/' || "
+        + "(SELECT count(*) || ':' || coalesce(sum(a.xmin::text::bigint), 0) FROM pg_attribute a "
+        + "JOIN pg_class c ON c.oid = a.attrelid JOIN pg_namespace n ON n.oid = c.relnamespace "
+        + "WHERE a.attnum > 0 AND n.nspname NOT IN ('pg_catalog', 'information_schema')) || '/' || "
+        + "(SELECT count(*) || ':' || coalesce(sum(xmin::text::bigint), 0) FROM pg_constraint)";
+    private final SchemaCache schemaCache = new SchemaCache(DEFAULT_SCHEMA_TTL_MILLIS);
+    
+    // Login verification cache, cleared when this instance writes to the credentials table
+    private static final String CREDENTIALS_TABLE = "userscredentials";
+    private final CredentialVerifier credentials = new CredentialVerifier(this::loadStoredPassword);
+    
+    // Opt-in cache of runQuery results (null when disabled)
+    private volatile QueryResultCache queryCache = null;
+    
+    // Operation metrics (also published over JMX)
+    private final DBMetrics metrics = new DBMetrics();
+    
+    // Per-statement latency statistics and slow-query log
+    private final StatementProfiler profiler = new StatementProfiler();
+    
+    // COPY streaming settings
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] PGCOPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    
+    /**
+     * File formats supported by copyIn/copyOut
+     */
+    public enum CopyFormat {
+        CSV,
+        BINARY
+    }
+    
+    /**
+     * A database call that can be repeated
+     */
+    @FunctionalInterface
+    private interface SQLCall<T> {
+        T call() throws SQLException;
+    }
+    
+    /**
+     * Maps the current row of a ResultSet to an object
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T mapRow(ResultSet rs) throws SQLException;
+    }
+    
+    /**
+     * Receives each row of a query result
+     */
+    @FunctionalInterface
+    public interface RowCallback {
+        void processRow(ResultSet rs) throws SQLException;
+    }
+    
+    /**
+     * Wraps SQLExceptions thrown where checked exceptions are not allowed (streams)
+     */
+    public static class UncheckedSQLException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        public UncheckedSQLException(SQLException cause) {
+            super(cause.getMessage(), cause);
+        }
+        
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
     
     // Default constructor with common PostgreSQL defaults
     public MyDBMagic() {
@@ -49,36 +190,485 @@ public class MyDBMagic implements AutoCloseable {
         this.database = database;
         this.username = username;
         this.password = password;
-        LOGGER.info("MyDBMagic initialized with custom settings for database: " + database);
+        LOGGER.info("MyDBMagic initialized with custom settings for database: {}", database);
+    }
+    
+    /**
+     * Sets the connection pool size; must be called before the first connection
+     * 
+     * @param minSize Connections kept open even when idle
+     * @param maxSize Maximum number of connections in use at the same time
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic poolSize(int minSize, int maxSize) {
+        synchronized (poolLock) {
+            if (pool != null) {
+                throw new IllegalStateException("Pool size must be set before the first connection");
+            }
+            this.poolMinSize = minSize;
+            this.poolMaxSize = maxSize;
+        }
+        return this;
+    }
+    
+    /**
+     * Adds a read replica of the database; must be called before the first
+     * connection. Queries, metadata lookups, showRecords and login then
+     * read from the replicas, while writes stay on the primary.
+     * 
+     * @param host Replica host name
+     * @param port Replica port
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic replica(String host, String port) {
+        synchronized (poolLock) {
+            if (pool != null) {
+                throw new IllegalStateException("Replicas must be added before the first connection");
+            }
+            replicaHosts.add(new String[]{host, port});
+        }
+        return this;
+    }
+    
+    /**
+     * Sets the connection timeouts; must be called before the first connection.
+     * The socket timeout should be longer than the statement timeout, or
+     * slow statements are cut off as lost connections.
+     * 
+     * @param connectSeconds Time allowed to open a connection
+     * @param socketSeconds Time allowed to wait for the server on an open connection (0 = no limit)
+     * @param statementSeconds Time after which the server cancels a statement (0 = no limit)
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic timeouts(int connectSeconds, int socketSeconds, int statementSeconds) {
+        if (connectSeconds < 0 || socketSeconds < 0 || statementSeconds < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        }
+        synchronized (poolLock) {
+            if (pool != null) {
+                throw new IllegalStateException("Timeouts must be set before the first connection");
+            }
+            this.connectTimeoutSeconds = connectSeconds;
+            this.socketTimeoutSeconds = socketSeconds;
+            this.statementTimeoutSeconds = statementSeconds;
+        }
+        return this;
+    }
+    
+    /**
+     * Lists the servers of the primary database in failover order; must be
+     * called before the first connection. New connections go to the first
+     * reachable server that accepts writes, so after a failover the pool
+     * reconnects to the promoted standby.
+     * 
+     * @param hostPorts Servers as "host:port" (or "host" for the configured port)
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic hosts(String... hostPorts) {
+        if (hostPorts.length == 0) {
+            throw new IllegalArgumentException("At least one host is required");
+        }
+        synchronized (poolLock) {
+            if (pool != null) {
+                throw new IllegalStateException("Hosts must be set before the first connection");
+            }
+            failoverHosts.clear();
+            for (String hostPort : hostPorts) {
+                failoverHosts.add(hostPort.contains(":") ? hostPort : hostPort + ":" + this.port);
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * Sets how failed connection attempts and reads on a lost connection are
+     * retried. The wait before retry n is random between 0 and
+     * min(maxMillis, baseMillis * 2^(n-1)), so clients do not retry in step.
+     * 
+     * @param maxRetries Retries after the first attempt (0 disables retrying)
+     * @param baseMillis Longest wait before the first retry
+     * @param maxMillis Upper bound of the wait
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic retries(int maxRetries, long baseMillis, long maxMillis) {
+        if (maxRetries < 0 || baseMillis <= 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("Retries cannot be negative, base wait must be positive and <= max");
+        }
+        this.connectMaxRetries = maxRetries;
+        this.retryBaseMillis = baseMillis;
+        this.retryMaxMillis = maxMillis;
+        return this;
+    }
+    
+    /**
+     * Returns the circuit breaker guarding connections to the primary,
+     * e.g. to change its thresholds with configure()
+     * 
+     * @return CircuitBreaker of this instance
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+    
+    /**
+     * Returns the connection pool, creating it on first use
+     * 
+     * @return ConnectionPool used by this instance
+     * @throws SQLException if the JDBC driver cannot be loaded
+     */
+    public ConnectionPool getPool() throws SQLException {
+        ConnectionPool current = pool;
+        if (current != null) {
+            return current;
+        }
+        
+        synchronized (poolLock) {
+            if (pool == null) {
+                String url = jdbcUrl();
+                try {
+                    Class.forName("org.postgresql.Driver");
+                } catch (ClassNotFoundException e) {
+                    LOGGER.severe("PostgreSQL JDBC Driver not found");
+                    throw new SQLException("PostgreSQL JDBC Driver not found", e);
+                }
+                
+                ConnectionPool primary = new ConnectionPool(url, connectionProperties(), poolMinSize, poolMaxSize);
+                if (!replicaHosts.isEmpty()) {
+                    Map<String, ConnectionPool> replicas = new LinkedHashMap<>();
+                    for (String[] replica : replicaHosts) {
+                        replicas.put(replica[0] + ":" + replica[1], new ConnectionPool(jdbcUrl(replica[0], replica[1]),
+                            connectionProperties(), poolMinSize, poolMaxSize));
+                    }
+                    router = new ReplicaRouter(primary, replicas);
+                    LOGGER.info("✓ Routing reads to replicas: {}", replicas.keySet());
+                }
+                pool = primary;
+                registerMetrics(pool);
+                LOGGER.info("✓ Connection pool ready for: {}", url);
+            }
+            return pool;
+        }
+    }
+    
+    private String jdbcUrl() {
+        if (failoverHosts.isEmpty()) {
+            return jdbcUrl("localhost", this.port);
+        }
+        return "jdbc:postgresql://" + String.join(",", failoverHosts) + "/" + this.database
+            + "?targetServerType=primary&hostRecheckSeconds=10";
+    }
+    
+    private String jdbcUrl(String host, String hostPort) {
+        return "jdbc:postgresql://" + host + ":" + hostPort + "/" + this.database;
+    }
+    
+    private Properties connectionProperties() {
+        Properties props = new Properties();
+        props.setProperty("user", this.username);
+        props.setProperty("password", this.password);
+        props.setProperty("connectTimeout", String.valueOf(connectTimeoutSeconds));
+        props.setProperty("socketTimeout", String.valueOf(socketTimeoutSeconds));
+        if (statementTimeoutSeconds > 0) {
+            props.setProperty("options", "-c statement_timeout=" + statementTimeoutSeconds + "s");
+        }
+        return props;
+    }
+    
+    /**
+     * Opens a connection outside the pool, for long-lived uses such as LISTEN
+     */
+    private Connection openDedicatedConnection() throws SQLException {
+        getPool(); // loads the driver
+        return DriverManager.getConnection(jdbcUrl(), connectionProperties());
     }
     
     /**
-     * Establishes connection to the PostgreSQL database
+     * Borrows a connection to the PostgreSQL database from the pool.
+     * Closing the returned connection gives it back to the pool.
      * 
      * @return Connection object
      * @throws SQLException if connection fails
      */
     public Connection connectDB() throws SQLException {
-        if (connection != null && !connection.isClosed()) {
-            return connection;
+        ConnectionPool primary = getPool();
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                breaker.acquire();
+            } catch (CircuitBreaker.OpenException e) {
+                metrics.record(DBMetrics.Operation.CONNECT, start, 0, false);
+                throw e;
+            }
+            try {
+                Connection conn = primary.borrow();
+                breaker.onSuccess();
+                metrics.record(DBMetrics.Operation.CONNECT, start, 0, true);
+                return conn;
+            } catch (SQLException | RuntimeException e) {
+                breaker.onFailure(e);
+                metrics.record(DBMetrics.Operation.CONNECT, start, 0, false);
+                // Only retry when the server could not be reached, not when the pool is exhausted
+                if (attempt > connectMaxRetries || !(e instanceof SQLException)
+                        || !CircuitBreaker.isConnectionFailure((SQLException) e)) {
+                    LOGGER.severe("Failed to connect to database: {}", e.getMessage());
+                    throw e;
+                }
+                LOGGER.warning("Connection attempt {} failed, retrying: {}", attempt, e.getMessage());
+                pauseBeforeRetry(attempt, (SQLException) e);
+            }
         }
-        
-        String url = "jdbc:postgresql://localhost:" + this.port + "/" + this.database;
-        
+    }
+    
+    /**
+     * Runs an idempotent read, repeating it on a new connection when the
+     * connection is lost midway (e.g. the server restarted or failed over)
+     */
+    private <T> T withRetry(SQLCall<T> call) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (SQLException e) {
+                if (attempt > connectMaxRetries || !CircuitBreaker.isConnectionLost(e)) {
+                    throw e;
+                }
+                LOGGER.warning("Connection lost during read (attempt {}), retrying: {}", attempt, e.getMessage());
+                pauseBeforeRetry(attempt, e);
+            }
+        }
+    }
+    
+    /**
+     * Sleeps for a random time up to the backoff of the given attempt
+     * ("full jitter"); rethrows the failure if interrupted
+     */
+    private void pauseBeforeRetry(int attempt, SQLException failure) throws SQLException {
+        long ceiling = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+    
+    /**
+     * Borrows a connection for read-only work: from the least busy healthy
+     * replica when replicas are configured, otherwise from the primary.
+     * Replicas may lag behind, so use connectDB() to read your own writes.
+     * 
+     * @return Connection object; closing it gives it back to its pool
+     * @throws SQLException if connection fails
+     */
+    public Connection connectReadDB() throws SQLException {
+        return connectReadDB(null);
+    }
+    
+    /**
+     * Borrows a connection for a statement, sending anything that is not
+     * a plain read (e.g. SELECT ... FOR UPDATE or nextval) to the primary
+     */
+    private Connection connectReadDB(String sql) throws SQLException {
+        getPool();
+        ReplicaRouter current = router;
+        if (current == null) {
+            return connectDB();
+        }
+        long start = System.nanoTime();
         try {
-            Class.forName("org.postgresql.Driver");
-            connection = DriverManager.getConnection(url, this.username, this.password);
-            LOGGER.info("✓ Connected successfully to: " + url);
-            return connection;
-        } catch (ClassNotFoundException e) {
-            LOGGER.severe("PostgreSQL JDBC Driver not found");
-            throw new SQLException("PostgreSQL JDBC Driver not found", e);
+            Connection conn = sql == null ? current.read() : current.forStatement(sql);
+            metrics.record(DBMetrics.Operation.CONNECT, start, 0, true);
+            return conn;
         } catch (SQLException e) {
-            LOGGER.severe("Failed to connect to database: " + e.getMessage());
+            metrics.record(DBMetrics.Operation.CONNECT, start, 0, false);
+            LOGGER.severe("Failed to connect to database: {}", e.getMessage());
             throw e;
         }
     }
     
+    /**
+     * Returns the replica router
+     * 
+     * @return ReplicaRouter, or null if no replicas are configured or no connection was made yet
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return router;
+    }
+    
+    /**
+     * Returns the operation metrics of this instance
+     * 
+     * @return DBMetrics with counters and latency histograms per operation
+     */
+    public DBMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Publishes pool and cache gauges and registers the metrics MBean
+     */
+    private void registerMetrics(ConnectionPool connectionPool) {
+        metrics.registerGauge("pool.active", () -> connectionPool.getActiveCount());
+        metrics.registerGauge("pool.idle", () -> connectionPool.getIdleCount());
+        metrics.registerGauge("pool.waiters", () -> connectionPool.getWaiterCount());
+        metrics.registerGauge("pool.avgBorrowMicros", () -> connectionPool.getAverageBorrowMicros());
+        metrics.registerGauge("statementCache.hits", () -> connectionPool.getStatementCacheHits());
+        metrics.registerGauge("statementCache.misses", () -> connectionPool.getStatementCacheMisses());
+        metrics.registerGauge("schemaCache.hitRatio", () -> schemaCache.getHitRatio());
+        metrics.registerGauge("profiler.fingerprints", () -> profiler.getFingerprintCount());
+        metrics.registerGauge("profiler.droppedSlowEntries", () -> profiler.getDroppedSlowEntries());
+        metrics.registerGauge("circuitBreaker.state", () -> breaker.getState().name());
+        metrics.registerGauge("circuitBreaker.opened", () -> breaker.getOpenedCount());
+        metrics.registerGauge("circuitBreaker.rejected", () -> breaker.getRejectedCount());
+        ReplicaRouter current = router;
+        if (current != null) {
+            metrics.registerGauge("replicas.available", () -> current.getAvailableCount());
+            metrics.registerGauge("replicas.reads", () -> current.getReplicaReads());
+            metrics.registerGauge("replicas.primaryFallbacks", () -> current.getPrimaryFallbacks());
+            metrics.registerGauge("replicas.ejections", () -> current.getEjections());
+        }
+        metrics.registerMBean(this.database + "@" + Integer.toHexString(System.identityHashCode(this)));
+    }
+    
+    /**
+     * Returns the statement profiler, e.g. to set the slow-query threshold
+     * or log file, or to print the most expensive statements
+     * 
+     * @return StatementProfiler of this instance
+     */
+    public StatementProfiler getProfiler() {
+        return profiler;
+    }
+    
+    /**
+     * Turns on or off capturing EXPLAIN (ANALYZE, BUFFERS) for slow read-only
+     * statements in the slow-query log. The plan is taken on a separate
+     * connection, which runs the statement a second time.
+     * 
+     * @param enabled Whether to capture plans
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic explainSlowQueries(boolean enabled) {
+        profiler.explainWith(enabled ? this::connectReadDB : null);
+        return this;
+    }
+    
+    /**
+     * Turns on or off the progress lines insertBatch prints to the console
+     * 
+     * @param enabled Whether to print progress (on by default)
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic printProgress(boolean enabled) {
+        this.printProgress = enabled;
+        return this;
+    }
+    
+    /**
+     * Sets how many rows are fetched per round trip when streaming results
+     * 
+     * @param rows Fetch size (must be positive)
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic fetchSize(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive");
+        }
+        this.fetchSize = rows;
+        return this;
+    }
+    
+    /**
+     * Enables caching of runQuery results. Writes made through this
+     * instance invalidate the affected entries; call listenForInvalidations()
+     * to also see writes made by other clients. Cache misses are read from
+     * the primary, so rows from a lagging replica are never cached.
+     * 
+     * @param cache Cache to use, or null to disable caching
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic queryCache(QueryResultCache cache) {
+        QueryResultCache previous = this.queryCache;
+        this.queryCache = cache;
+        if (previous != null && previous != cache) {
+            previous.close();
+        }
+        if (cache != null) {
+            metrics.registerGauge("queryCache.hitRatio", () -> cache.getHitRatio());
+            metrics.registerGauge("queryCache.entries", () -> cache.getEntryCount());
+            metrics.registerGauge("queryCache.bytes", () -> cache.getMemoryBytes());
+        }
+        return this;
+    }
+    
+    /**
+     * Gets the runQuery result cache
+     * 
+     * @return QueryResultCache, or null if caching is disabled
+     */
+    public QueryResultCache getQueryCache() {
+        return queryCache;
+    }
+    
+    /**
+     * Invalidates cached query results when other clients write, using
+     * LISTEN on a dedicated connection. Tables need a trigger that sends
+     * the table name, e.g. PERFORM pg_notify('channel', TG_TABLE_NAME).
+     * 
+     * @param channel Notification channel name
+     */
+    public void listenForInvalidations(String channel) {
+        QueryResultCache cache = queryCache;
+        if (cache == null) {
+            throw new IllegalStateException("Query cache is not enabled");
+        }
+        cache.listen(this::openDedicatedConnection, channel);
+    }
+    
+    private void invalidateCachedResults(String sql) {
+        QueryResultCache cache = queryCache;
+        if (cache != null) {
+            cache.invalidateForStatement(sql);
+        }
+        // Statements whose tables cannot be determined may have changed credentials too
+        Set<String> tables = QueryResultCache.tablesWritten(sql);
+        if (tables.isEmpty() || tables.contains(CREDENTIALS_TABLE)) {
+            credentials.invalidateAll();
+        }
+    }
+    
+    private void invalidateCachedTable(String tableName) {
+        QueryResultCache cache = queryCache;
+        if (cache != null) {
+            cache.invalidateTable(tableName);
+        }
+        if (QueryResultCache.tableKey(tableName).equals(CREDENTIALS_TABLE)) {
+            credentials.invalidateAll();
+        }
+    }
+    
+    /**
+     * Sets the format showRecords writes rows in
+     * 
+     * @param format Output format
+     * @return this MyDBMagic object for method chaining
+     */
+    public MyDBMagic outputFormat(ResultRenderer.Format format) {
+        if (format == null) {
+            throw new IllegalArgumentException("Output format cannot be null");
+        }
+        this.outputFormat = format;
+        return this;
+    }
+    
+    /**
+     * Gets the format showRecords writes rows in
+     * 
+     * @return Current output format
+     */
+    public ResultRenderer.Format getOutputFormat() {
+        return outputFormat;
+    }
+    
     /**
      * Gets the current database name
      * 
@@ -100,7 +690,17 @@ public class MyDBMagic implements AutoCloseable {
      * Guides user through table creation process
      */
     public void createTable() {
-        try (Scanner scanner = new Scanner(System.in)) {
+        createTable(new Scanner(System.in));
+    }
+    
+    /**
+     * Interactive table creation reading answers from the given Scanner.
+     * The Scanner is left open, so callers can keep using System.in.
+     * 
+     * @param scanner Source of the user's answers
+     */
+    public void createTable(Scanner scanner) {
+        try {
             boolean hasPrimaryKey = false;
             
             System.out.print("Enter table name: ");
@@ -170,7 +770,7 @@ public class MyDBMagic implements AutoCloseable {
             }
             
         } catch (Exception e) {
-            LOGGER.severe("Error in createTable: " + e.getMessage());
+            LOGGER.severe("Error in createTable: {}", e.getMessage());
             System.err.println("Error creating table: " + e.getMessage());
         }
     }
@@ -191,20 +791,46 @@ public class MyDBMagic implements AutoCloseable {
             throw new IllegalArgumentException("All arrays must have the same length");
         }
         
-        StringBuilder sql = new StringBuilder();
-        sql.append("CREATE TABLE ").append(tableName).append(" (");
-        
+        TableDefinition table = new TableDefinition(tableName);
         for (int i = 0; i < fieldNames.length; i++) {
-            if (i > 0) sql.append(", ");
-            
-            sql.append(fieldNames[i]).append(" ").append(fieldTypes[i]);
+            Field field = new Field(fieldNames[i], fieldTypes[i]);
             if (isTrue(isPrimaryKey[i])) {
-                sql.append(" PRIMARY KEY");
+                field.primaryKey();
             }
+            table.field(field);
         }
-        sql.append(")");
         
-        runUpdate(sql.toString());
+        try {
+            createTables(table);
+            System.out.println("✓ Table '" + tableName + "' created successfully");
+        } catch (SQLException e) {
+            LOGGER.severe("Error creating table: {}", e.getMessage());
+            System.err.println("Error creating table: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Creates tables (and their indexes) in a single transaction, so either
+     * all of them exist afterwards or none do. Tables referenced by foreign
+     * keys are created first.
+     * 
+     * @param tables Table definitions
+     * @throws SQLException if any statement fails (nothing is created then)
+     */
+    public void createTables(TableDefinition... tables) throws SQLException {
+        List<TableDefinition> ordered = TableDefinition.inCreationOrder(Arrays.asList(tables));
+        inTransaction(tx -> {
+            for (TableDefinition table : ordered) {
+                for (String sql : table.toStatements()) {
+                    tx.update(sql);
+                }
+                LOGGER.fine("Created table: {}", table.getName());
+            }
+        });
+        for (TableDefinition table : ordered) {
+            schemaCache.invalidate(table.getName());
+        }
+        LOGGER.info("Created {} table(s)", ordered.size());
     }
     
     /**
@@ -217,73 +843,1067 @@ public class MyDBMagic implements AutoCloseable {
         try (Connection conn = connectDB();
              Statement stmt = conn.createStatement()) {
             
-            stmt.executeUpdate(query);
+            long start = System.nanoTime();
+            int count;
+            try {
+                count = stmt.executeUpdate(query);
+            } catch (SQLException e) {
+                metrics.record(DBMetrics.Operation.RUN_UPDATE, start, 0, false);
+                profiler.record(query, null, start, 0, false);
+                throw e;
+            }
+            metrics.record(DBMetrics.Operation.RUN_UPDATE, start, count, true);
+            profiler.record(query, null, start, count, true);
+            schemaCache.invalidateForStatement(query);
+            invalidateCachedResults(query);
             System.out.println("✓ Query executed successfully");
-            LOGGER.info("Query executed: " + query);
+            LOGGER.info("Query executed: {}", query);
             return true;
             
         } catch (SQLException e) {
-            LOGGER.severe("Error executing update: " + e.getMessage());
+            LOGGER.severe("Error executing update: {}", e.getMessage());
             System.err.println("Error executing query: " + e.getMessage());
             return false;
         }
     }
     
     /**
-     * Executes SELECT queries
+     * Executes a parameterized UPDATE, INSERT or DELETE statement.
+     * The statement is prepared once per connection and reused from the cache;
+     * without parameters it runs on a plain, uncached Statement.
      * 
-     * @param query SQL SELECT query
-     * @return ResultSet containing query results
-     * @throws SQLException if query execution fails
+     * @param query SQL with ? placeholders
+     * @param params Values bound to the placeholders in order
+     * @return number of affected rows
+     * @throws SQLException if execution fails
      */
-    public ResultSet runQuery(String query) throws SQLException {
-        Connection conn = connectDB();
-        Statement stmt = conn.createStatement();
-        LOGGER.info("Executing query: " + query);
-        return stmt.executeQuery(query);
+    public int runUpdate(String query, Object... params) throws SQLException {
+        try (Connection conn = connectDB()) {
+            long start = System.nanoTime();
+            int count;
+            try {
+                count = executeUpdate(getPool(), conn, query, params);
+            } catch (SQLException e) {
+                metrics.record(DBMetrics.Operation.RUN_UPDATE, start, 0, false);
+                profiler.record(query, params, start, 0, false);
+                throw e;
+            }
+            metrics.record(DBMetrics.Operation.RUN_UPDATE, start, count, true);
+            profiler.record(query, params, start, count, true);
+            schemaCache.invalidateForStatement(query);
+            invalidateCachedResults(query);
+            LOGGER.fine("Query executed: {}", query);
+            return count;
+        }
     }
     
     /**
-     * Drops a table from the database
+     * Sets how often inTransaction() re-runs its work after a serialization
+     * failure (SQLState 40001) or deadlock (40P01)
      * 
-     * @param tableName Name of table to drop
+     * @param retries Maximum number of retries (0 disables retrying)
+     * @return this MyDBMagic object for method chaining
      */
-    public void deleteTable(String tableName) {
-        if (tableName == null || tableName.trim().isEmpty()) {
-            System.err.println("Table name cannot be empty!");
-            return;
-        }
-        
-        String query = "DROP TABLE IF EXISTS " + tableName;
+    public MyDBMagic txRetries(int retries) {
+        this.txMaxRetries = retries;
+        return this;
+    }
+    
+    /**
+     * Runs a unit of work in one READ COMMITTED transaction
+     * 
+     * @param work Statements to run through the TxContext
+     * @throws SQLException if the work or the commit fails
+     */
+    public void inTransaction(Consumer<TxContext> work) throws SQLException {
+        inTransaction(Connection.TRANSACTION_READ_COMMITTED, work);
+    }
+    
+    /**
+     * Runs a unit of work in one transaction with the given isolation level
+     * 
+     * @param isolation A Connection.TRANSACTION_* constant
+     * @param work Statements to run through the TxContext
+     * @throws SQLException if the work or the commit fails
+     */
+    public void inTransaction(int isolation, Consumer<TxContext> work) throws SQLException {
+        callInTransaction(isolation, tx -> {
+            work.accept(tx);
+            return null;
+        });
+    }
+    
+    /**
+     * Runs a unit of work in one transaction and returns its result.
+     * All statements share one pinned connection and are committed once at
+     * the end. The work is rolled back if it throws, and re-run from the
+     * start (so it must not have side effects outside the database) when
+     * the transaction fails with a serialization failure or deadlock.
+     * 
+     * @param isolation A Connection.TRANSACTION_* constant
+     * @param work Statements to run through the TxContext
+     * @return the value returned by the work
+     * @throws SQLException if the work or the commit fails
+     */
+    public <T> T callInTransaction(int isolation, Function<TxContext, T> work) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                T result = runTransaction(isolation, work, attempt);
+                metrics.record(DBMetrics.Operation.TRANSACTION, start, 0, true);
+                return result;
+            } catch (SQLException e) {
+                metrics.record(DBMetrics.Operation.TRANSACTION, start, 0, false);
+                if (attempt > txMaxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                long backoff = TX_RETRY_BASE_MILLIS << Math.min(attempt - 1, 6);
+                LOGGER.info("Retrying transaction after {} (attempt {})", e.getSQLState(), attempt);
+                try {
+                    Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    private <T> T runTransaction(int isolation, Function<TxContext, T> work, int attempt) throws SQLException {
+        try (Connection conn = connectDB()) {
+            int previousIsolation = conn.getTransactionIsolation();
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(isolation);
+            Throwable failure = null;
+            try {
+                TxContext tx = new TxContext(conn, getPool(), metrics, profiler, attempt);
+                T result = work.apply(tx);
+                if (tx.isRollbackOnly()) {
+                    conn.rollback();
+                } else {
+                    conn.commit();
+                    // Other readers only see the writes (and DDL) now, so invalidate after the commit
+                    for (String sql : tx.getWrites()) {
+                        schemaCache.invalidateForStatement(sql);
+                        invalidateCachedResults(sql);
+                    }
+                }
+                return result;
+            } catch (UncheckedSQLException e) {
+                rollbackQuietly(conn);
+                failure = e.getCause();
+                throw e.getCause();
+            } catch (SQLException | RuntimeException | Error e) {
+                rollbackQuietly(conn);
+                failure = e;
+                throw e;
+            } finally {
+                restoreConnection(conn, previousIsolation, failure);
+            }
+        }
+    }
+    
+    /**
+     * Puts a transaction's connection back into auto-commit mode at its
+     * previous isolation level. If that fails, the error is added to the
+     * exception the transaction is failing with, or only logged after a
+     * successful commit, which must not be reported (and retried) as failed.
+     */
+    private static void restoreConnection(Connection conn, int isolation, Throwable failure) {
+        try {
+            conn.setAutoCommit(true);
+            conn.setTransactionIsolation(isolation);
+        } catch (SQLException e) {
+            if (failure != null) {
+                failure.addSuppressed(e);
+            } else {
+                LOGGER.warning("Could not reset connection after transaction: {}", e.getMessage());
+            }
+        }
+    }
+    
+    private static boolean isRetryable(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            if ("40001".equals(cause.getSQLState()) || "40P01".equals(cause.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            LOGGER.warning("Rollback failed: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Bulk-inserts rows into a table using JDBC batches and the default
+     * batch size and commit interval
+     * 
+     * @param tableName Name of the table
+     * @param rows Row values in table column order
+     * @return number of rows inserted
+     * @throws SQLException if the table is unknown or an insert fails
+     */
+    public long insertBatch(String tableName, Iterator<Object[]> rows) throws SQLException {
+        return insertBatch(tableName, rows, DEFAULT_BATCH_SIZE, DEFAULT_BATCHES_PER_COMMIT);
+    }
+    
+    /**
+     * Bulk-inserts rows into a table using JDBC batches.
+     * Rows are pulled from the iterator as needed, so they never have to be
+     * held in memory all at once. The column list and parameter types come
+     * from getTableFields(tableName).
+     * 
+     * @param tableName Name of the table
+     * @param rows Row values in table column order
+     * @param batchSize Rows sent to the server per executeBatch()
+     * @param batchesPerCommit Batches grouped into one transaction
+     * @return number of rows inserted
+     * @throws SQLException if the table is unknown or an insert fails
+     */
+    public long insertBatch(String tableName, Iterator<Object[]> rows,
+                            int batchSize, int batchesPerCommit) throws SQLException {
+        if (tableName == null || tableName.trim().isEmpty()) {
+            throw new IllegalArgumentException("Table name cannot be empty!");
+        }
+        if (batchSize <= 0 || batchesPerCommit <= 0) {
+            throw new IllegalArgumentException("Batch size and batches per commit must be positive");
+        }
+        
+        Field[] fields = getTableFields(tableName);
+        if (fields.length == 0) {
+            throw new SQLException("Table '" + tableName + "' not found or has no columns.");
+        }
+        
+        // Build INSERT with one placeholder per column
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(tableName).append(" (");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(fields[i].getName());
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < fields.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        sql.append(")");
+        
+        int[] sqlTypes = new int[fields.length];
+        boolean[] stringColumn = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            sqlTypes[i] = fields[i].getSqlType();
+            stringColumn[i] = sqlTypes[i] == Types.VARCHAR || sqlTypes[i] == Types.CHAR;
+        }
+        
+        long committed = 0;
+        long start = System.nanoTime();
+        
+        try (Connection conn = connectDB()) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = prepare(conn, sql.toString());
+                int rowsInBatch = 0;
+                int batchesSinceCommit = 0;
+                long pending = 0;
+                
+                while (rows.hasNext()) {
+                    Object[] row = rows.next();
+                    if (row == null || row.length != fields.length) {
+                        throw new SQLException("Row " + (committed + pending + 1) + " has "
+                            + (row == null ? 0 : row.length) + " values, table '" + tableName
+                            + "' has " + fields.length + " columns");
+                    }
+                    
+                    for (int i = 0; i < row.length; i++) {
+                        Object value = row[i];
+                        if (value == null) {
+                            pstmt.setNull(i + 1, sqlTypes[i]);
+                        } else if (value instanceof String && !stringColumn[i] && sqlTypes[i] != Types.OTHER) {
+                            // Let the driver convert text input to the column type
+                            pstmt.setObject(i + 1, value, sqlTypes[i]);
+                        } else {
+                            pstmt.setObject(i + 1, value);
+                        }
+                    }
+                    pstmt.addBatch();
+                    pending++;
+                    
+                    if (++rowsInBatch == batchSize) {
+                        pstmt.executeBatch();
+                        rowsInBatch = 0;
+                        if (++batchesSinceCommit == batchesPerCommit) {
+                            conn.commit();
+                            committed += pending;
+                            pending = 0;
+                            batchesSinceCommit = 0;
+                            reportInsertProgress(tableName, committed, start);
+                        }
+                    }
+                }
+                
+                if (rowsInBatch > 0) {
+                    pstmt.executeBatch();
+                }
+                conn.commit();
+                committed += pending;
+                
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                invalidateCachedTable(tableName);
+                metrics.record(DBMetrics.Operation.BULK_INSERT, start, committed, false);
+                // Batch failures carry the server error in the next exception
+                SQLException cause = e instanceof SQLException ? ((SQLException) e).getNextException() : null;
+                LOGGER.severe("Bulk insert into {} failed after {} committed rows: {}", tableName, committed,
+                    cause != null ? cause.getMessage() : e.getMessage());
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        
+        invalidateCachedTable(tableName);
+        metrics.record(DBMetrics.Operation.BULK_INSERT, start, committed, true);
+        reportInsertProgress(tableName, committed, start);
+        return committed;
+    }
+    
+    /**
+     * Prints bulk insert progress as total rows and rows per second
+     */
+    private void reportInsertProgress(String tableName, long rows, long startNanos) {
+        if (!printProgress) {
+            return;
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        double rate = seconds > 0 ? rows / seconds : 0;
+        System.out.printf("✓ %s: %,d rows inserted (%,.0f rows/sec)%n", tableName, rows, rate);
+    }
+    
+    /**
+     * Loads a table from a CSV (with header) or PostgreSQL binary COPY stream.
+     * Data is streamed in fixed-size buffers, so memory use does not depend
+     * on the size of the input.
+     * 
+     * @param tableName Name of the table to load
+     * @param in Input data
+     * @param format CSV or BINARY
+     * @return number of rows loaded
+     * @throws SQLException if the input does not match the table or the load fails
+     * @throws IOException if reading the input fails
+     */
+    public long copyIn(String tableName, InputStream in, CopyFormat format) throws SQLException, IOException {
+        Field[] fields = requireTableFields(tableName);
+        CountingInputStream counted = new CountingInputStream(in);
+        BufferedInputStream input = new BufferedInputStream(counted, COPY_BUFFER_SIZE);
+        
+        String columns;
+        if (format == CopyFormat.BINARY) {
+            checkBinaryCopyHeader(input, fields, tableName);
+            columns = columnList(fields);
+        } else {
+            input.mark(COPY_BUFFER_SIZE);
+            String header = new BufferedReader(new InputStreamReader(input, "UTF-8")).readLine();
+            input.reset();
+            columns = checkCsvHeader(header, fields, tableName);
+        }
+        
+        String sql = "COPY " + tableName + " (" + columns + ") FROM STDIN " + copyOptions(format);
+        long start = System.nanoTime();
+        try (Connection conn = connectDB()) {
+            CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+            long rows = copy.copyIn(sql, input, COPY_BUFFER_SIZE);
+            metrics.record(DBMetrics.Operation.COPY_IN, start, rows, true);
+            invalidateCachedTable(tableName);
+            LOGGER.info("Copied {} rows into {}", rows, tableName);
+            return rows;
+        } catch (SQLException | IOException e) {
+            metrics.record(DBMetrics.Operation.COPY_IN, start, 0, false);
+            throw e;
+        } finally {
+            metrics.addBytes(DBMetrics.Operation.COPY_IN, counted.count);
+        }
+    }
+    
+    /**
+     * Loads a table from CSV text with a header line
+     * 
+     * @param tableName Name of the table to load
+     * @param reader CSV input
+     * @return number of rows loaded
+     * @throws SQLException if the input does not match the table or the load fails
+     * @throws IOException if reading the input fails
+     */
+    public long copyIn(String tableName, Reader reader) throws SQLException, IOException {
+        Field[] fields = requireTableFields(tableName);
+        BufferedReader input = new BufferedReader(reader, COPY_BUFFER_SIZE);
+        
+        input.mark(COPY_BUFFER_SIZE);
+        String header = input.readLine();
+        input.reset();
+        String columns = checkCsvHeader(header, fields, tableName);
+        
+        String sql = "COPY " + tableName + " (" + columns + ") FROM STDIN " + copyOptions(CopyFormat.CSV);
+        long start = System.nanoTime();
+        try (Connection conn = connectDB()) {
+            CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+            long rows = copy.copyIn(sql, input, COPY_BUFFER_SIZE);
+            metrics.record(DBMetrics.Operation.COPY_IN, start, rows, true);
+            invalidateCachedTable(tableName);
+            LOGGER.info("Copied {} rows into {}", rows, tableName);
+            return rows;
+        } catch (SQLException | IOException e) {
+            metrics.record(DBMetrics.Operation.COPY_IN, start, 0, false);
+            throw e;
+        }
+    }
+    
+    /**
+     * Exports a table or the result of a SELECT query as CSV (with header)
+     * or PostgreSQL binary COPY data
+     * 
+     * @param tableOrQuery Table name, or a SELECT/WITH query
+     * @param out Destination stream
+     * @param format CSV or BINARY
+     * @return number of rows exported
+     * @throws SQLException if the table is unknown or the export fails
+     * @throws IOException if writing the output fails
+     */
+    public long copyOut(String tableOrQuery, OutputStream out, CopyFormat format) throws SQLException, IOException {
+        if (tableOrQuery == null || tableOrQuery.trim().isEmpty()) {
+            throw new IllegalArgumentException("Table name or query cannot be empty!");
+        }
+        
+        String source = tableOrQuery.trim();
+        String sql;
+        if (isQuery(source)) {
+            sql = "COPY (" + source + ") TO STDOUT " + copyOptions(format);
+        } else {
+            Field[] fields = requireTableFields(source);
+            sql = "COPY " + source + " (" + columnList(fields) + ") TO STDOUT " + copyOptions(format);
+        }
+        
+        CountingOutputStream counted = new CountingOutputStream(out);
+        BufferedOutputStream output = new BufferedOutputStream(counted, COPY_BUFFER_SIZE);
+        long start = System.nanoTime();
+        try (Connection conn = connectReadDB()) {
+            CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+            long rows = copy.copyOut(sql, output);
+            output.flush();
+            metrics.record(DBMetrics.Operation.COPY_OUT, start, rows, true);
+            LOGGER.info("Copied {} rows out of {}", rows, source);
+            return rows;
+        } catch (SQLException | IOException e) {
+            metrics.record(DBMetrics.Operation.COPY_OUT, start, 0, false);
+            throw e;
+        } finally {
+            metrics.addBytes(DBMetrics.Operation.COPY_OUT, counted.count);
+        }
+    }
+    
+    /**
+     * Counts the bytes read through it (for COPY metrics)
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        
+        private long count = 0;
+        
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+    
+    /**
+     * Counts the bytes written through it (for COPY metrics)
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        
+        private long count = 0;
+        
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+    
+    /**
+     * Returns the table's fields, failing if the table does not exist
+     */
+    private Field[] requireTableFields(String tableName) throws SQLException {
+        if (tableName == null || tableName.trim().isEmpty()) {
+            throw new IllegalArgumentException("Table name cannot be empty!");
+        }
+        Field[] fields = getTableFields(tableName.trim());
+        if (fields.length == 0) {
+            throw new SQLException("Table '" + tableName + "' not found or has no columns.");
+        }
+        return fields;
+    }
+    
+    private static boolean isQuery(String source) {
+        String head = source.length() > 6 ? source.substring(0, 6).toUpperCase() : source.toUpperCase();
+        return head.startsWith("SELECT") || head.startsWith("WITH") || head.startsWith("VALUES") || head.startsWith("TABLE ");
+    }
+    
+    private static String copyOptions(CopyFormat format) {
+        return format == CopyFormat.BINARY ? "WITH (FORMAT binary)" : "WITH (FORMAT csv, HEADER true)";
+    }
+    
+    private static String columnList(Field[] fields) {
+        StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) columns.append(", ");
+            columns.append(fields[i].getName());
+        }
+        return columns.toString();
+    }
+    
+    /**
+     * Checks a CSV header against the table columns
+     * 
+     * @return column list for the COPY statement, in header order
+     */
+    private static String checkCsvHeader(String header, Field[] fields, String tableName) throws SQLException {
+        if (header == null || header.trim().isEmpty()) {
+            throw new SQLException("CSV input for '" + tableName + "' has no header line");
+        }
+        
+        Map<String, Field> byName = new HashMap<>();
+        for (Field field : fields) {
+            byName.put(field.getName().toLowerCase(), field);
+        }
+        
+        Set<String> seen = new HashSet<>();
+        StringBuilder columns = new StringBuilder();
+        for (String raw : header.split(",", -1)) {
+            String name = raw.trim();
+            if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                name = name.substring(1, name.length() - 1);
+            }
+            Field field = byName.get(name.toLowerCase());
+            if (field == null) {
+                throw new SQLException("CSV column '" + name + "' does not exist in table '" + tableName + "'");
+            }
+            if (!seen.add(field.getName())) {
+                throw new SQLException("CSV column '" + name + "' appears more than once");
+            }
+            if (columns.length() > 0) columns.append(", ");
+            columns.append(field.getName());
+        }
+        
+        // Columns left out of the file must be able to take NULL or a default
+        for (Field field : fields) {
+            if (!seen.contains(field.getName()) && field.isPrimaryKey()) {
+                throw new SQLException("CSV input is missing primary key column '" + field.getName() + "'");
+            }
+        }
+        return columns.toString();
+    }
+    
+    /**
+     * Checks the PGCOPY signature and the column count of the first row
+     */
+    private static void checkBinaryCopyHeader(BufferedInputStream input, Field[] fields, String tableName)
+            throws SQLException, IOException {
+        input.mark(COPY_BUFFER_SIZE);
+        DataInputStream data = new DataInputStream(input);
+        
+        byte[] signature = new byte[PGCOPY_SIGNATURE.length];
+        data.readFully(signature);
+        if (!Arrays.equals(signature, PGCOPY_SIGNATURE)) {
+            throw new SQLException("Input is not a PostgreSQL binary COPY file");
+        }
+        data.readInt(); // flags
+        int extensionLength = data.readInt();
+        data.readFully(new byte[extensionLength]);
+        
+        short columnCount = data.readShort();
+        // -1 marks the end of data (empty file)
+        if (columnCount != -1 && columnCount != fields.length) {
+            throw new SQLException("Binary COPY rows have " + columnCount + " columns, table '"
+                + tableName + "' has " + fields.length);
+        }
+        input.reset();
+    }
+    
+    /**
+     * Executes SELECT queries
+     * Closing the returned ResultSet also releases its statement and connection.
+     * When a query cache is enabled, repeated reads are answered from it
+     * and misses are read from the primary.
+     * 
+     * @param query SQL SELECT query
+     * @return ResultSet containing query results
+     * @throws SQLException if query execution fails
+     */
+    public ResultSet runQuery(String query) throws SQLException {
+        QueryResultCache cache = queryCache;
+        if (cache != null) {
+            return cache.query(query, null, () -> withRetry(() -> executeQuery(query, true)));
+        }
+        return withRetry(() -> executeQuery(query, false));
+    }
+    
+    /**
+     * Runs a plain query; primary bypasses the replicas (used to fill the cache)
+     */
+    private ResultSet executeQuery(String query, boolean primary) throws SQLException {
+        Connection conn = primary ? connectDB() : connectReadDB(query);
+        Statement stmt = null;
+        long start = System.nanoTime();
+        try {
+            // Cursor-based fetching needs a transaction; the pool ends it on release
+            conn.setAutoCommit(false);
+            stmt = conn.createStatement();
+            stmt.setFetchSize(fetchSize);
+            if (LOGGER.isLoggable(DBLogger.Level.FINE)) {
+                LOGGER.fine("Executing query: {}", query);
+            }
+            ResultSet rs = stmt.executeQuery(query);
+            return closingResultSet(rs, query, null, start, stmt, conn);
+        } catch (SQLException | RuntimeException e) {
+            recordQuery(query, null, start, 0, false);
+            if (stmt != null) {
+                stmt.close();
+            }
+            conn.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Executes a parameterized SELECT query using the statement cache.
+     * Closing the returned ResultSet releases its connection.
+     * When a query cache is enabled, repeated reads are answered from it
+     * and misses are read from the primary.
+     * 
+     * @param query SQL SELECT query with ? placeholders
+     * @param params Values bound to the placeholders in order
+     * @return ResultSet containing query results
+     * @throws SQLException if query execution fails
+     */
+    public ResultSet runQuery(String query, Object... params) throws SQLException {
+        QueryResultCache cache = queryCache;
+        if (cache != null) {
+            return cache.query(query, params, () -> withRetry(() -> executeQuery(query, params, true)));
+        }
+        return withRetry(() -> executeQuery(query, params, false));
+    }
+    
+    private ResultSet executeQuery(String query, Object[] params, boolean primary) throws SQLException {
+        Connection conn = primary ? connectDB() : connectReadDB(query);
+        long start = System.nanoTime();
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement pstmt = prepare(conn, query);
+            bind(pstmt, params);
+            pstmt.setFetchSize(fetchSize);
+            if (LOGGER.isLoggable(DBLogger.Level.FINE)) {
+                LOGGER.fine("Executing query: {}", query);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            return closingResultSet(rs, query, params, start, conn);
+        } catch (SQLException | RuntimeException e) {
+            recordQuery(query, params, start, 0, false);
+            conn.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Runs a query and returns its rows as a lazily fetched Stream.
+     * Rows are read through a cursor in chunks of the fetch size. The
+     * statement and connection are released when the stream is closed or
+     * fully consumed, so use it in try-with-resources.
+     * 
+     * @param query SQL SELECT query with ? placeholders
+     * @param params Values bound to the placeholders in order (may be null)
+     * @param mapper Converts each row to an object
+     * @return Stream of mapped rows; SQL errors surface as UncheckedSQLException
+     * @throws SQLException if the query cannot be executed
+     */
+    public <T> Stream<T> stream(String query, Object[] params, RowMapper<T> mapper) throws SQLException {
+        Connection conn = connectReadDB(query);
+        ResultSet rs;
+        long start = System.nanoTime();
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement pstmt = prepare(conn, query);
+            bind(pstmt, params);
+            pstmt.setFetchSize(fetchSize);
+            LOGGER.fine("Streaming query: {}", query);
+            rs = pstmt.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            recordQuery(query, params, start, 0, false);
+            conn.close();
+            throw e;
+        }
+        
+        QueryCursor<T> cursor = new QueryCursor<>(conn, rs, mapper, query, params, start);
+        return StreamSupport.stream(cursor, false).onClose(cursor::release);
+    }
+    
+    /**
+     * Runs a query and passes every row to the callback, then releases
+     * the statement and connection
+     * 
+     * @param query SQL SELECT query with ? placeholders
+     * @param params Values bound to the placeholders in order (may be null)
+     * @param callback Receives each row
+     * @return number of rows processed
+     * @throws SQLException if the query or the callback fails
+     */
+    public long forEachRow(String query, Object[] params, RowCallback callback) throws SQLException {
+        try (Connection conn = connectReadDB(query)) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = prepare(conn, query);
+                bind(pstmt, params);
+                pstmt.setFetchSize(fetchSize);
+                LOGGER.fine("Iterating query: {}", query);
+                
+                long rows = 0;
+                long start = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        callback.processRow(rs);
+                        rows++;
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    metrics.record(DBMetrics.Operation.RUN_QUERY, start, rows, false);
+                    profiler.record(query, params, start, rows, false);
+                    throw e;
+                }
+                metrics.record(DBMetrics.Operation.RUN_QUERY, start, rows, true);
+                profiler.record(query, params, start, rows, true);
+                return rows;
+            } finally {
+                conn.rollback(); // read-only, nothing to keep
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+    
+    /**
+     * Runs a query and decodes the whole result into primitive column
+     * vectors (see ColumnarResult) instead of boxed objects per cell
+     * 
+     * @param query SQL SELECT query with ? placeholders
+     * @param params Values bound to the placeholders in order
+     * @return columnar result; close it to release its buffers early
+     * @throws SQLException if the query fails
+     */
+    public ColumnarResult queryColumnar(String query, Object... params) throws SQLException {
+        return withRetry(() -> readColumnar(query, params));
+    }
+    
+    private ColumnarResult readColumnar(String query, Object[] params) throws SQLException {
+        try (Connection conn = connectReadDB(query)) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = prepare(conn, query);
+                bind(pstmt, params);
+                pstmt.setFetchSize(fetchSize);
+                LOGGER.fine("Executing columnar query: {}", query);
+                
+                long start = System.nanoTime();
+                ColumnarResult result;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    result = ColumnarResult.from(rs);
+                } catch (SQLException | RuntimeException e) {
+                    metrics.record(DBMetrics.Operation.RUN_QUERY, start, 0, false);
+                    profiler.record(query, params, start, 0, false);
+                    throw e;
+                }
+                metrics.record(DBMetrics.Operation.RUN_QUERY, start, result.getRowCount(), true);
+                profiler.record(query, params, start, result.getRowCount(), true);
+                return result;
+            } finally {
+                conn.rollback(); // read-only, nothing to keep
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+    
+    /**
+     * Spliterator over an open ResultSet that releases its connection once
+     * the rows run out or the stream is closed, then records the query
+     * with the rows read and the time until release
+     */
+    private final class QueryCursor<T> extends Spliterators.AbstractSpliterator<T> {
+        
+        private final Connection conn;
+        private final ResultSet rs;
+        private final RowMapper<T> mapper;
+        private final String query;
+        private final Object[] params;
+        private final long start;
+        private long rows = 0;
+        private boolean failed = false;
+        private boolean released = false;
+        
+        private QueryCursor(Connection conn, ResultSet rs, RowMapper<T> mapper,
+                String query, Object[] params, long start) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.conn = conn;
+            this.rs = rs;
+            this.mapper = mapper;
+            this.query = query;
+            this.params = params;
+            this.start = start;
+        }
+        
+        @Override
+        public boolean tryAdvance(java.util.function.Consumer<? super T> action) {
+            if (released) {
+                return false;
+            }
+            try {
+                if (!rs.next()) {
+                    release();
+                    return false;
+                }
+                rows++;
+                action.accept(mapper.mapRow(rs));
+                return true;
+            } catch (SQLException e) {
+                failed = true;
+                release();
+                throw new UncheckedSQLException(e);
+            }
+        }
+        
+        private void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            recordQuery(query, params, start, rows, !failed);
+            try {
+                rs.close();
+            } catch (SQLException e) {
+                LOGGER.fine("Error closing result set: {}", e.getMessage());
+            }
+            try {
+                conn.close(); // the pool rolls back and restores auto-commit
+            } catch (SQLException e) {
+                LOGGER.warning("Error releasing connection: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Returns a cached PreparedStatement for a pooled connection; do not close it
+     */
+    private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        return getPool().prepare(conn, sql);
+    }
+    
+    /**
+     * Executes a write on a pooled connection. Statements with parameters
+     * are taken from the pool's statement cache; parameterless ones (DDL and
+     * one-off SQL, which are rarely repeated) run on a plain Statement so
+     * they do not evict the cached statements that are reused.
+     */
+    static int executeUpdate(ConnectionPool pool, Connection conn, String sql, Object[] params)
+            throws SQLException {
+        return executeUpdate(pool, conn, sql, params, stmt -> { });
+    }
+    
+    /**
+     * Same as executeUpdate, passing the statement to running before it
+     * executes (e.g. so it can be cancelled)
+     */
+    private static int executeUpdate(ConnectionPool pool, Connection conn, String sql, Object[] params,
+            Consumer<Statement> running) throws SQLException {
+        if (params == null || params.length == 0) {
+            try (Statement stmt = conn.createStatement()) {
+                running.accept(stmt);
+                return stmt.executeUpdate(sql);
+            }
+        }
+        PreparedStatement pstmt = pool.prepare(conn, sql);
+        bind(pstmt, params);
+        running.accept(pstmt);
+        return pstmt.executeUpdate();
+    }
+    
+    /**
+     * Binds parameters to a PreparedStatement in order
+     */
+    static void bind(PreparedStatement pstmt, Object[] params) throws SQLException {
+        if (params == null) {
+            return;
+        }
+        for (int i = 0; i < params.length; i++) {
+            pstmt.setObject(i + 1, params[i]);
+        }
+    }
+    
+    /**
+     * Wraps a ResultSet so that closing it also closes the resources it depends on.
+     * The query is recorded in the metrics and the profiler on the first close,
+     * with the rows read and the time from execution until then.
+     */
+    private ResultSet closingResultSet(ResultSet rs, String query, Object[] params, long start,
+            AutoCloseable... owners) {
+        long[] rowsRead = {0};
+        boolean[] state = {false, false}; // {failed, closed}
+        return (ResultSet) Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(),
+            new Class<?>[]{ResultSet.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("close")) {
+                    if (state[1]) {
+                        return null;
+                    }
+                    state[1] = true;
+                    recordQuery(query, params, start, rowsRead[0], !state[0]);
+                    try {
+                        rs.close();
+                    } finally {
+                        for (AutoCloseable owner : owners) {
+                            try {
+                                owner.close();
+                            } catch (Exception e) {
+                                LOGGER.warning("Error releasing query resources: {}", e.getMessage());
+                            }
+                        }
+                    }
+                    return null;
+                }
+                try {
+                    Object result = method.invoke(rs, args);
+                    if (Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+                        rowsRead[0]++;
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    if (method.getName().equals("next")) {
+                        state[0] = true;
+                    }
+                    throw e.getCause();
+                }
+            });
+    }
+    
+    /**
+     * Records a finished query in the metrics and the statement profiler
+     */
+    private void recordQuery(String query, Object[] params, long start, long rows, boolean success) {
+        metrics.record(DBMetrics.Operation.RUN_QUERY, start, rows, success);
+        profiler.record(query, params, start, rows, success);
+    }
+    
+    /**
+     * Drops a table from the database
+     * 
+     * @param tableName Name of table to drop
+     */
+    public void deleteTable(String tableName) {
+        if (tableName == null || tableName.trim().isEmpty()) {
+            System.err.println("Table name cannot be empty!");
+            return;
+        }
+        
+        String query = "DROP TABLE IF EXISTS " + tableName;
         System.out.println("Query to run: " + query);
         runUpdate(query);
+        schemaCache.invalidate(tableName);
     }
     
     /**
      * Displays all tables in the current database
      */
     public void showTables() {
-        try (Connection conn = connectDB()) {
-            DatabaseMetaData meta = conn.getMetaData();
-            try (ResultSet tables = meta.getTables(null, "public", "%", new String[]{"TABLE"})) {
-                System.out.println("\n=== Tables in database: " + this.database + " ===");
-                boolean hasResults = false;
-                while (tables.next()) {
-                    String tableName = tables.getString("TABLE_NAME");
-                    System.out.println("• " + tableName);
-                    hasResults = true;
-                }
-                if (!hasResults) {
-                    System.out.println("No tables found in the database.");
-                }
-                System.out.println();
+        try {
+            List<String> tables = getTables();
+            System.out.println("\n=== Tables in database: " + this.database + " ===");
+            for (String tableName : tables) {
+                System.out.println("• " + tableName);
+            }
+            if (tables.isEmpty()) {
+                System.out.println("No tables found in the database.");
             }
+            System.out.println();
         } catch (SQLException e) {
-            LOGGER.severe("Error showing tables: " + e.getMessage());
+            LOGGER.severe("Error showing tables: {}", e.getMessage());
             System.err.println("Error retrieving tables: " + e.getMessage());
         }
     }
     
+    /**
+     * Returns the names of the tables in the public schema
+     * 
+     * @return unmodifiable list of table names
+     * @throws SQLException if the catalog cannot be read
+     */
+    public List<String> getTables() throws SQLException {
+        refreshSchemaCacheIfChanged();
+        List<String> cached = schemaCache.getTables(DEFAULT_SCHEMA);
+        if (cached != null) {
+            return cached;
+        }
+        
+        List<String> tables;
+        long generation = schemaCache.getGeneration();
+        long start = System.nanoTime();
+        try {
+            tables = withRetry(this::readTableNames);
+        } catch (SQLException e) {
+            metrics.record(DBMetrics.Operation.METADATA, start, 0, false);
+            throw e;
+        }
+        metrics.record(DBMetrics.Operation.METADATA, start, tables.size(), true);
+        schemaCache.putTables(DEFAULT_SCHEMA, tables, generation);
+        return Collections.unmodifiableList(tables);
+    }
+    
+    private List<String> readTableNames() throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (Connection conn = connectReadDB()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            try (ResultSet rs = meta.getTables(null, DEFAULT_SCHEMA, "%", new String[]{"TABLE"})) {
+                while (rs.next()) {
+                    tables.add(rs.getString("TABLE_NAME"));
+                }
+            }
+        }
+        return tables;
+    }
+    
     /**
      * Displays field information for a specific table
      * 
@@ -295,55 +1915,33 @@ public class MyDBMagic implements AutoCloseable {
             return;
         }
         
-        try (Connection conn = connectDB()) {
-            DatabaseMetaData meta = conn.getMetaData();
+        try {
+            Field[] fields = loadTableFields(tableName);
             
             System.out.println("\n=== Fields in table: " + tableName + " ===");
-            
-            // Get primary keys
-            Set<String> primaryKeys = new HashSet<>();
-            try (ResultSet pkRs = meta.getPrimaryKeys(null, null, tableName)) {
-                while (pkRs.next()) {
-                    primaryKeys.add(pkRs.getString("COLUMN_NAME"));
-                }
+            for (Field field : fields) {
+                String sizeInfo = field.getMaxLength() != null ? "(" + field.getMaxLength() + ")" : "";
+                
+                System.out.printf("• %-20s %-15s %s %s%n",
+                    field.getName(),
+                    field.getDataType() + sizeInfo,
+                    field.isPrimaryKey() ? "[PRIMARY KEY]" : "",
+                    field.isNotNull() ? "[NOT NULL]" : "[NULLABLE]");
             }
-            
-            // Get columns
-            try (ResultSet rs = meta.getColumns(null, null, tableName, null)) {
-                boolean hasResults = false;
-                while (rs.next()) {
-                    String columnName = rs.getString("COLUMN_NAME");
-                    String dataType = rs.getString("TYPE_NAME");
-                    int columnSize = rs.getInt("COLUMN_SIZE");
-                    boolean isNullable = rs.getInt("NULLABLE") == DatabaseMetaData.columnNullable;
-                    boolean isPK = primaryKeys.contains(columnName);
-                    
-                    String sizeInfo = (columnSize > 0 && 
-                        (dataType.equalsIgnoreCase("VARCHAR") || dataType.equalsIgnoreCase("CHAR"))) 
-                        ? "(" + columnSize + ")" : "";
-                    
-                    System.out.printf("• %-20s %-15s %s %s%n",
-                        columnName,
-                        dataType + sizeInfo,
-                        isPK ? "[PRIMARY KEY]" : "",
-                        !isNullable ? "[NOT NULL]" : "[NULLABLE]");
-                    
-                    hasResults = true;
-                }
-                if (!hasResults) {
-                    System.out.println("Table '" + tableName + "' not found or has no columns.");
-                }
+            if (fields.length == 0) {
+                System.out.println("Table '" + tableName + "' not found or has no columns.");
             }
             System.out.println();
             
         } catch (SQLException e) {
-            LOGGER.severe("Error showing table fields: " + e.getMessage());
+            LOGGER.severe("Error showing table fields: {}", e.getMessage());
             System.err.println("Error retrieving table fields: " + e.getMessage());
         }
     }
     
     /**
      * Returns Field objects for a specific table
+     * Each call returns a new array, so callers never share results.
      * 
      * @param tableName Name of the table
      * @return Array of Field objects
@@ -353,9 +1951,45 @@ public class MyDBMagic implements AutoCloseable {
             return new Field[0];
         }
         
-        List<Field> fieldsList = new ArrayList<>();
+        try {
+            return loadTableFields(tableName);
+        } catch (SQLException e) {
+            LOGGER.severe("Error getting table fields: {}", e.getMessage());
+            return new Field[0];
+        }
+    }
+    
+    /**
+     * Reads a table's fields from the schema cache or, on a miss, the catalog
+     */
+    private Field[] loadTableFields(String tableName) throws SQLException {
+        refreshSchemaCacheIfChanged();
+        Field[] cached = schemaCache.getFields(DEFAULT_SCHEMA, tableName);
+        if (cached != null) {
+            return cached;
+        }
         
-        try (Connection conn = connectDB()) {
+        List<Field> fieldsList;
+        long generation = schemaCache.getGeneration();
+        long start = System.nanoTime();
+        try {
+            fieldsList = withRetry(() -> readColumns(tableName));
+        } catch (SQLException e) {
+            metrics.record(DBMetrics.Operation.METADATA, start, 0, false);
+            throw e;
+        }
+        metrics.record(DBMetrics.Operation.METADATA, start, fieldsList.size(), true);
+        
+        Field[] fields = fieldsList.toArray(new Field[0]);
+        if (fields.length > 0) {
+            schemaCache.putFields(DEFAULT_SCHEMA, tableName, fields, generation);
+        }
+        return fields;
+    }
+    
+    private List<Field> readColumns(String tableName) throws SQLException {
+        List<Field> fieldsList = new ArrayList<>();
+        try (Connection conn = connectReadDB()) {
             DatabaseMetaData meta = conn.getMetaData();
             
             // Get primary keys
@@ -373,31 +2007,57 @@ public class MyDBMagic implements AutoCloseable {
                     String dataType = rs.getString("TYPE_NAME");
                     int columnSize = rs.getInt("COLUMN_SIZE");
                     boolean isNullable = rs.getInt("NULLABLE") == DatabaseMetaData.columnNullable;
+                    String defaultValue = rs.getString("COLUMN_DEF");
                     boolean isPK = primaryKeys.contains(columnName);
                     
                     Field field = new Field(columnName, dataType);
                     if (isPK) field.primaryKey();
                     if (!isNullable) field.notNull();
-                    if (dataType.equalsIgnoreCase("VARCHAR") || dataType.equalsIgnoreCase("CHAR")) {
+                    if (defaultValue != null) field.defaultValue(defaultValue);
+                    if (columnSize > 0 && (dataType.equalsIgnoreCase("VARCHAR") || dataType.equalsIgnoreCase("CHAR"))) {
                         field.maxLength(columnSize);
                     }
                     
                     fieldsList.add(field);
                 }
             }
-            
-            currentTableFields = fieldsList.toArray(new Field[0]);
-            
+        }
+        return fieldsList;
+    }
+    
+    /**
+     * Returns the schema metadata cache (for statistics and tuning)
+     * 
+     * @return SchemaCache used by this instance
+     */
+    public SchemaCache getSchemaCache() {
+        return schemaCache;
+    }
+    
+    /**
+     * Clears the schema cache when the catalog changed since the last check
+     * (only when change detection is enabled on the cache)
+     */
+    private void refreshSchemaCacheIfChanged() {
+        if (!schemaCache.isChangeCheckDue()) {
+            return;
+        }
+        try (Connection conn = connectReadDB();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(CATALOG_FINGERPRINT_SQL)) {
+            if (rs.next()) {
+                schemaCache.checkCatalog(rs.getString(1));
+            }
         } catch (SQLException e) {
-            LOGGER.severe("Error getting table fields: " + e.getMessage());
-            currentTableFields = new Field[0];
+            LOGGER.warning("Catalog change check failed, clearing schema cache: {}", e.getMessage());
+            schemaCache.invalidateAll();
         }
-        
-        return currentTableFields;
     }
     
     /**
-     * Authenticates user against userscredentials table
+     * Authenticates user against userscredentials table.
+     * Recent successful logins and unknown usernames are answered from the
+     * CredentialVerifier cache, and repeated failures lock the user out for a while.
      * 
      * @param username Username to authenticate
      * @param password Password to authenticate
@@ -409,34 +2069,63 @@ public class MyDBMagic implements AutoCloseable {
             return false;
         }
         
-        String sql = "SELECT username FROM userscredentials WHERE username = ? AND passw = ?";
+        String user = username.trim();
+        long start = System.nanoTime();
         
-        try (Connection conn = connectDB();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, username.trim());
-            pstmt.setString(2, password);
+        try {
+            CredentialVerifier.Result result = credentials.verify(user, password);
+            metrics.record(DBMetrics.Operation.LOGIN, start, result == CredentialVerifier.Result.ACCEPTED ? 1 : 0, true);
             
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    String dbUsername = rs.getString("username");
-                    System.out.println("✓ Welcome, " + dbUsername + "!");
-                    LOGGER.info("Successful login for user: " + dbUsername);
+            switch (result) {
+                case ACCEPTED:
+                    System.out.println("✓ Welcome, " + user + "!");
+                    LOGGER.info("Successful login for user: {}", user);
                     return true;
-                } else {
+                case LOCKED_OUT:
+                    System.out.println("✗ Too many failed attempts. Please try again later.");
+                    LOGGER.warning("Login attempt for locked out username: {}", user);
+                    return false;
+                default:
                     System.out.println("✗ Invalid username or password. Access denied.");
-                    LOGGER.warning("Failed login attempt for username: " + username);
+                    LOGGER.warning("Failed login attempt for username: {}", user);
                     return false;
-                }
             }
             
         } catch (SQLException e) {
-            LOGGER.severe("Login error: " + e.getMessage());
+            metrics.record(DBMetrics.Operation.LOGIN, start, 0, false);
+            LOGGER.severe("Login error: {}", e.getMessage());
             System.err.println("Login error: " + e.getMessage());
             return false;
         }
     }
     
+    /**
+     * Returns the cache behind login(). Writes to userscredentials made
+     * through this instance clear it; call invalidate() on it after
+     * changing credentials through any other connection.
+     * 
+     * @return the CredentialVerifier used by this instance
+     */
+    public CredentialVerifier getCredentialVerifier() {
+        return credentials;
+    }
+    
+    /**
+     * Reads the stored password of a user (null if the user does not exist)
+     */
+    private String loadStoredPassword(String username) throws SQLException {
+        String sql = "SELECT passw FROM " + CREDENTIALS_TABLE + " WHERE username = ?";
+        return withRetry(() -> {
+            try (Connection conn = connectReadDB()) {
+                PreparedStatement pstmt = prepare(conn, sql);
+                pstmt.setString(1, username);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rs.getString(1) : null;
+                }
+            }
+        });
+    }
+    
     /**
      * Displays all records from a specified table
      * Note: This is a generic method that works with any table structure
@@ -444,61 +2133,342 @@ public class MyDBMagic implements AutoCloseable {
      * @param tableName Name of the table to display
      */
     public void showRecords(String tableName) {
+        showRecords(tableName, 0, 0, null);
+    }
+    
+    /**
+     * Displays records from a table as they arrive from the server.
+     * Rows are read through a server-side cursor in chunks of the fetch size,
+     * so memory use does not grow with the size of the table, and written
+     * in the current output format (see outputFormat).
+     * 
+     * @param tableName Name of the table to display
+     * @param pageSize Rows per page; 0 prints without pausing
+     * @param limit Maximum rows to print; 0 means no limit
+     * @param nextPage Asked after each full page, returns false to stop (may be null)
+     */
+    public void showRecords(String tableName, int pageSize, long limit, BooleanSupplier nextPage) {
         if (tableName == null || tableName.trim().isEmpty()) {
             System.err.println("Table name cannot be empty!");
             return;
         }
         
         String query = "SELECT * FROM " + tableName;
+        if (limit > 0) {
+            query += " LIMIT " + limit;
+        }
         
-        try (Connection conn = connectDB();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-            
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            
-            // Print header
-            System.out.println("\n=== Records in table: " + tableName + " ===");
-            for (int i = 1; i <= columnCount; i++) {
-                System.out.printf("%-15s ", metaData.getColumnName(i).toUpperCase());
-            }
-            System.out.println("\n" + "=".repeat(columnCount * 16));
+        long start = System.nanoTime();
+        boolean executed = false;
+        
+        try (Connection conn = connectReadDB()) {
+            // The driver only uses a cursor (fetch size) inside a transaction
+            conn.setAutoCommit(false);
             
-            // Print data
-            boolean hasResults = false;
-            while (rs.next()) {
-                for (int i = 1; i <= columnCount; i++) {
-                    Object value = rs.getObject(i);
-                    System.out.printf("%-15s ", value != null ? value.toString() : "NULL");
+            try (Statement stmt = conn.createStatement()) {
+                stmt.setFetchSize(pageSize > 0 ? pageSize : fetchSize);
+                
+                try (ResultSet rs = stmt.executeQuery(query)) {
+                    metrics.record(DBMetrics.Operation.SHOW_RECORDS, start, 0, true);
+                    executed = true;
+                    
+                    System.out.println("\n=== Records in table: " + tableName + " ===");
+                    System.out.flush();
+                    
+                    long rowCount = 0;
+                    boolean stopped = false;
+                    ResultRenderer renderer = idleRenderers.poll();
+                    if (renderer == null) {
+                        renderer = ResultRenderer.toStandardOutput();
+                    }
+                    renderer.begin(rs.getMetaData(), outputFormat);
+                    while (rs.next()) {
+                        renderer.row(rs);
+                        rowCount++;
+                        
+                        if (pageSize > 0 && nextPage != null && rowCount % pageSize == 0) {
+                            renderer.flush();
+                            System.out.flush();
+                            if (!nextPage.getAsBoolean()) {
+                                stopped = true;
+                                break;
+                            }
+                        }
+                    }
+                    renderer.end();
+                    // A renderer abandoned by an exception may hold unwritten output; only reuse clean ones
+                    idleRenderers.offer(renderer);
+                    metrics.addRows(DBMetrics.Operation.SHOW_RECORDS, rowCount);
+                    
+                    if (rowCount == 0) {
+                        System.out.println("No records found in table '" + tableName + "'.");
+                    } else if (stopped) {
+                        System.out.println("(" + rowCount + " rows shown, stopped by user)");
+                    } else if (limit > 0 && rowCount == limit) {
+                        System.out.println("(" + rowCount + " rows shown, limit reached)");
+                    }
+                    System.out.println();
                 }
-                System.out.println();
-                hasResults = true;
-            }
-            
-            if (!hasResults) {
-                System.out.println("No records found in table '" + tableName + "'.");
+            } finally {
+                conn.rollback(); // read-only, nothing to keep
+                conn.setAutoCommit(true);
             }
-            System.out.println();
             
         } catch (SQLException e) {
-            LOGGER.severe("Error showing records: " + e.getMessage());
+            if (!executed) {
+                metrics.record(DBMetrics.Operation.SHOW_RECORDS, start, 0, false);
+            }
+            LOGGER.severe("Error showing records: {}", e.getMessage());
             System.err.println("Error retrieving records: " + e.getMessage());
+        } catch (IOException e) {
+            LOGGER.severe("Error writing records: {}", e.getMessage());
+            System.err.println("Error writing records: " + e.getMessage());
         }
     }
     
     /**
-     * Closes the database connection
+     * Sets the executor used by the *Async methods; must be called before the
+     * first asynchronous call. The caller stays responsible for shutting it down.
+     * 
+     * @param executor Executor running asynchronous database work
+     * @return this MyDBMagic object for method chaining
      */
-    @Override
-    public void close() {
-        if (connection != null) {
+    public MyDBMagic asyncExecutor(ExecutorService executor) {
+        synchronized (poolLock) {
+            if (asyncExecutor != null) {
+                throw new IllegalStateException("Async executor must be set before the first asynchronous call");
+            }
+            this.asyncExecutor = executor;
+            this.ownsAsyncExecutor = false;
+        }
+        return this;
+    }
+    
+    /**
+     * Asynchronous counterpart of runUpdate(String, Object...).
+     * Cancelling the future, or a timeout via orTimeout(), cancels the
+     * running statement on the server.
+     * 
+     * @param query SQL with ? placeholders
+     * @param params Values bound to the placeholders in order
+     * @return future completed with the number of affected rows
+     */
+    public CompletableFuture<Integer> runUpdateAsync(String query, Object... params) {
+        AsyncCall<Integer> call = new AsyncCall<>();
+        return submitAsync(call, () -> {
+            try (Connection conn = connectDB()) {
+                long start = System.nanoTime();
+                try {
+                    int count = executeUpdate(getPool(), conn, query, params, call::track);
+                    metrics.record(DBMetrics.Operation.RUN_UPDATE, start, count, true);
+                    profiler.record(query, params, start, count, true);
+                    schemaCache.invalidateForStatement(query);
+                    invalidateCachedResults(query);
+                    return count;
+                } catch (SQLException e) {
+                    metrics.record(DBMetrics.Operation.RUN_UPDATE, start, 0, false);
+                    profiler.record(query, params, start, 0, false);
+                    throw e;
+                } finally {
+                    call.track(null);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Runs a query asynchronously and collects the mapped rows.
+     * Cancelling the future, or a timeout via orTimeout(), cancels the
+     * running statement on the server.
+     * 
+     * @param query SQL SELECT query with ? placeholders
+     * @param params Values bound to the placeholders in order (may be null)
+     * @param mapper Converts each row to an object
+     * @return future completed with the list of mapped rows
+     */
+    public <T> CompletableFuture<List<T>> queryAsync(String query, Object[] params, RowMapper<T> mapper) {
+        AsyncCall<List<T>> call = new AsyncCall<>();
+        return submitAsync(call, () -> {
+            try (Connection conn = connectReadDB(query)) {
+                PreparedStatement pstmt = prepare(conn, query);
+                bind(pstmt, params);
+                call.track(pstmt);
+                List<T> rows = new ArrayList<>();
+                long start = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(mapper.mapRow(rs));
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    metrics.record(DBMetrics.Operation.RUN_QUERY, start, rows.size(), false);
+                    profiler.record(query, params, start, rows.size(), false);
+                    throw e;
+                } finally {
+                    call.track(null);
+                }
+                metrics.record(DBMetrics.Operation.RUN_QUERY, start, rows.size(), true);
+                profiler.record(query, params, start, rows.size(), true);
+                return rows;
+            }
+        });
+    }
+    
+    /**
+     * Asynchronous counterpart of getTableFields
+     * 
+     * @param tableName Name of the table
+     * @return future completed with the table's fields
+     */
+    public CompletableFuture<Field[]> getTableFieldsAsync(String tableName) {
+        return submitAsync(new AsyncCall<>(), () -> getTableFields(tableName));
+    }
+    
+    /**
+     * Runs work on the async executor and never blocks the caller. At most
+     * poolMaxSize calls run at once; further calls wait on the executor for
+     * a free slot (backpressure), but no longer than the pool's maxWait,
+     * after which the returned future fails with SQLTimeoutException.
+     */
+    private <T> CompletableFuture<T> submitAsync(AsyncCall<T> call, Callable<T> work) {
+        Semaphore permits;
+        ExecutorService executor;
+        synchronized (poolLock) {
+            if (asyncExecutor == null) {
+                asyncExecutor = defaultAsyncExecutor();
+                ownsAsyncExecutor = true;
+            }
+            if (asyncPermits == null) {
+                asyncPermits = new Semaphore(poolMaxSize);
+            }
+            permits = asyncPermits;
+            executor = asyncExecutor;
+        }
+        
+        try {
+            executor.execute(() -> {
+                boolean acquired = false;
+                try {
+                    // Skip work that was cancelled or timed out while queued
+                    if (call.isDone()) {
+                        return;
+                    }
+                    long maxWaitMillis = getPool().getMaxWaitMillis();
+                    acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+                    if (!acquired) {
+                        call.completeExceptionally(new SQLTimeoutException("Timed out after " + maxWaitMillis
+                            + " ms waiting for a free asynchronous slot (" + poolMaxSize + " calls in flight)"));
+                    } else if (!call.isDone()) {
+                        call.complete(work.call());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    call.completeExceptionally(e);
+                } catch (Throwable e) {
+                    call.completeExceptionally(e);
+                } finally {
+                    if (acquired) {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+        }
+        return call;
+    }
+    
+    /**
+     * Uses virtual threads when the runtime has them (Java 21+), otherwise
+     * a cached pool of daemon threads
+     */
+    private static ExecutorService defaultAsyncExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "MyDBMagic-async");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+    
+    /**
+     * Future that cancels its running statement when cancelled or timed out
+     */
+    private static final class AsyncCall<T> extends CompletableFuture<T> {
+        
+        // Guards running so a cancel never hits a connection already given back
+        private final ReentrantLock lock = new ReentrantLock();
+        private Statement running;
+        
+        private void track(Statement stmt) {
+            lock.lock();
+            try {
+                this.running = stmt;
+            } finally {
+                lock.unlock();
+            }
+            if (stmt != null && isDone()) {
+                cancelStatement();
+            }
+        }
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            cancelStatement();
+            return cancelled;
+        }
+        
+        @Override
+        public boolean completeExceptionally(Throwable ex) {
+            boolean completed = super.completeExceptionally(ex);
+            if (completed && (ex instanceof TimeoutException || ex instanceof CancellationException)) {
+                cancelStatement();
+            }
+            return completed;
+        }
+        
+        private void cancelStatement() {
+            lock.lock();
             try {
-                connection.close();
-                LOGGER.info("Database connection closed");
+                if (running != null) {
+                    running.cancel();
+                }
             } catch (SQLException e) {
-                LOGGER.warning("Error closing connection: " + e.getMessage());
+                LOGGER.fine("Could not cancel statement: {}", e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Closes the connection pool and all idle connections
+     */
+    @Override
+    public void close() {
+        synchronized (poolLock) {
+            if (asyncExecutor != null && ownsAsyncExecutor) {
+                asyncExecutor.shutdown();
             }
         }
+        credentials.close();
+        QueryResultCache cache = queryCache;
+        if (cache != null) {
+            cache.close();
+        }
+        metrics.close();
+        profiler.close(); // flushes the slow-query log while connections for EXPLAIN are still open
+        ReplicaRouter currentRouter = router;
+        if (currentRouter != null) {
+            currentRouter.close();
+        }
+        ConnectionPool current = pool;
+        if (current != null) {
+            current.close();
+            LOGGER.info("Database connection closed");
+        }
     }
 }
@@ -0,0 +1,533 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ParallelDumper - Parallel export and import of whole databases
+ *
+ * Every table is exported with binary COPY into gzip-compressed chunk
+ * files. Tables with a single integer primary key are split into key
+ * ranges by a fork-join task that keeps halving the range until each part
+ * holds about rowsPerChunk rows, so large tables are streamed over several
+ * pooled connections at once. The worker pool is bounded by the connection
+ * pool size. Restoring loads all chunk files in parallel the same way.
+ *
+ * Each chunk is read in its own transaction, so the dump is only a
+ * consistent snapshot if the database is not written to meanwhile.
+ *
+ * Column types, defaults and constraints are read from the catalog, so
+ * numeric precision, composite keys, foreign keys, CHECK constraints and
+ * indexes survive the round trip. Constraints and indexes are created after
+ * the data is loaded, which is faster and lets chunks load in any order.
+ * Sequences, views, functions and grants are not dumped.
+ *
+ * Dump layout:
+ *   schema.sql       CREATE TABLE statements
+ *   post-data.sql    constraints, indexes, then foreign keys
+ *   sequences.sql    setval for serial and identity columns
+ *   manifest.tsv     table, chunk file and row count per chunk
+ *   table.00001.pgcopy.gz ...
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class ParallelDumper {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(ParallelDumper.class);
+    
+    private static final String SCHEMA_FILE = "schema.sql";
+    private static final String POST_DATA_FILE = "post-data.sql";
+    private static final String SEQUENCES_FILE = "sequences.sql";
+    private static final String MANIFEST_FILE = "manifest.tsv";
+    private static final String CHUNK_SUFFIX = ".pgcopy.gz";
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    
+    // Integer types whose sequence default is written back as a SERIAL type
+    private static final Map<String, String> SERIAL_TYPES = Map.of(
+        "smallint", "smallserial", "integer", "serial", "bigint", "bigserial");
+    
+    private final MyDBMagic db;
+    private int threads;
+    private long rowsPerChunk = 500_000;
+    
+    /**
+     * Creates a dumper for the database behind a MyDBMagic instance
+     *
+     * @param db Database to export from or import into
+     */
+    public ParallelDumper(MyDBMagic db) {
+        this.db = db;
+        this.threads = Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Sets the number of worker threads (capped by the connection pool size)
+     *
+     * @param count Worker threads
+     * @return this ParallelDumper for method chaining
+     */
+    public ParallelDumper threads(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.threads = count;
+        return this;
+    }
+    
+    /**
+     * Sets the target number of rows per chunk file
+     *
+     * @param rows Rows per chunk
+     * @return this ParallelDumper for method chaining
+     */
+    public ParallelDumper rowsPerChunk(long rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("Rows per chunk must be positive");
+        }
+        this.rowsPerChunk = rows;
+        return this;
+    }
+    
+    /**
+     * Exports every table of the database into a directory
+     *
+     * @param dir Target directory (created if needed)
+     * @return total number of rows exported
+     * @throws SQLException if reading the database fails
+     * @throws IOException if writing a file fails
+     */
+    public long dump(Path dir) throws SQLException, IOException {
+        Files.createDirectories(dir);
+        List<String> tables = db.getTables();
+        List<Chunk> chunks = Collections.synchronizedList(new ArrayList<>());
+        List<TableDump> tasks = new ArrayList<>();
+        List<String> createTables = new ArrayList<>();
+        List<String> postData = new ArrayList<>();
+        List<String> foreignKeys = new ArrayList<>();
+        List<String> sequences = new ArrayList<>();
+        
+        for (String table : tables) {
+            Field[] fields = db.getTableFields(table);
+            if (fields.length == 0) {
+                continue;
+            }
+            createTables.add(createTable(table, sequences));
+            readConstraints(table, postData, foreignKeys);
+            tasks.add(new TableDump(dir, table, fields, chunks));
+        }
+        // Foreign keys need the referenced keys of every table first
+        postData.addAll(foreignKeys);
+        writeScript(dir.resolve(SCHEMA_FILE), createTables);
+        writeScript(dir.resolve(POST_DATA_FILE), postData);
+        writeScript(dir.resolve(SEQUENCES_FILE), sequences);
+        
+        long start = System.nanoTime();
+        ForkJoinPool pool = newWorkerPool();
+        try {
+            runAll(pool, tasks);
+        } finally {
+            pool.shutdown();
+        }
+        
+        long rows = 0;
+        try (Writer manifest = Files.newBufferedWriter(dir.resolve(MANIFEST_FILE), StandardCharsets.UTF_8)) {
+            Collections.sort(chunks, (a, b) -> a.file.compareTo(b.file));
+            for (Chunk chunk : chunks) {
+                manifest.write(chunk.table + "\t" + chunk.file + "\t" + chunk.rows + "\n");
+                rows += chunk.rows;
+            }
+        }
+        LOGGER.info("Dumped {} rows from {} tables in {} chunks ({} ms)", rows, tasks.size(), chunks.size(),
+            (System.nanoTime() - start) / 1_000_000);
+        return rows;
+    }
+    
+    /**
+     * Imports a directory written by dump(). Sequences of serial and
+     * identity columns are moved past the loaded keys afterwards.
+     *
+     * @param dir Dump directory
+     * @param createSchema Whether to create the tables first and their
+     *                     constraints and indexes after loading (each step
+     *                     in one transaction)
+     * @return total number of rows imported
+     * @throws SQLException if creating the tables or loading a chunk fails
+     * @throws IOException if reading a file fails
+     */
+    public long restore(Path dir, boolean createSchema) throws SQLException, IOException {
+        if (createSchema) {
+            List<String> script = readScript(dir.resolve(SCHEMA_FILE));
+            db.inTransaction(tx -> script.forEach(tx::update));
+        }
+        
+        List<Chunk> chunks = new ArrayList<>();
+        try (BufferedReader manifest = Files.newBufferedReader(dir.resolve(MANIFEST_FILE), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = manifest.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 3) {
+                    chunks.add(new Chunk(parts[0], parts[1], Long.parseLong(parts[2])));
+                }
+            }
+        }
+        
+        LongAdder rows = new LongAdder();
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try (InputStream in = new GZIPInputStream(Files.newInputStream(dir.resolve(chunk.file)), IO_BUFFER_SIZE)) {
+                        rows.add(db.copyIn(chunk.table, in, MyDBMagic.CopyFormat.BINARY));
+                    } catch (SQLException | IOException e) {
+                        throw new DumpException("Restoring " + chunk.file + " failed", e);
+                    }
+                }
+            });
+        }
+        
+        long start = System.nanoTime();
+        ForkJoinPool pool = newWorkerPool();
+        try {
+            runAll(pool, tasks);
+        } finally {
+            pool.shutdown();
+        }
+        LOGGER.info("Restored {} rows from {} chunks ({} ms)", rows.sum(), chunks.size(),
+            (System.nanoTime() - start) / 1_000_000);
+        
+        if (createSchema) {
+            List<String> postData = readScript(dir.resolve(POST_DATA_FILE));
+            db.inTransaction(tx -> postData.forEach(tx::update));
+        }
+        List<String> sequences = readScript(dir.resolve(SEQUENCES_FILE));
+        db.inTransaction(tx -> {
+            for (String sql : sequences) {
+                tx.query(sql, new Object[0], rs -> rs.getLong(1));
+            }
+        });
+        return rows.sum();
+    }
+    
+    /**
+     * Lists the chunk files of a dump directory
+     *
+     * @param dir Dump directory
+     * @return chunk file names
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<String> listChunks(Path dir) throws IOException {
+        List<String> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + CHUNK_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file.getFileName().toString());
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+    
+    /**
+     * Builds the CREATE TABLE statement from the catalog, with exact column
+     * types (e.g. numeric(10,2)). Columns defaulting to a sequence become
+     * SERIAL types again; for them and for identity columns a setval
+     * statement is added to sequences.
+     */
+    private String createTable(String table, List<String> sequences) throws SQLException {
+        StringBuilder sql = new StringBuilder("CREATE TABLE ").append(table).append(" (");
+        db.forEachRow("SELECT quote_ident(a.attname), a.attname, format_type(a.atttypid, a.atttypmod), "
+                + "a.attnotnull, pg_get_expr(d.adbin, d.adrelid), a.attidentity "
+                + "FROM pg_attribute a LEFT JOIN pg_attrdef d ON d.adrelid = a.attrelid AND d.adnum = a.attnum "
+                + "WHERE a.attrelid = ?::regclass AND a.attnum > 0 AND NOT a.attisdropped ORDER BY a.attnum",
+            new Object[]{table},
+            rs -> {
+                String column = rs.getString(1);
+                String type = rs.getString(3);
+                String defaultValue = rs.getString(5);
+                String identity = rs.getString(6);
+                boolean sequenced = false;
+                if (defaultValue != null && defaultValue.startsWith("nextval(") && SERIAL_TYPES.containsKey(type)) {
+                    type = SERIAL_TYPES.get(type);
+                    defaultValue = null;
+                    sequenced = true;
+                } else if ("a".equals(identity) || "d".equals(identity)) {
+                    type += "a".equals(identity) ? " GENERATED ALWAYS AS IDENTITY" : " GENERATED BY DEFAULT AS IDENTITY";
+                    sequenced = true;
+                }
+                
+                if (sql.charAt(sql.length() - 1) != '(') {
+                    sql.append(", ");
+                }
+                sql.append(column).append(' ').append(type);
+                if (rs.getBoolean(4)) {
+                    sql.append(" NOT NULL");
+                }
+                if (defaultValue != null) {
+                    sql.append(" DEFAULT ").append(defaultValue);
+                }
+                if (sequenced) {
+                    // max() of an empty table is NULL, which leaves the sequence alone
+                    sequences.add("SELECT setval(pg_get_serial_sequence('" + table + "', '"
+                        + rs.getString(2).replace("'", "''") + "'), max(" + column + ")) FROM " + table);
+                }
+            });
+        return sql.append(")").toString();
+    }
+    
+    /**
+     * Reads the table's constraints and the indexes not backing one, as
+     * statements to run once the data is loaded
+     */
+    private void readConstraints(String table, List<String> postData, List<String> foreignKeys)
+            throws SQLException {
+        db.forEachRow("SELECT quote_ident(conname), pg_get_constraintdef(oid), contype FROM pg_constraint "
+                + "WHERE conrelid = ?::regclass AND contype IN ('p', 'u', 'c', 'x', 'f') "
+                + "ORDER BY CASE contype WHEN 'p' THEN 0 ELSE 1 END, conname",
+            new Object[]{table},
+            rs -> {
+                String sql = "ALTER TABLE " + table + " ADD CONSTRAINT " + rs.getString(1) + " " + rs.getString(2);
+                ("f".equals(rs.getString(3)) ? foreignKeys : postData).add(sql);
+            });
+        db.forEachRow("SELECT pg_get_indexdef(i.indexrelid) FROM pg_index i "
+                + "WHERE i.indrelid = ?::regclass AND NOT EXISTS "
+                + "(SELECT 1 FROM pg_constraint c WHERE c.conrelid = i.indrelid AND c.conindid = i.indexrelid) "
+                + "ORDER BY i.indexrelid",
+            new Object[]{table},
+            rs -> postData.add(rs.getString(1)));
+    }
+    
+    /**
+     * Writes statements separated by ";\n", the form read back by readScript
+     */
+    private static void writeScript(Path file, List<String> statements) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String sql : statements) {
+                out.write(sql + ";\n");
+            }
+        }
+    }
+    
+    /**
+     * Reads the statements of a script written by writeScript; a missing
+     * file (dumps from older versions) has none
+     */
+    private static List<String> readScript(Path file) throws IOException {
+        List<String> statements = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return statements;
+        }
+        String script = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        for (String sql : script.split(";\n")) {
+            if (!sql.trim().isEmpty()) {
+                statements.add(sql.trim());
+            }
+        }
+        return statements;
+    }
+    
+    private ForkJoinPool newWorkerPool() throws SQLException {
+        int parallelism = Math.max(1, Math.min(threads, db.getPool().getMaxSize()));
+        return new ForkJoinPool(parallelism);
+    }
+    
+    /**
+     * Runs tasks on the pool and rethrows the first failure as SQLException or IOException
+     */
+    private static void runAll(ForkJoinPool pool, List<? extends RecursiveAction> tasks)
+            throws SQLException, IOException {
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (DumpException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof DumpException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof SQLException) {
+                throw new SQLException(e.getMessage(), ((SQLException) cause).getSQLState(), cause);
+            }
+            throw new IOException(e.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * Exports one table: looks up its key range, then splits it
+     */
+    @SuppressWarnings("serial") // fork-join task, never serialized
+    private final class TableDump extends RecursiveAction {
+        
+        private final Path dir;
+        private final String table;
+        private final Field[] fields;
+        private final List<Chunk> chunks;
+        private final AtomicInteger chunkCounter = new AtomicInteger();
+        
+        private TableDump(Path dir, String table, Field[] fields, List<Chunk> chunks) {
+            this.dir = dir;
+            this.table = table;
+            this.fields = fields;
+            this.chunks = chunks;
+        }
+        
+        @Override
+        protected void compute() {
+            try {
+                Field key = partitionKey();
+                if (key == null) {
+                    exportRange(null, 0, 0);
+                    return;
+                }
+                long[] stats = keyStats(key);
+                if (stats == null) {
+                    exportRange(null, 0, 0); // empty table
+                } else {
+                    new RangeDump(this, key.getName(), stats[0], stats[1], stats[2]).compute();
+                }
+            } catch (SQLException e) {
+                throw new DumpException("Dumping " + table + " failed", e);
+            }
+        }
+        
+        /**
+         * Returns the single integer primary key column, or null if the table has none
+         */
+        private Field partitionKey() {
+            Field key = null;
+            for (Field field : fields) {
+                if (field.isPrimaryKey()) {
+                    if (key != null) {
+                        return null; // composite key
+                    }
+                    key = field;
+                }
+            }
+            if (key == null) {
+                return null;
+            }
+            int type = key.getSqlType();
+            return type == Types.SMALLINT || type == Types.INTEGER || type == Types.BIGINT ? key : null;
+        }
+        
+        /**
+         * Returns min key, max key and the estimated row count (null if empty).
+         * The estimate comes from the planner statistics, or from the key range
+         * if the table was never analyzed.
+         */
+        private long[] keyStats(Field key) throws SQLException {
+            List<long[]> result = new ArrayList<>(1);
+            db.forEachRow("SELECT min(" + key.getName() + "), max(" + key.getName() + "), "
+                    + "(SELECT reltuples::bigint FROM pg_class WHERE oid = ?::regclass) FROM " + table,
+                new Object[]{table},
+                rs -> {
+                    if (rs.getObject(1) != null) {
+                        long min = rs.getLong(1);
+                        long max = rs.getLong(2);
+                        long estimate = rs.getLong(3) > 0 ? rs.getLong(3) : max - min + 1;
+                        result.add(new long[]{min, max, estimate});
+                    }
+                });
+            return result.isEmpty() ? null : result.get(0);
+        }
+        
+        /**
+         * Writes one chunk; a null key exports the whole table
+         */
+        private void exportRange(String key, long from, long to) {
+            String file = String.format("%s.%05d%s", table, chunkCounter.incrementAndGet(), CHUNK_SUFFIX);
+            StringBuilder source = new StringBuilder("SELECT ");
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) source.append(", ");
+                source.append(fields[i].getName());
+            }
+            source.append(" FROM ").append(table);
+            if (key != null) {
+                source.append(" WHERE ").append(key).append(" BETWEEN ").append(from).append(" AND ").append(to);
+            }
+            
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve(file)), IO_BUFFER_SIZE)) {
+                long rows = db.copyOut(source.toString(), out, MyDBMagic.CopyFormat.BINARY);
+                chunks.add(new Chunk(table, file, rows));
+            } catch (SQLException | IOException e) {
+                throw new DumpException("Dumping " + table + " into " + file + " failed", e);
+            }
+        }
+    }
+    
+    /**
+     * Exports a key range, splitting it in halves while it is estimated to
+     * hold more than rowsPerChunk rows
+     */
+    @SuppressWarnings("serial") // fork-join task, never serialized
+    private final class RangeDump extends RecursiveAction {
+        
+        private final TableDump table;
+        private final String key;
+        private final long from;
+        private final long to;
+        private final long estimatedRows;
+        
+        private RangeDump(TableDump table, String key, long from, long to, long estimatedRows) {
+            this.table = table;
+            this.key = key;
+            this.from = from;
+            this.to = to;
+            this.estimatedRows = estimatedRows;
+        }
+        
+        @Override
+        protected void compute() {
+            if (estimatedRows <= rowsPerChunk || from >= to) {
+                table.exportRange(key, from, to);
+                return;
+            }
+            long mid = from + (to - from) / 2;
+            invokeAll(new RangeDump(table, key, from, mid, estimatedRows / 2),
+                new RangeDump(table, key, mid + 1, to, estimatedRows - estimatedRows / 2));
+        }
+    }
+    
+    /**
+     * One chunk file of a dump
+     */
+    private static final class Chunk {
+        
+        private final String table;
+        private final String file;
+        private final long rows;
+        
+        private Chunk(String table, String file, long rows) {
+            this.table = table;
+            this.file = file;
+            this.rows = rows;
+        }
+    }
+    
+    /**
+     * Carries checked exceptions out of fork-join tasks
+     */
+    private static final class DumpException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        private DumpException(String message, Exception cause) {
+            super(message + ": " + cause.getMessage(), cause);
+        }
+    }
+}
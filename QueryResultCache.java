@@ -0,0 +1,1242 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.postgresql.geometric.PGbox;
+import org.postgresql.geometric.PGcircle;
+import org.postgresql.geometric.PGline;
+import org.postgresql.geometric.PGlseg;
+import org.postgresql.geometric.PGpath;
+import org.postgresql.geometric.PGpoint;
+import org.postgresql.geometric.PGpolygon;
+import org.postgresql.jdbc.TimestampUtils;
+import org.postgresql.util.PGInterval;
+import org.postgresql.util.PGmoney;
+import org.postgresql.util.PGobject;
+
+/**
+ * QueryResultCache - Keeps the rows of repeated SELECTs in memory
+ *
+ * Results are keyed by the normalized SQL text (case and whitespace outside
+ * quotes do not matter) plus the bound parameters. Entries expire after a
+ * TTL, which can be shortened per table, and the cache is bounded both by
+ * entry count and by an estimate of the memory the rows take; the least
+ * recently used entries are evicted first. A hit returns a ResultSet over
+ * the cached rows without touching the database.
+ *
+ * Writes invalidate every entry that reads one of the tables they touch.
+ * MyDBMagic reports its own writes; writes from other processes can be
+ * reported with LISTEN/NOTIFY (see listen()). Only plain reads are cached:
+ * queries with locking clauses, volatile functions such as now() or
+ * random(), or data-modifying statements always go to the database.
+ * Reads through views are only matched by view name, so rely on the TTL
+ * when the underlying tables change.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class QueryResultCache implements AutoCloseable {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(QueryResultCache.class);
+    
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_MAX_ENTRY_BYTES = 4L * 1024 * 1024;
+    private static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+    private static final int LISTEN_POLL_MILLIS = 1000;
+    private static final long LISTEN_RETRY_MILLIS = 5000;
+    
+    // Rough heap cost of an entry and of one cached row (array header, references, list slot)
+    private static final long ENTRY_OVERHEAD_BYTES = 256;
+    private static final long ROW_OVERHEAD_BYTES = 32;
+    
+    private static final Pattern READ_START = Pattern.compile("^(?:select|with|values|table)\\b");
+    private static final Pattern NOT_CACHEABLE = Pattern.compile(
+        "\\b(?:insert|update|delete|merge|into|for\\s+(?:no\\s+key\\s+)?update|for\\s+(?:key\\s+)?share"
+            + "|nextval|setval|currval|lastval|random|now|current_timestamp|current_time|current_date"
+            + "|localtimestamp|localtime|clock_timestamp|statement_timestamp|transaction_timestamp"
+            + "|timeofday|gen_random_uuid|pg_sleep|txid_current|pg_current_xact_id)\\b");
+    private static final Pattern READ_TABLE = Pattern.compile("\\b(from|join)\\s+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WRITE_TABLE = Pattern.compile(
+        "\\b(?:insert\\s+into|update(?:\\s+only)?|delete\\s+from(?:\\s+only)?|merge\\s+into|copy"
+            + "|truncate(?:\\s+table)?(?:\\s+only)?|refresh\\s+materialized\\s+view(?:\\s+concurrently)?"
+            + "|(?:create|alter|drop)\\s+(?:unlogged\\s+|temp\\s+|temporary\\s+)?table"
+            + "(?:\\s+if\\s+(?:not\\s+)?exists)?(?:\\s+only)?)\\s+([\\w.\"]+(?:\\s*,\\s*[\\w.\"]+)*)",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern CHANNEL_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Set<String> CLAUSE_WORDS = new HashSet<>(Arrays.asList(
+        "where", "group", "order", "limit", "offset", "having", "union", "except", "intersect",
+        "window", "for", "join", "left", "right", "inner", "full", "cross", "natural", "on", "using",
+        "lateral", "tablesample", "fetch"));
+    
+    /**
+     * Runs the query on a cache miss
+     */
+    @FunctionalInterface
+    public interface Loader {
+        ResultSet load() throws SQLException;
+    }
+    
+    /**
+     * Opens the dedicated connection of the LISTEN thread
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+    
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private volatile long maxEntryBytes = DEFAULT_MAX_ENTRY_BYTES;
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+    private final Map<String, Long> tableTtls = new ConcurrentHashMap<>();
+    
+    // Guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByTable = new HashMap<>();
+    private final Map<String, Long> tableInvalidatedAt = new HashMap<>();
+    private long allInvalidatedAt = 0;
+    private long clock = 0;
+    private long bytes = 0;
+    
+    // LISTEN/NOTIFY invalidation
+    private volatile Thread listener = null;
+    private volatile boolean closed = false;
+    
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder tooLarge = new LongAdder();
+    
+    /**
+     * Sets the maximum number of cached results
+     *
+     * @param entries Maximum entry count (must be positive)
+     * @return this QueryResultCache for method chaining
+     */
+    public QueryResultCache maxEntries(int entries) {
+        if (entries <= 0) {
+            throw new IllegalArgumentException("Maximum entries must be positive");
+        }
+        this.maxEntries = entries;
+        evictIfNeeded();
+        return this;
+    }
+    
+    /**
+     * Sets the memory budget of the cache
+     *
+     * @param total Estimated bytes all entries may take together
+     * @param perEntry Estimated bytes above which a result is not cached
+     * @return this QueryResultCache for method chaining
+     */
+    public QueryResultCache maxBytes(long total, long perEntry) {
+        if (total <= 0 || perEntry <= 0 || perEntry > total) {
+            throw new IllegalArgumentException("Memory limits must be positive and perEntry <= total");
+        }
+        this.maxBytes = total;
+        this.maxEntryBytes = perEntry;
+        evictIfNeeded();
+        return this;
+    }
+    
+    /**
+     * Sets the time to live of new entries
+     *
+     * @param millis TTL in milliseconds (0 stops caching)
+     * @return this QueryResultCache for method chaining
+     */
+    public QueryResultCache ttl(long millis) {
+        this.ttlMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Sets a shorter (or longer) time to live for results that read a table.
+     * A result reading several tables uses the smallest of their TTLs
+     * (the default TTL for tables without one).
+     *
+     * @param table Table name
+     * @param millis TTL in milliseconds (0 stops caching results of the table)
+     * @return this QueryResultCache for method chaining
+     */
+    public QueryResultCache ttl(String table, long millis) {
+        tableTtls.put(tableKey(table), millis);
+        return this;
+    }
+    
+    /**
+     * Returns the cached result of a query, or runs it through the loader
+     * and caches what it returns. Results larger than the per-entry limit
+     * are passed through: rows read so far are replayed, then the live
+     * result continues.
+     *
+     * @param sql SQL SELECT query
+     * @param params Bound parameters (may be null)
+     * @param loader Runs the query on a miss
+     * @return ResultSet over the cached or loaded rows
+     * @throws SQLException if the loader fails or reading the result fails
+     */
+    public ResultSet query(String sql, Object[] params, Loader loader) throws SQLException {
+        String normalized = normalize(sql);
+        if (!isCacheable(normalized)) {
+            bypassed.increment();
+            return loader.load();
+        }
+        
+        String key = key(normalized, params);
+        long started;
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.open(null);
+            }
+            if (entry != null) {
+                remove(key);
+            }
+            misses.increment();
+            started = clock;
+        } finally {
+            lock.unlock();
+        }
+        
+        return load(key, normalized, loader.load(), started);
+    }
+    
+    /**
+     * Reads the live result into memory and stores it, unless a table it
+     * reads was invalidated while the query ran
+     */
+    private ResultSet load(String key, String normalized, ResultSet live, long started) throws SQLException {
+        Columns columns;
+        List<Row> rows = new ArrayList<>();
+        long size = ENTRY_OVERHEAD_BYTES + 2L * key.length();
+        boolean complete = false;
+        try {
+            columns = Columns.of(live.getMetaData());
+            if (columns == null) {
+                // Arrays, LOBs and the like may depend on the connection
+                bypassed.increment();
+                return live;
+            }
+            while (size <= maxEntryBytes) {
+                if (!live.next()) {
+                    complete = true;
+                    break;
+                }
+                Row row = new Row(columns.count());
+                for (int i = 0; i < row.values.length; i++) {
+                    row.values[i] = live.getObject(i + 1);
+                    row.texts[i] = row.values[i] instanceof String ? (String) row.values[i] : live.getString(i + 1);
+                }
+                size += sizeOf(row);
+                rows.add(row);
+            }
+        } catch (SQLException | RuntimeException e) {
+            live.close();
+            throw e;
+        }
+        
+        if (!complete) {
+            tooLarge.increment();
+            return new Cursor(columns, rows, live).proxy();
+        }
+        live.close();
+        
+        Set<String> tables = tablesRead(normalized);
+        long ttl = ttlFor(tables);
+        Entry entry = new Entry(columns, Collections.unmodifiableList(rows), tables, size,
+                                System.currentTimeMillis() + ttl);
+        if (ttl > 0) {
+            store(key, entry, started);
+        }
+        return entry.open(null);
+    }
+    
+    private void store(String key, Entry entry, long started) {
+        lock.lock();
+        try {
+            if (allInvalidatedAt > started) {
+                return;
+            }
+            for (String table : entry.tables) {
+                Long invalidatedAt = tableInvalidatedAt.get(table);
+                if (invalidatedAt != null && invalidatedAt > started) {
+                    return;
+                }
+            }
+            remove(key);
+            entries.put(key, entry);
+            bytes += entry.bytes;
+            for (String table : entry.tables) {
+                keysByTable.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        evictIfNeeded();
+    }
+    
+    private void evictIfNeeded() {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                Map.Entry<String, Entry> next = eldest.next();
+                eldest.remove();
+                unlink(next.getKey(), next.getValue());
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            unlink(key, entry);
+        }
+    }
+    
+    /**
+     * Removes an entry that is already gone from the map from the table
+     * index and the byte count
+     */
+    private void unlink(String key, Entry entry) {
+        for (String table : entry.tables) {
+            Set<String> keys = keysByTable.get(table);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysByTable.remove(table);
+            }
+        }
+        bytes -= entry.bytes;
+    }
+    
+    // ==================== Invalidation ====================
+    
+    /**
+     * Drops every cached result that reads a table
+     *
+     * @param table Table name (quotes and schema prefix are ignored)
+     */
+    public void invalidateTable(String table) {
+        String name = tableKey(table);
+        lock.lock();
+        try {
+            tableInvalidatedAt.put(name, ++clock);
+            Set<String> keys = keysByTable.get(name);
+            if (keys != null) {
+                for (String key : new ArrayList<>(keys)) {
+                    remove(key);
+                    invalidations.increment();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Drops every cached result
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            allInvalidatedAt = ++clock;
+            tableInvalidatedAt.clear();
+            invalidations.add(entries.size());
+            entries.clear();
+            keysByTable.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Invalidates the tables a write statement touches. Statements whose
+     * tables cannot be determined (functions, DO blocks) clear everything.
+     *
+     * @param sql Statement that was executed
+     */
+    public void invalidateForStatement(String sql) {
+        Set<String> tables = tablesWritten(sql);
+        if (tables.isEmpty()) {
+            invalidateAll();
+            return;
+        }
+        for (String table : tables) {
+            invalidateTable(table);
+        }
+    }
+    
+    /**
+     * Starts a background thread that LISTENs on a channel and invalidates
+     * the table named in each notification payload (several names may be
+     * separated by commas; an empty payload clears the whole cache). A
+     * trigger in the database raises them, e.g.
+     * PERFORM pg_notify('channel', TG_TABLE_NAME). The thread reconnects
+     * after errors and clears the cache whenever it (re)starts listening,
+     * since notifications may have been missed.
+     *
+     * @param factory Opens the dedicated listening connection
+     * @param channel Channel name (a plain identifier)
+     */
+    public synchronized void listen(ConnectionFactory factory, String channel) {
+        if (!CHANNEL_NAME.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Invalid channel name: " + channel);
+        }
+        if (listener != null) {
+            throw new IllegalStateException("Already listening for invalidations");
+        }
+        Thread thread = new Thread(() -> listenLoop(factory, channel), "query-cache-listener");
+        thread.setDaemon(true);
+        listener = thread;
+        thread.start();
+    }
+    
+    private void listenLoop(ConnectionFactory factory, String channel) {
+        while (!closed) {
+            try (Connection conn = factory.open();
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("LISTEN " + channel);
+                invalidateAll();
+                LOGGER.info("Listening for cache invalidations on channel {}", channel);
+                
+                PGConnection pgConnection = conn.unwrap(PGConnection.class);
+                while (!closed) {
+                    PGNotification[] notifications = pgConnection.getNotifications(LISTEN_POLL_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        onNotification(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (closed) {
+                    break;
+                }
+                LOGGER.warning("Cache invalidation listener failed, retrying: {}", e.getMessage());
+                try {
+                    Thread.sleep(LISTEN_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    private void onNotification(String payload) {
+        if (payload == null || payload.trim().isEmpty()) {
+            invalidateAll();
+            return;
+        }
+        for (String table : payload.split(",")) {
+            if (!table.trim().isEmpty()) {
+                invalidateTable(table.trim());
+            }
+        }
+    }
+    
+    /**
+     * Stops the LISTEN thread and drops all entries
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread thread = listener;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        invalidateAll();
+    }
+    
+    // ==================== Statistics ====================
+    
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    /**
+     * Gets the number of queries that were not cacheable and went straight
+     * to the database
+     *
+     * @return Bypassed query count
+     */
+    public long getBypassed() {
+        return bypassed.sum();
+    }
+    
+    public long getEvictions() {
+        return evictions.sum();
+    }
+    
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+    
+    /**
+     * Gets the number of results that exceeded the per-entry memory limit
+     *
+     * @return Oversized result count
+     */
+    public long getTooLarge() {
+        return tooLarge.sum();
+    }
+    
+    /**
+     * Gets the share of cacheable lookups answered from the cache
+     *
+     * @return Hit ratio between 0 and 1
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+    
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the estimated heap taken by the cached results
+     *
+     * @return Estimated bytes
+     */
+    public long getMemoryBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("entries=%d, bytes=%d, hits=%d, misses=%d, hitRatio=%.1f%%, "
+                + "evictions=%d, invalidations=%d, bypassed=%d",
+            getEntryCount(), getMemoryBytes(), getHits(), getMisses(), getHitRatio() * 100,
+            getEvictions(), getInvalidations(), getBypassed());
+    }
+    
+    // ==================== SQL analysis ====================
+    
+    /**
+     * Lowercases and collapses whitespace outside quoted text and identifiers,
+     * and drops a trailing semicolon
+     *
+     * @param sql SQL text
+     * @return Normalized SQL
+     */
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                out.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+            } else {
+                if (space) {
+                    out.append(' ');
+                    space = false;
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                }
+                out.append(Character.toLowerCase(c));
+            }
+        }
+        int end = out.length();
+        while (end > 0 && out.charAt(end - 1) == ';') {
+            end--;
+        }
+        out.setLength(end);
+        return out.toString();
+    }
+    
+    private static boolean isCacheable(String normalized) {
+        return READ_START.matcher(normalized).find()
+            && !NOT_CACHEABLE.matcher(withoutLiterals(normalized)).find();
+    }
+    
+    /**
+     * Blanks out quoted text so words inside literals are not matched
+     */
+    private static String withoutLiterals(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == '\'') {
+                if (c == quote) {
+                    quote = 0;
+                }
+                out.append(' ');
+            } else {
+                if (c == '\'' && quote == 0) {
+                    quote = c;
+                }
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+    
+    private static String key(String normalized, Object[] params) {
+        if (params == null || params.length == 0) {
+            return normalized;
+        }
+        StringBuilder key = new StringBuilder(normalized);
+        for (Object param : params) {
+            key.append('\u0000');
+            if (param == null) {
+                key.append("null");
+            } else if (param instanceof byte[]) {
+                key.append("byte[]:").append(Arrays.toString((byte[]) param));
+            } else {
+                // The class keeps the string '1' and the number 1 apart
+                key.append(param.getClass().getSimpleName()).append(':').append(param);
+            }
+        }
+        return key.toString();
+    }
+    
+    /**
+     * Finds the tables named after FROM and JOIN, including comma lists
+     * such as FROM a x, b y
+     */
+    static Set<String> tablesRead(String sql) {
+        String text = withoutLiterals(sql);
+        Set<String> tables = new HashSet<>();
+        Matcher matcher = READ_TABLE.matcher(text);
+        while (matcher.find()) {
+            boolean list = matcher.group(1).equalsIgnoreCase("from");
+            int pos = matcher.end();
+            while (true) {
+                pos = skipWords(text, pos, "only", "lateral");
+                int end = identifierEnd(text, pos);
+                if (end == pos) {
+                    break;
+                }
+                tables.add(tableKey(text.substring(pos, end)));
+                pos = skipAlias(text, end);
+                if (!list || pos >= text.length() || text.charAt(pos) != ',') {
+                    break;
+                }
+                pos = skipSpaces(text, pos + 1);
+            }
+        }
+        return tables;
+    }
+    
+    /**
+     * Finds the tables an INSERT, UPDATE, DELETE, MERGE, COPY, TRUNCATE or
+     * table DDL statement writes to (including data-modifying CTEs)
+     */
+    static Set<String> tablesWritten(String sql) {
+        Set<String> tables = new HashSet<>();
+        Matcher matcher = WRITE_TABLE.matcher(withoutLiterals(sql));
+        while (matcher.find()) {
+            for (String table : matcher.group(1).split(",")) {
+                tables.add(tableKey(table.trim()));
+            }
+        }
+        return tables;
+    }
+    
+    private static int skipSpaces(String text, int pos) {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+    
+    private static int skipWords(String text, int pos, String... words) {
+        boolean skipped = true;
+        while (skipped) {
+            skipped = false;
+            for (String word : words) {
+                int end = identifierEnd(text, pos);
+                if (text.substring(pos, end).equalsIgnoreCase(word)) {
+                    pos = skipSpaces(text, end);
+                    skipped = true;
+                }
+            }
+        }
+        return pos;
+    }
+    
+    private static int identifierEnd(String text, int pos) {
+        int end = pos;
+        while (end < text.length()) {
+            char c = text.charAt(end);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '"' && c != '$') {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+    
+    private static int skipAlias(String text, int pos) {
+        pos = skipSpaces(text, pos);
+        int end = identifierEnd(text, pos);
+        String word = text.substring(pos, end).toLowerCase(Locale.ROOT);
+        if (word.equals("as")) {
+            pos = skipSpaces(text, end);
+            end = identifierEnd(text, pos);
+            word = text.substring(pos, end);
+        }
+        if (end > pos && !CLAUSE_WORDS.contains(word.toLowerCase(Locale.ROOT))) {
+            pos = skipSpaces(text, end);
+        }
+        return pos;
+    }
+    
+    /**
+     * Strips quotes and any schema prefix from a table name
+     */
+    static String tableKey(String table) {
+        String name = table.replace("\"", "");
+        int dot = name.lastIndexOf('.');
+        return (dot >= 0 ? name.substring(dot + 1) : name).toLowerCase(Locale.ROOT);
+    }
+    
+    private long ttlFor(Set<String> tables) {
+        long defaultTtl = ttlMillis;
+        if (tables.isEmpty()) {
+            return defaultTtl;
+        }
+        long ttl = Long.MAX_VALUE;
+        for (String table : tables) {
+            ttl = Math.min(ttl, tableTtls.getOrDefault(table, defaultTtl));
+        }
+        return ttl;
+    }
+    
+    private static long sizeOf(Row row) {
+        long size = ROW_OVERHEAD_BYTES + 8L * row.values.length;
+        for (int i = 0; i < row.values.length; i++) {
+            Object value = row.values[i];
+            if (value == null) {
+                continue;
+            }
+            if (row.texts[i] != value) {
+                size += 40 + 2L * row.texts[i].length();
+            }
+            if (value instanceof String) {
+                size += 40 + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value instanceof BigDecimal) {
+                size += 64 + ((BigDecimal) value).precision() / 2;
+            } else {
+                size += 32;
+            }
+        }
+        return size;
+    }
+    
+    // ==================== Cached results ====================
+    
+    /**
+     * Column metadata copied out of a live result
+     */
+    private static final class Columns {
+        
+        private final String[] labels;
+        private final String[] names;
+        private final int[] types;
+        private final String[] typeNames;
+        private final String[] classNames;
+        
+        private Columns(int count) {
+            labels = new String[count];
+            names = new String[count];
+            types = new int[count];
+            typeNames = new String[count];
+            classNames = new String[count];
+        }
+        
+        /**
+         * Copies the metadata, or returns null if a column type cannot be
+         * detached from its connection
+         */
+        private static Columns of(ResultSetMetaData metaData) throws SQLException {
+            Columns columns = new Columns(metaData.getColumnCount());
+            for (int i = 0; i < columns.count(); i++) {
+                int column = i + 1;
+                switch (metaData.getColumnType(column)) {
+                    case Types.ARRAY:
+                    case Types.BLOB:
+                    case Types.CLOB:
+                    case Types.NCLOB:
+                    case Types.REF:
+                    case Types.STRUCT:
+                    case Types.SQLXML:
+                    case Types.JAVA_OBJECT:
+                    case Types.DATALINK:
+                        return null;
+                    default:
+                        columns.types[i] = metaData.getColumnType(column);
+                }
+                columns.labels[i] = metaData.getColumnLabel(column);
+                columns.names[i] = metaData.getColumnName(column);
+                columns.typeNames[i] = metaData.getColumnTypeName(column);
+                columns.classNames[i] = metaData.getColumnClassName(column);
+            }
+            return columns;
+        }
+        
+        private int count() {
+            return labels.length;
+        }
+        
+        private int find(String label) throws SQLException {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i].equalsIgnoreCase(label)) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("The column name " + label + " was not found in this ResultSet.");
+        }
+        
+        private ResultSetMetaData proxy() {
+            return (ResultSetMetaData) Proxy.newProxyInstance(
+                ResultSetMetaData.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(this, args);
+                    }
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return count();
+                        case "getColumnLabel":
+                            return labels[(Integer) args[0] - 1];
+                        case "getColumnName":
+                            return names[(Integer) args[0] - 1];
+                        case "getColumnType":
+                            return types[(Integer) args[0] - 1];
+                        case "getColumnTypeName":
+                            return typeNames[(Integer) args[0] - 1];
+                        case "getColumnClassName":
+                            return classNames[(Integer) args[0] - 1];
+                        case "isNullable":
+                            return ResultSetMetaData.columnNullableUnknown;
+                        case "isReadOnly":
+                            return true;
+                        default:
+                            throw new SQLFeatureNotSupportedException(
+                                method.getName() + " is not supported on a cached result");
+                    }
+                });
+        }
+    }
+    
+    /**
+     * One cached row: what the driver's getObject() and getString() returned
+     * for each column. The text is the same String instance for text columns;
+     * for other types the cursor derives its conversions from it, using the
+     * driver's own rules.
+     */
+    private static final class Row {
+        
+        private final Object[] values;
+        private final String[] texts;
+        
+        private Row(int columns) {
+            values = new Object[columns];
+            texts = new String[columns];
+        }
+    }
+    
+    /**
+     * One cached result; the rows are shared by all cursors opened on it
+     */
+    private static final class Entry {
+        
+        private final Columns columns;
+        private final List<Row> rows;
+        private final Set<String> tables;
+        private final long bytes;
+        private final long expiresAt;
+        
+        private Entry(Columns columns, List<Row> rows, Set<String> tables, long bytes, long expiresAt) {
+            this.columns = columns;
+            this.rows = rows;
+            this.tables = tables;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+        
+        private ResultSet open(ResultSet tail) {
+            return new Cursor(columns, rows, tail).proxy();
+        }
+    }
+    
+    /**
+     * Forward-only read-only ResultSet over cached rows, optionally
+     * continuing with a live result once the rows are used up. Getters
+     * return what the driver returns for the same column: text comes from
+     * the driver's getString(), dates and times are parsed from it with the
+     * driver's TimestampUtils, and mutable values (byte arrays, dates,
+     * PGobjects) are copied, so no caller can change a cached row.
+     */
+    private static final class Cursor implements InvocationHandler {
+        
+        private static final LocalDate EPOCH_DATE = LocalDate.of(1970, 1, 1);
+        
+        // Classes the driver maps these types to, for getObject(column, PGobject.class) on NULL
+        private static final Map<String, Class<? extends PGobject>> PGOBJECT_TYPES = Map.of(
+            "interval", PGInterval.class,
+            "money", PGmoney.class,
+            "box", PGbox.class,
+            "circle", PGcircle.class,
+            "line", PGline.class,
+            "lseg", PGlseg.class,
+            "path", PGpath.class,
+            "point", PGpoint.class,
+            "polygon", PGpolygon.class);
+        
+        private final Columns columns;
+        private final List<Row> rows;
+        private final ResultSet tail;
+        private TimestampUtils timestamps;
+        private int position = 0; // 1-based, 0 is before the first row
+        private boolean onTail = false;
+        private boolean wasNull = false;
+        private boolean closed = false;
+        
+        private Cursor(Columns columns, List<Row> rows, ResultSet tail) {
+            this.columns = columns;
+            this.rows = rows;
+            this.tail = tail;
+        }
+        
+        private ResultSet proxy() {
+            return (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, this);
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                return name.equals("equals") ? proxy == args[0] : method.invoke(this, args);
+            }
+            switch (name) {
+                case "close":
+                    closed = true;
+                    if (tail != null) {
+                        tail.close();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getMetaData":
+                    return columns.proxy();
+                case "findColumn":
+                    return columns.find((String) args[0]);
+                case "getStatement":
+                    return null;
+                case "getType":
+                    return ResultSet.TYPE_FORWARD_ONLY;
+                case "getConcurrency":
+                    return ResultSet.CONCUR_READ_ONLY;
+                case "getFetchSize":
+                    return rows.size();
+                case "setFetchSize":
+                case "clearWarnings":
+                case "getWarnings":
+                    return null;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    throw new SQLException("Cannot unwrap a cached result to " + args[0]);
+                default:
+            }
+            checkOpen();
+            
+            switch (name) {
+                case "next":
+                    if (position < rows.size()) {
+                        position++;
+                        return true;
+                    }
+                    position = rows.size() + 1;
+                    onTail = tail != null && tail.next();
+                    return onTail;
+                case "wasNull":
+                    return onTail ? tail.wasNull() : wasNull;
+                case "getRow":
+                    return position <= rows.size() ? position : onTail ? position + tail.getRow() : 0;
+                case "isBeforeFirst":
+                    return position == 0 && (!rows.isEmpty() || tail != null);
+                default:
+            }
+            
+            if (name.startsWith("get") && args != null && args.length >= 1
+                    && (args[0] instanceof Integer || args[0] instanceof String)) {
+                if (onTail) {
+                    try {
+                        return method.invoke(tail, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+                if (position < 1 || position > rows.size()) {
+                    throw new SQLException("ResultSet not positioned properly, perhaps you need to call next.");
+                }
+                int column = args[0] instanceof Integer ? (Integer) args[0] : columns.find((String) args[0]);
+                if (column < 1 || column > columns.count()) {
+                    throw new SQLException("The column index is out of range: " + column);
+                }
+                Row row = rows.get(position - 1);
+                Object value = row.values[column - 1];
+                wasNull = value == null;
+                Object option = args.length == 2 ? args[1] : null;
+                Class<?> type = option instanceof Class ? (Class<?>) option : method.getReturnType();
+                Object result = convert(value, row.texts[column - 1], columns.typeNames[column - 1], type,
+                    option instanceof Calendar ? (Calendar) option : null);
+                if (result instanceof BigDecimal && option instanceof Integer) {
+                    // Deprecated getBigDecimal(column, scale)
+                    return ((BigDecimal) result).setScale((Integer) option, RoundingMode.HALF_UP);
+                }
+                return result;
+            }
+            throw new SQLFeatureNotSupportedException(name + " is not supported on a cached result");
+        }
+        
+        private void checkOpen() throws SQLException {
+            if (closed) {
+                throw new SQLException("This ResultSet is closed.");
+            }
+        }
+        
+        private Object convert(Object value, String text, String typeName, Class<?> type, Calendar calendar)
+                throws SQLException {
+            if (PGobject.class.isAssignableFrom(type)) {
+                return toPGobject(value, text, typeName, type);
+            }
+            if (value == null) {
+                return type.isPrimitive() ? zero(type) : null;
+            }
+            try {
+                if (type == String.class) {
+                    return text;
+                }
+                if (type == byte[].class) {
+                    return value instanceof byte[] ? ((byte[]) value).clone() : text.getBytes(StandardCharsets.UTF_8);
+                }
+                if (type == java.sql.Date.class) {
+                    return timestamps().toDate(calendar, text);
+                }
+                if (type == Time.class) {
+                    return timestamps().toTime(calendar, text);
+                }
+                if (type == Timestamp.class) {
+                    return timestamps().toTimestamp(calendar, text);
+                }
+                if (type == LocalDate.class && (typeName.equals("date") || typeName.equals("timestamp"))) {
+                    return timestamps().toLocalDateTime(text).toLocalDate();
+                }
+                if (type == LocalTime.class && typeName.equals("time")) {
+                    return timestamps().toLocalTime(text);
+                }
+                if (type == LocalDateTime.class && typeName.equals("timestamp")) {
+                    return timestamps().toLocalDateTime(text);
+                }
+                if (type == OffsetDateTime.class && typeName.equals("timetz")) {
+                    return timestamps().toOffsetTime(text).atDate(EPOCH_DATE);
+                }
+                if (type == OffsetDateTime.class && (typeName.equals("timestamptz") || typeName.equals("timestamp"))) {
+                    // The driver always answers in UTC, whatever the session time zone
+                    return timestamps().toOffsetDateTime(text).withOffsetSameInstant(ZoneOffset.UTC);
+                }
+                if (type == Object.class || type.isInstance(value)) {
+                    return copyOf(value);
+                }
+                if (type == boolean.class || type == Boolean.class) {
+                    if (value instanceof Number) {
+                        return ((Number) value).intValue() != 0;
+                    }
+                    String lower = text.trim().toLowerCase(Locale.ROOT);
+                    return lower.equals("t") || lower.equals("true") || lower.equals("1")
+                        || lower.equals("y") || lower.equals("yes") || lower.equals("on");
+                }
+                if (type == BigDecimal.class) {
+                    return new BigDecimal(text.trim());
+                }
+                Number number = value instanceof Number ? (Number) value
+                    : value instanceof Boolean ? Integer.valueOf((Boolean) value ? 1 : 0)
+                    : new BigDecimal(text.trim());
+                if (type == int.class || type == Integer.class) {
+                    return number.intValue();
+                } else if (type == long.class || type == Long.class) {
+                    return number.longValue();
+                } else if (type == double.class || type == Double.class) {
+                    return number.doubleValue();
+                } else if (type == float.class || type == Float.class) {
+                    return number.floatValue();
+                } else if (type == short.class || type == Short.class) {
+                    return number.shortValue();
+                } else if (type == byte.class || type == Byte.class) {
+                    return number.byteValue();
+                }
+            } catch (NumberFormatException e) {
+                throw new SQLException("Cannot convert '" + text + "' to " + type.getSimpleName(), e);
+            }
+            throw new SQLException("Cannot convert " + typeName + " to " + type.getSimpleName());
+        }
+        
+        /**
+         * Builds the PGobject the driver returns for a column: the cached one
+         * if getObject() gave a PGobject, otherwise one holding the text (and
+         * a null value for NULL)
+         */
+        private static Object toPGobject(Object value, String text, String typeName, Class<?> type)
+                throws SQLException {
+            Object object;
+            if (value instanceof PGobject) {
+                object = copyOf(value);
+            } else {
+                try {
+                    PGobject created = PGOBJECT_TYPES.getOrDefault(typeName, PGobject.class)
+                        .getDeclaredConstructor().newInstance();
+                    created.setType(typeName);
+                    created.setValue(text);
+                    object = created;
+                } catch (ReflectiveOperationException e) {
+                    throw new SQLException("Cannot create a PGobject for " + typeName, e);
+                }
+            }
+            if (!type.isInstance(object)) {
+                throw new SQLException("Cannot convert " + typeName + " to " + type.getSimpleName());
+            }
+            return object;
+        }
+        
+        /**
+         * Copies values a caller could change; everything else the driver
+         * returns (String, numbers, Boolean, UUID, java.time) is immutable
+         */
+        private static Object copyOf(Object value) throws SQLException {
+            if (value instanceof byte[]) {
+                return ((byte[]) value).clone();
+            }
+            if (value instanceof Timestamp) {
+                Timestamp copy = new Timestamp(((Timestamp) value).getTime());
+                copy.setNanos(((Timestamp) value).getNanos());
+                return copy;
+            }
+            if (value instanceof java.sql.Date) {
+                return new java.sql.Date(((java.sql.Date) value).getTime());
+            }
+            if (value instanceof Time) {
+                return new Time(((Time) value).getTime());
+            }
+            if (value instanceof PGobject) {
+                try {
+                    return ((PGobject) value).clone();
+                } catch (CloneNotSupportedException e) {
+                    throw new SQLException("Cannot copy " + value.getClass().getSimpleName(), e);
+                }
+            }
+            return value;
+        }
+        
+        /**
+         * Date and time parser of the driver, created on first use (a cursor
+         * is used by one thread, and TimestampUtils is not thread-safe)
+         */
+        private TimestampUtils timestamps() {
+            if (timestamps == null) {
+                timestamps = new TimestampUtils(false, TimeZone::getDefault);
+            }
+            return timestamps;
+        }
+        
+        private static Object zero(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type == double.class) {
+                return 0.0;
+            } else if (type == float.class) {
+                return 0.0f;
+            } else if (type == short.class) {
+                return (short) 0;
+            } else if (type == byte.class) {
+                return (byte) 0;
+            }
+            return 0;
+        }
+    }
+}
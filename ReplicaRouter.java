@@ -0,0 +1,352 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * ReplicaRouter - Sends reads to read replicas and writes to the primary
+ *
+ * Each replica has its own ConnectionPool. A read goes to the available
+ * replica with the fewest connections currently borrowed through this
+ * router (ties are broken at random); when no replica is available it
+ * falls back to the primary. Replicas are checked in the background:
+ * one whose replay lag exceeds the limit, or that fails several borrows
+ * or checks in a row, is ejected for a while and only comes back after
+ * staying healthy for the whole ejection period.
+ *
+ * Replicas are asynchronous, so a read right after a write may not see
+ * it yet; read from the primary (connectDB) when that matters.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class ReplicaRouter implements AutoCloseable {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(ReplicaRouter.class);
+    
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 5000;
+    private static final long DEFAULT_MAX_LAG_MILLIS = 10_000;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final long DEFAULT_EJECT_MILLIS = 30_000;
+    
+    // Replay lag in milliseconds; 0 on a caught-up standby and on a server that is not a standby
+    private static final String LAG_SQL =
+        "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 "
+        + "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+        + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+    
+    // Statements a standby would reject even though they start like a read
+    private static final Pattern NEEDS_PRIMARY = Pattern.compile(
+        "\\b(?:insert|update|delete|merge|into|nextval|setval|pg_advisory_\\w*lock\\w*"
+            + "|for\\s+(?:no\\s+key\\s+)?update|for\\s+(?:key\\s+)?share)\\b");
+    private static final Pattern READ_START = Pattern.compile("^\\s*(?:select|with|values|table|show|explain)\\b");
+    
+    private final ConnectionPool primary;
+    private final List<Replica> replicas;
+    private final ScheduledExecutorService checker;
+    
+    private volatile long maxLagMillis = DEFAULT_MAX_LAG_MILLIS;
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long ejectMillis = DEFAULT_EJECT_MILLIS;
+    
+    // Statistics
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryFallbacks = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    
+    /**
+     * Creates a router and starts checking the replicas
+     *
+     * @param primary Pool of the primary server (not closed by the router)
+     * @param replicas Pools of the replicas by display name (closed by the router)
+     */
+    public ReplicaRouter(ConnectionPool primary, Map<String, ConnectionPool> replicas) {
+        this(primary, replicas, DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+    
+    /**
+     * Creates a router and starts checking the replicas
+     *
+     * @param primary Pool of the primary server (not closed by the router)
+     * @param replicas Pools of the replicas by display name (closed by the router)
+     * @param checkIntervalMillis Time between health and lag checks
+     */
+    public ReplicaRouter(ConnectionPool primary, Map<String, ConnectionPool> replicas, long checkIntervalMillis) {
+        this.primary = primary;
+        List<Replica> list = new ArrayList<>();
+        for (Map.Entry<String, ConnectionPool> entry : replicas.entrySet()) {
+            list.add(new Replica(entry.getKey(), entry.getValue()));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "MyDBMagic-replica-checker");
+            t.setDaemon(true);
+            return t;
+        });
+        if (!list.isEmpty()) {
+            checker.scheduleWithFixedDelay(this::checkReplicas, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Sets the replay lag above which a replica is ejected
+     *
+     * @param millis Maximum lag in milliseconds
+     * @return this ReplicaRouter for method chaining
+     */
+    public ReplicaRouter maxLag(long millis) {
+        this.maxLagMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Sets when and for how long failing replicas are ejected
+     *
+     * @param failures Consecutive failed borrows or checks that eject a replica
+     * @param millis How long an ejected replica must stay healthy before it is used again
+     * @return this ReplicaRouter for method chaining
+     */
+    public ReplicaRouter ejectAfter(int failures, long millis) {
+        if (failures <= 0 || millis < 0) {
+            throw new IllegalArgumentException("Failures must be positive and the ejection time not negative");
+        }
+        this.failureThreshold = failures;
+        this.ejectMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Borrows a connection to the primary
+     *
+     * @return Pooled primary connection
+     * @throws SQLException if no connection can be obtained
+     */
+    public Connection primary() throws SQLException {
+        return primary.borrow();
+    }
+    
+    /**
+     * Borrows a connection for a statement, using a replica only when the
+     * statement is a plain read
+     *
+     * @param sql Statement that will run on the connection
+     * @return Pooled replica or primary connection
+     * @throws SQLException if no connection can be obtained
+     */
+    public Connection forStatement(String sql) throws SQLException {
+        return isReadOnly(sql) ? read() : primary();
+    }
+    
+    /**
+     * Borrows a connection for read-only work from the least busy
+     * available replica, or from the primary if none is available
+     *
+     * @return Pooled connection; closing it returns it and ends the request
+     * @throws SQLException if no connection can be obtained
+     */
+    public Connection read() throws SQLException {
+        boolean[] tried = new boolean[replicas.size()];
+        while (true) {
+            Replica replica = pick(tried);
+            if (replica == null) {
+                primaryFallbacks.increment();
+                return primary.borrow();
+            }
+            replica.outstanding.incrementAndGet();
+            try {
+                // Closing the connection ends the request
+                Connection conn = replica.pool.borrow(replica.outstanding::decrementAndGet);
+                replica.failures.set(0);
+                replicaReads.increment();
+                return conn;
+            } catch (SQLException e) {
+                replica.outstanding.decrementAndGet();
+                LOGGER.warning("Replica {} failed, trying another server: {}", replica.name, e.getMessage());
+                onFailure(replica, e.getMessage());
+                tried[replicas.indexOf(replica)] = true;
+            }
+        }
+    }
+    
+    /**
+     * Tells whether a statement can run on a hot standby
+     *
+     * @param sql SQL text
+     * @return true for plain SELECT, WITH, VALUES, TABLE, SHOW and EXPLAIN statements
+     */
+    public static boolean isReadOnly(String sql) {
+        String text = sql.toLowerCase(Locale.ROOT);
+        return READ_START.matcher(text).find() && !NEEDS_PRIMARY.matcher(text).find();
+    }
+    
+    /**
+     * Picks the available replica with the fewest outstanding requests,
+     * starting at a random position so ties are spread evenly
+     */
+    private Replica pick(boolean[] tried) {
+        int count = replicas.size();
+        if (count == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        int offset = ThreadLocalRandom.current().nextInt(count);
+        Replica best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int index = (offset + i) % count;
+            Replica replica = replicas.get(index);
+            if (tried[index] || !replica.isAvailable(now)) {
+                continue;
+            }
+            int outstanding = replica.outstanding.get();
+            if (outstanding < bestOutstanding) {
+                best = replica;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+    
+    // ==================== Health ====================
+    
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection conn = replica.pool.borrow();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(LAG_SQL)) {
+                rs.next();
+                replica.lagMillis = rs.getDouble(1);
+                if (replica.lagMillis > maxLagMillis) {
+                    eject(replica, String.format("replay lag %.0f ms", replica.lagMillis));
+                } else {
+                    replica.failures.set(0);
+                    if (replica.ejectedUntil != 0 && replica.isAvailable(System.currentTimeMillis())) {
+                        replica.ejectedUntil = 0;
+                        LOGGER.info("Replica {} is back in rotation", replica.name);
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                onFailure(replica, e.getMessage());
+            }
+        }
+    }
+    
+    private void onFailure(Replica replica, String reason) {
+        boolean ejected = replica.ejectedUntil != 0;
+        if (ejected || replica.failures.incrementAndGet() >= failureThreshold) {
+            eject(replica, reason);
+        }
+    }
+    
+    /**
+     * Takes a replica out of rotation, or keeps an ejected one out for
+     * another full period
+     */
+    private void eject(Replica replica, String reason) {
+        boolean wasAvailable = replica.ejectedUntil == 0;
+        replica.failures.set(0);
+        replica.ejectedUntil = System.currentTimeMillis() + ejectMillis;
+        if (wasAvailable) {
+            ejections.increment();
+            LOGGER.warning("Ejecting replica {} for {} ms: {}", replica.name, ejectMillis, reason);
+        }
+    }
+    
+    // ==================== Statistics ====================
+    
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+    
+    /**
+     * Gets the number of reads that went to the primary because no replica
+     * was available
+     *
+     * @return Fallback count
+     */
+    public long getPrimaryFallbacks() {
+        return primaryFallbacks.sum();
+    }
+    
+    public long getEjections() {
+        return ejections.sum();
+    }
+    
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+    
+    /**
+     * Gets the number of replicas currently in rotation
+     *
+     * @return Available replica count
+     */
+    public int getAvailableCount() {
+        long now = System.currentTimeMillis();
+        int available = 0;
+        for (Replica replica : replicas) {
+            if (replica.isAvailable(now)) {
+                available++;
+            }
+        }
+        return available;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("replicas=%d, available=%d, replicaReads=%d, primaryFallbacks=%d, ejections=%d",
+            getReplicaCount(), getAvailableCount(), getReplicaReads(), getPrimaryFallbacks(), getEjections()));
+        long now = System.currentTimeMillis();
+        for (Replica replica : replicas) {
+            sb.append(String.format("%n  %s: %s, outstanding=%d, lag=%.0f ms", replica.name,
+                replica.isAvailable(now) ? "available" : "ejected", replica.outstanding.get(), replica.lagMillis));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Stops the health checks and closes the replica pools
+     */
+    @Override
+    public void close() {
+        checker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+    
+    /**
+     * One replica with its pool and health state
+     */
+    private static final class Replica {
+        
+        private final String name;
+        private final ConnectionPool pool;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long ejectedUntil = 0; // 0 when in rotation
+        private volatile double lagMillis = 0;
+        
+        private Replica(String name, ConnectionPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+        
+        private boolean isAvailable(long now) {
+            return now >= ejectedUntil;
+        }
+    }
+}
@@ -0,0 +1,747 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ResultRenderer - Writes query results as text in one of several formats
+ *
+ * Output is collected in a reusable character buffer, encoded to UTF-8
+ * into a large byte buffer and handed to the channel only when that fills
+ * up or on flush(), instead of one formatted write per cell. Integer
+ * columns are read with getLong() and written digit by digit, booleans
+ * are written from constants, and padding is appended directly, so the
+ * only String created per cell is the one the driver returns for text
+ * values.
+ *
+ * The column formats (TABLE and ALIGNED) take their widths from a sample
+ * of the first rows, which are held back until the sample is complete or
+ * the output is flushed. Later values longer than the width are cut short
+ * in TABLE and overflow in ALIGNED.
+ *
+ * A renderer keeps its buffers between results and is not thread-safe.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class ResultRenderer implements Flushable {
+    
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+    private static final int DEFAULT_SAMPLE_ROWS = 100;
+    private static final int MAX_COLUMN_WIDTH = 40;
+    private static final String NULL_TEXT = "NULL";
+    private static final String TSV_NULL = "\\N";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    /**
+     * Output format
+     */
+    public enum Format {
+        /** Boxed table with borders */
+        TABLE,
+        /** Padded columns under an underlined header */
+        ALIGNED,
+        /** Comma separated values with a header line */
+        CSV,
+        /** Tab separated values in COPY text style, with a header line */
+        TSV,
+        /** One JSON object per row */
+        JSONL
+    }
+    
+    /**
+     * How the values of a column are read and written
+     */
+    private enum Kind {
+        INTEGER,
+        NUMBER,
+        BOOLEAN,
+        TEXT
+    }
+    
+    private final WritableByteChannel channel;
+    private final ByteBuffer bytes;
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private int sampleRows = DEFAULT_SAMPLE_ROWS;
+    
+    // State of the result being rendered
+    private Format format;
+    private String[] names;
+    private Kind[] kinds;
+    private int[] widths;
+    private List<String[]> sample;
+    private long rowCount;
+    
+    /**
+     * Creates a renderer with the default 64 KB output buffer
+     *
+     * @param channel Channel the output is written to (never closed by the renderer)
+     */
+    public ResultRenderer(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Creates a renderer
+     *
+     * @param channel Channel the output is written to (never closed by the renderer)
+     * @param bufferSize Size of the output buffer in bytes
+     */
+    public ResultRenderer(WritableByteChannel channel, int bufferSize) {
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException("Buffer size must be at least 1024 bytes");
+        }
+        this.channel = channel;
+        this.bytes = ByteBuffer.allocateDirect(bufferSize);
+    }
+    
+    /**
+     * Creates a renderer for standard output. Writes go to whatever
+     * System.out is at the time of the flush, so System.setOut is honored
+     *
+     * @return Renderer over standard output
+     */
+    public static ResultRenderer toStandardOutput() {
+        OutputStream stdout = new OutputStream() {
+            @Override
+            public void write(int b) {
+                System.out.write(b);
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) {
+                System.out.write(b, off, len);
+            }
+            
+            @Override
+            public void flush() {
+                System.out.flush();
+            }
+        };
+        return new ResultRenderer(Channels.newChannel(stdout));
+    }
+    
+    /**
+     * Sets how many leading rows are used to compute column widths
+     *
+     * @param rows Rows to sample (must be positive)
+     * @return this ResultRenderer object for method chaining
+     */
+    public ResultRenderer sampleRows(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("Sample size must be positive");
+        }
+        this.sampleRows = rows;
+        return this;
+    }
+    
+    /**
+     * Writes every row of a result set
+     *
+     * @param rs Result set positioned before the first row
+     * @param format Output format
+     * @return Number of rows written
+     * @throws SQLException If reading the result set fails
+     * @throws IOException If writing to the channel fails
+     */
+    public long render(ResultSet rs, Format format) throws SQLException, IOException {
+        begin(rs.getMetaData(), format);
+        while (rs.next()) {
+            row(rs);
+        }
+        return end();
+    }
+    
+    /**
+     * Starts a new result; rows are then passed to row() and the result
+     * finished with end()
+     *
+     * @param metaData Metadata of the result set
+     * @param format Output format
+     * @throws SQLException If reading the metadata fails
+     * @throws IOException If writing to the channel fails
+     */
+    public void begin(ResultSetMetaData metaData, Format format) throws SQLException, IOException {
+        int columnCount = metaData.getColumnCount();
+        this.format = format;
+        this.names = new String[columnCount];
+        this.kinds = new Kind[columnCount];
+        this.widths = null;
+        this.rowCount = 0;
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = metaData.getColumnLabel(i + 1);
+            kinds[i] = kindOf(metaData.getColumnType(i + 1));
+        }
+        
+        if (format == Format.TABLE || format == Format.ALIGNED) {
+            sample = new ArrayList<>(Math.min(sampleRows, 1024));
+        } else {
+            sample = null;
+            writeHeader();
+        }
+    }
+    
+    /**
+     * Writes the current row of the result set
+     *
+     * @param rs Result set positioned on a row
+     * @throws SQLException If reading the row fails
+     * @throws IOException If writing to the channel fails
+     */
+    public void row(ResultSet rs) throws SQLException, IOException {
+        rowCount++;
+        if (sample != null) {
+            String[] values = new String[names.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readText(rs, i);
+            }
+            sample.add(values);
+            if (sample.size() >= sampleRows) {
+                writeSample();
+            }
+            return;
+        }
+        
+        startRow();
+        for (int i = 0; i < names.length; i++) {
+            int column = i + 1;
+            switch (kinds[i]) {
+                case INTEGER:
+                    long number = rs.getLong(column);
+                    if (rs.wasNull()) {
+                        cell(i, null);
+                    } else {
+                        cell(i, number);
+                    }
+                    break;
+                case BOOLEAN:
+                    boolean flag = rs.getBoolean(column);
+                    cell(i, rs.wasNull() ? null : flag ? "true" : "false");
+                    break;
+                default:
+                    cell(i, rs.getString(column));
+            }
+        }
+        endRow();
+    }
+    
+    /**
+     * Finishes the current result and flushes the output
+     *
+     * @return Number of rows written
+     * @throws IOException If writing to the channel fails
+     */
+    public long end() throws IOException {
+        if (sample != null) {
+            writeSample();
+        }
+        if (format == Format.TABLE) {
+            rule('-');
+        }
+        flush();
+        return rowCount;
+    }
+    
+    /**
+     * Writes any buffered output to the channel. Sampled rows are written
+     * first, fixing the column widths, so everything passed to row() so far
+     * becomes visible
+     *
+     * @throws IOException If writing to the channel fails
+     */
+    @Override
+    public void flush() throws IOException {
+        if (sample != null) {
+            writeSample();
+        }
+        encode();
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+    
+    /**
+     * Gets the number of rows passed to row() since begin()
+     *
+     * @return Row count of the current result
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+    
+    // ==================== Layout ====================
+    
+    private static Kind kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return Kind.INTEGER;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return Kind.NUMBER;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return Kind.BOOLEAN;
+            default:
+                return Kind.TEXT;
+        }
+    }
+    
+    private String readText(ResultSet rs, int index) throws SQLException {
+        int column = index + 1;
+        switch (kinds[index]) {
+            case INTEGER:
+                long number = rs.getLong(column);
+                return rs.wasNull() ? null : Long.toString(number);
+            case BOOLEAN:
+                boolean flag = rs.getBoolean(column);
+                return rs.wasNull() ? null : flag ? "true" : "false";
+            default:
+                return rs.getString(column);
+        }
+    }
+    
+    /**
+     * Computes the column widths from the sampled rows, then writes the
+     * header and the sample itself; later rows are written straight away
+     */
+    private void writeSample() throws IOException {
+        List<String[]> rows = sample;
+        sample = null;
+        
+        widths = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            widths[i] = Math.max(1, Math.min(names[i].length(), MAX_COLUMN_WIDTH));
+        }
+        for (String[] values : rows) {
+            for (int i = 0; i < values.length; i++) {
+                int length = values[i] != null ? values[i].length() : NULL_TEXT.length();
+                widths[i] = Math.max(widths[i], Math.min(length, MAX_COLUMN_WIDTH));
+            }
+        }
+        
+        writeHeader();
+        for (String[] values : rows) {
+            startRow();
+            for (int i = 0; i < values.length; i++) {
+                cell(i, values[i]);
+            }
+            endRow();
+        }
+    }
+    
+    private void writeHeader() throws IOException {
+        switch (format) {
+            case TABLE:
+                rule('-');
+                append('|');
+                for (int i = 0; i < names.length; i++) {
+                    append(' ');
+                    padded(names[i].toUpperCase(Locale.ROOT), widths[i], false, true);
+                    append(" |");
+                }
+                append('\n');
+                rule('=');
+                break;
+            case ALIGNED:
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        append(' ');
+                    }
+                    padded(names[i].toUpperCase(Locale.ROOT), widths[i], false, false);
+                }
+                append('\n');
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        append(' ');
+                    }
+                    repeat('=', widths[i]);
+                }
+                append('\n');
+                break;
+            case CSV:
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        append(',');
+                    }
+                    csv(names[i]);
+                }
+                append('\n');
+                break;
+            case TSV:
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        append('\t');
+                    }
+                    tsv(names[i]);
+                }
+                append('\n');
+                break;
+            default:
+                // JSON lines carry the column names in every row
+        }
+    }
+    
+    private void rule(char c) throws IOException {
+        append('+');
+        for (int width : widths) {
+            repeat(c, width + 2);
+            append('+');
+        }
+        append('\n');
+    }
+    
+    private void startRow() throws IOException {
+        if (format == Format.TABLE) {
+            append('|');
+        } else if (format == Format.JSONL) {
+            append('{');
+        }
+    }
+    
+    private void endRow() throws IOException {
+        if (format == Format.JSONL) {
+            append('}');
+        }
+        append('\n');
+    }
+    
+    private void cellSeparator(int index) throws IOException {
+        switch (format) {
+            case TABLE:
+                append(' ');
+                break;
+            case ALIGNED:
+                if (index > 0) {
+                    append(' ');
+                }
+                break;
+            case CSV:
+                if (index > 0) {
+                    append(',');
+                }
+                break;
+            case TSV:
+                if (index > 0) {
+                    append('\t');
+                }
+                break;
+            default:
+                if (index > 0) {
+                    append(',');
+                }
+                json(names[index]);
+                append(':');
+        }
+    }
+    
+    /**
+     * Writes a text cell; null is written as the format's NULL marker
+     */
+    private void cell(int index, String value) throws IOException {
+        cellSeparator(index);
+        boolean numeric = kinds[index] == Kind.INTEGER || kinds[index] == Kind.NUMBER;
+        switch (format) {
+            case TABLE:
+                padded(value != null ? value : NULL_TEXT, widths[index], numeric, true);
+                append(" |");
+                break;
+            case ALIGNED:
+                padded(value != null ? value : NULL_TEXT, widths[index], numeric, false);
+                break;
+            case CSV:
+                if (value != null) {
+                    csv(value);
+                }
+                break;
+            case TSV:
+                if (value != null) {
+                    tsv(value);
+                } else {
+                    append(TSV_NULL);
+                }
+                break;
+            default:
+                if (value == null) {
+                    append("null");
+                } else if (kinds[index] == Kind.BOOLEAN
+                        || kinds[index] == Kind.NUMBER && isJsonNumber(value)) {
+                    append(value);
+                } else {
+                    json(value);
+                }
+        }
+    }
+    
+    /**
+     * Writes an integer cell without converting it to a String first
+     */
+    private void cell(int index, long value) throws IOException {
+        cellSeparator(index);
+        if (format == Format.TABLE || format == Format.ALIGNED) {
+            int length = digits(value);
+            if (length > widths[index] && format == Format.TABLE) {
+                // Too wide for the box, fall back to the truncating path
+                padded(Long.toString(value), widths[index], true, true);
+            } else {
+                repeat(' ', widths[index] - length);
+                appendLong(value);
+            }
+            if (format == Format.TABLE) {
+                append(" |");
+            }
+        } else {
+            appendLong(value);
+        }
+    }
+    
+    /**
+     * Pads a value to the column width, right-aligning numbers; when
+     * truncate is set, longer values are cut and end with '~'
+     */
+    private void padded(String value, int width, boolean rightAlign, boolean truncate) throws IOException {
+        int length = value.length();
+        if (truncate && length > width) {
+            append(value, 0, width - 1);
+            append('~');
+            return;
+        }
+        if (rightAlign) {
+            repeat(' ', width - length);
+            append(value);
+        } else {
+            append(value);
+            repeat(' ', width - length);
+        }
+    }
+    
+    private void csv(String value) throws IOException {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            append(value);
+            return;
+        }
+        append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                append('"');
+            }
+            append(c);
+        }
+        append('"');
+    }
+    
+    private void tsv(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    append("\\\\");
+                    break;
+                case '\t':
+                    append("\\t");
+                    break;
+                case '\n':
+                    append("\\n");
+                    break;
+                case '\r':
+                    append("\\r");
+                    break;
+                default:
+                    append(c);
+            }
+        }
+    }
+    
+    private void json(String value) throws IOException {
+        append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    append("\\\"");
+                    break;
+                case '\\':
+                    append("\\\\");
+                    break;
+                case '\n':
+                    append("\\n");
+                    break;
+                case '\r':
+                    append("\\r");
+                    break;
+                case '\t':
+                    append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        append("\\u00");
+                        append(HEX[c >> 4]);
+                        append(HEX[c & 0xF]);
+                    } else {
+                        append(c);
+                    }
+            }
+        }
+        append('"');
+    }
+    
+    /**
+     * Checks that a NUMERIC or floating point value is a valid JSON number:
+     * -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)? (NaN and Infinity are
+     * not, and are written as strings)
+     */
+    private static boolean isJsonNumber(String value) {
+        int length = value.length();
+        int i = value.startsWith("-") ? 1 : 0;
+        if (i < length && value.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            i = skipDigits(value, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && value.charAt(i) == '.') {
+            int start = ++i;
+            i = skipDigits(value, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+                i++;
+            }
+            int start = i;
+            i = skipDigits(value, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+    
+    private static int skipDigits(String value, int i) {
+        while (i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+    
+    private static int digits(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        int length = value < 0 ? 2 : 1;
+        long rest = Math.abs(value);
+        while (rest >= 10) {
+            rest /= 10;
+            length++;
+        }
+        return length;
+    }
+    
+    // ==================== Buffering ====================
+    
+    private void appendLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            append("-9223372036854775808");
+            return;
+        }
+        if (chars.remaining() < 20) {
+            encode();
+        }
+        if (value < 0) {
+            chars.put('-');
+            value = -value;
+        }
+        int end = chars.position() + digits(value);
+        for (int i = end - 1; i >= chars.position(); i--) {
+            chars.put(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+        chars.position(end);
+    }
+    
+    private void repeat(char c, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            append(c);
+        }
+    }
+    
+    private void append(String value) throws IOException {
+        append(value, 0, value.length());
+    }
+    
+    private void append(String value, int from, int to) throws IOException {
+        while (from < to) {
+            if (!chars.hasRemaining()) {
+                encode();
+            }
+            int end = Math.min(to, from + chars.remaining());
+            chars.put(value, from, end);
+            from = end;
+        }
+    }
+    
+    private void append(char c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encode();
+        }
+        chars.put(c);
+    }
+    
+    /**
+     * Moves the buffered characters into the byte buffer, writing the
+     * byte buffer to the channel whenever it fills up
+     */
+    private void encode() throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, false);
+            if (!result.isOverflow()) {
+                break;
+            }
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+        // A lone high surrogate at the end waits for its pair
+        chars.compact();
+    }
+}
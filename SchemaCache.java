@@ -0,0 +1,319 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SchemaCache - Caches table lists and Field metadata between catalog lookups
+ *
+ * Entries are keyed by schema and table name and expire after a TTL. DDL
+ * run through MyDBMagic invalidates the affected entries right away, and an
+ * optional catalog fingerprint check drops everything when another client
+ * changes the schema. Cached Field arrays are copied on the way in and out,
+ * so callers can never modify the cached metadata.
+ *
+ * Loads read getGeneration() before going to the catalog and pass it to
+ * putFields/putTables, which drop the result if the table was invalidated
+ * in the meantime, so a slow load never stores metadata from before a DDL.
+ * Only the most recent per-table invalidations are remembered; older ones
+ * are folded into a single cache-wide cutoff.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class SchemaCache {
+    
+    // Matches the object touched by common DDL, e.g. "DROP TABLE IF EXISTS users"
+    private static final Pattern DDL_TABLE = Pattern.compile(
+        "^\\s*(?:CREATE|ALTER|DROP|TRUNCATE)\\s+(?:UNLOGGED\\s+|TEMP\\s+|TEMPORARY\\s+)?TABLE\\s+"
+            + "(?:IF\\s+(?:NOT\\s+)?EXISTS\\s+)?(?:ONLY\\s+)?([\\w.\"]+)",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern DDL_ANY = Pattern.compile(
+        "^\\s*(?:CREATE|ALTER|DROP|COMMENT|RENAME)\\b", Pattern.CASE_INSENSITIVE);
+    
+    // Per-table invalidation times kept before they are folded into allInvalidatedAt
+    private static final int MAX_TABLE_INVALIDATIONS = 1024;
+    
+    private volatile long ttlMillis;
+    private volatile long changeCheckIntervalMillis = 0;
+    
+    private final ConcurrentHashMap<String, Entry<Field[]>> fields = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry<List<String>>> tables = new ConcurrentHashMap<>();
+    
+    // Invalidation clock: every invalidation advances it (guarded by invalidationLock)
+    private final Object invalidationLock = new Object();
+    private long clock = 0;
+    private long allInvalidatedAt = 0;
+    private final Map<String, Long> tableInvalidatedAt = new HashMap<>();
+    
+    // Catalog change detection
+    private volatile String catalogFingerprint = null;
+    private volatile long lastChangeCheck = 0;
+    
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    
+    /**
+     * Creates a cache whose entries live for the given time
+     *
+     * @param ttlMillis Time to live of each entry in milliseconds
+     */
+    public SchemaCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+    
+    /**
+     * Sets the time to live of new entries
+     *
+     * @param millis TTL in milliseconds (0 disables caching)
+     * @return this SchemaCache for method chaining
+     */
+    public SchemaCache ttl(long millis) {
+        this.ttlMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Enables periodic pg_catalog change detection
+     *
+     * @param millis Minimum time between catalog checks (0 disables the check)
+     * @return this SchemaCache for method chaining
+     */
+    public SchemaCache changeCheckInterval(long millis) {
+        this.changeCheckIntervalMillis = millis;
+        return this;
+    }
+    
+    /**
+     * Returns a copy of the cached fields of a table
+     *
+     * @param schema Schema name (null for any schema)
+     * @param table Table name
+     * @return copy of the cached Field array, or null if not cached
+     */
+    public Field[] getFields(String schema, String table) {
+        Entry<Field[]> entry = fields.get(key(schema, table));
+        if (entry == null || entry.isExpired()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copyOf(entry.value);
+    }
+    
+    /**
+     * Returns the invalidation generation to pass to putFields/putTables
+     *
+     * @return current generation, read before loading from the catalog
+     */
+    public long getGeneration() {
+        synchronized (invalidationLock) {
+            return clock;
+        }
+    }
+    
+    /**
+     * Caches the fields of a table unless it was invalidated after the load started
+     *
+     * @param schema Schema name (null for any schema)
+     * @param table Table name
+     * @param value Fields read from the catalog
+     * @param generation getGeneration() from before the load
+     */
+    public void putFields(String schema, String table, Field[] value, long generation) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        synchronized (invalidationLock) {
+            Long invalidatedAt = tableInvalidatedAt.get(tableKey(table));
+            if (allInvalidatedAt > generation || (invalidatedAt != null && invalidatedAt > generation)) {
+                return;
+            }
+            fields.put(key(schema, table), new Entry<>(copyOf(value), ttlMillis));
+        }
+    }
+    
+    /**
+     * Returns the cached table names of a schema
+     *
+     * @param schema Schema name
+     * @return unmodifiable list of table names, or null if not cached
+     */
+    public List<String> getTables(String schema) {
+        Entry<List<String>> entry = tables.get(key(schema, ""));
+        if (entry == null || entry.isExpired()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+    
+    /**
+     * Caches the table names of a schema unless any invalidation happened
+     * after the load started (every invalidation clears the table lists)
+     *
+     * @param schema Schema name
+     * @param value Table names read from the catalog
+     * @param generation getGeneration() from before the load
+     */
+    public void putTables(String schema, List<String> value, long generation) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        synchronized (invalidationLock) {
+            if (clock > generation) {
+                return;
+            }
+            tables.put(key(schema, ""), new Entry<>(Collections.unmodifiableList(value), ttlMillis));
+        }
+    }
+    
+    /**
+     * Drops a table's fields (in every schema) and all cached table lists
+     *
+     * @param table Table name
+     */
+    public void invalidate(String table) {
+        String name = tableKey(table);
+        synchronized (invalidationLock) {
+            tableInvalidatedAt.put(name, ++clock);
+            if (tableInvalidatedAt.size() > MAX_TABLE_INVALIDATIONS) {
+                // Keeps the map bounded; loads of any table started before now are dropped once
+                allInvalidatedAt = clock;
+                tableInvalidatedAt.clear();
+            }
+            fields.keySet().removeIf(k -> tableKey(k.substring(k.indexOf('.') + 1)).equals(name));
+            tables.clear();
+        }
+        invalidations.increment();
+    }
+    
+    /**
+     * Drops every cached entry
+     */
+    public void invalidateAll() {
+        synchronized (invalidationLock) {
+            allInvalidatedAt = ++clock;
+            tableInvalidatedAt.clear();
+            fields.clear();
+            tables.clear();
+        }
+        invalidations.increment();
+    }
+    
+    /**
+     * Invalidates the entries affected by a statement if it is DDL
+     *
+     * @param sql Statement that was just executed
+     * @return true if the statement was recognized as DDL
+     */
+    public boolean invalidateForStatement(String sql) {
+        Matcher matcher = DDL_TABLE.matcher(sql);
+        if (matcher.find()) {
+            invalidate(matcher.group(1));
+            return true;
+        }
+        if (DDL_ANY.matcher(sql).find()) {
+            invalidateAll();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Tells whether a catalog change check should run now
+     *
+     * @return true if change detection is enabled and the interval has passed
+     */
+    public boolean isChangeCheckDue() {
+        long interval = changeCheckIntervalMillis;
+        return interval > 0 && System.currentTimeMillis() - lastChangeCheck >= interval;
+    }
+    
+    /**
+     * Records the current catalog fingerprint and clears the cache if it changed
+     *
+     * @param fingerprint Value summarizing the current catalog state
+     */
+    public void checkCatalog(String fingerprint) {
+        lastChangeCheck = System.currentTimeMillis();
+        String previous = catalogFingerprint;
+        catalogFingerprint = fingerprint;
+        if (previous != null && !previous.equals(fingerprint)) {
+            invalidateAll();
+        }
+    }
+    
+    // Statistics
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+    
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("tables=%d, hits=%d, misses=%d, hitRatio=%.1f%%, invalidations=%d",
+            fields.size(), getHits(), getMisses(), getHitRatio() * 100, getInvalidations());
+    }
+    
+    private static String key(String schema, String table) {
+        return (schema == null ? "*" : schema.toLowerCase(Locale.ROOT)) + "." + table;
+    }
+    
+    /**
+     * Strips quotes and any schema prefix from a table name and lowercases it
+     */
+    private static String tableKey(String table) {
+        String bare = table.replace("\"", "");
+        int dot = bare.lastIndexOf('.');
+        return (dot >= 0 ? bare.substring(dot + 1) : bare).toLowerCase(Locale.ROOT);
+    }
+    
+    private static Field[] copyOf(Field[] source) {
+        Field[] copy = new Field[source.length];
+        for (int i = 0; i < source.length; i++) {
+            copy[i] = new Field(source[i]);
+        }
+        return copy;
+    }
+    
+    /**
+     * A cached value with its expiry time
+     */
+    private static final class Entry<T> {
+        
+        private final T value;
+        private final long expiresAt;
+        
+        private Entry(T value, long ttlMillis) {
+            this.value = value;
+            this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        }
+        
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+}
@@ -0,0 +1,810 @@
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SchemaMigrator - Brings a database schema to a target set of TableDefinitions
+ *
+ * The live schema is read with one catalog pass (all columns and all
+ * indexes of the schema at once) and diffed in memory against the
+ * desired definitions. The resulting plan only contains what is missing or
+ * different: CREATE TABLE for new tables, ALTER TABLE for changed columns
+ * and CREATE INDEX CONCURRENTLY for new indexes on existing tables (an
+ * invalid index left by an interrupted build is dropped and rebuilt).
+ * Column types are compared including character length and numeric and
+ * time precision. Missing primary, unique and foreign keys are added; a
+ * primary key that differs from the definition cannot be changed safely
+ * and is reported in Plan.getUnsupported() instead (migrate() refuses to
+ * run such a plan). Columns, keys and tables that are not in the
+ * definitions are never dropped unless allowDrops() is set.
+ *
+ * Applied versions are recorded in the schema_migrations table, so running
+ * the same version twice does nothing. migrate() holds a PostgreSQL
+ * advisory lock for the whole run, so migrators started at the same time
+ * (e.g. several application instances) run one after the other, and it
+ * records the version in the transaction of the last transactional
+ * statements. All statements of a migration run on one connection.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class SchemaMigrator {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(SchemaMigrator.class);
+    
+    private static final String VERSION_TABLE = "schema_migrations";
+    private static final long LOCK_POLL_MIN_MILLIS = 50;
+    private static final long LOCK_POLL_MAX_MILLIS = 1000;
+    
+    // Longest declared length PostgreSQL allows; larger sizes mean "no length"
+    private static final int MAX_CHAR_LENGTH = 10_485_760;
+    
+    // Time types whose fractional-second precision is compared; 6 is the default
+    private static final Set<String> TIME_TYPES = new HashSet<>(Arrays.asList("timestamp without time zone",
+        "timestamp with time zone", "time without time zone", "time with time zone"));
+    private static final String DEFAULT_TIME_PRECISION = "6";
+    
+    // Maps PostgreSQL aliases and catalog names to one canonical type name
+    private static final Map<String, String> TYPE_ALIASES = new HashMap<>();
+    static {
+        alias("integer", "int", "int4", "serial", "serial4");
+        alias("bigint", "int8", "bigserial", "serial8");
+        alias("smallint", "int2", "smallserial", "serial2");
+        alias("numeric", "decimal");
+        alias("real", "float4");
+        alias("double precision", "float8", "double", "float");
+        alias("boolean", "bool");
+        alias("character varying", "varchar");
+        alias("character", "char", "bpchar");
+        alias("timestamp without time zone", "timestamp");
+        alias("timestamp with time zone", "timestamptz");
+        alias("time without time zone", "time");
+        alias("time with time zone", "timetz");
+    }
+    
+    private final MyDBMagic db;
+    private String schema = "public";
+    private boolean allowDrops = false;
+    private int statementsPerTransaction = 50;
+    
+    /**
+     * Creates a migrator for the database behind a MyDBMagic instance
+     *
+     * @param db Database to migrate
+     */
+    public SchemaMigrator(MyDBMagic db) {
+        this.db = db;
+    }
+    
+    /**
+     * Sets the schema that is read and migrated
+     *
+     * @param name Schema name
+     * @return this SchemaMigrator for method chaining
+     */
+    public SchemaMigrator schema(String name) {
+        this.schema = name;
+        return this;
+    }
+    
+    /**
+     * Lets the plan drop columns that are not in the definitions
+     *
+     * @param allow Whether DROP COLUMN statements may be generated
+     * @return this SchemaMigrator for method chaining
+     */
+    public SchemaMigrator allowDrops(boolean allow) {
+        this.allowDrops = allow;
+        return this;
+    }
+    
+    /**
+     * Sets how many transactional statements are committed together
+     *
+     * @param count Statements per transaction
+     * @return this SchemaMigrator for method chaining
+     */
+    public SchemaMigrator statementsPerTransaction(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Statements per transaction must be positive");
+        }
+        this.statementsPerTransaction = count;
+        return this;
+    }
+    
+    /**
+     * Applies a schema version unless it was already applied
+     *
+     * @param version Version identifier recorded in schema_migrations
+     * @param desired Target table definitions
+     * @return the plan that was executed (empty if the version was already applied)
+     * @throws SQLException if reading the schema or running a statement fails
+     */
+    public Plan migrate(String version, TableDefinition... desired) throws SQLException {
+        try (Connection conn = db.connectDB()) {
+            lock(conn);
+            try {
+                ensureVersionTable(conn);
+                if (isApplied(conn, version)) {
+                    LOGGER.info("Schema version {} already applied", version);
+                    return new Plan(Collections.emptyList(), Collections.emptyList());
+                }
+                
+                Plan plan = plan(conn, desired);
+                if (!plan.getUnsupported().isEmpty()) {
+                    throw new SQLException("Schema version " + version + " needs changes that cannot be migrated "
+                        + "automatically: " + String.join("; ", plan.getUnsupported()), "0A000");
+                }
+                apply(conn, plan, version);
+                LOGGER.info("Applied schema version {} ({} statements)", version, plan.size());
+                return plan;
+            } finally {
+                try (PreparedStatement unlock = conn.prepareStatement("SELECT pg_advisory_unlock(hashtext(?))")) {
+                    unlock.setString(1, lockName());
+                    unlock.execute();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Computes the statements needed to reach the desired schema without running them
+     *
+     * @param desired Target table definitions
+     * @return migration plan
+     * @throws SQLException if the catalog cannot be read
+     */
+    public Plan plan(TableDefinition... desired) throws SQLException {
+        try (Connection conn = db.connectDB()) {
+            return plan(conn, desired);
+        }
+    }
+    
+    private Plan plan(Connection conn, TableDefinition... desired) throws SQLException {
+        Map<String, LiveTable> live = readSchema(conn);
+        List<Step> transactional = new ArrayList<>();
+        List<Step> foreignKeys = new ArrayList<>();
+        List<Step> concurrent = new ArrayList<>();
+        List<String> unsupported = new ArrayList<>();
+        
+        for (TableDefinition table : TableDefinition.inCreationOrder(Arrays.asList(desired))) {
+            LiveTable current = live.get(baseName(table.getName()));
+            if (current == null) {
+                // New table: it is empty, so its indexes can be built in the same transaction
+                for (String sql : table.toStatements()) {
+                    transactional.add(new Step(sql, true));
+                }
+                continue;
+            }
+            diffColumns(table, current, transactional);
+            diffKeys(table, current, transactional, foreignKeys, unsupported);
+            
+            List<String> names = table.getIndexNames();
+            List<String> statements = table.toIndexSQL(true);
+            for (int i = 0; i < names.size(); i++) {
+                String index = names.get(i).toLowerCase(Locale.ROOT);
+                Boolean valid = current.indexes.get(index);
+                if (valid == null) {
+                    concurrent.add(new Step(statements.get(i), false));
+                } else if (!valid) {
+                    // Left behind by a failed CREATE INDEX CONCURRENTLY; IF NOT EXISTS would keep it
+                    concurrent.add(new Step("DROP INDEX CONCURRENTLY IF EXISTS " + schema + "." + names.get(i), false));
+                    concurrent.add(new Step(statements.get(i), false));
+                }
+            }
+        }
+        
+        // Foreign keys last, once the keys they reference exist
+        List<Step> steps = new ArrayList<>(transactional);
+        steps.addAll(foreignKeys);
+        steps.addAll(concurrent);
+        for (String difference : unsupported) {
+            LOGGER.warning("Not migrated: {}", difference);
+        }
+        return new Plan(steps, unsupported);
+    }
+    
+    /**
+     * Runs a plan: transactional statements in batches, then the statements
+     * that must run outside a transaction one by one
+     *
+     * @param plan Plan returned by plan()
+     * @throws SQLException if a statement fails
+     */
+    public void apply(Plan plan) throws SQLException {
+        try (Connection conn = db.connectDB()) {
+            apply(conn, plan, null);
+        }
+    }
+    
+    /**
+     * Runs a plan on one connection. A non-null version is inserted into
+     * schema_migrations in the transaction of the last transactional batch
+     * (or alone if there is none), so the version and the schema changes
+     * commit together. Statements that cannot run in a transaction follow;
+     * if one fails, the version is removed again so a rerun finishes the plan.
+     */
+    private void apply(Connection conn, Plan plan, String version) throws SQLException {
+        List<Step> steps = plan.getSteps();
+        int lastTransactional = -1;
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i).isTransactional()) {
+                lastTransactional = i;
+            }
+        }
+        
+        try (Statement stmt = conn.createStatement()) {
+            if (version != null && lastTransactional < 0) {
+                inTransaction(conn, () -> recordVersion(conn, version, plan.size()));
+            }
+            int i = 0;
+            while (i < steps.size()) {
+                Step step = steps.get(i);
+                if (!step.isTransactional()) {
+                    LOGGER.info("Running: {}", step.getSql());
+                    try {
+                        execute(stmt, step.getSql());
+                    } catch (SQLException e) {
+                        if (version != null) {
+                            forgetVersion(conn, version, e);
+                        }
+                        throw e;
+                    }
+                    i++;
+                    continue;
+                }
+                int end = i;
+                while (end < steps.size() && end - i < statementsPerTransaction && steps.get(end).isTransactional()) {
+                    end++;
+                }
+                List<Step> batch = steps.subList(i, end);
+                boolean last = end > lastTransactional;
+                inTransaction(conn, () -> {
+                    for (Step s : batch) {
+                        LOGGER.fine("Running: {}", s.getSql());
+                        execute(stmt, s.getSql());
+                    }
+                    if (version != null && last) {
+                        recordVersion(conn, version, plan.size());
+                    }
+                });
+                i = end;
+            }
+        } finally {
+            db.getSchemaCache().invalidateAll();
+        }
+    }
+    
+    /**
+     * Runs work in one transaction on the connection, rolling back on failure
+     */
+    private static void inTransaction(Connection conn, SQLRunnable work) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            work.run();
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+    
+    /**
+     * Runs one statement, recorded like runUpdate in the metrics
+     */
+    private void execute(Statement stmt, String sql) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            db.getMetrics().record(DBMetrics.Operation.RUN_UPDATE, start, 0, false);
+            throw e;
+        }
+        db.getMetrics().record(DBMetrics.Operation.RUN_UPDATE, start, 0, true);
+    }
+    
+    private static void recordVersion(Connection conn, String version, int statements) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO " + VERSION_TABLE + " (version, statements) VALUES (?, ?)")) {
+            pstmt.setString(1, version);
+            pstmt.setInt(2, statements);
+            pstmt.executeUpdate();
+        }
+    }
+    
+    private static void forgetVersion(Connection conn, String version, SQLException failure) {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + VERSION_TABLE + " WHERE version = ?")) {
+            pstmt.setString(1, version);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            failure.addSuppressed(e);
+        }
+    }
+    
+    /**
+     * Takes the migration lock of the schema. Waiting is done by polling
+     * pg_try_advisory_lock: a session blocked in pg_advisory_lock keeps a
+     * snapshot open, which CREATE INDEX CONCURRENTLY in the session holding
+     * the lock would have to wait for (a deadlock).
+     */
+    private void lock(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT pg_try_advisory_lock(hashtext(?))")) {
+            pstmt.setString(1, lockName());
+            long waitMillis = LOCK_POLL_MIN_MILLIS;
+            while (true) {
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next() && rs.getBoolean(1)) {
+                        return;
+                    }
+                }
+                if (waitMillis == LOCK_POLL_MIN_MILLIS) {
+                    LOGGER.info("Waiting for another migration of schema {} to finish", schema);
+                }
+                try {
+                    Thread.sleep(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the migration lock", e);
+                }
+                waitMillis = Math.min(waitMillis * 2, LOCK_POLL_MAX_MILLIS);
+            }
+        }
+    }
+    
+    private String lockName() {
+        return schema + "." + VERSION_TABLE;
+    }
+    
+    /**
+     * Returns the versions recorded in schema_migrations, oldest first
+     *
+     * @return applied versions
+     * @throws SQLException if the table cannot be read
+     */
+    public List<String> getAppliedVersions() throws SQLException {
+        try (Connection conn = db.connectDB()) {
+            ensureVersionTable(conn);
+        }
+        List<String> versions = new ArrayList<>();
+        db.forEachRow("SELECT version FROM " + VERSION_TABLE + " ORDER BY applied_at, version", null,
+            rs -> versions.add(rs.getString(1)));
+        return versions;
+    }
+    
+    private static void ensureVersionTable(Connection conn) throws SQLException {
+        String sql = new TableDefinition(VERSION_TABLE).ifNotExists()
+            .field(new Field("version", "VARCHAR").maxLength(100).primaryKey())
+            .field(new Field("applied_at", "TIMESTAMPTZ").notNull().defaultValue("now()"))
+            .field(new Field("statements", "INTEGER"))
+            .toSQL();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+    
+    private static boolean isApplied(Connection conn, String version) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM " + VERSION_TABLE + " WHERE version = ?")) {
+            pstmt.setString(1, version);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+    
+    /**
+     * Adds ALTER TABLE steps for columns that are missing or different
+     */
+    private void diffColumns(TableDefinition table, LiveTable current, List<Step> steps) {
+        String name = table.getName();
+        Set<String> wanted = new HashSet<>();
+        for (Field field : table.getFields()) {
+            String column = field.getName().toLowerCase(Locale.ROOT);
+            wanted.add(column);
+            LiveColumn live = current.columns.get(column);
+            if (live == null) {
+                steps.add(new Step("ALTER TABLE " + name + " ADD COLUMN " + field.toSQL(false), true));
+                continue;
+            }
+            
+            String type = normalizeType(field.getDataType(), field.getMaxLength());
+            if (!type.equals(live.type)) {
+                steps.add(new Step("ALTER TABLE " + name + " ALTER COLUMN " + field.getName()
+                    + " TYPE " + field.getTypeSQL(), true));
+            }
+            if (!field.isPrimaryKey() && field.isNotNull() != live.notNull) {
+                steps.add(new Step("ALTER TABLE " + name + " ALTER COLUMN " + field.getName()
+                    + (field.isNotNull() ? " SET NOT NULL" : " DROP NOT NULL"), true));
+            }
+            if (!normalizeDefault(field.getDefaultValue()).equals(normalizeDefault(live.defaultValue))
+                    && !live.isSerial()) {
+                steps.add(new Step("ALTER TABLE " + name + " ALTER COLUMN " + field.getName()
+                    + (field.getDefaultValue() != null ? " SET DEFAULT " + field.getDefaultValue() : " DROP DEFAULT"),
+                    true));
+            }
+        }
+        
+        if (allowDrops) {
+            for (LiveColumn live : current.columns.values()) {
+                if (!wanted.contains(live.name.toLowerCase(Locale.ROOT))) {
+                    steps.add(new Step("ALTER TABLE " + name + " DROP COLUMN " + live.name, true));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Adds steps for missing primary, unique and foreign keys, and drops
+     * keys that are not in the definition when allowDrops() is set. A
+     * primary key that differs from the live one is reported as unsupported.
+     */
+    private void diffKeys(TableDefinition table, LiveTable current, List<Step> steps, List<Step> foreignKeySteps,
+                          List<String> unsupported) {
+        String name = table.getName();
+        
+        String primaryKey = columnList(table.getPrimaryKey());
+        if (current.primaryKey == null) {
+            if (!primaryKey.isEmpty()) {
+                steps.add(new Step("ALTER TABLE " + name + " ADD PRIMARY KEY ("
+                    + String.join(", ", table.getPrimaryKey()) + ")", true));
+            }
+        } else if (primaryKey.isEmpty()) {
+            if (allowDrops) {
+                steps.add(new Step("ALTER TABLE " + name + " DROP CONSTRAINT " + current.primaryKeyName, true));
+            }
+        } else if (!primaryKey.equals(current.primaryKey)) {
+            unsupported.add("primary key of " + name + " is (" + current.primaryKey + "), definition has ("
+                + primaryKey + ")");
+        }
+        
+        Map<String, String> foreignKeys = new LinkedHashMap<>();
+        for (TableDefinition.ForeignKey fk : table.getForeignKeys()) {
+            foreignKeys.put(foreignKeySignature(fk.getColumn(), fk.getRefTable(), fk.getRefColumn()),
+                "ALTER TABLE " + name + " ADD " + fk.toSQL());
+        }
+        for (Map.Entry<String, String> fk : foreignKeys.entrySet()) {
+            if (!current.foreignKeys.containsKey(fk.getKey())) {
+                foreignKeySteps.add(new Step(fk.getValue(), true));
+            }
+        }
+        
+        Set<String> uniqueKeys = new LinkedHashSet<>();
+        for (List<String> columns : table.getUniqueKeys()) {
+            uniqueKeys.add(columnList(columns));
+        }
+        for (Field field : table.getFields()) {
+            if (field.isUnique() && !(field.isPrimaryKey() && table.getPrimaryKey().size() == 1)) {
+                uniqueKeys.add(columnList(Collections.singletonList(field.getName())));
+            }
+        }
+        for (String columns : uniqueKeys) {
+            if (!current.uniqueKeys.containsKey(columns)) {
+                steps.add(new Step("ALTER TABLE " + name + " ADD UNIQUE (" + columns.replace(",", ", ") + ")", true));
+            }
+        }
+        
+        if (allowDrops) {
+            // Foreign keys first: a unique key may be what they reference
+            for (Map.Entry<String, String> live : current.foreignKeys.entrySet()) {
+                if (!foreignKeys.containsKey(live.getKey())) {
+                    steps.add(new Step("ALTER TABLE " + name + " DROP CONSTRAINT " + live.getValue(), true));
+                }
+            }
+            for (Map.Entry<String, String> live : current.uniqueKeys.entrySet()) {
+                if (!uniqueKeys.contains(live.getKey())) {
+                    steps.add(new Step("ALTER TABLE " + name + " DROP CONSTRAINT " + live.getValue(), true));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads all tables, columns, indexes and keys of the schema in one pass
+     */
+    private Map<String, LiveTable> readSchema(Connection conn) throws SQLException {
+        Map<String, LiveTable> tables = new HashMap<>();
+        long start = System.nanoTime();
+        int columns = 0;
+        
+        try {
+            DatabaseMetaData meta = conn.getMetaData();
+            try (ResultSet rs = meta.getColumns(null, schema, "%", "%")) {
+                while (rs.next()) {
+                    LiveTable table = tables.computeIfAbsent(rs.getString("TABLE_NAME").toLowerCase(Locale.ROOT),
+                        k -> new LiveTable());
+                    String typeName = rs.getString("TYPE_NAME");
+                    Integer size = rs.getInt("COLUMN_SIZE");
+                    String type = withPrecision(normalizeType(typeName, size), size, rs.getInt("DECIMAL_DIGITS"));
+                    LiveColumn column = new LiveColumn(rs.getString("COLUMN_NAME"), type, typeName,
+                        rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls,
+                        rs.getString("COLUMN_DEF"));
+                    table.columns.put(column.name.toLowerCase(Locale.ROOT), column);
+                    columns++;
+                }
+            }
+            
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT t.relname, i.relname, x.indisvalid FROM pg_index x "
+                    + "JOIN pg_class i ON i.oid = x.indexrelid JOIN pg_class t ON t.oid = x.indrelid "
+                    + "JOIN pg_namespace n ON n.oid = t.relnamespace WHERE n.nspname = ?")) {
+                pstmt.setString(1, schema);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        LiveTable table = tables.get(rs.getString(1).toLowerCase(Locale.ROOT));
+                        if (table != null) {
+                            table.indexes.put(rs.getString(2).toLowerCase(Locale.ROOT), rs.getBoolean(3));
+                        }
+                    }
+                }
+            }
+            
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT t.relname, quote_ident(c.conname), c.contype, "
+                    + "(SELECT string_agg(a.attname, ',' ORDER BY k.n) FROM unnest(c.conkey) WITH ORDINALITY k(num, n) "
+                    + "JOIN pg_attribute a ON a.attrelid = c.conrelid AND a.attnum = k.num), "
+                    + "r.relname, "
+                    + "(SELECT string_agg(a.attname, ',' ORDER BY k.n) FROM unnest(c.confkey) WITH ORDINALITY k(num, n) "
+                    + "JOIN pg_attribute a ON a.attrelid = c.confrelid AND a.attnum = k.num) "
+                    + "FROM pg_constraint c JOIN pg_class t ON t.oid = c.conrelid "
+                    + "JOIN pg_namespace n ON n.oid = t.relnamespace LEFT JOIN pg_class r ON r.oid = c.confrelid "
+                    + "WHERE n.nspname = ? AND c.contype IN ('p', 'u', 'f')")) {
+                pstmt.setString(1, schema);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        LiveTable table = tables.get(rs.getString(1).toLowerCase(Locale.ROOT));
+                        if (table == null) {
+                            continue;
+                        }
+                        String keyColumns = rs.getString(4).toLowerCase(Locale.ROOT);
+                        switch (rs.getString(3)) {
+                            case "p":
+                                table.primaryKey = keyColumns;
+                                table.primaryKeyName = rs.getString(2);
+                                break;
+                            case "u":
+                                table.uniqueKeys.put(keyColumns, rs.getString(2));
+                                break;
+                            default:
+                                table.foreignKeys.put(foreignKeySignature(keyColumns, rs.getString(5), rs.getString(6)),
+                                    rs.getString(2));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            db.getMetrics().record(DBMetrics.Operation.METADATA, start, 0, false);
+            throw e;
+        }
+        db.getMetrics().record(DBMetrics.Operation.METADATA, start, columns, true);
+        LOGGER.fine("Read {} tables of schema {}", tables.size(), schema);
+        return tables;
+    }
+    
+    /**
+     * Returns the canonical name of a type, including the length of
+     * character types (e.g. "character varying(40)")
+     */
+    static String normalizeType(String type, Integer length) {
+        String base = type.trim().toLowerCase(Locale.ROOT);
+        String args = null;
+        int paren = base.indexOf('(');
+        if (paren >= 0) {
+            int close = base.indexOf(')', paren);
+            args = base.substring(paren + 1, close < 0 ? base.length() : close).replaceAll("\\s", "");
+            // "timestamp(3) without time zone" keeps its suffix
+            base = (base.substring(0, paren) + (close < 0 ? "" : " " + base.substring(close + 1)))
+                .trim().replaceAll("\\s+", " ");
+        }
+        base = TYPE_ALIASES.getOrDefault(base, base);
+        if (base.equals("numeric") && args != null && !args.isEmpty()) {
+            return "numeric(" + (args.contains(",") ? args : args + ",0") + ")";
+        }
+        if (TIME_TYPES.contains(base) && args != null && !args.equals(DEFAULT_TIME_PRECISION)) {
+            return base + "(" + args + ")";
+        }
+        if (base.equals("character varying") || base.equals("character")) {
+            if (length != null && length > 0 && length <= MAX_CHAR_LENGTH) {
+                return base + "(" + length + ")";
+            }
+            if (base.equals("character")) {
+                return "character(1)"; // CHAR without a length is CHAR(1)
+            }
+        }
+        return base;
+    }
+    
+    /**
+     * Adds the precision the driver reports for a live numeric or time
+     * column, in the form normalizeType gives declared types
+     */
+    private static String withPrecision(String type, int size, int digits) {
+        if (type.equals("numeric") && size > 0) {
+            return "numeric(" + size + "," + digits + ")";
+        }
+        if (TIME_TYPES.contains(type) && !String.valueOf(digits).equals(DEFAULT_TIME_PRECISION)) {
+            return type + "(" + digits + ")";
+        }
+        return type;
+    }
+    
+    /**
+     * Lower-case, comma-separated column list without spaces or quotes
+     */
+    private static String columnList(List<String> columns) {
+        return String.join(",", columns).replaceAll("[\\s\"]", "").toLowerCase(Locale.ROOT);
+    }
+    
+    private static String foreignKeySignature(String columns, String refTable, String refColumns) {
+        return columnList(Collections.singletonList(columns)) + "->" + baseName(refTable) + "("
+            + columnList(Collections.singletonList(refColumns)) + ")";
+    }
+    
+    /**
+     * Strips casts and case from a default expression so that "'new'" and
+     * "'new'::character varying" compare equal
+     */
+    private static String normalizeDefault(String expression) {
+        if (expression == null) {
+            return "";
+        }
+        return expression.replaceAll("::[\\w\\s\\[\\]]+", "").replaceAll("[()\\s]", "").toLowerCase(Locale.ROOT);
+    }
+    
+    private static String baseName(String table) {
+        String bare = table.replace("\"", "").toLowerCase(Locale.ROOT);
+        return bare.substring(bare.lastIndexOf('.') + 1);
+    }
+    
+    private static void alias(String canonical, String... names) {
+        TYPE_ALIASES.put(canonical, canonical);
+        for (String name : names) {
+            TYPE_ALIASES.put(name, canonical);
+        }
+    }
+    
+    /**
+     * Work that may throw SQLException
+     */
+    private interface SQLRunnable {
+        void run() throws SQLException;
+    }
+    
+    /**
+     * One statement of a migration plan
+     */
+    public static final class Step {
+        
+        private final String sql;
+        private final boolean transactional;
+        
+        private Step(String sql, boolean transactional) {
+            this.sql = sql;
+            this.transactional = transactional;
+        }
+        
+        public String getSql() {
+            return sql;
+        }
+        
+        /**
+         * @return false for statements that must run outside a transaction
+         *         (CREATE INDEX CONCURRENTLY)
+         */
+        public boolean isTransactional() {
+            return transactional;
+        }
+        
+        @Override
+        public String toString() {
+            return sql + (transactional ? "" : "  -- outside transaction");
+        }
+    }
+    
+    /**
+     * Ordered statements produced by plan()
+     */
+    public static final class Plan {
+        
+        private final List<Step> steps;
+        private final List<String> unsupported;
+        
+        private Plan(List<Step> steps, List<String> unsupported) {
+            this.steps = Collections.unmodifiableList(steps);
+            this.unsupported = Collections.unmodifiableList(unsupported);
+        }
+        
+        public List<Step> getSteps() {
+            return steps;
+        }
+        
+        /**
+         * @return differences the plan cannot migrate (e.g. a changed primary key)
+         */
+        public List<String> getUnsupported() {
+            return unsupported;
+        }
+        
+        public int size() {
+            return steps.size();
+        }
+        
+        /**
+         * @return true if the schema already matches the definitions
+         */
+        public boolean isEmpty() {
+            return steps.isEmpty() && unsupported.isEmpty();
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Step step : steps) {
+                sb.append(step).append(";\n");
+            }
+            for (String difference : unsupported) {
+                sb.append("-- not migrated: ").append(difference).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * Columns, indexes (name to indisvalid) and keys of an existing table;
+     * keys map their columnList() or foreignKeySignature() to the constraint name
+     */
+    private static final class LiveTable {
+        private final Map<String, LiveColumn> columns = new LinkedHashMap<>();
+        private final Map<String, Boolean> indexes = new HashMap<>();
+        private String primaryKey;
+        private String primaryKeyName;
+        private final Map<String, String> uniqueKeys = new HashMap<>();
+        private final Map<String, String> foreignKeys = new HashMap<>();
+    }
+    
+    /**
+     * An existing column as reported by the catalog
+     */
+    private static final class LiveColumn {
+        
+        private final String name;
+        private final String type;
+        private final String rawType;
+        private final boolean notNull;
+        private final String defaultValue;
+        
+        private LiveColumn(String name, String type, String rawType, boolean notNull, String defaultValue) {
+            this.name = name;
+            this.type = type;
+            this.rawType = rawType;
+            this.notNull = notNull;
+            this.defaultValue = defaultValue;
+        }
+        
+        /**
+         * Serial columns get their nextval() default from the sequence, not the definition
+         */
+        private boolean isSerial() {
+            return rawType.toLowerCase(Locale.ROOT).endsWith("serial")
+                || (defaultValue != null && defaultValue.startsWith("nextval("));
+        }
+    }
+}
@@ -0,0 +1,400 @@
+import java.io.*;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ScriptRunner - Runs MyDBMagic commands from a script instead of the menu
+ *
+ * One command per line; blank lines and lines starting with # are ignored.
+ * Arguments are separated by spaces and may be put in double quotes.
+ *
+ *   connect [port database username password]   (no arguments: defaults)
+ *   create TABLE column:TYPE[:pk][:notnull][:unique] ...
+ *   drop TABLE
+ *   load TABLE FILE [csv|binary]
+ *   export TABLE_OR_"QUERY" FILE [csv|binary]
+ *   query SQL...                                 (SELECT prints rows, others run as update)
+ *   wait                                         (waits for running & commands)
+ *
+ * A command prefixed with & runs in the background together with the
+ * following & commands; the next command without & (or the end of the
+ * script) waits for all of them. All commands share one MyDBMagic
+ * instance and thus one connection pool. The script stops at the first
+ * failed command and a timing summary is printed at the end.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class ScriptRunner {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(ScriptRunner.class);
+    
+    private final PrintStream out;
+    private MyDBMagic db;
+    private ExecutorService executor;
+    private final List<Result> results = new ArrayList<>();
+    
+    /**
+     * Creates a runner that prints command output to a stream
+     *
+     * @param out Destination of command output and the summary
+     */
+    public ScriptRunner(PrintStream out) {
+        this.out = out;
+    }
+    
+    /**
+     * Runs a script
+     *
+     * @param script Reader over the script text
+     * @return true if every command succeeded
+     * @throws IOException if the script cannot be read
+     */
+    public boolean run(Reader script) throws IOException {
+        long start = System.nanoTime();
+        List<Future<Result>> pending = new ArrayList<>();
+        boolean ok = true;
+        
+        try (BufferedReader reader = new BufferedReader(script)) {
+            String line;
+            int lineNumber = 0;
+            while (ok && (line = reader.readLine()) != null) {
+                lineNumber++;
+                String text = line.trim();
+                if (text.isEmpty() || text.startsWith("#")) {
+                    continue;
+                }
+                
+                boolean background = text.startsWith("&");
+                Command command = new Command(lineNumber, background ? text.substring(1).trim() : text);
+                if (background && !command.name.equals("connect")) {
+                    if (db == null) {
+                        ok = record(command.failed(new IllegalStateException("Not connected (use connect first)")));
+                        continue;
+                    }
+                    pending.add(executor().submit(command::execute));
+                    continue;
+                }
+                
+                ok = awaitAll(pending);
+                if (ok && !command.name.equals("wait")) {
+                    ok = record(command.execute());
+                }
+            }
+        } finally {
+            ok = awaitAll(pending) && ok;
+            if (executor != null) {
+                executor.shutdown();
+            }
+            if (db != null) {
+                db.close();
+            }
+        }
+        
+        printSummary((System.nanoTime() - start) / 1_000_000.0);
+        return ok;
+    }
+    
+    private ExecutorService executor() throws IOException {
+        if (executor == null) {
+            int threads;
+            try {
+                threads = db.getPool().getMaxSize();
+            } catch (SQLException e) {
+                throw new IOException("Cannot create connection pool: " + e.getMessage(), e);
+            }
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "ScriptRunner-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+    
+    private boolean awaitAll(List<Future<Result>> pending) {
+        boolean ok = true;
+        for (Future<Result> future : pending) {
+            try {
+                ok &= record(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ok = false;
+            } catch (ExecutionException e) {
+                LOGGER.severe("Background command failed: {}", e.getCause());
+                ok = false;
+            }
+        }
+        pending.clear();
+        return ok;
+    }
+    
+    /**
+     * Prints a finished command's output and keeps its timing
+     */
+    private boolean record(Result result) {
+        synchronized (out) {
+            out.print(result.output);
+            if (result.error != null) {
+                out.println("✗ line " + result.line + ": " + result.error);
+            }
+        }
+        results.add(result);
+        return result.error == null;
+    }
+    
+    private void printSummary(double totalMillis) {
+        Map<String, double[]> byCommand = new LinkedHashMap<>();
+        out.println();
+        out.println("=== Script summary ===");
+        out.printf("%-5s %-50s %-7s %10s%n", "Line", "Command", "Status", "ms");
+        for (Result result : results) {
+            String text = result.text.length() > 50 ? result.text.substring(0, 47) + "..." : result.text;
+            out.printf("%-5d %-50s %-7s %10.1f%n", result.line, text, result.error == null ? "OK" : "FAILED",
+                result.millis);
+            double[] totals = byCommand.computeIfAbsent(result.name, k -> new double[2]);
+            totals[0]++;
+            totals[1] += result.millis;
+        }
+        out.println();
+        out.printf("%-10s %6s %12s %10s%n", "Command", "Count", "Total ms", "Avg ms");
+        for (Map.Entry<String, double[]> entry : byCommand.entrySet()) {
+            double[] totals = entry.getValue();
+            out.printf("%-10s %6d %12.1f %10.1f%n", entry.getKey(), (long) totals[0], totals[1], totals[1] / totals[0]);
+        }
+        out.printf("Wall time: %.1f ms%n", totalMillis);
+    }
+    
+    /**
+     * Splits a line into arguments, keeping double-quoted text together
+     */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quote");
+        }
+        if (inToken) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+    
+    /**
+     * One parsed script line
+     */
+    private final class Command {
+        
+        private final int line;
+        private final String text;
+        private final String name;
+        
+        private Command(int line, String text) {
+            this.line = line;
+            this.text = text;
+            int space = text.indexOf(' ');
+            this.name = (space < 0 ? text : text.substring(0, space)).toLowerCase(Locale.ROOT);
+        }
+        
+        private Result execute() {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream output = new PrintStream(buffer, true);
+            long start = System.nanoTime();
+            String error = null;
+            try {
+                run(output);
+            } catch (Exception e) {
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+                LOGGER.severe("Script line {} failed: {}", line, error);
+            }
+            output.flush();
+            return new Result(line, name, text, buffer.toString(), (System.nanoTime() - start) / 1_000_000.0, error);
+        }
+        
+        private Result failed(Exception e) {
+            return new Result(line, name, text, "", 0, e.getMessage());
+        }
+        
+        private void run(PrintStream output) throws Exception {
+            if (name.equals("query")) {
+                query(text.substring(name.length()).trim(), output);
+                return;
+            }
+            
+            List<String> args = tokenize(text);
+            args.remove(0);
+            if (!name.equals("connect") && db == null) {
+                throw new IllegalStateException("Not connected (use connect first)");
+            }
+            
+            switch (name) {
+                case "connect":
+                    connect(args, output);
+                    break;
+                case "create":
+                    create(args, output);
+                    break;
+                case "drop":
+                    requireArgs(args, 1, "drop TABLE");
+                    db.runUpdate("DROP TABLE " + args.get(0), new Object[0]);
+                    output.println("✓ Dropped " + args.get(0));
+                    break;
+                case "load":
+                    requireArgs(args, 2, "load TABLE FILE [csv|binary]");
+                    try (InputStream in = new FileInputStream(args.get(1))) {
+                        long rows = db.copyIn(args.get(0), in, format(args));
+                        output.println("✓ Loaded " + rows + " rows into " + args.get(0));
+                    }
+                    break;
+                case "export":
+                    requireArgs(args, 2, "export TABLE FILE [csv|binary]");
+                    try (OutputStream fileOut = new FileOutputStream(args.get(1))) {
+                        long rows = db.copyOut(args.get(0), fileOut, format(args));
+                        output.println("✓ Exported " + rows + " rows to " + args.get(1));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command '" + name + "'");
+            }
+        }
+        
+        private void connect(List<String> args, PrintStream output) throws SQLException {
+            if (db != null) {
+                throw new IllegalStateException("Already connected; a script uses one session");
+            }
+            MyDBMagic manager;
+            if (args.isEmpty()) {
+                manager = new MyDBMagic();
+            } else {
+                requireArgs(args, 4, "connect [port database username password]");
+                manager = new MyDBMagic(args.get(0), args.get(1), args.get(2), args.get(3));
+            }
+            try {
+                manager.connectDB().close();
+            } catch (SQLException e) {
+                manager.close();
+                throw e;
+            }
+            db = manager;
+            output.println("✓ Connected to " + manager.getDatabase());
+        }
+        
+        private void create(List<String> args, PrintStream output) throws SQLException {
+            requireArgs(args, 2, "create TABLE column:TYPE[:pk][:notnull][:unique] ...");
+            TableDefinition table = new TableDefinition(args.get(0));
+            for (String spec : args.subList(1, args.size())) {
+                String[] parts = spec.split(":");
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("Column must be name:TYPE, got '" + spec + "'");
+                }
+                Field field = new Field(parts[0], parts[1]);
+                for (int i = 2; i < parts.length; i++) {
+                    switch (parts[i].toLowerCase(Locale.ROOT)) {
+                        case "pk":
+                            field.primaryKey();
+                            break;
+                        case "notnull":
+                            field.notNull();
+                            break;
+                        case "unique":
+                            field.unique();
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown column option '" + parts[i] + "'");
+                    }
+                }
+                table.field(field);
+            }
+            db.createTables(table);
+            output.println("✓ Created " + table.getName());
+        }
+        
+        private void query(String sql, PrintStream output) throws SQLException {
+            if (db == null) {
+                throw new IllegalStateException("Not connected (use connect first)");
+            }
+            if (sql.isEmpty()) {
+                throw new IllegalArgumentException("Usage: query SQL");
+            }
+            String head = sql.toUpperCase(Locale.ROOT);
+            if (!(head.startsWith("SELECT") || head.startsWith("WITH") || head.startsWith("VALUES")
+                    || head.startsWith("TABLE") || head.startsWith("SHOW"))) {
+                int rows = db.runUpdate(sql, new Object[0]);
+                output.println("✓ " + rows + " rows affected");
+                return;
+            }
+            
+            long rows = db.forEachRow(sql, null, rs -> {
+                ResultSetMetaData meta = rs.getMetaData();
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    if (i > 1) row.append('\t');
+                    Object value = rs.getObject(i);
+                    row.append(value != null ? value : "NULL");
+                }
+                output.println(row);
+            });
+            output.println("(" + rows + " rows)");
+        }
+        
+        private void requireArgs(List<String> args, int count, String usage) {
+            if (args.size() < count) {
+                throw new IllegalArgumentException("Usage: " + usage);
+            }
+        }
+        
+        private MyDBMagic.CopyFormat format(List<String> args) {
+            return args.size() > 2 && args.get(2).toLowerCase(Locale.ROOT).startsWith("b")
+                ? MyDBMagic.CopyFormat.BINARY : MyDBMagic.CopyFormat.CSV;
+        }
+    }
+    
+    /**
+     * Outcome and timing of one command
+     */
+    private static final class Result {
+        
+        private final int line;
+        private final String name;
+        private final String text;
+        private final String output;
+        private final double millis;
+        private final String error;
+        
+        private Result(int line, String name, String text, String output, double millis, String error) {
+            this.line = line;
+            this.name = name;
+            this.text = text;
+            this.output = output;
+            this.millis = millis;
+            this.error = error;
+        }
+    }
+}
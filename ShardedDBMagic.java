@@ -0,0 +1,622 @@
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ShardedDBMagic - Spreads tables over several databases by primary key
+ *
+ * Every shard is a MyDBMagic instance holding the same tables. Rows are
+ * placed with consistent hashing: each shard owns many points (virtual
+ * nodes) on a 64-bit hash ring, and a row belongs to the shard owning the
+ * first point at or after the hash of its primary key. The primary key
+ * columns are read from the table metadata of the first shard. Adding a
+ * shard at the end of the list only moves the keys that fall on its
+ * points.
+ *
+ * Single-key reads and writes go to one shard. Queries over all shards run
+ * in parallel and their rows are merged as a Stream, either in shard order
+ * or, for queries sorted the same way on every shard, as an ordered k-way
+ * merge. count, sum, min and max combine the per-shard results. DDL runs
+ * on all shards concurrently; it is not atomic across shards, so a failure
+ * can leave some shards changed and others not.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class ShardedDBMagic implements AutoCloseable {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(ShardedDBMagic.class);
+    
+    private static final int DEFAULT_VIRTUAL_NODES = 256;
+    private static final int INSERT_CHUNK_ROWS = 10_000;
+    
+    private final List<MyDBMagic> shards;
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final ExecutorService executor;
+    private final Map<String, String[]> primaryKeys = new ConcurrentHashMap<>();
+    private final Map<String, Field[]> tableFields = new ConcurrentHashMap<>();
+    
+    /**
+     * Work run on one shard
+     */
+    @FunctionalInterface
+    public interface ShardTask<T> {
+        T run(MyDBMagic shard) throws SQLException;
+    }
+    
+    /**
+     * Creates a sharded front-end with 256 virtual nodes per shard
+     *
+     * @param shards Backing databases; their order fixes key placement
+     */
+    public ShardedDBMagic(List<MyDBMagic> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+    
+    /**
+     * Creates a sharded front-end
+     *
+     * @param shards Backing databases; their order fixes key placement
+     * @param virtualNodes Ring points per shard (more points spread keys more evenly)
+     */
+    public ShardedDBMagic(List<MyDBMagic> shards, int virtualNodes) {
+        if (shards.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("At least one shard and one virtual node are required");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                // On a collision the earlier shard keeps the point
+                ring.putIfAbsent(hash("shard-" + shard + "#" + node), shard);
+            }
+        }
+        this.executor = Executors.newFixedThreadPool(shards.size(), r -> {
+            Thread t = new Thread(r, "MyDBMagic-shard-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        LOGGER.info("Sharding over {} databases with {} virtual nodes each", shards.size(), virtualNodes);
+    }
+    
+    public int getShardCount() {
+        return shards.size();
+    }
+    
+    public MyDBMagic getShard(int index) {
+        return shards.get(index);
+    }
+    
+    // ==================== Routing ====================
+    
+    /**
+     * Finds the shard a primary key value belongs to
+     *
+     * @param key Primary key value(s), in key column order
+     * @return Shard index
+     */
+    public int shardIndex(Object... key) {
+        Map.Entry<Long, Integer> point = ring.ceilingEntry(hash(keyString(key)));
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+    
+    /**
+     * Returns the shard a primary key value belongs to, for statements the
+     * helpers below do not cover
+     *
+     * @param key Primary key value(s), in key column order
+     * @return MyDBMagic of the owning shard
+     */
+    public MyDBMagic shardFor(Object... key) {
+        return shards.get(shardIndex(key));
+    }
+    
+    /**
+     * Returns the primary key columns of a table
+     *
+     * @param tableName Table name
+     * @return Key column names in table order
+     * @throws SQLException if the table is unknown or has no primary key
+     */
+    public String[] getPrimaryKey(String tableName) throws SQLException {
+        String[] key = primaryKeys.get(tableName);
+        if (key != null) {
+            return key;
+        }
+        List<String> columns = new ArrayList<>();
+        for (Field field : fields(tableName)) {
+            if (field.isPrimaryKey()) {
+                columns.add(field.getName());
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new SQLException("Table '" + tableName + "' has no primary key to shard by");
+        }
+        key = columns.toArray(new String[0]);
+        primaryKeys.put(tableName, key);
+        return key;
+    }
+    
+    private Field[] fields(String tableName) throws SQLException {
+        Field[] fields = tableFields.get(tableName);
+        if (fields == null) {
+            fields = shards.get(0).getTableFields(tableName);
+            if (fields.length == 0) {
+                throw new SQLException("Table '" + tableName + "' not found or has no columns.");
+            }
+            tableFields.put(tableName, fields);
+        }
+        return fields;
+    }
+    
+    // ==================== Single-key operations ====================
+    
+    /**
+     * Reads the row with a given primary key from its shard
+     *
+     * @param tableName Table name
+     * @param key Primary key value(s), in key column order
+     * @return ResultSet with zero or one row (close it to release the connection)
+     * @throws SQLException if the query fails
+     */
+    public ResultSet findByKey(String tableName, Object... key) throws SQLException {
+        String sql = "SELECT * FROM " + tableName + " WHERE " + keyCondition(tableName, key.length);
+        return shardFor(key).runQuery(sql, key);
+    }
+    
+    /**
+     * Inserts one row into the shard owning its primary key
+     *
+     * @param tableName Table name
+     * @param row Values in table column order
+     * @return number of inserted rows
+     * @throws SQLException if the insert fails
+     */
+    public int insert(String tableName, Object... row) throws SQLException {
+        return shardFor(keyOf(tableName, row)).runUpdate(insertSQL(tableName), row);
+    }
+    
+    /**
+     * Bulk-inserts rows, splitting them by shard in chunks and loading each
+     * chunk into all shards in parallel
+     *
+     * @param tableName Table name
+     * @param rows Row values in table column order
+     * @return number of rows inserted
+     * @throws SQLException if an insert fails (earlier chunks stay committed)
+     */
+    public long insertBatch(String tableName, Iterator<Object[]> rows) throws SQLException {
+        long total = 0;
+        while (rows.hasNext()) {
+            List<List<Object[]>> perShard = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                perShard.add(new ArrayList<>());
+            }
+            for (int n = 0; n < INSERT_CHUNK_ROWS && rows.hasNext(); n++) {
+                Object[] row = rows.next();
+                perShard.get(shardIndex(keyOf(tableName, row))).add(row);
+            }
+            for (long inserted : onAllShards(shard -> {
+                    List<Object[]> chunk = perShard.get(shards.indexOf(shard));
+                    return chunk.isEmpty() ? 0L : shard.insertBatch(tableName, chunk.iterator());
+                })) {
+                total += inserted;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Deletes the row with a given primary key from its shard
+     *
+     * @param tableName Table name
+     * @param key Primary key value(s), in key column order
+     * @return number of deleted rows
+     * @throws SQLException if the delete fails
+     */
+    public int deleteByKey(String tableName, Object... key) throws SQLException {
+        String sql = "DELETE FROM " + tableName + " WHERE " + keyCondition(tableName, key.length);
+        return shardFor(key).runUpdate(sql, key);
+    }
+    
+    private String keyCondition(String tableName, int values) throws SQLException {
+        String[] key = getPrimaryKey(tableName);
+        if (values != key.length) {
+            throw new IllegalArgumentException("Table '" + tableName + "' has a " + key.length
+                + "-column primary key, got " + values + " values");
+        }
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < key.length; i++) {
+            sql.append(i > 0 ? " AND " : "").append(key[i]).append(" = ?");
+        }
+        return sql.toString();
+    }
+    
+    private Object[] keyOf(String tableName, Object[] row) throws SQLException {
+        Field[] fields = fields(tableName);
+        if (row.length != fields.length) {
+            throw new IllegalArgumentException("Row has " + row.length + " values, table '"
+                + tableName + "' has " + fields.length + " columns");
+        }
+        List<Object> key = new ArrayList<>();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].isPrimaryKey()) {
+                key.add(row[i]);
+            }
+        }
+        if (key.isEmpty()) {
+            throw new SQLException("Table '" + tableName + "' has no primary key to shard by");
+        }
+        return key.toArray();
+    }
+    
+    private String insertSQL(String tableName) throws SQLException {
+        Field[] fields = fields(tableName);
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            columns.append(i > 0 ? ", " : "").append(fields[i].getName());
+            values.append(i > 0 ? ", ?" : "?");
+        }
+        return "INSERT INTO " + tableName + " (" + columns + ") VALUES (" + values + ")";
+    }
+    
+    // ==================== Scatter-gather ====================
+    
+    /**
+     * Runs a query on every shard in parallel and streams the rows of all
+     * shards one shard after another. Close the stream to release the
+     * connections.
+     *
+     * @param query SQL SELECT query with ? placeholders
+     * @param params Values bound to the placeholders (may be null)
+     * @param mapper Converts each row
+     * @return Stream of mapped rows from all shards
+     * @throws SQLException if the query fails on any shard
+     */
+    public <T> Stream<T> scatter(String query, Object[] params, MyDBMagic.RowMapper<T> mapper) throws SQLException {
+        List<Stream<T>> streams = openStreams(query, params, mapper);
+        return streams.stream().flatMap(s -> s).onClose(() -> closeAll(streams));
+    }
+    
+    /**
+     * Runs a query on every shard in parallel and merges the rows in order.
+     * Each shard's query must already return its rows sorted the same way
+     * as the comparator (ORDER BY); a LIMIT in the query applies per shard,
+     * so also limit the merged stream.
+     *
+     * @param query SQL SELECT query with ? placeholders and an ORDER BY
+     * @param params Values bound to the placeholders (may be null)
+     * @param mapper Converts each row
+     * @param order Order of the ORDER BY clause
+     * @return Stream of mapped rows in global order
+     * @throws SQLException if the query fails on any shard
+     */
+    public <T> Stream<T> scatterOrdered(String query, Object[] params, MyDBMagic.RowMapper<T> mapper,
+                                        Comparator<? super T> order) throws SQLException {
+        List<Stream<T>> streams = openStreams(query, params, mapper);
+        List<Iterator<T>> iterators = new ArrayList<>();
+        for (Stream<T> stream : streams) {
+            iterators.add(stream.iterator());
+        }
+        Iterator<T> merged = new MergeIterator<>(iterators, order);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false)
+            .onClose(() -> closeAll(streams));
+    }
+    
+    /**
+     * Counts rows over all shards
+     *
+     * @param tableName Table name
+     * @param where Condition with ? placeholders, or null for all rows
+     * @param params Values bound to the placeholders
+     * @return Total row count
+     * @throws SQLException if the query fails on any shard
+     */
+    public long count(String tableName, String where, Object... params) throws SQLException {
+        long total = 0;
+        for (Object value : scalars("count(*)", tableName, where, params)) {
+            total += ((Number) value).longValue();
+        }
+        return total;
+    }
+    
+    /**
+     * Sums a numeric column over all shards
+     *
+     * @param tableName Table name
+     * @param column Column or expression to sum
+     * @param where Condition with ? placeholders, or null for all rows
+     * @param params Values bound to the placeholders
+     * @return Total, or null if no shard has a non-null value
+     * @throws SQLException if the query fails on any shard
+     */
+    public BigDecimal sum(String tableName, String column, String where, Object... params) throws SQLException {
+        BigDecimal total = null;
+        for (Object value : scalars("sum(" + column + ")", tableName, where, params)) {
+            if (value != null) {
+                BigDecimal part = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+                total = total == null ? part : total.add(part);
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Finds the smallest value of a column over all shards
+     *
+     * @param tableName Table name
+     * @param column Column or expression
+     * @param where Condition with ? placeholders, or null for all rows
+     * @param params Values bound to the placeholders
+     * @return Smallest value, or null if there is none
+     * @throws SQLException if the query fails on any shard
+     */
+    public Object min(String tableName, String column, String where, Object... params) throws SQLException {
+        return extreme(scalars("min(" + column + ")", tableName, where, params), -1);
+    }
+    
+    /**
+     * Finds the largest value of a column over all shards
+     *
+     * @param tableName Table name
+     * @param column Column or expression
+     * @param where Condition with ? placeholders, or null for all rows
+     * @param params Values bound to the placeholders
+     * @return Largest value, or null if there is none
+     * @throws SQLException if the query fails on any shard
+     */
+    public Object max(String tableName, String column, String where, Object... params) throws SQLException {
+        return extreme(scalars("max(" + column + ")", tableName, where, params), 1);
+    }
+    
+    private List<Object> scalars(String aggregate, String tableName, String where, Object[] params) throws SQLException {
+        String sql = "SELECT " + aggregate + " FROM " + tableName + (where != null ? " WHERE " + where : "");
+        return onAllShards(shard -> {
+            try (ResultSet rs = shard.runQuery(sql, params)) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        });
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object extreme(List<Object> values, int sign) {
+        Comparable best = null;
+        for (Object value : values) {
+            if (value != null && (best == null || sign * ((Comparable) value).compareTo(best) > 0)) {
+                best = (Comparable) value;
+            }
+        }
+        return best;
+    }
+    
+    private <T> List<Stream<T>> openStreams(String query, Object[] params, MyDBMagic.RowMapper<T> mapper)
+            throws SQLException {
+        Queue<Stream<T>> opened = new ConcurrentLinkedQueue<>();
+        try {
+            return onAllShards(shard -> {
+                Stream<T> stream = shard.stream(query, params, mapper);
+                opened.add(stream);
+                return stream;
+            });
+        } catch (SQLException e) {
+            // Release the cursors of the shards that did succeed
+            closeAll(opened);
+            throw e;
+        }
+    }
+    
+    private static <T> void closeAll(Iterable<Stream<T>> streams) {
+        for (Stream<T> stream : streams) {
+            stream.close();
+        }
+    }
+    
+    // ==================== DDL ====================
+    
+    /**
+     * Creates tables on all shards concurrently
+     *
+     * @param tables Table definitions
+     * @throws SQLException if creation fails on any shard
+     */
+    public void createTables(TableDefinition... tables) throws SQLException {
+        onAllShards(shard -> {
+            shard.createTables(tables);
+            return null;
+        });
+        for (TableDefinition table : tables) {
+            forget(table.getName());
+        }
+    }
+    
+    /**
+     * Drops a table on all shards concurrently
+     *
+     * @param tableName Table to drop
+     * @throws SQLException if the drop fails on any shard
+     */
+    public void deleteTable(String tableName) throws SQLException {
+        runOnAllShards("DROP TABLE IF EXISTS " + tableName);
+        forget(tableName);
+    }
+    
+    /**
+     * Runs a statement (typically DDL) on all shards concurrently
+     *
+     * @param sql Statement to run
+     * @throws SQLException if the statement fails on any shard
+     */
+    public void runOnAllShards(String sql) throws SQLException {
+        onAllShards(shard -> shard.runUpdate(sql, new Object[0]));
+        primaryKeys.clear();
+        tableFields.clear();
+    }
+    
+    private void forget(String tableName) {
+        primaryKeys.remove(tableName);
+        tableFields.remove(tableName);
+    }
+    
+    /**
+     * Runs a task on every shard in parallel and returns the results in
+     * shard order. All tasks finish before this returns; if any failed,
+     * the first failure is thrown with the others suppressed.
+     *
+     * @param task Work to run per shard
+     * @return Results by shard index
+     * @throws SQLException if the task fails on any shard
+     */
+    public <T> List<T> onAllShards(ShardTask<T> task) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (MyDBMagic shard : shards) {
+            futures.add(executor.submit(() -> task.run(shard)));
+        }
+        
+        List<T> results = new ArrayList<>();
+        SQLException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for shard " + i, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof MyDBMagic.UncheckedSQLException) {
+                    cause = cause.getCause();
+                }
+                SQLException error = cause instanceof SQLException ? (SQLException) cause
+                    : new SQLException("Shard " + i + " failed: " + cause.getMessage(), cause);
+                LOGGER.warning("Shard {} failed: {}", i, error.getMessage());
+                if (failure == null) {
+                    failure = error;
+                } else {
+                    failure.addSuppressed(error);
+                }
+                results.add(null);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+    
+    /**
+     * Stops the worker threads and closes all shards
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        for (MyDBMagic shard : shards) {
+            shard.close();
+        }
+    }
+    
+    // ==================== Hashing ====================
+    
+    /**
+     * Turns key values into text so equal keys hash the same whatever
+     * their Java type (e.g. Integer 5 and Long 5)
+     */
+    private static String keyString(Object[] key) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < key.length; i++) {
+            if (i > 0) {
+                sb.append('\u0000');
+            }
+            Object value = key[i];
+            if (value instanceof BigDecimal) {
+                sb.append(((BigDecimal) value).stripTrailingZeros().toPlainString());
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes, finished with the MurmurHash3
+     * mixer so nearby keys land far apart on the ring
+     */
+    private static long hash(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    /**
+     * Merges sorted iterators by always taking the smallest head
+     */
+    private static final class MergeIterator<T> implements Iterator<T> {
+        
+        private final PriorityQueue<Head<T>> heads;
+        
+        private MergeIterator(List<Iterator<T>> sources, Comparator<? super T> order) {
+            heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> order.compare(a.value, b.value));
+            for (Iterator<T> source : sources) {
+                if (source.hasNext()) {
+                    heads.add(new Head<>(source.next(), source));
+                }
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+        
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            T value = head.value;
+            if (head.source.hasNext()) {
+                heads.add(new Head<>(head.source.next(), head.source));
+            }
+            return value;
+        }
+    }
+    
+    private static final class Head<T> {
+        private final T value;
+        private final Iterator<T> source;
+        
+        private Head(T value, Iterator<T> source) {
+            this.value = value;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StatementCache - LRU cache of PreparedStatements for one physical connection
+ *
+ * A connection is only used by one borrower at a time, so the cache needs
+ * no locking. Statements pushed out of the cache are not closed right away,
+ * because the current borrower may still be reading from them; they are
+ * closed when the connection goes back to the pool.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class StatementCache {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(StatementCache.class);
+    
+    private final Connection connection;
+    private final int maxSize;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private final List<PreparedStatement> pendingClose = new ArrayList<>();
+    private final Set<PreparedStatement> usedSinceBorrow = Collections.newSetFromMap(new IdentityHashMap<>());
+    
+    // Counters shared by all caches of the same pool
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    
+    /**
+     * Creates a cache for a physical connection
+     *
+     * @param connection Physical connection that prepares the statements
+     * @param maxSize Maximum number of cached statements (0 disables caching)
+     * @param hits Counter incremented on cache hits
+     * @param misses Counter incremented on cache misses
+     * @param evictions Counter incremented when a statement is evicted
+     */
+    public StatementCache(Connection connection, int maxSize,
+                          LongAdder hits, LongAdder misses, LongAdder evictions) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    pendingClose.add(eldest.getValue());
+                    StatementCache.this.evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Returns a cached PreparedStatement for the SQL, preparing it on a miss.
+     * The statement stays owned by the cache and must not be closed by the caller.
+     *
+     * @param sql SQL with ? placeholders
+     * @return PreparedStatement ready for binding
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt != null && !stmt.isClosed()) {
+            hits.increment();
+        } else {
+            misses.increment();
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        }
+        usedSinceBorrow.add(stmt);
+        return stmt;
+    }
+    
+    /**
+     * Called when the connection is returned to the pool: closes evicted
+     * statements and resets per-borrow settings on the ones just used
+     */
+    public void onReturn() {
+        for (PreparedStatement stmt : pendingClose) {
+            closeQuietly(stmt);
+        }
+        pendingClose.clear();
+        
+        for (PreparedStatement stmt : usedSinceBorrow) {
+            try {
+                if (!stmt.isClosed()) {
+                    stmt.clearParameters();
+                    stmt.setFetchSize(0);
+                    stmt.setMaxRows(0);
+                    stmt.setQueryTimeout(0);
+                }
+            } catch (SQLException e) {
+                closeQuietly(stmt);
+                statements.values().remove(stmt);
+            }
+        }
+        usedSinceBorrow.clear();
+    }
+    
+    /**
+     * Closes every statement held by this cache
+     */
+    public void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+        for (PreparedStatement stmt : pendingClose) {
+            closeQuietly(stmt);
+        }
+        pendingClose.clear();
+    }
+    
+    public int size() {
+        return statements.size();
+    }
+    
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            LOGGER.fine("Error closing cached statement: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * StatementProfiler - Per-statement latency statistics and slow-query log
+ *
+ * Every executed statement is reduced to a fingerprint: literals and
+ * placeholders become ?, IN lists and multi-row VALUES collapse to one
+ * entry, and case and spacing are normalized, so "WHERE id = 7" and
+ * "WHERE id = 8" are counted together. Per fingerprint the profiler keeps
+ * calls, errors, rows and a LatencyHistogram, in the spirit of
+ * pg_stat_statements but measured on the client, including network time.
+ *
+ * Statements slower than the threshold are handed to a background thread
+ * that appends them to the slow-query log (a file, or the logger when no
+ * file is set), optionally with the plan from EXPLAIN (ANALYZE, BUFFERS).
+ * Recording never blocks: when the log falls behind, entries are dropped
+ * and counted.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class StatementProfiler implements AutoCloseable {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(StatementProfiler.class);
+    
+    private static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+    private static final long DEFAULT_SLOW_MILLIS = 500;
+    private static final int SLOW_LOG_QUEUE_SIZE = 1000;
+    private static final int FINGERPRINT_CACHE_SIZE = 4096;
+    private static final long EXPLAIN_INTERVAL_MILLIS = 60_000;
+    private static final String OVERFLOW_FINGERPRINT = "<other statements>";
+    
+    private static final Pattern VALUE_LIST = Pattern.compile("\\(\\?(?:, ?\\?)+\\)");
+    private static final Pattern ROW_LIST = Pattern.compile("\\(\\.\\.\\.\\)(?:, ?\\(\\.\\.\\.\\))+");
+    
+    /**
+     * Opens a connection for EXPLAIN; closing it must release it
+     */
+    @FunctionalInterface
+    public interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+    
+    /**
+     * Statistics of one statement fingerprint
+     */
+    public static class Entry {
+        private final String fingerprint;
+        private final String example;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicLong lastExplained = new AtomicLong();
+        
+        private Entry(String fingerprint, String example) {
+            this.fingerprint = fingerprint;
+            this.example = example;
+        }
+        
+        public String getFingerprint() {
+            return fingerprint;
+        }
+        
+        /**
+         * Returns the first statement seen with this fingerprint
+         */
+        public String getExample() {
+            return example;
+        }
+        
+        public long getCalls() {
+            return latency.getCount();
+        }
+        
+        public long getErrors() {
+            return errors.sum();
+        }
+        
+        public long getRows() {
+            return rows.sum();
+        }
+        
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1_000_000.0;
+        }
+        
+        public double getMeanMillis() {
+            return latency.getMean() / 1_000_000.0;
+        }
+        
+        public double getP99Millis() {
+            return latency.getPercentile(99) / 1_000_000.0;
+        }
+        
+        public double getMaxMillis() {
+            return latency.getMax() / 1_000_000.0;
+        }
+    }
+    
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> fingerprintCache = new ConcurrentHashMap<>();
+    private final Entry overflow = new Entry(OVERFLOW_FINGERPRINT, OVERFLOW_FINGERPRINT);
+    private final LongAdder droppedSlowEntries = new LongAdder();
+    private final ThreadPoolExecutor slowLogWriter;
+    
+    private volatile int maxFingerprints = DEFAULT_MAX_FINGERPRINTS;
+    private volatile long slowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_MILLIS);
+    private volatile Path slowLogFile = null;
+    private volatile ConnectionSource explainSource = null;
+    
+    public StatementProfiler() {
+        slowLogWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(SLOW_LOG_QUEUE_SIZE), r -> {
+                Thread t = new Thread(r, "slow-query-log");
+                t.setDaemon(true);
+                return t;
+            }, (r, executor) -> droppedSlowEntries.increment());
+    }
+    
+    /**
+     * Sets the number of distinct fingerprints tracked; statements beyond
+     * it are counted together under "<other statements>"
+     *
+     * @param max Maximum number of fingerprints
+     * @return this StatementProfiler for method chaining
+     */
+    public StatementProfiler maxFingerprints(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Maximum fingerprints must be positive");
+        }
+        this.maxFingerprints = max;
+        return this;
+    }
+    
+    /**
+     * Sets the duration from which statements go to the slow-query log
+     *
+     * @param millis Threshold in milliseconds (0 logs every statement, negative disables the log)
+     * @return this StatementProfiler for method chaining
+     */
+    public StatementProfiler slowThreshold(long millis) {
+        this.slowNanos = millis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+    
+    /**
+     * Appends the slow-query log to a file instead of the logger
+     *
+     * @param file Log file, or null to log through the logger
+     * @return this StatementProfiler for method chaining
+     */
+    public StatementProfiler slowLog(Path file) {
+        this.slowLogFile = file;
+        return this;
+    }
+    
+    /**
+     * Captures EXPLAIN (ANALYZE, BUFFERS) for slow read-only statements, at
+     * most once a minute per fingerprint. ANALYZE runs the statement again,
+     * so writes are never explained.
+     *
+     * @param source Connections for EXPLAIN, or null to stop capturing plans
+     * @return this StatementProfiler for method chaining
+     */
+    public StatementProfiler explainWith(ConnectionSource source) {
+        this.explainSource = source;
+        return this;
+    }
+    
+    /**
+     * Records an executed statement
+     *
+     * @param sql Statement text
+     * @param params Bound parameters (may be null); only kept for EXPLAIN
+     * @param startNanos Value of System.nanoTime() when the statement started
+     * @param rows Rows fetched or affected
+     * @param success Whether the statement completed without error
+     */
+    public void record(String sql, Object[] params, long startNanos, long rows, boolean success) {
+        long elapsed = System.nanoTime() - startNanos;
+        Entry entry = entryFor(sql);
+        entry.latency.record(elapsed);
+        entry.totalNanos.add(elapsed);
+        entry.rows.add(rows);
+        if (!success) {
+            entry.errors.increment();
+        }
+        if (elapsed >= slowNanos) {
+            slowLogWriter.execute(() -> writeSlowEntry(entry, sql, params, elapsed, rows, success));
+        }
+    }
+    
+    private Entry entryFor(String sql) {
+        String fingerprint = fingerprintCache.get(sql);
+        if (fingerprint == null) {
+            fingerprint = fingerprint(sql);
+            if (fingerprintCache.size() >= FINGERPRINT_CACHE_SIZE) {
+                fingerprintCache.clear();
+            }
+            fingerprintCache.put(sql, fingerprint);
+        }
+        Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            return entry;
+        }
+        if (entries.size() >= maxFingerprints) {
+            return overflow;
+        }
+        String key = fingerprint;
+        return entries.computeIfAbsent(key, k -> new Entry(key, sql));
+    }
+    
+    /**
+     * Reduces a statement to its fingerprint
+     *
+     * @param sql Statement text
+     * @return lower-cased statement with literals replaced by ?
+     */
+    public static String fingerprint(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean space = false;
+        int n = sql.length();
+        for (int i = 0; i < n; i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            char previous = out.length() > 0 ? out.charAt(out.length() - 1) : ' ';
+            if (c == '\'') {
+                // String literal; '' is an escaped quote
+                i++;
+                while (i < n && (sql.charAt(i) != '\'' || (i + 1 < n && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                if ((previous == 'e' || previous == 'b' || previous == 'x')
+                        && (out.length() == 1 || !isIdentifierChar(out.charAt(out.length() - 2)))) {
+                    out.setLength(out.length() - 1); // E'...', B'...', X'...' prefixes
+                }
+                out.append('?');
+            } else if (c == '"') {
+                // Quoted identifier, kept as written
+                int end = sql.indexOf('"', i + 1);
+                end = end < 0 ? n - 1 : end;
+                out.append(sql, i, end + 1);
+                i = end;
+            } else if ((Character.isDigit(c) || (c == '$' && i + 1 < n && Character.isDigit(sql.charAt(i + 1))))
+                    && !isIdentifierChar(previous)) {
+                // Number or $n placeholder
+                i++;
+                while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                i--;
+                out.append('?');
+            } else {
+                out.append(Character.toLowerCase(c));
+            }
+        }
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == ';' || out.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        out.setLength(end);
+        String collapsed = VALUE_LIST.matcher(out).replaceAll("(...)");
+        return ROW_LIST.matcher(collapsed).replaceAll("(...), ...");
+    }
+    
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+    
+    /**
+     * Writes one slow statement (runs on the slow-query log thread)
+     */
+    private void writeSlowEntry(Entry entry, String sql, Object[] params, long elapsedNanos,
+                                long rows, boolean success) {
+        StringBuilder line = new StringBuilder(256);
+        line.append(Instant.now()).append(" duration=")
+            .append(String.format("%.3f", elapsedNanos / 1_000_000.0)).append("ms rows=").append(rows)
+            .append(success ? "" : " failed").append(" statement: ").append(sql.trim());
+        
+        ConnectionSource source = explainSource;
+        if (source != null && success && ReplicaRouter.isReadOnly(sql)) {
+            long now = System.currentTimeMillis();
+            long last = entry.lastExplained.get();
+            if (now - last >= EXPLAIN_INTERVAL_MILLIS && entry.lastExplained.compareAndSet(last, now)) {
+                line.append(System.lineSeparator()).append(explain(source, sql, params));
+            }
+        }
+        
+        Path file = slowLogFile;
+        if (file == null) {
+            LOGGER.warning("Slow query: {}", line);
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(line.toString());
+            writer.newLine();
+        } catch (IOException e) {
+            LOGGER.warning("Could not write slow-query log {}", file, e);
+        }
+    }
+    
+    /**
+     * Runs EXPLAIN (ANALYZE, BUFFERS) in a transaction that is rolled back
+     */
+    private static String explain(ConnectionSource source, String sql, Object[] params) {
+        StringBuilder plan = new StringBuilder();
+        try (Connection conn = source.get()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+                if (params != null) {
+                    for (int i = 0; i < params.length; i++) {
+                        pstmt.setObject(i + 1, params[i]);
+                    }
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        plan.append("    ").append(rs.getString(1)).append(System.lineSeparator());
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            return "    (EXPLAIN failed: " + e.getMessage() + ")";
+        }
+        plan.setLength(Math.max(0, plan.length() - System.lineSeparator().length()));
+        return plan.toString();
+    }
+    
+    /**
+     * Returns the fingerprints with the highest total time
+     *
+     * @param n Number of entries
+     * @return entries sorted by total time, slowest first
+     */
+    public List<Entry> top(int n) {
+        return top(n, Comparator.comparingDouble(Entry::getTotalMillis).reversed());
+    }
+    
+    /**
+     * Returns the first entries in the given order
+     *
+     * @param n Number of entries
+     * @param order Sort order, e.g. by mean or p99 time
+     * @return sorted entries
+     */
+    public List<Entry> top(int n, Comparator<Entry> order) {
+        List<Entry> all = new ArrayList<>(entries.values());
+        if (overflow.getCalls() > 0) {
+            all.add(overflow);
+        }
+        all.sort(order);
+        return all.subList(0, Math.min(n, all.size()));
+    }
+    
+    /**
+     * Prints the statements with the highest total time as a table
+     *
+     * @param out Destination
+     * @param n Number of statements
+     */
+    public void printReport(PrintStream out, int n) {
+        List<Entry> top = top(n);
+        if (top.isEmpty()) {
+            out.println("No statements recorded yet.");
+            return;
+        }
+        out.printf("%8s %6s %11s %9s %9s %9s  %s%n", "calls", "errors", "total ms", "mean ms", "p99 ms", "rows", "statement");
+        for (Entry e : top) {
+            String statement = e.getFingerprint();
+            if (statement.length() > 80) {
+                statement = statement.substring(0, 77) + "...";
+            }
+            out.printf("%8d %6d %11.1f %9.2f %9.2f %9d  %s%n", e.getCalls(), e.getErrors(),
+                e.getTotalMillis(), e.getMeanMillis(), e.getP99Millis(), e.getRows(), statement);
+        }
+        long dropped = getDroppedSlowEntries();
+        if (dropped > 0) {
+            out.println("(" + dropped + " slow-query log entries dropped)");
+        }
+    }
+    
+    public int getFingerprintCount() {
+        return entries.size();
+    }
+    
+    public long getDroppedSlowEntries() {
+        return droppedSlowEntries.sum();
+    }
+    
+    /**
+     * Forgets all recorded statistics
+     */
+    public void reset() {
+        entries.clear();
+        overflow.latency.reset();
+        overflow.totalNanos.reset();
+        overflow.rows.reset();
+        overflow.errors.reset();
+    }
+    
+    /**
+     * Writes the pending slow-query log entries and stops the log thread
+     */
+    @Override
+    public void close() {
+        slowLogWriter.shutdown();
+        try {
+            slowLogWriter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
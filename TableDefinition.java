@@ -0,0 +1,485 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TableDefinition - Programmatic description of a table and its DDL
+ *
+ * Builds on Field for the columns and adds table-level constraints
+ * (composite primary keys, UNIQUE, foreign keys), secondary indexes and a
+ * PARTITION BY clause. Definitions can be passed to MyDBMagic.createTables()
+ * to create many tables in one transaction.
+ *
+ * Usage Example:
+ *   new TableDefinition("orders")
+ *       .field(new Field("tenant_id", "INTEGER"))
+ *       .field(new Field("id", "BIGINT"))
+ *       .field(new Field("status", "VARCHAR").maxLength(20).defaultValue("'new'"))
+ *       .primaryKey("tenant_id", "id")
+ *       .foreignKey("tenant_id", "tenants", "id")
+ *       .index("status");
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class TableDefinition {
+    
+    private final String name;
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+    private final List<String> primaryKey = new ArrayList<>();
+    private final List<List<String>> uniqueKeys = new ArrayList<>();
+    private final List<ForeignKey> foreignKeys = new ArrayList<>();
+    private final List<Index> indexes = new ArrayList<>();
+    private String partitionClause = null;
+    private boolean ifNotExists = false;
+    
+    /**
+     * Creates an empty definition
+     *
+     * @param name Table name (optionally schema-qualified)
+     */
+    public TableDefinition(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Table name cannot be null or empty");
+        }
+        this.name = name.trim();
+    }
+    
+    /**
+     * Adds a column. A column marked with primaryKey() becomes part of the
+     * table's primary key.
+     *
+     * @param field Column definition (copied)
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition field(Field field) {
+        String key = field.getName().toLowerCase(Locale.ROOT);
+        if (fields.containsKey(key)) {
+            throw new IllegalArgumentException("Duplicate field '" + field.getName() + "' in table " + name);
+        }
+        fields.put(key, new Field(field));
+        if (field.isPrimaryKey()) {
+            primaryKey.add(field.getName());
+        }
+        return this;
+    }
+    
+    /**
+     * Adds several columns
+     *
+     * @param columns Column definitions (copied)
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition fields(Field... columns) {
+        for (Field field : columns) {
+            field(field);
+        }
+        return this;
+    }
+    
+    /**
+     * Sets the (possibly composite) primary key, replacing any primaryKey() columns
+     *
+     * @param columns Key columns in order
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition primaryKey(String... columns) {
+        requireColumns(columns);
+        primaryKey.clear();
+        primaryKey.addAll(Arrays.asList(columns));
+        return this;
+    }
+    
+    /**
+     * Adds a UNIQUE constraint over one or more columns
+     *
+     * @param columns Columns that must be unique together
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition unique(String... columns) {
+        requireColumns(columns);
+        uniqueKeys.add(Arrays.asList(columns));
+        return this;
+    }
+    
+    /**
+     * Adds a foreign key
+     *
+     * @param column Referencing column (comma-separated for composite keys)
+     * @param refTable Referenced table
+     * @param refColumn Referenced column(s)
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition foreignKey(String column, String refTable, String refColumn) {
+        return foreignKey(column, refTable, refColumn, null);
+    }
+    
+    /**
+     * Adds a foreign key with an ON DELETE action
+     *
+     * @param column Referencing column (comma-separated for composite keys)
+     * @param refTable Referenced table
+     * @param refColumn Referenced column(s)
+     * @param onDelete CASCADE, SET NULL, RESTRICT, ... (null for the default)
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition foreignKey(String column, String refTable, String refColumn, String onDelete) {
+        requireColumns(column.split("\\s*,\\s*"));
+        foreignKeys.add(new ForeignKey(column, refTable, refColumn, onDelete));
+        return this;
+    }
+    
+    /**
+     * Adds a secondary index named after the table and columns
+     *
+     * @param columns Indexed columns (or expressions) in order
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition index(String... columns) {
+        indexes.add(new Index(null, false, columns));
+        return this;
+    }
+    
+    /**
+     * Adds a unique secondary index
+     *
+     * @param columns Indexed columns in order
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition uniqueIndex(String... columns) {
+        indexes.add(new Index(null, true, columns));
+        return this;
+    }
+    
+    /**
+     * Adds an index with an explicit name
+     *
+     * @param indexName Index name
+     * @param unique Whether the index is unique
+     * @param columns Indexed columns (or expressions) in order
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition namedIndex(String indexName, boolean unique, String... columns) {
+        indexes.add(new Index(indexName, unique, columns));
+        return this;
+    }
+    
+    /**
+     * Makes this a partitioned table
+     *
+     * @param clause Partitioning clause without PARTITION BY, e.g. "RANGE (created_at)"
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition partitionBy(String clause) {
+        this.partitionClause = clause;
+        return this;
+    }
+    
+    /**
+     * Emits CREATE TABLE IF NOT EXISTS and CREATE INDEX IF NOT EXISTS
+     *
+     * @return this TableDefinition for method chaining
+     */
+    public TableDefinition ifNotExists() {
+        this.ifNotExists = true;
+        return this;
+    }
+    
+    /**
+     * Generates the CREATE TABLE statement
+     *
+     * @return SQL string
+     */
+    public String toSQL() {
+        if (fields.isEmpty()) {
+            throw new IllegalStateException("Table " + name + " has no fields");
+        }
+        boolean singleColumnKey = primaryKey.size() == 1;
+        StringBuilder sql = new StringBuilder(64 + fields.size() * 32);
+        sql.append("CREATE TABLE ");
+        if (ifNotExists) {
+            sql.append("IF NOT EXISTS ");
+        }
+        sql.append(name).append(" (");
+        
+        boolean first = true;
+        for (Field field : fields.values()) {
+            if (!first) sql.append(", ");
+            first = false;
+            column(field).appendSQL(sql, singleColumnKey);
+        }
+        
+        if (primaryKey.size() > 1) {
+            sql.append(", PRIMARY KEY (");
+            appendList(sql, primaryKey);
+            sql.append(")");
+        }
+        for (List<String> columns : uniqueKeys) {
+            sql.append(", UNIQUE (");
+            appendList(sql, columns);
+            sql.append(")");
+        }
+        for (ForeignKey fk : foreignKeys) {
+            sql.append(", ").append(fk.toSQL());
+        }
+        sql.append(")");
+        
+        if (partitionClause != null) {
+            sql.append(" PARTITION BY ").append(partitionClause);
+        }
+        return sql.toString();
+    }
+    
+    /**
+     * Generates the CREATE INDEX statements
+     *
+     * @return one statement per index
+     */
+    public List<String> toIndexSQL() {
+        return toIndexSQL(false);
+    }
+    
+    /**
+     * Generates the CREATE INDEX statements
+     *
+     * @param concurrently Whether to build the indexes without blocking writes;
+     *                     such statements cannot run inside a transaction and
+     *                     always use IF NOT EXISTS so they can be re-run
+     * @return one statement per index, in the order of getIndexNames()
+     */
+    public List<String> toIndexSQL(boolean concurrently) {
+        List<String> statements = new ArrayList<>(indexes.size());
+        for (Index index : indexes) {
+            StringBuilder sql = new StringBuilder("CREATE ");
+            if (index.unique) {
+                sql.append("UNIQUE ");
+            }
+            sql.append("INDEX ");
+            if (concurrently) {
+                sql.append("CONCURRENTLY ");
+            }
+            if (ifNotExists || concurrently) {
+                sql.append("IF NOT EXISTS ");
+            }
+            sql.append(index.name(this)).append(" ON ").append(name).append(" (");
+            appendList(sql, index.columns);
+            sql.append(")");
+            statements.add(sql.toString());
+        }
+        return statements;
+    }
+    
+    /**
+     * Generates every statement needed to create the table
+     *
+     * @return CREATE TABLE followed by the CREATE INDEX statements
+     */
+    public List<String> toStatements() {
+        List<String> statements = new ArrayList<>(1 + indexes.size());
+        statements.add(toSQL());
+        statements.addAll(toIndexSQL());
+        return statements;
+    }
+    
+    /**
+     * Orders definitions so that tables referenced by foreign keys are
+     * created before the tables referencing them (cycles keep their order)
+     *
+     * @param tables Definitions in any order
+     * @return definitions in creation order
+     */
+    public static List<TableDefinition> inCreationOrder(List<TableDefinition> tables) {
+        Map<String, TableDefinition> byName = new LinkedHashMap<>();
+        for (TableDefinition table : tables) {
+            byName.put(table.name.toLowerCase(Locale.ROOT), table);
+        }
+        List<TableDefinition> ordered = new ArrayList<>(tables.size());
+        Set<String> visiting = new HashSet<>();
+        Set<String> done = new HashSet<>();
+        for (String key : byName.keySet()) {
+            visit(key, byName, visiting, done, ordered);
+        }
+        return ordered;
+    }
+    
+    private static void visit(String key, Map<String, TableDefinition> byName, Set<String> visiting,
+                              Set<String> done, List<TableDefinition> ordered) {
+        TableDefinition table = byName.get(key);
+        if (table == null || done.contains(key) || !visiting.add(key)) {
+            return;
+        }
+        for (ForeignKey fk : table.foreignKeys) {
+            visit(fk.refTable.toLowerCase(Locale.ROOT), byName, visiting, done, ordered);
+        }
+        visiting.remove(key);
+        done.add(key);
+        ordered.add(table);
+    }
+    
+    // Getters
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Returns copies of the column definitions, with key columns marked as primary key
+     *
+     * @return Field array in column order
+     */
+    public Field[] getFields() {
+        Field[] copy = new Field[fields.size()];
+        int i = 0;
+        for (Field field : fields.values()) {
+            copy[i++] = column(field);
+        }
+        return copy;
+    }
+    
+    public List<String> getPrimaryKey() {
+        return Collections.unmodifiableList(primaryKey);
+    }
+    
+    /**
+     * Returns the table-level UNIQUE constraints added with unique()
+     *
+     * @return column lists, one per constraint
+     */
+    public List<List<String>> getUniqueKeys() {
+        return Collections.unmodifiableList(uniqueKeys);
+    }
+    
+    public List<ForeignKey> getForeignKeys() {
+        return Collections.unmodifiableList(foreignKeys);
+    }
+    
+    public List<String> getIndexNames() {
+        List<String> names = new ArrayList<>(indexes.size());
+        for (Index index : indexes) {
+            names.add(index.name(this));
+        }
+        return names;
+    }
+    
+    @Override
+    public String toString() {
+        return toSQL();
+    }
+    
+    /**
+     * Returns a copy of a field whose primary key flag matches the table's key
+     */
+    private Field column(Field field) {
+        return new Field(field.getName(), field.getDataType(), isKeyColumn(field.getName()),
+            field.isNotNull(), field.isUnique(), field.getDefaultValue(), field.getMaxLength());
+    }
+    
+    private boolean isKeyColumn(String column) {
+        for (String key : primaryKey) {
+            if (key.equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void requireColumns(String... columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("At least one column is required");
+        }
+        for (String column : columns) {
+            if (!fields.containsKey(column.toLowerCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("Unknown field '" + column + "' in table " + name);
+            }
+        }
+    }
+    
+    private static void appendList(StringBuilder sql, List<String> items) {
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(items.get(i));
+        }
+    }
+    
+    /**
+     * A foreign key constraint
+     */
+    public static final class ForeignKey {
+        
+        private final String column;
+        private final String refTable;
+        private final String refColumn;
+        private final String onDelete;
+        
+        private ForeignKey(String column, String refTable, String refColumn, String onDelete) {
+            this.column = column;
+            this.refTable = refTable;
+            this.refColumn = refColumn;
+            this.onDelete = onDelete;
+        }
+        
+        public String getColumn() {
+            return column;
+        }
+        
+        public String getRefTable() {
+            return refTable;
+        }
+        
+        public String getRefColumn() {
+            return refColumn;
+        }
+        
+        public String getOnDelete() {
+            return onDelete;
+        }
+        
+        /**
+         * Returns the constraint clause, e.g. "FOREIGN KEY (a) REFERENCES t (id)"
+         *
+         * @return SQL string
+         */
+        public String toSQL() {
+            String sql = "FOREIGN KEY (" + column + ") REFERENCES " + refTable + " (" + refColumn + ")";
+            return onDelete != null ? sql + " ON DELETE " + onDelete : sql;
+        }
+    }
+    
+    /**
+     * A secondary index
+     */
+    private static final class Index {
+        
+        private final String explicitName;
+        private final boolean unique;
+        private final List<String> columns;
+        
+        private Index(String explicitName, boolean unique, String[] columns) {
+            if (columns.length == 0) {
+                throw new IllegalArgumentException("An index needs at least one column");
+            }
+            this.explicitName = explicitName;
+            this.unique = unique;
+            this.columns = Arrays.asList(columns);
+        }
+        
+        private String name(TableDefinition table) {
+            if (explicitName != null) {
+                return explicitName;
+            }
+            StringBuilder generated = new StringBuilder();
+            String base = table.name.substring(table.name.lastIndexOf('.') + 1);
+            generated.append(base);
+            for (String column : columns) {
+                generated.append('_').append(column.replaceAll("\\W+", ""));
+            }
+            generated.append(unique ? "_key" : "_idx");
+            return generated.toString().toLowerCase(Locale.ROOT);
+        }
+    }
+}
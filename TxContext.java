@@ -0,0 +1,192 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TxContext - Statements run inside one MyDBMagic.inTransaction() call
+ *
+ * Every statement runs on the same pinned connection with auto-commit off,
+ * so the whole unit of work is committed (or rolled back) once at the end.
+ * Methods throw MyDBMagic.UncheckedSQLException so they can be called from
+ * a plain lambda; inTransaction() unwraps it again.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class TxContext {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(TxContext.class);
+    
+    private final Connection connection;
+    private final ConnectionPool pool;
+    private final DBMetrics metrics;
+    private final StatementProfiler profiler;
+    private final int attempt;
+    private boolean rollbackOnly = false;
+    private int savepointCounter = 0;
+    private final Set<String> writes = new LinkedHashSet<>();
+    
+    TxContext(Connection connection, ConnectionPool pool, DBMetrics metrics, StatementProfiler profiler,
+              int attempt) {
+        this.connection = connection;
+        this.pool = pool;
+        this.metrics = metrics;
+        this.profiler = profiler;
+        this.attempt = attempt;
+    }
+    
+    /**
+     * Executes an INSERT, UPDATE, DELETE or DDL statement in the transaction
+     *
+     * @param sql SQL with ? placeholders
+     * @param params Values bound to the placeholders in order
+     * @return number of affected rows
+     */
+    public int update(String sql, Object... params) {
+        long start = System.nanoTime();
+        try {
+            int rows = MyDBMagic.executeUpdate(pool, connection, sql, params);
+            writes.add(sql);
+            metrics.record(DBMetrics.Operation.RUN_UPDATE, start, rows, true);
+            profiler.record(sql, params, start, rows, true);
+            return rows;
+        } catch (SQLException e) {
+            metrics.record(DBMetrics.Operation.RUN_UPDATE, start, 0, false);
+            profiler.record(sql, params, start, 0, false);
+            throw new MyDBMagic.UncheckedSQLException(e);
+        }
+    }
+    
+    /**
+     * Runs a query in the transaction and maps every row
+     *
+     * @param sql SQL with ? placeholders
+     * @param params Values bound to the placeholders (may be null)
+     * @param mapper Converts each row
+     * @return list of mapped rows
+     */
+    public <T> List<T> query(String sql, Object[] params, MyDBMagic.RowMapper<T> mapper) {
+        List<T> rows = new ArrayList<>();
+        forEachRow(sql, params, rs -> rows.add(mapper.mapRow(rs)));
+        return rows;
+    }
+    
+    /**
+     * Runs a query in the transaction and passes each row to a callback
+     *
+     * @param sql SQL with ? placeholders
+     * @param params Values bound to the placeholders (may be null)
+     * @param callback Called once per row
+     * @return number of rows processed
+     */
+    public long forEachRow(String sql, Object[] params, MyDBMagic.RowCallback callback) {
+        long start = System.nanoTime();
+        long rows = 0;
+        try {
+            PreparedStatement pstmt = pool.prepare(connection, sql);
+            MyDBMagic.bind(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    callback.processRow(rs);
+                    rows++;
+                }
+            }
+            metrics.record(DBMetrics.Operation.RUN_QUERY, start, rows, true);
+            profiler.record(sql, params, start, rows, true);
+            return rows;
+        } catch (SQLException e) {
+            metrics.record(DBMetrics.Operation.RUN_QUERY, start, rows, false);
+            profiler.record(sql, params, start, rows, false);
+            throw new MyDBMagic.UncheckedSQLException(e);
+        }
+    }
+    
+    /**
+     * Sets a savepoint that part of the work can be rolled back to
+     *
+     * @return the new savepoint
+     */
+    public Savepoint savepoint() {
+        try {
+            return connection.setSavepoint("sp_" + (++savepointCounter));
+        } catch (SQLException e) {
+            throw new MyDBMagic.UncheckedSQLException(e);
+        }
+    }
+    
+    /**
+     * Undoes everything done after a savepoint; the transaction stays open
+     *
+     * @param savepoint Savepoint returned by savepoint()
+     */
+    public void rollbackTo(Savepoint savepoint) {
+        try {
+            connection.rollback(savepoint);
+        } catch (SQLException e) {
+            throw new MyDBMagic.UncheckedSQLException(e);
+        }
+    }
+    
+    /**
+     * Releases a savepoint that is no longer needed
+     *
+     * @param savepoint Savepoint returned by savepoint()
+     */
+    public void release(Savepoint savepoint) {
+        try {
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            throw new MyDBMagic.UncheckedSQLException(e);
+        }
+    }
+    
+    /**
+     * Marks the transaction so it is rolled back instead of committed
+     */
+    public void setRollbackOnly() {
+        this.rollbackOnly = true;
+        LOGGER.fine("Transaction marked rollback-only");
+    }
+    
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+    
+    /**
+     * Returns the attempt number (1 for the first run, higher after a
+     * serialization failure or deadlock caused a retry)
+     *
+     * @return attempt number
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+    
+    /**
+     * Returns the distinct write and DDL statements run so far, so cached
+     * query results and schema metadata can be invalidated once the
+     * transaction commits
+     *
+     * @return write statements in execution order
+     */
+    Collection<String> getWrites() {
+        return writes;
+    }
+    
+    /**
+     * Returns the pinned connection for JDBC calls not covered here.
+     * It must not be closed or committed by the caller.
+     *
+     * @return the transaction's connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+}
@@ -0,0 +1,126 @@
+import benchmarks.Workload;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+
+/**
+ * MyDBMagicWorkload - Benchmark operations implemented with MyDBMagic
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public class MyDBMagicWorkload implements Workload {
+    
+    private final Field field = new Field("name", "VARCHAR").maxLength(100).notNull();
+    private MyDBMagic db;
+    private PrintStream originalOut;
+    
+    @Override
+    public void open(String port, String database, String user, String password, int maxConnections) {
+        DBLogger.setLevel(DBLogger.Level.WARNING);
+        db = new MyDBMagic(port, database, user, password).poolSize(1, maxConnections).printProgress(false);
+        // showRecords writes to the console; keep that out of the measurement
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+    
+    @Override
+    public void createTable(String table) throws SQLException {
+        dropTable(table);
+        db.runUpdate("CREATE TABLE " + table + " (id BIGINT PRIMARY KEY, name VARCHAR(40), amount DOUBLE PRECISION)",
+            new Object[0]);
+    }
+    
+    @Override
+    public void dropTable(String table) throws SQLException {
+        db.runUpdate("DROP TABLE IF EXISTS " + table, new Object[0]);
+    }
+    
+    @Override
+    public void truncate(String table) throws SQLException {
+        db.runUpdate("TRUNCATE " + table, new Object[0]);
+    }
+    
+    @Override
+    public boolean connect() throws SQLException {
+        try (Connection conn = db.connectDB()) {
+            return conn.getAutoCommit();
+        }
+    }
+    
+    @Override
+    public long insert(String table, long firstId, int count) throws SQLException {
+        if (count == 1) {
+            long id = firstId + 1;
+            return db.runUpdate("INSERT INTO " + table + " (id, name, amount) VALUES (?, ?, ?)", id, "row" + id, id * 0.5);
+        }
+        return db.insertBatch(table, rows(firstId, count), count, 1);
+    }
+    
+    @Override
+    public long scan(String table, LongConsumer ids) throws SQLException {
+        return db.forEachRow("SELECT * FROM " + table, null, rs -> ids.accept(rs.getLong(1)));
+    }
+    
+    @Override
+    public void showRecords(String table) {
+        db.showRecords(table);
+    }
+    
+    @Override
+    public Object tableFields(String table, boolean cold) {
+        if (cold) {
+            db.getSchemaCache().invalidateAll();
+        }
+        return db.getTableFields(table);
+    }
+    
+    @Override
+    public String fieldToSQL() {
+        return field.toSQL();
+    }
+    
+    @Override
+    public String lookup(String table, long id) throws SQLException {
+        try (ResultSet rs = db.runQuery("SELECT name FROM " + table + " WHERE id = ?", id)) {
+            if (!rs.next() || !rs.getString(1).equals("row" + id)) {
+                throw new IllegalStateException("Wrong row returned for id " + id);
+            }
+            return rs.getString(1);
+        }
+    }
+    
+    @Override
+    public void close() {
+        if (originalOut != null) {
+            System.setOut(originalOut);
+        }
+        if (db != null) {
+            db.close();
+        }
+    }
+    
+    /**
+     * Generates rows (id, name, amount) without materializing them
+     */
+    private static Iterator<Object[]> rows(long firstId, int count) {
+        return new Iterator<Object[]>() {
+            private long next = firstId + 1;
+            
+            @Override
+            public boolean hasNext() {
+                return next <= firstId + count;
+            }
+            
+            @Override
+            public Object[] next() {
+                long id = next++;
+                return new Object[]{id, "row" + id, id * 0.5};
+            }
+        };
+    }
+}
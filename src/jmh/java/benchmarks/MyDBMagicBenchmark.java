@@ -0,0 +1,183 @@
+package benchmarks;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MyDBMagicBenchmark - JMH benchmarks for MyDBMagic operations
+ *
+ * Covers connectDB, single-row vs batched inserts, small vs large scans,
+ * showRecords, cold vs warm getTableFields, Field.toSQL and lookups on one
+ * shared instance from 1, 4 and all available threads. Every run starts a
+ * throwaway PostgreSQL server (embedded-postgres), so no database needs to
+ * be installed; set -Dmydbmagic.bench.port (and .database, .user,
+ * .password) to measure against a running server instead.
+ *
+ * Usage:
+ *   mvn -P jmh package
+ *   java -jar target/benchmarks.jar -rf json -rff bench.json
+ *
+ * The JSON file holds one entry per benchmark and parameter combination,
+ * for comparing runs over time.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyDBMagicBenchmark {
+    
+    private static final String TABLE_LOOKUP = "bench_lookup";
+    private static final int LOOKUP_ROWS = 100_000;
+    
+    /**
+     * Database server and the MyDBMagic instance shared by all threads
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+        EmbeddedPostgres server;
+        Workload workload;
+        
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            String port = System.getProperty("mydbmagic.bench.port");
+            if (port == null) {
+                server = EmbeddedPostgres.start();
+                port = String.valueOf(server.getPort());
+            }
+            workload = Workload.load();
+            workload.open(port,
+                System.getProperty("mydbmagic.bench.database", "postgres"),
+                System.getProperty("mydbmagic.bench.user", "postgres"),
+                System.getProperty("mydbmagic.bench.password", "postgres"),
+                Math.max(8, Runtime.getRuntime().availableProcessors()));
+            workload.createTable(TABLE_LOOKUP);
+            workload.insert(TABLE_LOOKUP, 0, LOOKUP_ROWS);
+        }
+        
+        /**
+         * Also drops the tables of the other states, whose trial teardown
+         * runs after this one
+         */
+        @TearDown(Level.Trial)
+        public void stop() throws Exception {
+            for (String table : new String[]{TABLE_LOOKUP, Inserts.TABLE, Scan.TABLE}) {
+                workload.dropTable(table);
+            }
+            workload.close();
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+    
+    /**
+     * Target table of the insert benchmark, emptied before every iteration
+     */
+    @State(Scope.Benchmark)
+    public static class Inserts {
+        static final String TABLE = "bench_insert";
+        
+        @Param({"1", "1000"})
+        int rowsPerCall;
+        
+        final AtomicLong nextId = new AtomicLong();
+        
+        @Setup(Level.Trial)
+        public void create(Database database) throws Exception {
+            database.workload.createTable(TABLE);
+        }
+        
+        @Setup(Level.Iteration)
+        public void truncate(Database database) throws Exception {
+            database.workload.truncate(TABLE);
+        }
+    }
+    
+    /**
+     * Table read by the scan benchmarks, in a small and a large size
+     */
+    @State(Scope.Benchmark)
+    public static class Scan {
+        static final String TABLE = "bench_scan";
+        
+        @Param({"100", "100000"})
+        int tableRows;
+        
+        @Setup(Level.Trial)
+        public void fill(Database database) throws Exception {
+            database.workload.createTable(TABLE);
+            database.workload.insert(TABLE, 0, tableRows);
+        }
+    }
+    
+    @Benchmark
+    public boolean connectDB(Database database) throws Exception {
+        return database.workload.connect();
+    }
+    
+    /**
+     * Inserts rowsPerCall rows: one runUpdate for a single row, otherwise
+     * one insertBatch call
+     */
+    @Benchmark
+    public long insert(Database database, Inserts inserts) throws Exception {
+        long first = inserts.nextId.getAndAdd(inserts.rowsPerCall);
+        return database.workload.insert(Inserts.TABLE, first, inserts.rowsPerCall);
+    }
+    
+    @Benchmark
+    public long scan(Database database, Scan scan, Blackhole blackhole) throws Exception {
+        return database.workload.scan(Scan.TABLE, blackhole::consume);
+    }
+    
+    @Benchmark
+    public void showRecords(Database database, Scan scan) {
+        database.workload.showRecords(Scan.TABLE);
+    }
+    
+    @Benchmark
+    public Object metadataCold(Database database) {
+        return database.workload.tableFields(TABLE_LOOKUP, true);
+    }
+    
+    @Benchmark
+    public Object metadataWarm(Database database) {
+        return database.workload.tableFields(TABLE_LOOKUP, false);
+    }
+    
+    @Benchmark
+    public String fieldToSQL(Database database) {
+        return database.workload.fieldToSQL();
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public String lookup1Thread(Database database) throws Exception {
+        return lookup(database);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public String lookup4Threads(Database database) throws Exception {
+        return lookup(database);
+    }
+    
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String lookupMaxThreads(Database database) throws Exception {
+        return lookup(database);
+    }
+    
+    private static String lookup(Database database) throws Exception {
+        long id = ThreadLocalRandom.current().nextLong(1, LOOKUP_ROWS + 1);
+        return database.workload.lookup(TABLE_LOOKUP, id);
+    }
+}
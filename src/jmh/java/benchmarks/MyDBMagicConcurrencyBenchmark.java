@@ -0,0 +1,118 @@
+package benchmarks;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * MyDBMagicConcurrencyBenchmark - Throughput of one shared MyDBMagic from 1 to N threads
+ *
+ * Each operation does what MyDBMagicConcurrencyTest does per round: read a
+ * table's fields, look up one row by id and scan a small table, all on the
+ * same MyDBMagic instance. main runs it with 1, 2, 4, ... up to N threads
+ * (default: available processors, or the first argument) and prints the
+ * throughput of each run next to the speedup over one thread.
+ *
+ * Usage:
+ *   mvn -P jmh package
+ *   java -cp target/benchmarks.jar benchmarks.MyDBMagicConcurrencyBenchmark [N]
+ *
+ * Under the regular JMH launcher it runs with the -t threads given there.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyDBMagicConcurrencyBenchmark {
+    
+    private static final String TABLE_LOOKUP = "bench_shared_lookup";
+    private static final String TABLE_SMALL = "bench_shared_small";
+    private static final int LOOKUP_ROWS = 10_000;
+    private static final int SMALL_ROWS = 20;
+    
+    /**
+     * Database server and the MyDBMagic instance shared by all threads
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+        EmbeddedPostgres server;
+        Workload workload;
+        
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            String port = System.getProperty("mydbmagic.bench.port");
+            if (port == null) {
+                server = EmbeddedPostgres.start();
+                port = String.valueOf(server.getPort());
+            }
+            workload = Workload.load();
+            workload.open(port,
+                System.getProperty("mydbmagic.bench.database", "postgres"),
+                System.getProperty("mydbmagic.bench.user", "postgres"),
+                System.getProperty("mydbmagic.bench.password", "postgres"),
+                // Enough connections that the pool is not what limits scaling
+                Math.max(64, Runtime.getRuntime().availableProcessors()));
+            workload.createTable(TABLE_LOOKUP);
+            workload.insert(TABLE_LOOKUP, 0, LOOKUP_ROWS);
+            workload.createTable(TABLE_SMALL);
+            workload.insert(TABLE_SMALL, 0, SMALL_ROWS);
+        }
+        
+        @TearDown(Level.Trial)
+        public void stop() throws Exception {
+            workload.dropTable(TABLE_LOOKUP);
+            workload.dropTable(TABLE_SMALL);
+            workload.close();
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+    
+    @Benchmark
+    public long sharedInstance(Database database) throws Exception {
+        long id = ThreadLocalRandom.current().nextLong(1, LOOKUP_ROWS + 1);
+        database.workload.tableFields(TABLE_SMALL, false);
+        database.workload.lookup(TABLE_LOOKUP, id);
+        return database.workload.scan(TABLE_SMALL, ignored -> { });
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < max; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(max);
+        
+        List<double[]> scores = new ArrayList<>();
+        for (int threads : counts) {
+            Options options = new OptionsBuilder()
+                .include(MyDBMagicConcurrencyBenchmark.class.getName() + ".sharedInstance")
+                .threads(threads)
+                .build();
+            for (RunResult result : new Runner(options).run()) {
+                scores.add(new double[]{threads, result.getPrimaryResult().getScore(),
+                    result.getPrimaryResult().getScoreError()});
+            }
+        }
+        
+        System.out.println();
+        System.out.printf("%8s %14s %10s %8s%n", "threads", "ops/s", "error", "speedup");
+        for (double[] score : scores) {
+            System.out.printf("%8d %,14.0f %,10.0f %7.2fx%n", (int) score[0], score[1], score[2],
+                score[1] / scores.get(0)[1]);
+        }
+    }
+}
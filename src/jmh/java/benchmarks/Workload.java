@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Workload - MyDBMagic operations measured by MyDBMagicBenchmark
+ *
+ * JMH does not accept benchmark classes in the default package, and a
+ * named package cannot import the default-package MyDBMagic classes, so
+ * the benchmarks drive them through this interface. The implementation
+ * (MyDBMagicWorkload, in the default package) is loaded by name.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+public interface Workload extends AutoCloseable {
+    
+    /**
+     * Connects to the database; must be called before anything else
+     */
+    void open(String port, String database, String user, String password, int maxConnections) throws Exception;
+    
+    /**
+     * Drops and recreates a table (id BIGINT PRIMARY KEY, name VARCHAR(40), amount DOUBLE PRECISION)
+     */
+    void createTable(String table) throws Exception;
+    
+    void dropTable(String table) throws Exception;
+    
+    void truncate(String table) throws Exception;
+    
+    /**
+     * Borrows a connection and gives it back
+     */
+    boolean connect() throws Exception;
+    
+    /**
+     * Inserts rows firstId+1 .. firstId+count; a single row with runUpdate, more with insertBatch
+     */
+    long insert(String table, long firstId, int count) throws Exception;
+    
+    /**
+     * Reads every row of a table, passing each id to the consumer
+     */
+    long scan(String table, LongConsumer ids) throws Exception;
+    
+    void showRecords(String table);
+    
+    /**
+     * Reads a table's fields, optionally clearing the schema cache first
+     */
+    Object tableFields(String table, boolean cold);
+    
+    String fieldToSQL();
+    
+    /**
+     * Reads one row by id and checks that the right row came back
+     */
+    String lookup(String table, long id) throws Exception;
+    
+    @Override
+    void close();
+    
+    /**
+     * Loads the implementation in the default package
+     */
+    static Workload load() throws ReflectiveOperationException {
+        return (Workload) Class.forName("MyDBMagicWorkload").getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * CircuitBreakerTest - The breaker's state machine, without a database
+ *
+ * Failures are reported directly with the SQLStates the driver uses. The
+ * open periods are a few hundred milliseconds and the checks stay well
+ * clear of their ends.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class CircuitBreakerTest {
+    
+    private static final long OPEN_MILLIS = 200;
+    private static final long MAX_OPEN_MILLIS = 500;
+    
+    private static final SQLException UNREACHABLE = new SQLException("Connection refused", "08001");
+    private static final SQLException SYNTAX = new SQLException("syntax error", "42601");
+    
+    @BeforeAll
+    static void quiet() {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+    }
+    
+    private static CircuitBreaker breaker() {
+        return new CircuitBreaker().configure(3, OPEN_MILLIS, MAX_OPEN_MILLIS);
+    }
+    
+    @Test
+    void opensAfterConsecutiveConnectionFailures() throws Exception {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire();
+            breaker.onFailure(UNREACHABLE);
+        }
+        // A success resets the count
+        breaker.acquire();
+        breaker.onSuccess();
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire();
+            breaker.onFailure(UNREACHABLE);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+        breaker.onFailure(UNREACHABLE);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenedCount());
+        
+        CircuitBreaker.OpenException e = assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+        assertTrue(e.getMessage().contains("circuit breaker open"), e.getMessage());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+    
+    @Test
+    void ordinarySqlErrorsDoNotCount() throws Exception {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 10; i++) {
+            breaker.acquire();
+            breaker.onFailure(SYNTAX);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(CircuitBreaker.isConnectionFailure(new SQLTransientConnectionException("pool")));
+        assertTrue(CircuitBreaker.isConnectionFailure(new SQLException("too many", "53300")));
+        assertFalse(CircuitBreaker.isConnectionFailure(SYNTAX));
+    }
+    
+    @Test
+    void halfOpenLetsOneProbeThrough() throws Exception {
+        CircuitBreaker breaker = tripped();
+        Thread.sleep(OPEN_MILLIS + 50);
+        
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        CircuitBreaker.OpenException e = assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+        assertTrue(e.getMessage().contains("circuit breaker half_open"), e.getMessage());
+        
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+    }
+    
+    @Test
+    void probeWithoutAnAnswerFromTheServerProbesAgain() throws Exception {
+        CircuitBreaker breaker = tripped();
+        Thread.sleep(OPEN_MILLIS + 50);
+        breaker.acquire();
+        breaker.onFailure(SYNTAX);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // The next request probes right away
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+    
+    @Test
+    void failedProbesDoubleTheOpenPeriodUpToTheMaximum() throws Exception {
+        CircuitBreaker breaker = tripped();
+        Thread.sleep(OPEN_MILLIS + 50);
+        probeAndFail(breaker);
+        
+        // Open for 400 ms now
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+        Thread.sleep(OPEN_MILLIS);
+        probeAndFail(breaker);
+        
+        // 800 ms capped at 500 ms, and it stays there
+        for (int i = 0; i < 2; i++) {
+            Thread.sleep(2 * OPEN_MILLIS + 50);
+            assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+            Thread.sleep(MAX_OPEN_MILLIS - 2 * OPEN_MILLIS + 50);
+            probeAndFail(breaker);
+        }
+        assertEquals(5, breaker.getOpenedCount());
+        
+        // A successful probe starts over at the first period
+        Thread.sleep(MAX_OPEN_MILLIS + 50);
+        breaker.acquire();
+        breaker.onSuccess();
+        tripAgain(breaker);
+        Thread.sleep(OPEN_MILLIS + 50);
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+    
+    private static void probeAndFail(CircuitBreaker breaker) throws Exception {
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure(UNREACHABLE);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+    
+    private static CircuitBreaker tripped() throws Exception {
+        CircuitBreaker breaker = breaker();
+        tripAgain(breaker);
+        return breaker;
+    }
+    
+    private static void tripAgain(CircuitBreaker breaker) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire();
+            breaker.onFailure(UNREACHABLE);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,178 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ConnectionPoolTest - Borrowing, reuse, resets and limits of the pool
+ *
+ * pg_backend_pid() tells which physical connection a borrow got.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class ConnectionPoolTest {
+    
+    private static EmbeddedPostgres server;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+        server = EmbeddedPostgres.start();
+        try (Connection conn = server.getPostgresDatabase().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE pool_items (id INTEGER)");
+        }
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    private static ConnectionPool pool(int maxSize) {
+        Properties props = new Properties();
+        props.setProperty("user", "postgres");
+        props.setProperty("password", "postgres");
+        return new ConnectionPool("jdbc:postgresql://localhost:" + server.getPort() + "/postgres", props, 0, maxSize);
+    }
+    
+    private static int backendPid(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()")) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+    
+    @Test
+    void closedConnectionsAreReused() throws Exception {
+        try (ConnectionPool pool = pool(4)) {
+            int pid;
+            try (Connection conn = pool.borrow()) {
+                pid = backendPid(conn);
+            }
+            for (int i = 0; i < 10; i++) {
+                try (Connection conn = pool.borrow()) {
+                    assertEquals(pid, backendPid(conn));
+                }
+            }
+            assertEquals(1, pool.getCreatedCount());
+            assertEquals(11, pool.getBorrowCount());
+            assertEquals(0, pool.getActiveCount());
+            assertEquals(1, pool.getIdleCount());
+        }
+    }
+    
+    @Test
+    void returnedHandlesCannotBeUsed() throws Exception {
+        AtomicInteger returns = new AtomicInteger();
+        try (ConnectionPool pool = pool(4)) {
+            Connection conn = pool.borrow(returns::incrementAndGet);
+            assertFalse(conn.isClosed());
+            conn.close();
+            conn.close();
+            assertEquals(1, returns.get());
+            assertTrue(conn.isClosed());
+            assertThrows(SQLException.class, conn::createStatement);
+            assertThrows(SQLException.class, () -> pool.prepare(conn, "SELECT 1"));
+            try (Connection plain = server.getPostgresDatabase().getConnection()) {
+                assertThrows(SQLException.class, () -> pool.prepare(plain, "SELECT 1"));
+            }
+        }
+    }
+    
+    @Test
+    void uncommittedWorkIsRolledBackOnReturn() throws Exception {
+        try (ConnectionPool pool = pool(1)) {
+            try (Connection conn = pool.borrow();
+                 Statement stmt = conn.createStatement()) {
+                conn.setAutoCommit(false);
+                stmt.execute("INSERT INTO pool_items VALUES (1)");
+            }
+            try (Connection conn = pool.borrow();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT count(*) FROM pool_items")) {
+                assertTrue(conn.getAutoCommit());
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+            }
+            assertEquals(1, pool.getCreatedCount());
+        }
+    }
+    
+    @Test
+    void borrowersWaitForAFreeConnectionUpToMaxWait() throws Exception {
+        try (ConnectionPool pool = pool(1).maxWait(200)) {
+            Connection held = pool.borrow();
+            assertThrows(SQLTimeoutException.class, pool::borrow);
+            assertEquals(1, pool.getTimeoutCount());
+            
+            pool.maxWait(TimeUnit.SECONDS.toMillis(30));
+            CompletableFuture<Integer> waiter = CompletableFuture.supplyAsync(() -> {
+                try (Connection conn = pool.borrow()) {
+                    return backendPid(conn);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            while (pool.getWaiterCount() == 0) {
+                Thread.sleep(10);
+            }
+            int pid = backendPid(held);
+            held.close();
+            assertEquals(pid, waiter.get(1, TimeUnit.MINUTES));
+            assertEquals(1, pool.getCreatedCount());
+        }
+    }
+    
+    @Test
+    void brokenConnectionsAreReplaced() throws Exception {
+        try (ConnectionPool pool = pool(1)) {
+            int pid;
+            try (Connection conn = pool.borrow()) {
+                pid = backendPid(conn);
+                try (Connection admin = server.getPostgresDatabase().getConnection();
+                     Statement stmt = admin.createStatement()) {
+                    stmt.execute("SELECT pg_terminate_backend(" + pid + ")");
+                }
+                SQLException e = assertThrows(SQLException.class, () -> backendPid(conn));
+                assertTrue(e.getSQLState().startsWith("08") || e.getSQLState().startsWith("57"),
+                    e.getSQLState());
+            }
+            try (Connection conn = pool.borrow()) {
+                assertNotEquals(pid, backendPid(conn));
+            }
+            assertEquals(2, pool.getCreatedCount());
+        }
+    }
+    
+    @Test
+    void closedPoolRefusesBorrows() throws Exception {
+        ConnectionPool pool = pool(1);
+        Connection conn = pool.borrow();
+        pool.close();
+        assertThrows(SQLException.class, pool::borrow);
+        // Connections still out keep working until they are returned
+        backendPid(conn);
+        conn.close();
+        assertEquals(0, pool.getIdleCount());
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * CredentialVerifierTest - Cached logins, negative caching, lockouts and digests
+ *
+ * The stored passwords live in a map instead of userscredentials, so every
+ * database lookup the verifier makes is visible in getLookups().
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class CredentialVerifierTest {
+    
+    private final Map<String, String> stored = new ConcurrentHashMap<>();
+    
+    @BeforeAll
+    static void quiet() {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+    }
+    
+    private CredentialVerifier verifier() {
+        return new CredentialVerifier(stored::get).cacheIterations(1_000);
+    }
+    
+    @Test
+    void repeatedLoginsAreAnsweredFromTheCache() throws Exception {
+        stored.put("ann", "secret");
+        try (CredentialVerifier verifier = verifier()) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(CredentialVerifier.Result.ACCEPTED, verifier.verify("ann", "secret"));
+            }
+            assertEquals(1, verifier.getLookups());
+            assertEquals(2, verifier.getCacheHits());
+        }
+    }
+    
+    @Test
+    void changedPasswordsAreCheckedAgainstTheDatabase() throws Exception {
+        stored.put("ann", "secret");
+        try (CredentialVerifier verifier = verifier()) {
+            assertEquals(CredentialVerifier.Result.ACCEPTED, verifier.verify("ann", "secret"));
+            stored.put("ann", "changed");
+            // A cache miss on the password falls through to the database
+            assertEquals(CredentialVerifier.Result.ACCEPTED, verifier.verify("ann", "changed"));
+            verifier.invalidate("ann");
+            assertEquals(CredentialVerifier.Result.REJECTED, verifier.verify("ann", "secret"));
+            assertEquals(3, verifier.getLookups());
+        }
+    }
+    
+    @Test
+    void unknownUsersAreCachedNegatively() throws Exception {
+        try (CredentialVerifier verifier = verifier()) {
+            assertEquals(CredentialVerifier.Result.UNKNOWN_USER, verifier.verify("nobody", "x"));
+            assertEquals(CredentialVerifier.Result.UNKNOWN_USER, verifier.verify("nobody", "x"));
+            assertEquals(1, verifier.getLookups());
+            assertEquals(1, verifier.getNegativeHits());
+        }
+    }
+    
+    @Test
+    void repeatedFailuresLockTheUserOut() throws Exception {
+        stored.put("bob", "secret");
+        try (CredentialVerifier verifier = verifier().failureLimit(2, 60_000)) {
+            assertEquals(CredentialVerifier.Result.REJECTED, verifier.verify("bob", "wrong"));
+            assertEquals(CredentialVerifier.Result.REJECTED, verifier.verify("bob", "wrong"));
+            assertEquals(CredentialVerifier.Result.LOCKED_OUT, verifier.verify("bob", "secret"));
+            assertEquals(2, verifier.getLookups());
+            assertEquals(1, verifier.getLockouts());
+        }
+        try (CredentialVerifier verifier = verifier().failureLimit(2, 0)) {
+            verifier.verify("bob", "wrong");
+            verifier.verify("bob", "wrong");
+            // Without a quiet period the failures are forgotten right away
+            assertEquals(CredentialVerifier.Result.ACCEPTED, verifier.verify("bob", "secret"));
+        }
+    }
+    
+    @Test
+    void hashedPasswordsMatchOnlyTheirPassword() {
+        String digest = CredentialVerifier.hash("secret");
+        assertTrue(digest.startsWith("pbkdf2_sha256$"));
+        assertTrue(CredentialVerifier.matches("secret", digest));
+        assertFalse(CredentialVerifier.matches("Secret", digest));
+        assertTrue(CredentialVerifier.matches("plain", "plain"));
+        assertFalse(CredentialVerifier.matches("plain", "plain "));
+    }
+    
+    @Test
+    void malformedDigestsMatchNothing() throws Exception {
+        String[] parts = CredentialVerifier.hash("secret").split("\\$");
+        String[] malformed = {
+            "pbkdf2_sha256$x$" + parts[2] + "$" + parts[3],      // iterations not a number
+            "pbkdf2_sha256$0$" + parts[2] + "$" + parts[3],      // no iterations
+            "pbkdf2_sha256$1000$$" + parts[3],                   // empty salt
+            "pbkdf2_sha256$1000$" + parts[2] + "$not*base64",    // bad hash encoding
+            "pbkdf2_sha256$1000$!!$" + parts[3],                 // bad salt encoding
+            "pbkdf2_sha256$1000$" + parts[2]                     // missing hash
+        };
+        try (CredentialVerifier verifier = verifier().failureLimit(malformed.length + 1, 60_000)) {
+            for (String digest : malformed) {
+                assertFalse(CredentialVerifier.matches("secret", digest), digest);
+                stored.put("carol", digest);
+                assertEquals(CredentialVerifier.Result.REJECTED, verifier.verify("carol", "secret"), digest);
+            }
+        }
+    }
+}
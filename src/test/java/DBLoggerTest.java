@@ -0,0 +1,173 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * DBLoggerTest - Levels, message formatting and the background writer
+ *
+ * Messages are written to a log file in a temporary directory and read
+ * back after flush(). Level, overflow policy and log file are global, so
+ * every test puts them back afterwards.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class DBLoggerTest {
+    
+    private static final DBLogger LOGGER = DBLogger.getLogger(DBLoggerTest.class);
+    
+    @TempDir
+    Path dir;
+    
+    @AfterEach
+    void restore() throws Exception {
+        DBLogger.setLogFile(null);
+        DBLogger.setOverflowPolicy(DBLogger.OverflowPolicy.DROP);
+        DBLogger.setLevel(DBLogger.Level.OFF);
+    }
+    
+    private List<String> logTo(String name, Runnable logging) throws Exception {
+        Path file = dir.resolve(name);
+        DBLogger.setLogFile(file);
+        logging.run();
+        DBLogger.flush();
+        DBLogger.setLogFile(null);
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+    
+    @Test
+    void levelsBelowTheThresholdAreSkipped() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.WARNING);
+        assertFalse(LOGGER.isLoggable(DBLogger.Level.INFO));
+        assertTrue(LOGGER.isLoggable(DBLogger.Level.WARNING));
+        assertTrue(LOGGER.isLoggable(DBLogger.Level.SEVERE));
+        assertFalse(LOGGER.isLoggable(DBLogger.Level.OFF));
+        assertEquals(DBLogger.Level.WARNING, DBLogger.getLevel());
+        
+        List<String> lines = logTo("levels.log", () -> {
+            LOGGER.fine("fine {}", 1);
+            LOGGER.info("info {}", 2);
+            LOGGER.warning("warning {}", 3);
+            LOGGER.severe("severe {}", 4);
+        });
+        assertEquals(2, lines.size(), lines.toString());
+        assertTrue(lines.get(0).contains(" WARNING [") && lines.get(0).endsWith("DBLoggerTest - warning 3"), lines.get(0));
+        assertTrue(lines.get(1).contains(" SEVERE  [") && lines.get(1).endsWith("DBLoggerTest - severe 4"), lines.get(1));
+        
+        DBLogger.setLevel(DBLogger.Level.OFF);
+        assertFalse(LOGGER.isLoggable(DBLogger.Level.SEVERE));
+        assertEquals(List.of(), logTo("off.log", () -> LOGGER.severe("never written")));
+    }
+    
+    @Test
+    void placeholdersAreReplacedInOrder() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.FINE);
+        IllegalStateException failure = new IllegalStateException("broken");
+        List<String> lines = logTo("format.log", () -> {
+            LOGGER.fine("no arguments {}");
+            LOGGER.info("{} and {}", "a", null);
+            LOGGER.info("{}, {}, {}", 1, 2, 3);
+            LOGGER.info("{} and {}", "only one");
+            LOGGER.warning("failed: {}", "query", failure);
+        });
+        assertTrue(lines.get(0).endsWith(" - no arguments {}"), lines.get(0));
+        assertTrue(lines.get(1).endsWith(" - a and null"), lines.get(1));
+        assertTrue(lines.get(2).endsWith(" - 1, 2, 3"), lines.get(2));
+        assertTrue(lines.get(3).endsWith(" - only one and {}"), lines.get(3));
+        assertTrue(lines.get(4).endsWith(" - failed: query"), lines.get(4));
+        // The left-over Throwable is printed with its stack trace
+        assertEquals("java.lang.IllegalStateException: broken", lines.get(5));
+        assertTrue(lines.get(6).trim().startsWith("at DBLoggerTest."), lines.get(6));
+        assertTrue(lines.get(0).contains("[" + Thread.currentThread().getName() + "]"), lines.get(0));
+    }
+    
+    @Test
+    void argumentsThatFailToFormatDoNotStopTheWriter() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.INFO);
+        Object broken = new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("no text");
+            }
+        };
+        List<String> lines = logTo("broken.log", () -> {
+            LOGGER.info("value {}", broken);
+            LOGGER.info("after");
+        });
+        assertEquals(2, lines.size(), lines.toString());
+        assertTrue(lines.get(0).startsWith("(could not format log message \"value {}\""), lines.get(0));
+        assertTrue(lines.get(1).endsWith(" - after"), lines.get(1));
+    }
+    
+    @Test
+    void blockingPolicyKeepsEveryMessageInOrder() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.INFO);
+        DBLogger.setOverflowPolicy(DBLogger.OverflowPolicy.BLOCK);
+        int threads = 4;
+        int messages = 5000; // together more than the ring buffer holds
+        long dropped = DBLogger.getDroppedCount();
+        List<String> lines = logTo("block.log", () -> {
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    for (int i = 0; i < messages; i++) {
+                        LOGGER.info("message {}", i);
+                    }
+                }, "log-worker-" + t);
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        lines.removeIf(line -> !line.contains("[log-worker-"));
+        assertEquals(threads * messages, lines.size());
+        assertEquals(dropped, DBLogger.getDroppedCount());
+        for (int t = 0; t < threads; t++) {
+            String thread = "[log-worker-" + t + "]";
+            int next = 0;
+            for (String line : lines) {
+                if (line.contains(thread)) {
+                    assertTrue(line.endsWith(" - message " + next), line);
+                    next++;
+                }
+            }
+            assertEquals(messages, next);
+        }
+    }
+    
+    @Test
+    void messagesBeforeAFileSwitchStayInTheOldFile() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.INFO);
+        Path first = dir.resolve("first.log");
+        Path second = dir.resolve("second.log");
+        DBLogger.setLogFile(first);
+        LOGGER.info("one");
+        DBLogger.setLogFile(second);
+        LOGGER.info("two");
+        DBLogger.flush();
+        DBLogger.setLogFile(null);
+        
+        List<String> firstLines = Files.readAllLines(first, StandardCharsets.UTF_8);
+        List<String> secondLines = Files.readAllLines(second, StandardCharsets.UTF_8);
+        assertEquals(1, firstLines.size(), firstLines.toString());
+        assertTrue(firstLines.get(0).endsWith(" - one"));
+        assertEquals(1, secondLines.size(), secondLines.toString());
+        assertTrue(secondLines.get(0).endsWith(" - two"));
+    }
+}
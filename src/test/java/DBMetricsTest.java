@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.Attribute;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * DBMetricsTest - Operation counters, gauges, snapshots and the JMX view
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class DBMetricsTest {
+    
+    @BeforeAll
+    static void quiet() {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+    }
+    
+    @Test
+    void operationsAreCountedSeparately() {
+        DBMetrics metrics = new DBMetrics();
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2);
+        metrics.record(DBMetrics.Operation.RUN_QUERY, start, 10, true);
+        metrics.record(DBMetrics.Operation.RUN_QUERY, start, 0, false);
+        metrics.addRows(DBMetrics.Operation.RUN_QUERY, 5);
+        metrics.addBytes(DBMetrics.Operation.COPY_OUT, 4096);
+        
+        DBMetrics.Snapshot snapshot = metrics.snapshot();
+        DBMetrics.OperationSnapshot query = snapshot.get(DBMetrics.Operation.RUN_QUERY);
+        assertEquals(2, query.count);
+        assertEquals(1, query.errors);
+        assertEquals(15, query.rows);
+        assertTrue(query.p50Micros >= 2000 && query.p50Micros <= query.maxMicros, String.valueOf(query.p50Micros));
+        assertEquals(4096, snapshot.get(DBMetrics.Operation.COPY_OUT).bytes);
+        assertEquals(0, snapshot.get(DBMetrics.Operation.COPY_OUT).count);
+        assertEquals(0, snapshot.get(DBMetrics.Operation.RUN_UPDATE).count);
+        
+        // Only operations that ran are listed
+        String text = snapshot.toString();
+        assertTrue(text.contains("runQuery"), text);
+        assertFalse(text.contains("runUpdate"), text);
+    }
+    
+    @Test
+    void gaugesAreReadWhenTheSnapshotIsTaken() {
+        DBMetrics metrics = new DBMetrics();
+        AtomicReference<Object> value = new AtomicReference<>(1);
+        metrics.registerGauge("pool.active", value::get);
+        metrics.registerGauge("broken", () -> {
+            throw new IllegalStateException("unavailable");
+        });
+        assertEquals(1, metrics.snapshot().getGauges().get("pool.active"));
+        value.set(7);
+        DBMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(7, snapshot.getGauges().get("pool.active"));
+        assertTrue(snapshot.getGauges().containsKey("broken"));
+        assertNull(snapshot.getGauges().get("broken"));
+    }
+    
+    @Test
+    void snapshotsArePushedPeriodically() throws Exception {
+        DBMetrics metrics = new DBMetrics();
+        CountDownLatch reports = new CountDownLatch(3);
+        AtomicReference<DBMetrics.Snapshot> last = new AtomicReference<>();
+        metrics.record(DBMetrics.Operation.CONNECT, System.nanoTime(), 0, true);
+        ScheduledFuture<?> schedule = metrics.scheduleSnapshots(10, TimeUnit.MILLISECONDS, snapshot -> {
+            last.set(snapshot);
+            reports.countDown();
+        });
+        try {
+            assertTrue(reports.await(10, TimeUnit.SECONDS));
+            assertEquals(1, last.get().get(DBMetrics.Operation.CONNECT).count);
+        } finally {
+            schedule.cancel(false);
+            metrics.close();
+        }
+    }
+    
+    @Test
+    void mbeanExposesOperationsAndGauges() throws Exception {
+        DBMetrics metrics = new DBMetrics();
+        metrics.registerGauge("pool.idle", () -> 3);
+        metrics.record(DBMetrics.Operation.RUN_UPDATE, System.nanoTime(), 4, true);
+        metrics.registerMBean("DBMetricsTest");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("MyDBMagic:type=Metrics,name=" + ObjectName.quote("DBMetricsTest"));
+        try {
+            assertTrue(server.isRegistered(name));
+            assertEquals(1L, server.getAttribute(name, "runUpdate.count"));
+            assertEquals(4L, server.getAttribute(name, "runUpdate.rows"));
+            assertEquals(3, server.getAttribute(name, "pool.idle"));
+            assertThrows(AttributeNotFoundException.class, () -> metrics.getAttribute("runUpdate.nothing"));
+            assertThrows(AttributeNotFoundException.class,
+                () -> metrics.setAttribute(new Attribute("runUpdate.count", 0L)));
+            assertEquals(2, metrics.getAttributes(new String[]{"runUpdate.count", "nothing", "pool.idle"}).size());
+            
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "runUpdate.count"));
+        } finally {
+            metrics.close();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
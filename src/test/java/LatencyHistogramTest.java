@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * LatencyHistogramTest - Bucketing, percentiles and concurrent recording
+ *
+ * Values below 32 have a bucket each; above that the buckets only promise
+ * a relative error of 1/32.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class LatencyHistogramTest {
+    
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 0; v < 32; v++) {
+            histogram.record(v);
+        }
+        assertEquals(32, histogram.getCount());
+        assertEquals(31, histogram.getMax());
+        assertEquals(15.5, histogram.getMean(), 1e-9);
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(31, histogram.getPercentile(100));
+    }
+    
+    @Test
+    void percentilesStayWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 100_000; v++) {
+            histogram.record(v * 1000);
+        }
+        for (double percentile : new double[]{10, 50, 90, 99, 99.9}) {
+            double expected = percentile * 1000 * 1000;
+            long reported = histogram.getPercentile(percentile);
+            // The upper bound of the bucket, never below the true value
+            assertTrue(reported >= expected && reported <= expected * (1 + 1.0 / 32),
+                percentile + ": " + reported);
+        }
+        assertEquals(100_000_000, histogram.getPercentile(100));
+        assertEquals(50_000_500.0, histogram.getMean(), 1e-6);
+    }
+    
+    @Test
+    void edgeValuesAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0.0, histogram.getMean());
+        
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+    
+    @Test
+    void concurrentRecordsAreAllCounted() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 8;
+        int perThread = 100_000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long value = 1000L * (t + 1);
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(value);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals((long) threads * perThread, histogram.getCount());
+        assertEquals(1000L * threads, histogram.getMax());
+        assertEquals(1000.0 * (threads + 1) / 2, histogram.getMean(), 1e-6);
+    }
+}
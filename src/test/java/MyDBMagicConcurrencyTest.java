@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * MyDBMagicConcurrencyTest - Shares one MyDBMagic between many threads
+ *
+ * Every thread owns a table with its own column names and row values and
+ * works on it at the same time as the others, so any state leaking between
+ * calls (shared metadata buffers, cached fields, result sets) shows up as a
+ * thread seeing another thread's columns or rows.
+ *
+ * The run is repeated with 1, 2, 4, 8 and 16 threads, and the throughput
+ * of each run is printed so scaling regressions are visible in the test
+ * output. MyDBMagicConcurrencyBenchmark (src/jmh/java) measures the same
+ * sweep properly.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class MyDBMagicConcurrencyTest {
+    
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+    private static final int ROUNDS = 50;
+    private static final int ROWS = 20;
+    
+    private static EmbeddedPostgres server;
+    private static MyDBMagic db;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.WARNING);
+        server = EmbeddedPostgres.start();
+        db = new MyDBMagic(String.valueOf(server.getPort()), "postgres", "postgres", "postgres")
+            .poolSize(1, 8)
+            .printProgress(false);
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (db != null) {
+            db.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    @Test
+    void threadsSeeOnlyTheirOwnTables() throws Exception {
+        for (int threads : THREAD_COUNTS) {
+            long nanos = run(threads);
+            // Each round reads the fields, one row and the whole table
+            long operations = (long) threads * ROUNDS * 3;
+            System.out.printf("%s: %2d threads, %,8.0f ops/s%n", MyDBMagicConcurrencyTest.class.getSimpleName(),
+                threads, operations * 1e9 / nanos);
+        }
+    }
+    
+    /**
+     * Runs exercise on the given number of threads at once and returns the
+     * time from the start signal until the last thread finished
+     */
+    private static long run(int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicLong started = new AtomicLong();
+        CyclicBarrier ready = new CyclicBarrier(threads, () -> started.set(System.nanoTime()));
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> exercise(thread, ready)));
+            }
+            long finished = 0;
+            for (Future<Long> future : futures) {
+                // Rethrows the first assertion failure of any thread
+                finished = Math.max(finished, future.get(2, TimeUnit.MINUTES));
+            }
+            return finished - started.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Works on the thread's own table and returns when it finished the
+     * measured rounds, before dropping the table
+     */
+    private static long exercise(int thread, CyclicBarrier ready) throws Exception {
+        String table = "stress_" + thread;
+        String[] columns = {"id", "a_" + thread, "b_" + thread};
+        db.runUpdate("DROP TABLE IF EXISTS " + table, new Object[0]);
+        db.runUpdate("CREATE TABLE " + table + " (id INTEGER PRIMARY KEY, a_" + thread
+            + " VARCHAR(40), b_" + thread + " INTEGER)", new Object[0]);
+        List<Object[]> rows = new ArrayList<>();
+        for (int r = 1; r <= ROWS; r++) {
+            rows.add(new Object[]{r, "t" + thread + "-r" + r, thread * 1000 + r});
+        }
+        assertEquals(ROWS, db.insertBatch(table, rows.iterator()));
+        
+        ready.await(1, TimeUnit.MINUTES);
+        for (int round = 0; round < ROUNDS; round++) {
+            Field[] fields = db.getTableFields(table);
+            assertArrayEquals(columns, Arrays.stream(fields).map(Field::getName).toArray(String[]::new),
+                "fields of " + table);
+            
+            int id = round % ROWS + 1;
+            try (ResultSet rs = db.runQuery("SELECT * FROM " + table + " WHERE id = ?", id)) {
+                assertTrue(rs.next(), table + " row " + id);
+                assertEquals("t" + thread + "-r" + id, rs.getString(columns[1]));
+                assertEquals(thread * 1000 + id, rs.getInt(columns[2]));
+            }
+            
+            int count = 0;
+            long sum = 0;
+            try (ResultSet rs = db.runQuery("SELECT b_" + thread + " FROM " + table)) {
+                while (rs.next()) {
+                    count++;
+                    sum += rs.getInt(1);
+                }
+            }
+            assertEquals(ROWS, count, "rows of " + table);
+            assertEquals((long) ROWS * thread * 1000 + ROWS * (ROWS + 1) / 2, sum, "sum of " + table);
+        }
+        long finished = System.nanoTime();
+        db.runUpdate("DROP TABLE " + table, new Object[0]);
+        return finished;
+    }
+}
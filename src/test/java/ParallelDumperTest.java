@@ -0,0 +1,127 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * ParallelDumperTest - Dumps of one server restored into another
+ *
+ * The source holds a serial-keyed table that is split into chunks and a
+ * table with a composite key, a foreign key and an index, which is dumped
+ * whole. Rows are compared by a checksum over their text form.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class ParallelDumperTest {
+    
+    private static final int AUTHORS = 1000;
+    private static final int BOOKS_PER_AUTHOR = 2;
+    
+    private static EmbeddedPostgres sourceServer;
+    private static EmbeddedPostgres targetServer;
+    private static MyDBMagic source;
+    private static MyDBMagic target;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+        sourceServer = EmbeddedPostgres.start();
+        targetServer = EmbeddedPostgres.start();
+        source = connect(sourceServer);
+        target = connect(targetServer);
+        
+        source.runUpdate("CREATE TABLE dump_authors (id SERIAL PRIMARY KEY, name VARCHAR(40) NOT NULL, "
+            + "rating NUMERIC(4,2) CHECK (rating BETWEEN 0 AND 10))", new Object[0]);
+        source.runUpdate("CREATE TABLE dump_books (author_id INTEGER REFERENCES dump_authors (id), "
+            + "seq INTEGER, title TEXT, PRIMARY KEY (author_id, seq))", new Object[0]);
+        source.runUpdate("CREATE INDEX dump_books_title ON dump_books (title)", new Object[0]);
+        source.runUpdate("CREATE TABLE dump_empty (id BIGSERIAL PRIMARY KEY)", new Object[0]);
+        source.runUpdate("INSERT INTO dump_authors (name, rating) "
+            + "SELECT 'author ' || i, CASE WHEN i % 7 = 0 THEN NULL ELSE (i % 1000) / 100.0 END "
+            + "FROM generate_series(1, ?) i", AUTHORS);
+        source.runUpdate("INSERT INTO dump_books SELECT a, s, 'title ' || a || '/' || s "
+            + "FROM generate_series(1, ?) a, generate_series(1, ?) s", AUTHORS, BOOKS_PER_AUTHOR);
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        for (AutoCloseable closeable : new AutoCloseable[]{source, target, sourceServer, targetServer}) {
+            if (closeable != null) {
+                closeable.close();
+            }
+        }
+    }
+    
+    private static MyDBMagic connect(EmbeddedPostgres server) {
+        return new MyDBMagic(String.valueOf(server.getPort()), "postgres", "postgres", "postgres")
+            .printProgress(false);
+    }
+    
+    private static String checksum(MyDBMagic db, String table, String order) throws SQLException {
+        List<String> sums = new ArrayList<>(1);
+        db.forEachRow("SELECT count(*) || ':' || md5(coalesce(string_agg(t::text, ',' ORDER BY " + order
+            + "), '')) FROM " + table + " t", null, rs -> sums.add(rs.getString(1)));
+        return sums.get(0);
+    }
+    
+    @Test
+    void dumpAndRestoreRoundTrip(@TempDir Path dir) throws Exception {
+        long rows = new ParallelDumper(source).threads(4).rowsPerChunk(100).dump(dir);
+        long total = AUTHORS * (1 + BOOKS_PER_AUTHOR);
+        assertEquals(total, rows);
+        
+        // The serial key is split into ranges, the composite key is not
+        List<String> chunks = ParallelDumper.listChunks(dir);
+        assertTrue(chunks.stream().filter(f -> f.startsWith("dump_authors.")).count() >= AUTHORS / 100, chunks.toString());
+        assertEquals(1, chunks.stream().filter(f -> f.startsWith("dump_books.")).count(), chunks.toString());
+        List<String> manifest = Files.readAllLines(dir.resolve("manifest.tsv"), StandardCharsets.UTF_8);
+        assertEquals(chunks.size(), manifest.size());
+        assertEquals(total, manifest.stream().mapToLong(line -> Long.parseLong(line.split("\t")[2])).sum());
+        
+        assertEquals(total, new ParallelDumper(target).threads(4).restore(dir, true));
+        assertEquals(checksum(source, "dump_authors", "id"), checksum(target, "dump_authors", "id"));
+        assertEquals(checksum(source, "dump_books", "author_id, seq"), checksum(target, "dump_books", "author_id, seq"));
+        assertTrue(checksum(target, "dump_empty", "id").startsWith("0:"));
+        
+        // Sequences continue after the loaded keys; the empty table's starts at 1
+        List<Long> ids = new ArrayList<>();
+        target.forEachRow("INSERT INTO dump_authors (name) VALUES ('new') RETURNING id", null,
+            rs -> ids.add(rs.getLong(1)));
+        target.forEachRow("INSERT INTO dump_empty DEFAULT VALUES RETURNING id", null, rs -> ids.add(rs.getLong(1)));
+        assertEquals(List.of((long) AUTHORS + 1, 1L), ids);
+        
+        // Constraints and indexes came along
+        SQLException e = assertThrows(SQLException.class,
+            () -> target.runUpdate("INSERT INTO dump_books VALUES (?, 1, 'orphan')", AUTHORS + 2));
+        assertEquals("23503", e.getSQLState());
+        e = assertThrows(SQLException.class,
+            () -> target.runUpdate("INSERT INTO dump_books VALUES (1, 1, 'again')", new Object[0]));
+        assertEquals("23505", e.getSQLState());
+        e = assertThrows(SQLException.class,
+            () -> target.runUpdate("INSERT INTO dump_authors (name, rating) VALUES ('x', 11)", new Object[0]));
+        assertEquals("23514", e.getSQLState());
+        List<String> indexes = new ArrayList<>();
+        target.forEachRow("SELECT indexname FROM pg_indexes WHERE tablename = 'dump_books' ORDER BY indexname",
+            null, rs -> indexes.add(rs.getString(1)));
+        assertEquals(List.of("dump_books_pkey", "dump_books_title"), indexes);
+    }
+    
+    @Test
+    void invalidSettingsAreRejected() {
+        ParallelDumper dumper = new ParallelDumper(source);
+        assertThrows(IllegalArgumentException.class, () -> dumper.threads(0));
+        assertThrows(IllegalArgumentException.class, () -> dumper.rowsPerChunk(0));
+    }
+}
@@ -0,0 +1,269 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.postgresql.util.PGobject;
+
+/**
+ * QueryResultCacheTest - Cached results behave like the live ResultSet
+ *
+ * Every getter is called on a live driver result, on the result of a cache
+ * miss and on a cache hit for the same row, and whatever the driver returns
+ * the cached results must return too. Getters the driver rejects for a
+ * column type are skipped.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class QueryResultCacheTest {
+    
+    // One column per type; the second row is all NULLs
+    private static final String QUERY = "SELECT * FROM (VALUES "
+        + "(1::int2, 2::int4, 3000000000::int8, 12345678901234567890.5::numeric, 0.00000001::numeric, "
+        + "1.5::float4, 2.25::float8, true, 'text'::text, 'vc'::varchar(10), DATE '2024-02-29', "
+        + "TIME '12:34:56.123456', TIMETZ '12:34:56+02', TIMESTAMP '2024-02-29 12:34:56', "
+        + "TIMESTAMP '2024-02-29 12:34:56.789012', TIMESTAMPTZ '2024-02-29 12:34:56.5+05', "
+        + "INTERVAL '1 day 2 hours', 'a0eebc99-9c0b-4ef8-bb6d-6bb9bd380a11'::uuid, '{\"a\": 1}'::json, "
+        + "'{\"b\": [1, 2]}'::jsonb, '\\xdeadbeef'::bytea, 'x'::char(3)), "
+        + "(NULL::int2, NULL::int4, NULL::int8, NULL::numeric, NULL::numeric, NULL::float4, NULL::float8, "
+        + "NULL::bool, NULL::text, NULL::varchar(10), NULL::date, NULL::time, NULL::timetz, "
+        + "NULL::timestamp, NULL::timestamp, NULL::timestamptz, NULL::interval, NULL::uuid, NULL::json, "
+        + "NULL::jsonb, NULL::bytea, NULL::char(3))) AS t(c_int2, c_int4, c_int8, c_numeric, c_small, "
+        + "c_float4, c_float8, c_bool, c_text, c_varchar, c_date, c_time, c_timetz, c_timestamp, "
+        + "c_timestamp_us, c_timestamptz, c_interval, c_uuid, c_json, c_jsonb, c_bytea, c_char) WHERE ? = ?";
+    
+    private static final Class<?>[] OBJECT_TYPES = {
+        String.class, Integer.class, Long.class, Short.class, Double.class, Float.class, BigDecimal.class,
+        Boolean.class, java.sql.Date.class, java.sql.Time.class, Timestamp.class, LocalDate.class,
+        LocalTime.class, LocalDateTime.class, OffsetDateTime.class, UUID.class, byte[].class, PGobject.class
+    };
+    
+    private static EmbeddedPostgres server;
+    private static Connection conn;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.WARNING);
+        server = EmbeddedPostgres.start();
+        conn = server.getPostgresDatabase().getConnection();
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (conn != null) {
+            conn.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    /**
+     * Named getter call on the current row of a ResultSet
+     */
+    @FunctionalInterface
+    private interface Getter {
+        Object get(ResultSet rs, int column) throws SQLException;
+    }
+    
+    private static Map<String, Getter> getters() {
+        Calendar tokyo = Calendar.getInstance(TimeZone.getTimeZone("Asia/Tokyo"));
+        Map<String, Getter> getters = new LinkedHashMap<>();
+        getters.put("getString", ResultSet::getString);
+        getters.put("getObject", ResultSet::getObject);
+        getters.put("getBoolean", ResultSet::getBoolean);
+        getters.put("getShort", ResultSet::getShort);
+        getters.put("getInt", ResultSet::getInt);
+        getters.put("getLong", ResultSet::getLong);
+        getters.put("getFloat", ResultSet::getFloat);
+        getters.put("getDouble", ResultSet::getDouble);
+        getters.put("getBigDecimal", ResultSet::getBigDecimal);
+        getters.put("getBytes", ResultSet::getBytes);
+        getters.put("getDate", ResultSet::getDate);
+        getters.put("getTime", ResultSet::getTime);
+        getters.put("getTimestamp", ResultSet::getTimestamp);
+        getters.put("getDate(Calendar)", (rs, c) -> rs.getDate(c, tokyo));
+        getters.put("getTime(Calendar)", (rs, c) -> rs.getTime(c, tokyo));
+        getters.put("getTimestamp(Calendar)", (rs, c) -> rs.getTimestamp(c, tokyo));
+        for (Class<?> type : OBJECT_TYPES) {
+            getters.put("getObject(" + type.getSimpleName() + ")", (rs, c) -> rs.getObject(c, type));
+        }
+        return getters;
+    }
+    
+    @Test
+    void cachedRowsMatchTheDriver() throws Exception {
+        QueryResultCache cache = new QueryResultCache();
+        try {
+            List<String> mismatches = new ArrayList<>();
+            try (ResultSet live = load();
+                 ResultSet miss = cache.query(QUERY, new Object[]{1, 1}, QueryResultCacheTest::load);
+                 ResultSet hit = cache.query(QUERY, new Object[]{1, 1}, QueryResultCacheTest::load)) {
+                assertEquals(1, cache.getHits());
+                int columns = live.getMetaData().getColumnCount();
+                while (live.next()) {
+                    assertTrue(miss.next());
+                    assertTrue(hit.next());
+                    for (int c = 1; c <= columns; c++) {
+                        String label = live.getMetaData().getColumnLabel(c) + " row " + live.getRow();
+                        for (Map.Entry<String, Getter> getter : getters().entrySet()) {
+                            compare(label + " " + getter.getKey(), getter.getValue(), c, live, miss, hit,
+                                mismatches);
+                        }
+                    }
+                }
+                assertFalse(miss.next());
+                assertFalse(hit.next());
+            }
+            assertEquals(List.of(), mismatches);
+        } finally {
+            cache.close();
+        }
+    }
+    
+    @Test
+    void cachedValuesCannotBeChangedThroughACursor() throws Exception {
+        QueryResultCache cache = new QueryResultCache();
+        try {
+            String sql = "SELECT TIMESTAMP '2024-02-29 12:34:56' AS ts, '{\"a\": 1}'::json AS doc, "
+                + "'\\xdeadbeef'::bytea AS raw WHERE ? = ?";
+            Object[] params = {1, 1};
+            Timestamp first;
+            try (ResultSet rs = cache.query(sql, params, () -> load(sql))) {
+                assertTrue(rs.next());
+                first = rs.getTimestamp(1);
+                first.setTime(0);
+                ((PGobject) rs.getObject(2)).setValue("{}");
+                rs.getBytes(3)[0] = 0;
+            }
+            try (ResultSet rs = cache.query(sql, params, () -> load(sql))) {
+                assertTrue(rs.next());
+                assertEquals(Timestamp.valueOf("2024-02-29 12:34:56"), rs.getTimestamp(1));
+                assertNotSame(first, rs.getTimestamp(1));
+                assertEquals("{\"a\": 1}", ((PGobject) rs.getObject(2)).getValue());
+                assertArrayEquals(new byte[]{(byte) 0xde, (byte) 0xad, (byte) 0xbe, (byte) 0xef}, rs.getBytes(3));
+            }
+            assertEquals(1, cache.getHits());
+        } finally {
+            cache.close();
+        }
+    }
+    
+    @Test
+    void writesInvalidateTheTablesTheyTouch() throws Exception {
+        QueryResultCache cache = new QueryResultCache();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE cached_items (id INTEGER, name TEXT)");
+            stmt.execute("INSERT INTO cached_items VALUES (1, 'one')");
+            String sql = "SELECT name FROM cached_items WHERE id = ?";
+            assertEquals("one", single(cache, sql));
+            stmt.execute("UPDATE cached_items SET name = 'uno'");
+            assertEquals("one", single(cache, sql));
+            cache.invalidateForStatement("UPDATE cached_items SET name = 'uno'");
+            assertEquals("uno", single(cache, sql));
+            assertEquals(1, cache.getHits());
+            stmt.execute("DROP TABLE cached_items");
+        } finally {
+            cache.close();
+        }
+    }
+    
+    private static String single(QueryResultCache cache, String sql) throws SQLException {
+        try (ResultSet rs = cache.query(sql, new Object[]{1}, () -> {
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            pstmt.setInt(1, 1);
+            pstmt.closeOnCompletion();
+            return pstmt.executeQuery();
+        })) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+    
+    private static void compare(String what, Getter getter, int column, ResultSet live, ResultSet miss,
+                                ResultSet hit, List<String> mismatches) {
+        Object expected;
+        try {
+            expected = getter.get(live, column);
+        } catch (SQLException | RuntimeException e) {
+            return; // The driver rejects this getter for this type
+        }
+        boolean expectedNull = wasNull(live);
+        for (ResultSet cached : new ResultSet[]{miss, hit}) {
+            String which = cached == miss ? " (miss)" : " (hit)";
+            try {
+                Object actual = getter.get(cached, column);
+                if (!same(expected, actual)) {
+                    mismatches.add(what + which + ": expected " + describe(expected) + " but got " + describe(actual));
+                } else if (wasNull(cached) != expectedNull) {
+                    mismatches.add(what + which + ": wasNull differs");
+                }
+            } catch (SQLException | RuntimeException e) {
+                mismatches.add(what + which + ": expected " + describe(expected) + " but threw " + e);
+            }
+        }
+    }
+    
+    private static boolean wasNull(ResultSet rs) {
+        try {
+            return rs.wasNull();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static boolean same(Object expected, Object actual) {
+        if (expected instanceof byte[] && actual instanceof byte[]) {
+            return Arrays.equals((byte[]) expected, (byte[]) actual);
+        }
+        if (expected == null || actual == null) {
+            return expected == actual;
+        }
+        return expected.getClass() == actual.getClass() && expected.equals(actual);
+    }
+    
+    private static String describe(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        String text = value instanceof byte[] ? Arrays.toString((byte[]) value) : value.toString();
+        return value.getClass().getSimpleName() + "[" + text + "]";
+    }
+    
+    private static ResultSet load() throws SQLException {
+        return load(QUERY);
+    }
+    
+    private static ResultSet load(String sql) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        pstmt.setInt(1, 1);
+        pstmt.setInt(2, 1);
+        pstmt.closeOnCompletion();
+        return pstmt.executeQuery();
+    }
+}
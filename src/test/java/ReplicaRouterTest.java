@@ -0,0 +1,169 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ReplicaRouterTest - Read/write splitting across several local servers
+ *
+ * One embedded server plays the primary and two more play its replicas.
+ * They are independent servers, so every one of them answers "SELECT name
+ * FROM whoami" with its own name, which shows where a statement ran.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class ReplicaRouterTest {
+    
+    private static final String[] NAMES = {"primary", "replica1", "replica2"};
+    private static final String WHOAMI = "SELECT name FROM whoami WHERE ? = ?";
+    
+    private static EmbeddedPostgres[] servers;
+    private static MyDBMagic db;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.WARNING);
+        servers = new EmbeddedPostgres[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            servers[i] = EmbeddedPostgres.start();
+            setUp(servers[i], NAMES[i]);
+        }
+        db = new MyDBMagic(String.valueOf(servers[0].getPort()), "postgres", "postgres", "postgres")
+            .replica("localhost", String.valueOf(servers[1].getPort()))
+            .replica("localhost", String.valueOf(servers[2].getPort()))
+            .printProgress(false);
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (db != null) {
+            db.close();
+        }
+        for (EmbeddedPostgres server : servers) {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+    
+    private static void setUp(EmbeddedPostgres server, String name) throws SQLException {
+        try (Connection conn = server.getPostgresDatabase().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE whoami (name TEXT)");
+            stmt.execute("INSERT INTO whoami VALUES ('" + name + "')");
+            stmt.execute("CREATE TABLE userscredentials (username TEXT, passw TEXT)");
+            stmt.execute("INSERT INTO userscredentials VALUES ('ann', 'secret')");
+            if (name.equals("primary")) {
+                stmt.execute("CREATE TABLE writes (id INTEGER)");
+            }
+        }
+    }
+    
+    @Test
+    void preparedReadsRunOnReplicas() throws Exception {
+        try (ResultSet rs = db.runQuery(WHOAMI, 1, 1)) {
+            assertTrue(rs.next());
+            assertTrue(rs.getString(1).startsWith("replica"), rs.getString(1));
+        }
+        try (Stream<String> names = db.stream(WHOAMI, new Object[]{1, 1}, rs -> rs.getString(1))) {
+            assertTrue(names.allMatch(name -> name.startsWith("replica")));
+        }
+        assertEquals(1, db.forEachRow(WHOAMI, new Object[]{1, 1},
+            rs -> assertTrue(rs.getString(1).startsWith("replica"))));
+        try (ColumnarResult result = db.queryColumnar(WHOAMI, 1, 1)) {
+            assertTrue(result.getString(0, 0).startsWith("replica"));
+        }
+        List<String> async = db.queryAsync(WHOAMI, new Object[]{1, 1}, rs -> rs.getString(1))
+            .get(1, TimeUnit.MINUTES);
+        assertTrue(async.get(0).startsWith("replica"), async.toString());
+        assertTrue(db.login("ann", "secret"));
+        assertTrue(db.getReplicaRouter().getReplicaReads() > 0);
+    }
+    
+    @Test
+    void writesGoToThePrimary() throws Exception {
+        // Only the primary has the writes table
+        assertEquals(1, db.runUpdate("INSERT INTO writes VALUES (?)", 1));
+        try (Connection conn = db.connectDB();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM whoami")) {
+            assertTrue(rs.next());
+            assertEquals("primary", rs.getString(1));
+        }
+    }
+    
+    @Test
+    void readsGoToTheLeastBusyReplica() throws Exception {
+        try (ConnectionPool primary = pool(servers[0]);
+             ReplicaRouter router = new ReplicaRouter(primary, replicaPools(servers[1], servers[2]))) {
+            for (int round = 0; round < 10; round++) {
+                try (Connection busy = router.read();
+                     Connection next = router.read()) {
+                    assertNotEquals(whoami(busy), whoami(next));
+                    // Both replicas are busy now, so a third read may go to either
+                    try (Connection third = router.read()) {
+                        assertTrue(whoami(third).startsWith("replica"));
+                    }
+                }
+            }
+            assertEquals(0, router.getPrimaryFallbacks());
+            assertTrue(router.toString().contains("outstanding=0"), router.toString());
+        }
+    }
+    
+    @Test
+    void failingReplicaIsEjected() throws Exception {
+        EmbeddedPostgres doomed = EmbeddedPostgres.start();
+        setUp(doomed, "doomed");
+        try (ConnectionPool primary = pool(servers[0]);
+             ReplicaRouter router = new ReplicaRouter(primary, replicaPools(servers[1], doomed), 100)
+                 .ejectAfter(1, TimeUnit.MINUTES.toMillis(1))) {
+            doomed.close();
+            for (int i = 0; i < 10; i++) {
+                try (Connection conn = router.read()) {
+                    assertEquals("replica1", whoami(conn));
+                }
+            }
+            assertEquals(1, router.getEjections());
+            assertEquals(1, router.getAvailableCount());
+        }
+    }
+    
+    private static Map<String, ConnectionPool> replicaPools(EmbeddedPostgres... replicas) {
+        Map<String, ConnectionPool> pools = new LinkedHashMap<>();
+        for (EmbeddedPostgres replica : replicas) {
+            pools.put("localhost:" + replica.getPort(), pool(replica));
+        }
+        return pools;
+    }
+    
+    private static ConnectionPool pool(EmbeddedPostgres server) {
+        Properties props = new Properties();
+        props.setProperty("user", "postgres");
+        props.setProperty("password", "postgres");
+        return new ConnectionPool("jdbc:postgresql://localhost:" + server.getPort() + "/postgres", props, 0, 4);
+    }
+    
+    private static String whoami(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM whoami")) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+}
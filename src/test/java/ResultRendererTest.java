@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Locale;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ResultRendererTest - The text each output format produces for one result
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class ResultRendererTest {
+    
+    private static final String QUERY = "SELECT * FROM (VALUES "
+        + "(1, 'plain', true, 1.50::numeric, 'NaN'::float8), "
+        + "(-20, 'quote \"a,b\"', false, -0.5::numeric, '-Infinity'::float8), "
+        + "(NULL, NULL, NULL, NULL, NULL)) AS t(id, name, flag, amount, ratio) ORDER BY id NULLS LAST";
+    
+    private static EmbeddedPostgres server;
+    private static Connection conn;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.WARNING);
+        server = EmbeddedPostgres.start();
+        conn = server.getPostgresDatabase().getConnection();
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (conn != null) {
+            conn.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    private static String render(ResultRenderer.Format format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(QUERY)) {
+            assertEquals(3, new ResultRenderer(Channels.newChannel(out)).render(rs, format));
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+    
+    @Test
+    void csv() throws Exception {
+        assertEquals("id,name,flag,amount,ratio\n"
+            + "-20,\"quote \"\"a,b\"\"\",false,-0.5,-Infinity\n"
+            + "1,plain,true,1.50,NaN\n"
+            + ",,,,\n", render(ResultRenderer.Format.CSV));
+    }
+    
+    @Test
+    void tsv() throws Exception {
+        assertEquals("id\tname\tflag\tamount\tratio\n"
+            + "-20\tquote \"a,b\"\tfalse\t-0.5\t-Infinity\n"
+            + "1\tplain\ttrue\t1.50\tNaN\n"
+            + "\\N\t\\N\t\\N\t\\N\t\\N\n", render(ResultRenderer.Format.TSV));
+    }
+    
+    @Test
+    void jsonLinesQuoteNumbersJsonCannotHold() throws Exception {
+        assertEquals("{\"id\":-20,\"name\":\"quote \\\"a,b\\\"\",\"flag\":false,\"amount\":-0.5,\"ratio\":\"-Infinity\"}\n"
+            + "{\"id\":1,\"name\":\"plain\",\"flag\":true,\"amount\":1.50,\"ratio\":\"NaN\"}\n"
+            + "{\"id\":null,\"name\":null,\"flag\":null,\"amount\":null,\"ratio\":null}\n",
+            render(ResultRenderer.Format.JSONL));
+    }
+    
+    @Test
+    void tableHeadersIgnoreTheDefaultLocale() throws Exception {
+        Locale original = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            String table = render(ResultRenderer.Format.TABLE);
+            assertEquals("+------+-------------+-------+--------+-----------+\n"
+                + "| ID   | NAME        | FLAG  | AMOUNT | RATIO     |\n"
+                + "+======+=============+=======+========+===========+\n"
+                + "|  -20 | quote \"a,b\" | false |   -0.5 | -Infinity |\n"
+                + "|    1 | plain       | true  |   1.50 |       NaN |\n"
+                + "| NULL | NULL        | NULL  |   NULL |      NULL |\n"
+                + "+------+-------------+-------+--------+-----------+\n", table);
+            assertTrue(render(ResultRenderer.Format.ALIGNED).startsWith("ID   NAME"));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+}
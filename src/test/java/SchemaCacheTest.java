@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * SchemaCacheTest - Cached metadata, DDL invalidation and stale loads
+ *
+ * The cache is fed directly instead of from a catalog, the way
+ * MyDBMagic.loadTableFields does: read getGeneration(), "load", then put.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class SchemaCacheTest {
+    
+    private static final String SCHEMA = "public";
+    
+    private static Field[] fields(String... names) {
+        return Arrays.stream(names).map(name -> new Field(name, "INTEGER")).toArray(Field[]::new);
+    }
+    
+    private static String[] names(Field[] fields) {
+        return Arrays.stream(fields).map(Field::getName).toArray(String[]::new);
+    }
+    
+    @Test
+    void cachedFieldsAreCopies() {
+        SchemaCache cache = new SchemaCache(60_000);
+        Field[] loaded = fields("id", "name");
+        cache.putFields(SCHEMA, "users", loaded, cache.getGeneration());
+        loaded[0] = new Field("changed", "TEXT");
+        
+        Field[] first = cache.getFields(SCHEMA, "users");
+        assertArrayEquals(new String[]{"id", "name"}, names(first));
+        first[1] = new Field("changed", "TEXT");
+        assertArrayEquals(new String[]{"id", "name"}, names(cache.getFields(SCHEMA, "users")));
+        assertNull(cache.getFields("other", "users"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    void ddlInvalidatesTheTableItTouches() {
+        SchemaCache cache = new SchemaCache(60_000);
+        cache.putFields(SCHEMA, "users", fields("id"), cache.getGeneration());
+        cache.putFields(SCHEMA, "orders", fields("id"), cache.getGeneration());
+        cache.putTables(SCHEMA, List.of("orders", "users"), cache.getGeneration());
+        
+        assertFalse(cache.invalidateForStatement("INSERT INTO users VALUES (1)"));
+        assertNotNull(cache.getFields(SCHEMA, "users"));
+        
+        assertTrue(cache.invalidateForStatement("ALTER TABLE IF EXISTS \"public\".\"Users\" ADD COLUMN x INT"));
+        assertNull(cache.getFields(SCHEMA, "users"));
+        assertNotNull(cache.getFields(SCHEMA, "orders"));
+        assertNull(cache.getTables(SCHEMA));
+        
+        assertTrue(cache.invalidateForStatement("CREATE INDEX orders_id ON orders (id)"));
+        assertNull(cache.getFields(SCHEMA, "orders"));
+    }
+    
+    @Test
+    void loadsStartedBeforeAnInvalidationAreDropped() {
+        SchemaCache cache = new SchemaCache(60_000);
+        long generation = cache.getGeneration();
+        cache.invalidate("users");
+        cache.putFields(SCHEMA, "users", fields("old"), generation);
+        cache.putTables(SCHEMA, List.of("users"), generation);
+        assertNull(cache.getFields(SCHEMA, "users"));
+        assertNull(cache.getTables(SCHEMA));
+        
+        // Other tables' fields are unaffected by the invalidation
+        cache.putFields(SCHEMA, "orders", fields("id"), generation);
+        assertNotNull(cache.getFields(SCHEMA, "orders"));
+        
+        cache.putFields(SCHEMA, "users", fields("new"), cache.getGeneration());
+        assertArrayEquals(new String[]{"new"}, names(cache.getFields(SCHEMA, "users")));
+        
+        generation = cache.getGeneration();
+        cache.invalidateAll();
+        cache.putFields(SCHEMA, "orders", fields("id"), generation);
+        assertNull(cache.getFields(SCHEMA, "orders"));
+    }
+    
+    @Test
+    void manyInvalidationsStillDropStaleLoads() {
+        SchemaCache cache = new SchemaCache(60_000);
+        cache.putFields(SCHEMA, "kept", fields("id"), cache.getGeneration());
+        long generation = cache.getGeneration();
+        cache.invalidate("users");
+        for (int i = 0; i < 5_000; i++) {
+            cache.invalidate("temp_" + i);
+        }
+        cache.putFields(SCHEMA, "users", fields("old"), generation);
+        assertNull(cache.getFields(SCHEMA, "users"));
+        
+        // Folding old invalidations does not drop cached entries or new loads
+        assertNotNull(cache.getFields(SCHEMA, "kept"));
+        cache.putFields(SCHEMA, "users", fields("new"), cache.getGeneration());
+        assertNotNull(cache.getFields(SCHEMA, "users"));
+    }
+    
+    @Test
+    void zeroTtlDisablesCaching() {
+        SchemaCache cache = new SchemaCache(0);
+        cache.putFields(SCHEMA, "users", fields("id"), cache.getGeneration());
+        cache.putTables(SCHEMA, List.of("users"), cache.getGeneration());
+        assertNull(cache.getFields(SCHEMA, "users"));
+        assertNull(cache.getTables(SCHEMA));
+    }
+    
+    @Test
+    void catalogChangesClearEverything() {
+        SchemaCache cache = new SchemaCache(60_000).changeCheckInterval(1);
+        assertTrue(cache.isChangeCheckDue());
+        cache.checkCatalog("v1");
+        cache.putFields(SCHEMA, "users", fields("id"), cache.getGeneration());
+        cache.checkCatalog("v1");
+        assertNotNull(cache.getFields(SCHEMA, "users"));
+        cache.checkCatalog("v2");
+        assertNull(cache.getFields(SCHEMA, "users"));
+    }
+}
@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * SchemaMigratorTest - Plans and migrations against a live schema
+ *
+ * Every test uses its own tables, so the shared schema_migrations table is
+ * the only state the tests have in common.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class SchemaMigratorTest {
+    
+    private static EmbeddedPostgres server;
+    private static MyDBMagic db;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+        server = EmbeddedPostgres.start();
+        db = new MyDBMagic(String.valueOf(server.getPort()), "postgres", "postgres", "postgres")
+            .printProgress(false);
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (db != null) {
+            db.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    private static TableDefinition authors(String prefix) {
+        return new TableDefinition(prefix + "_authors").fields(
+            new Field("id", "INTEGER").primaryKey(),
+            new Field("name", "VARCHAR").maxLength(40).notNull());
+    }
+    
+    private static TableDefinition books(String prefix) {
+        return new TableDefinition(prefix + "_books").fields(
+            new Field("id", "INTEGER").primaryKey(),
+            new Field("author_id", "INTEGER"))
+            .foreignKey("author_id", prefix + "_authors", "id");
+    }
+    
+    private static List<String> sql(SchemaMigrator.Plan plan) {
+        return plan.getSteps().stream().map(SchemaMigrator.Step::getSql).collect(Collectors.toList());
+    }
+    
+    private static String[] columns(String table) {
+        return Arrays.stream(db.getTableFields(table)).map(Field::getName).toArray(String[]::new);
+    }
+    
+    @Test
+    void versionsAreAppliedOnce() throws Exception {
+        SchemaMigrator migrator = new SchemaMigrator(db);
+        // Listed in the wrong order on purpose; the referenced table is created first
+        SchemaMigrator.Plan plan = migrator.migrate("once-1", books("once"), authors("once"));
+        assertFalse(plan.isEmpty());
+        assertTrue(sql(plan).get(0).contains("once_authors"), plan.toString());
+        assertArrayEquals(new String[]{"id", "author_id"}, columns("once_books"));
+        assertTrue(migrator.getAppliedVersions().contains("once-1"));
+        
+        assertTrue(migrator.migrate("once-1", books("once"), authors("once")).isEmpty());
+        // The schema matches, so a new version has nothing to do either
+        assertTrue(migrator.plan(books("once"), authors("once")).isEmpty());
+    }
+    
+    @Test
+    void onlyTheDifferencesAreMigrated() throws Exception {
+        SchemaMigrator migrator = new SchemaMigrator(db);
+        migrator.migrate("diff-1", authors("diff"));
+        
+        TableDefinition changed = new TableDefinition("diff_authors").fields(
+            new Field("id", "INTEGER").primaryKey(),
+            new Field("name", "VARCHAR").maxLength(80).notNull(),
+            new Field("email", "TEXT"))
+            .index("email");
+        SchemaMigrator.Plan plan = migrator.plan(changed);
+        List<String> statements = sql(plan);
+        assertEquals(3, statements.size(), plan.toString());
+        assertTrue(statements.stream().noneMatch(s -> s.startsWith("CREATE TABLE")), plan.toString());
+        assertTrue(statements.stream().anyMatch(s -> s.contains("email")), plan.toString());
+        assertTrue(statements.stream().anyMatch(s -> s.contains("80")), plan.toString());
+        SchemaMigrator.Step index = plan.getSteps().get(2);
+        assertTrue(index.getSql().contains("CONCURRENTLY"), index.getSql());
+        assertFalse(index.isTransactional());
+        
+        migrator.migrate("diff-2", changed);
+        assertArrayEquals(new String[]{"id", "name", "email"}, columns("diff_authors"));
+        assertTrue(migrator.plan(changed).isEmpty());
+    }
+    
+    @Test
+    void columnsAreDroppedOnlyWhenAllowed() throws Exception {
+        SchemaMigrator migrator = new SchemaMigrator(db);
+        migrator.migrate("drop-1", authors("drop"));
+        TableDefinition withoutName = new TableDefinition("drop_authors")
+            .field(new Field("id", "INTEGER").primaryKey());
+        
+        assertTrue(migrator.plan(withoutName).isEmpty());
+        SchemaMigrator.Plan plan = migrator.allowDrops(true).plan(withoutName);
+        assertEquals(1, plan.size(), plan.toString());
+        assertTrue(sql(plan).get(0).contains("DROP COLUMN"), plan.toString());
+        migrator.migrate("drop-2", withoutName);
+        assertArrayEquals(new String[]{"id"}, columns("drop_authors"));
+    }
+    
+    @Test
+    void changedPrimaryKeysAreRefused() throws Exception {
+        SchemaMigrator migrator = new SchemaMigrator(db);
+        migrator.migrate("pk-1", authors("pk"));
+        TableDefinition newKey = new TableDefinition("pk_authors").fields(
+            new Field("id", "INTEGER"),
+            new Field("name", "VARCHAR").maxLength(40).notNull())
+            .primaryKey("name");
+        
+        assertFalse(migrator.plan(newKey).getUnsupported().isEmpty());
+        SQLException e = assertThrows(SQLException.class, () -> migrator.migrate("pk-2", newKey));
+        assertEquals("0A000", e.getSQLState());
+        assertFalse(migrator.getAppliedVersions().contains("pk-2"));
+    }
+    
+    @Test
+    void failedMigrationsAreNotRecorded() throws Exception {
+        SchemaMigrator migrator = new SchemaMigrator(db);
+        TableDefinition broken = new TableDefinition("broken_items")
+            .field(new Field("id", "NO_SUCH_TYPE"));
+        assertThrows(SQLException.class, () -> migrator.migrate("broken-1", broken));
+        assertFalse(migrator.getAppliedVersions().contains("broken-1"));
+        assertEquals(0, db.getTableFields("broken_items").length);
+    }
+}
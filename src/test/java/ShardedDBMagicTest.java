@@ -0,0 +1,183 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ShardedDBMagicTest - Key routing and scatter-gather over three shards
+ *
+ * The shards are three databases of one embedded server, which keeps
+ * their rows apart just like separate servers would.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class ShardedDBMagicTest {
+    
+    private static final int SHARDS = 3;
+    private static final int ROWS = 1000;
+    
+    private static EmbeddedPostgres server;
+    private static ShardedDBMagic sharded;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+        server = EmbeddedPostgres.start();
+        List<MyDBMagic> shards = new ArrayList<>();
+        MyDBMagic admin = connect("postgres");
+        try {
+            for (int i = 0; i < SHARDS; i++) {
+                admin.runUpdate("CREATE DATABASE shard" + i, new Object[0]);
+                shards.add(connect("shard" + i));
+            }
+        } finally {
+            admin.close();
+        }
+        sharded = new ShardedDBMagic(shards);
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (sharded != null) {
+            sharded.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    private static MyDBMagic connect(String database) {
+        return new MyDBMagic(String.valueOf(server.getPort()), database, "postgres", "postgres")
+            .printProgress(false);
+    }
+    
+    @BeforeEach
+    void createTables() throws Exception {
+        sharded.deleteTable("shard_items");
+        sharded.createTables(new TableDefinition("shard_items").fields(
+            new Field("id", "INTEGER").primaryKey(),
+            new Field("grp", "INTEGER"),
+            new Field("amount", "INTEGER")));
+        sharded.insertBatch("shard_items", IntStream.rangeClosed(1, ROWS)
+            .mapToObj(i -> new Object[]{i, i % 10, i * 2})
+            .iterator());
+    }
+    
+    private static long rowsOn(int shard) throws SQLException {
+        List<Long> count = new ArrayList<>(1);
+        sharded.getShard(shard).forEachRow("SELECT count(*) FROM shard_items", null, rs -> count.add(rs.getLong(1)));
+        return count.get(0);
+    }
+    
+    @Test
+    void equalKeysRouteAlikeAndSpreadEvenly() throws Exception {
+        assertEquals(sharded.shardIndex(42), sharded.shardIndex(42L));
+        assertEquals(sharded.shardIndex(42), sharded.shardIndex(new BigDecimal("42.00")));
+        
+        int[] counts = new int[SHARDS];
+        for (int key = 0; key < 30_000; key++) {
+            counts[sharded.shardIndex(key)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 30_000 / SHARDS / 2 && count < 30_000 * 2 / SHARDS, Arrays.toString(counts));
+        }
+    }
+    
+    @Test
+    void addingAShardOnlyMovesKeysOntoIt() {
+        List<MyDBMagic> shards = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            shards.add(sharded.getShard(i));
+        }
+        shards.add(connect("postgres"));
+        // Not closed: that would close the shared shards too
+        ShardedDBMagic grown = new ShardedDBMagic(shards);
+        int moved = 0;
+        for (int key = 0; key < 10_000; key++) {
+            int before = sharded.shardIndex(key);
+            int after = grown.shardIndex(key);
+            if (after != before) {
+                assertEquals(SHARDS, after, "key " + key + " moved between old shards");
+                moved++;
+            }
+        }
+        assertTrue(moved > 1000 && moved < 4000, "moved " + moved);
+    }
+    
+    @Test
+    void rowsLiveOnTheShardOwningTheirKey() throws Exception {
+        long[] expected = new long[SHARDS];
+        for (int id = 1; id <= ROWS; id++) {
+            expected[sharded.shardIndex(id)]++;
+        }
+        for (int i = 0; i < SHARDS; i++) {
+            assertEquals(expected[i], rowsOn(i));
+        }
+        
+        sharded.insert("shard_items", ROWS + 1, 1, 5);
+        try (ResultSet rs = sharded.findByKey("shard_items", ROWS + 1)) {
+            assertTrue(rs.next());
+            assertEquals(5, rs.getInt("amount"));
+            assertFalse(rs.next());
+        }
+        assertEquals(expected[sharded.shardIndex(ROWS + 1)] + 1, rowsOn(sharded.shardIndex(ROWS + 1)));
+        assertEquals(1, sharded.deleteByKey("shard_items", ROWS + 1));
+        assertEquals(0, sharded.deleteByKey("shard_items", ROWS + 1));
+        assertThrows(IllegalArgumentException.class, () -> sharded.findByKey("shard_items", 1, 2));
+    }
+    
+    @Test
+    void aggregatesCombineAllShards() throws Exception {
+        assertEquals(ROWS, sharded.count("shard_items", null));
+        assertEquals(ROWS / 10, sharded.count("shard_items", "grp = ?", 3));
+        assertEquals(new BigDecimal((long) ROWS * (ROWS + 1)), sharded.sum("shard_items", "amount", null));
+        assertEquals(1, ((Number) sharded.min("shard_items", "id", null)).intValue());
+        assertEquals(ROWS, ((Number) sharded.max("shard_items", "id", null)).intValue());
+        assertEquals(null, sharded.sum("shard_items", "amount", "id < 0"));
+        assertEquals(null, sharded.max("shard_items", "id", "id < 0"));
+    }
+    
+    @Test
+    void scatterStreamsTheRowsOfAllShards() throws Exception {
+        try (Stream<Integer> ids = sharded.scatter("SELECT id FROM shard_items WHERE grp = ?",
+                new Object[]{7}, rs -> rs.getInt(1))) {
+            assertEquals(ROWS / 10, ids.collect(Collectors.toSet()).size());
+        }
+        
+        List<Integer> merged;
+        try (Stream<Integer> ids = sharded.scatterOrdered("SELECT id FROM shard_items ORDER BY id DESC",
+                null, rs -> rs.getInt(1), Comparator.reverseOrder())) {
+            merged = ids.limit(20).collect(Collectors.toList());
+        }
+        List<Integer> expected = IntStream.iterate(ROWS, i -> i - 1).limit(20).boxed().collect(Collectors.toList());
+        assertEquals(expected, merged);
+    }
+    
+    @Test
+    void failuresOnEveryShardAreReportedTogether() {
+        SQLException e = assertThrows(SQLException.class, () -> sharded.runOnAllShards("DROP TABLE no_such_table"));
+        assertEquals("42P01", e.getSQLState());
+        assertEquals(SHARDS - 1, e.getSuppressed().length);
+        
+        SQLException missing = assertThrows(SQLException.class, () -> sharded.getPrimaryKey("no_such_table"));
+        assertNotNull(missing.getMessage());
+    }
+}
@@ -0,0 +1,141 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * StatementCacheTest - Reuse, eviction and per-borrow resets of cached statements
+ *
+ * The cache is driven the way the pool drives it: prepare() while a
+ * connection is borrowed, onReturn() when it goes back.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class StatementCacheTest {
+    
+    private static EmbeddedPostgres server;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private Connection conn;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.WARNING);
+        server = EmbeddedPostgres.start();
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    @BeforeEach
+    void connect() throws Exception {
+        conn = server.getPostgresDatabase().getConnection();
+    }
+    
+    @AfterEach
+    void disconnect() throws Exception {
+        conn.close();
+    }
+    
+    private StatementCache cache(int size) {
+        return new StatementCache(conn, size, hits, misses, evictions);
+    }
+    
+    @Test
+    void statementsAreReusedAcrossBorrows() throws Exception {
+        StatementCache cache = cache(4);
+        PreparedStatement first = cache.prepare("SELECT ?::int");
+        assertSame(first, cache.prepare("SELECT ?::int"));
+        cache.onReturn();
+        assertSame(first, cache.prepare("SELECT ?::int"));
+        assertFalse(first.isClosed());
+        assertEquals(1, misses.sum());
+        assertEquals(2, hits.sum());
+        assertEquals(1, cache.size());
+        cache.close();
+        assertTrue(first.isClosed());
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    void evictedStatementsStayOpenUntilTheConnectionIsReturned() throws Exception {
+        StatementCache cache = cache(2);
+        PreparedStatement oldest = cache.prepare("SELECT 1");
+        cache.prepare("SELECT 2");
+        cache.prepare("SELECT 3");
+        assertEquals(1, evictions.sum());
+        assertEquals(2, cache.size());
+        
+        // The borrower may still be using it
+        assertFalse(oldest.isClosed());
+        try (ResultSet rs = oldest.executeQuery()) {
+            assertTrue(rs.next());
+        }
+        cache.onReturn();
+        assertTrue(oldest.isClosed());
+        assertNotSame(oldest, cache.prepare("SELECT 1"));
+        cache.close();
+    }
+    
+    @Test
+    void perBorrowSettingsAreResetOnReturn() throws Exception {
+        StatementCache cache = cache(4);
+        PreparedStatement stmt = cache.prepare("SELECT ?::int");
+        stmt.setInt(1, 7);
+        stmt.setFetchSize(50);
+        stmt.setMaxRows(1);
+        stmt.setQueryTimeout(5);
+        cache.onReturn();
+        
+        stmt = cache.prepare("SELECT ?::int");
+        assertEquals(0, stmt.getFetchSize());
+        assertEquals(0, stmt.getMaxRows());
+        assertEquals(0, stmt.getQueryTimeout());
+        stmt.setInt(1, 8);
+        try (ResultSet rs = stmt.executeQuery()) {
+            assertTrue(rs.next());
+            assertEquals(8, rs.getInt(1));
+        }
+        cache.close();
+    }
+    
+    @Test
+    void statementsClosedByTheCallerArePreparedAgain() throws Exception {
+        StatementCache cache = cache(4);
+        PreparedStatement stmt = cache.prepare("SELECT 1");
+        stmt.close();
+        assertNotSame(stmt, cache.prepare("SELECT 1"));
+        assertEquals(2, misses.sum());
+        cache.close();
+    }
+    
+    @Test
+    void sizeZeroDisablesCaching() throws Exception {
+        StatementCache cache = cache(0);
+        PreparedStatement first = cache.prepare("SELECT 1");
+        assertNotSame(first, cache.prepare("SELECT 1"));
+        assertEquals(0, cache.size());
+        assertEquals(0, hits.sum());
+        cache.onReturn();
+        assertTrue(first.isClosed());
+    }
+}
@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * StatementProfilerTest - Fingerprints, per-statement statistics and the slow-query log
+ *
+ * Statements are recorded directly with a start time in the past; only
+ * the EXPLAIN test needs a database.
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class StatementProfilerTest {
+    
+    private static EmbeddedPostgres server;
+    
+    @TempDir
+    Path dir;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+        server = EmbeddedPostgres.start();
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    private static long millisAgo(long millis) {
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+    
+    @Test
+    void literalsAndSpacingDoNotChangeTheFingerprint() {
+        assertEquals("select * from t where id = ?", StatementProfiler.fingerprint("SELECT * FROM t WHERE id = 7"));
+        assertEquals("select * from t where id = ?", StatementProfiler.fingerprint("select *\n  from T where id = 8 ;"));
+        assertEquals("select * from t where id = ?", StatementProfiler.fingerprint("SELECT * FROM t WHERE id = $1"));
+        assertEquals("select * from t where name = ? and tag = ?",
+            StatementProfiler.fingerprint("SELECT * FROM t WHERE name = 'O''Brien' AND tag = E'a\\nb'"));
+        assertEquals("select * from t where id in (...)",
+            StatementProfiler.fingerprint("SELECT * FROM t WHERE id IN (1, 2, 3)"));
+        assertEquals("insert into t values (...), ...",
+            StatementProfiler.fingerprint("INSERT INTO t VALUES (1, 'a'), (2, 'b'), (3, 'c')"));
+        // Digits in identifiers and quoted identifiers are kept
+        assertEquals("select col1, \"MixedCase\" from t2 limit ?",
+            StatementProfiler.fingerprint("SELECT col1, \"MixedCase\" FROM t2 LIMIT 10"));
+    }
+    
+    @Test
+    void statementsAreCountedPerFingerprint() {
+        try (StatementProfiler profiler = new StatementProfiler().slowThreshold(-1).maxFingerprints(2)) {
+            profiler.record("SELECT * FROM t WHERE id = 1", null, millisAgo(30), 1, true);
+            profiler.record("SELECT * FROM t WHERE id = 2", null, millisAgo(30), 1, false);
+            profiler.record("UPDATE t SET x = 1", null, millisAgo(1), 5, true);
+            profiler.record("DELETE FROM t", null, millisAgo(1), 3, true);
+            profiler.record("DELETE FROM u", null, millisAgo(1), 4, true);
+            
+            assertEquals(2, profiler.getFingerprintCount());
+            List<StatementProfiler.Entry> top = profiler.top(10);
+            assertEquals(3, top.size());
+            StatementProfiler.Entry select = top.get(0);
+            assertEquals("select * from t where id = ?", select.getFingerprint());
+            assertEquals("SELECT * FROM t WHERE id = 1", select.getExample());
+            assertEquals(2, select.getCalls());
+            assertEquals(1, select.getErrors());
+            assertEquals(2, select.getRows());
+            assertTrue(select.getMeanMillis() >= 30 && select.getTotalMillis() >= 60, select.getMeanMillis() + "");
+            // Fingerprints beyond the limit share one entry
+            StatementProfiler.Entry other = top.stream()
+                .filter(e -> e.getFingerprint().equals("<other statements>")).findFirst().get();
+            assertEquals(2, other.getCalls());
+            assertEquals(7, other.getRows());
+            
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            profiler.printReport(new PrintStream(report, true, StandardCharsets.UTF_8), 1);
+            String text = report.toString(StandardCharsets.UTF_8);
+            assertTrue(text.contains("select * from t where id = ?"), text);
+            assertFalse(text.contains("update"), text);
+            
+            profiler.reset();
+            assertEquals(List.of(), profiler.top(10));
+        }
+    }
+    
+    @Test
+    void slowStatementsAreWrittenToTheLog() throws Exception {
+        Path log = dir.resolve("slow.log");
+        try (StatementProfiler profiler = new StatementProfiler().slowThreshold(20).slowLog(log)) {
+            profiler.record("SELECT 1", null, millisAgo(0), 1, true);
+            profiler.record("SELECT pg_sleep(0.05)", null, millisAgo(50), 1, true);
+            profiler.record("UPDATE t SET x = 2", null, millisAgo(60), 0, false);
+        }
+        List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size(), lines.toString());
+        assertTrue(lines.get(0).contains("rows=1 statement: SELECT pg_sleep(0.05)"), lines.get(0));
+        assertTrue(lines.get(1).contains("rows=0 failed statement: UPDATE t SET x = 2"), lines.get(1));
+    }
+    
+    @Test
+    void slowReadsAreExplainedAndWritesAreNot() throws Exception {
+        Path log = dir.resolve("explain.log");
+        try (StatementProfiler profiler = new StatementProfiler().slowThreshold(0).slowLog(log)
+                .explainWith(() -> server.getPostgresDatabase().getConnection())) {
+            profiler.record("SELECT * FROM generate_series(1, ?) g", new Object[]{3}, millisAgo(1), 3, true);
+            // At most once a minute per fingerprint
+            profiler.record("SELECT * FROM generate_series(1, ?) g", new Object[]{4}, millisAgo(1), 4, true);
+            profiler.record("CREATE TABLE explained (id INTEGER)", null, millisAgo(1), 0, true);
+        }
+        String text = new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+        assertEquals(1, text.split("Function Scan", -1).length - 1, text);
+        assertFalse(text.contains("EXPLAIN failed"), text);
+        // Written last and without a plan, since EXPLAIN ANALYZE would run it
+        List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+        assertTrue(lines.get(lines.size() - 1).endsWith("statement: CREATE TABLE explained (id INTEGER)"), text);
+    }
+}
@@ -0,0 +1,166 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * TxContextTest - Units of work run through MyDBMagic.inTransaction()
+ *
+ * @author John Hernandez
+ * @version 1.0
+ */
+class TxContextTest {
+    
+    private static EmbeddedPostgres server;
+    private static MyDBMagic db;
+    
+    @BeforeAll
+    static void start() throws Exception {
+        DBLogger.setLevel(DBLogger.Level.OFF);
+        server = EmbeddedPostgres.start();
+        db = new MyDBMagic(String.valueOf(server.getPort()), "postgres", "postgres", "postgres")
+            .printProgress(false);
+    }
+    
+    @AfterAll
+    static void stop() throws Exception {
+        if (db != null) {
+            db.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    @BeforeEach
+    void createTable() throws Exception {
+        db.runUpdate("DROP TABLE IF EXISTS tx_items", new Object[0]);
+        db.runUpdate("CREATE TABLE tx_items (id INTEGER PRIMARY KEY)", new Object[0]);
+    }
+    
+    private static List<Integer> ids() throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        db.forEachRow("SELECT id FROM tx_items ORDER BY id", null, rs -> ids.add(rs.getInt(1)));
+        return ids;
+    }
+    
+    @Test
+    void workIsCommittedOnceAtTheEnd() throws Exception {
+        int rows = db.callInTransaction(Connection.TRANSACTION_READ_COMMITTED, tx -> {
+            tx.update("INSERT INTO tx_items VALUES (?)", 1);
+            tx.update("INSERT INTO tx_items VALUES (?)", 2);
+            // Visible inside the transaction only
+            try {
+                assertEquals(List.of(), ids());
+            } catch (SQLException e) {
+                throw new MyDBMagic.UncheckedSQLException(e);
+            }
+            return tx.query("SELECT id FROM tx_items", null, rs -> rs.getInt(1)).size();
+        });
+        assertEquals(2, rows);
+        assertEquals(List.of(1, 2), ids());
+    }
+    
+    @Test
+    void failuresRollEverythingBack() throws Exception {
+        IllegalStateException thrown = new IllegalStateException("stop");
+        assertSame(thrown, assertThrows(IllegalStateException.class, () -> db.inTransaction(tx -> {
+            tx.update("INSERT INTO tx_items VALUES (?)", 1);
+            throw thrown;
+        })));
+        SQLException e = assertThrows(SQLException.class, () -> db.inTransaction(tx -> {
+            tx.update("INSERT INTO tx_items VALUES (?)", 1);
+            tx.update("INSERT INTO tx_items VALUES (?)", 1);
+        }));
+        assertEquals("23505", e.getSQLState());
+        db.inTransaction(tx -> {
+            tx.update("INSERT INTO tx_items VALUES (?)", 1);
+            tx.setRollbackOnly();
+        });
+        assertEquals(List.of(), ids());
+    }
+    
+    @Test
+    void savepointsUndoPartOfTheWork() throws Exception {
+        db.inTransaction(tx -> {
+            tx.update("INSERT INTO tx_items VALUES (?)", 1);
+            Savepoint savepoint = tx.savepoint();
+            tx.update("INSERT INTO tx_items VALUES (?)", 2);
+            tx.rollbackTo(savepoint);
+            Savepoint kept = tx.savepoint();
+            tx.update("INSERT INTO tx_items VALUES (?)", 3);
+            tx.release(kept);
+        });
+        assertEquals(List.of(1, 3), ids());
+    }
+    
+    @Test
+    void serializationFailuresAreRetried() throws Exception {
+        int attempts = db.txRetries(2).callInTransaction(Connection.TRANSACTION_SERIALIZABLE, tx -> {
+            tx.update("INSERT INTO tx_items VALUES (?)", tx.getAttempt());
+            if (tx.getAttempt() < 3) {
+                throw new MyDBMagic.UncheckedSQLException(new SQLException("could not serialize", "40001"));
+            }
+            return tx.getAttempt();
+        });
+        assertEquals(3, attempts);
+        assertEquals(List.of(3), ids());
+        
+        SQLException e = assertThrows(SQLException.class, () -> db.txRetries(0).inTransaction(tx -> {
+            throw new MyDBMagic.UncheckedSQLException(new SQLException("deadlock detected", "40P01"));
+        }));
+        assertEquals("40P01", e.getSQLState());
+    }
+    
+    @Test
+    void connectionIsRestoredAfterTheTransaction() throws Exception {
+        MyDBMagic single = new MyDBMagic(String.valueOf(server.getPort()), "postgres", "postgres", "postgres")
+            .poolSize(1, 1)
+            .printProgress(false);
+        try {
+            single.inTransaction(Connection.TRANSACTION_SERIALIZABLE,
+                tx -> tx.update("INSERT INTO tx_items VALUES (?)", 1));
+            try (Connection conn = single.connectDB()) {
+                assertTrue(conn.getAutoCommit());
+                assertEquals(Connection.TRANSACTION_READ_COMMITTED, conn.getTransactionIsolation());
+            }
+        } finally {
+            single.close();
+        }
+    }
+    
+    @Test
+    void schemaChangesAreVisibleOnlyAfterTheCommit() throws Exception {
+        assertArrayEquals(new String[]{"id"}, columns());
+        db.inTransaction(tx -> {
+            tx.update("ALTER TABLE tx_items ADD COLUMN note TEXT");
+            // Other connections still see, and may cache, the old definition
+            assertArrayEquals(new String[]{"id"}, columns());
+        });
+        assertArrayEquals(new String[]{"id", "note"}, columns());
+        
+        db.inTransaction(tx -> {
+            tx.update("ALTER TABLE tx_items DROP COLUMN note");
+            tx.setRollbackOnly();
+        });
+        assertArrayEquals(new String[]{"id", "note"}, columns());
+        assertTrue(db.getSchemaCache().getHits() > 0);
+    }
+    
+    private static String[] columns() {
+        return Arrays.stream(db.getTableFields("tx_items")).map(Field::getName).toArray(String[]::new);
+    }
+}